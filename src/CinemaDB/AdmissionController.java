@@ -0,0 +1,414 @@
+package CinemaDB;
+
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Waiting room for ticket rushes: lets bookings for one showtime into the booking path at a
+ * steady rate, first come first served, so an opening night costs the database a bounded load
+ * instead of thousands of transactions queueing on one Showtimes row.
+ *
+ * Each showtime has a token bucket that refills at {@code -Dcinemadb.admission.ratePerSecond}
+ * (default 50) up to {@code -Dcinemadb.admission.burst} (default 50) tokens, and a FIFO of
+ * tickets waiting for one. A booking takes a token on its way in. While tokens are left and
+ * nobody is waiting, that costs nothing more; otherwise the booking joins the back of the queue.
+ * Tickets are let in strictly in order, one per token. A showtime whose {@link SeatInventory}
+ * count is below what a ticket asks for turns it away as sold out, both when it would join and
+ * when its turn comes, without a token and without touching the database.
+ *
+ * There are two ways to wait:
+ * <ul>
+ * <li>{@link #enter} blocks the calling thread, for at most
+ *     {@code -Dcinemadb.admission.waitMillis} (default 2000). {@link BookingService#admit}
+ *     uses it, so the desktop app and plain HTTP bookings queue without knowing it.</li>
+ * <li>{@link #join} hands out a ticket whose place in the queue and estimated wait a client can
+ *     poll with {@link #status}. Once admitted, the ticket may be redeemed for one booking
+ *     within {@code -Dcinemadb.admission.admittedMillis} (default 60000). A waiting ticket
+ *     that is not polled for {@code -Dcinemadb.admission.abandonMillis} (default 30000) gives up
+ *     its place when it reaches the front.</li>
+ * </ul>
+ * Holds take their turn here as well, when they are taken; confirming one later needs no turn of
+ * its own, like booking with an admitted ticket.
+ *
+ * At most {@code -Dcinemadb.admission.maxQueue} (default 10000) tickets wait per showtime;
+ * beyond that, callers are told to come back later.
+ *
+ * The counts are per process. Several application servers each let their own share through.
+ */
+public class AdmissionController {
+    /** Returned by {@link BookingService#admit} when the caller may go ahead and book or hold. */
+    public static final int ADMITTED = 0;
+    /** Returned by {@link BookingService#admit} and {@link BookingService#reserve} when the waiting room is full or the wait ran out. */
+    public static final int BUSY = -3;
+    /** Returned by {@link BookingService#admit} and {@link BookingService#reserve} for a ticket that is not admitted, expired or for another showtime. */
+    public static final int NOT_ADMITTED = -4;
+
+    private static final int RATE_PER_SECOND = Integer.getInteger("cinemadb.admission.ratePerSecond", 50);
+    private static final int BURST = Integer.getInteger("cinemadb.admission.burst", 50);
+    private static final int MAX_QUEUE = Integer.getInteger("cinemadb.admission.maxQueue", 10_000);
+    private static final long WAIT_MILLIS = Long.getLong("cinemadb.admission.waitMillis", 2_000);
+    private static final long ADMITTED_MILLIS = Long.getLong("cinemadb.admission.admittedMillis", 60_000);
+    private static final long ABANDON_MILLIS = Long.getLong("cinemadb.admission.abandonMillis", 30_000);
+    // A showtime nobody has asked for in this long loses its queue and bucket, which start afresh
+    private static final long IDLE_MILLIS = 60_000;
+    private static final long SWEEP_MILLIS = 1_000;
+
+    private static final AdmissionController INSTANCE = new AdmissionController();
+
+    /** Outcome of {@link #enter}. */
+    public enum Admission { ADMITTED, SOLD_OUT, BUSY }
+
+    /** Where a ticket stands. */
+    public enum State { WAITING, ADMITTED, SOLD_OUT, FULL, EXPIRED }
+
+    /**
+     * A ticket's state. While waiting, {@code position} counts from 1 at the front of the queue
+     * and {@code etaMillis} is the expected wait; once admitted, {@code expiresInMillis} is the
+     * time left to book.
+     */
+    public record Status(long ticketId, int showtimeId, int seats, State state, int position, long etaMillis,
+                         long expiresInMillis) {
+    }
+
+    private static final class Ticket {
+        final long ticketId;
+        final Room room;
+        final int seats;
+        final long seq;
+        // Polled by a client rather than a thread blocked in enter()
+        final boolean polled;
+        // Guarded by room.lock
+        State state = State.WAITING;
+        boolean gone;
+        long lastSeenMillis = System.currentTimeMillis();
+        long admittedUntilMillis;
+
+        Ticket(long ticketId, Room room, int seats, long seq, boolean polled) {
+            this.ticketId = ticketId;
+            this.room = room;
+            this.seats = seats;
+            this.seq = seq;
+            this.polled = polled;
+        }
+    }
+
+    private static final class Room {
+        final int showtimeId;
+        final ReentrantLock lock = new ReentrantLock();
+        final Condition changed = lock.newCondition();
+        final ArrayDeque<Ticket> queue = new ArrayDeque<>();
+        double tokens = BURST;
+        long refilledNanos = System.nanoTime();
+        long nextSeq;
+        long lastUsedMillis = System.currentTimeMillis();
+        // Set when the sweeper drops the room; callers holding it look it up again
+        boolean closed;
+
+        Room(int showtimeId) {
+            this.showtimeId = showtimeId;
+        }
+    }
+
+    private final Map<Integer, Room> rooms = new ConcurrentHashMap<>();
+    private final Map<Long, Ticket> tickets = new ConcurrentHashMap<>();
+    private final AtomicLong nextTicketId = new AtomicLong(1);
+    private final ScheduledExecutorService sweeper;
+
+    private AdmissionController() {
+        sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "cinemadb-admission");
+            t.setDaemon(true);
+            return t;
+        });
+        sweeper.scheduleWithFixedDelay(this::sweep, SWEEP_MILLIS, SWEEP_MILLIS, TimeUnit.MILLISECONDS);
+        Metrics.waitingRoomGauge(this::waiting);
+    }
+
+    public static AdmissionController getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Waits for this showtime's turn to book {@code seats} seats, for at most
+     * {@code -Dcinemadb.admission.waitMillis}. {@link Admission#ADMITTED} means the caller may go
+     * on to reserve straight away.
+     */
+    public Admission enter(int showtimeId, int seats) throws SQLException {
+        if (soldOut(showtimeId, seats)) {
+            Metrics.ADMISSIONS_SOLD_OUT.increment();
+            return Admission.SOLD_OUT;
+        }
+        long start = System.nanoTime();
+        Room room = lockRoom(showtimeId);
+        try {
+            refill(room);
+            if (room.queue.isEmpty() && room.tokens >= 1) {
+                room.tokens -= 1;
+                Metrics.ADMISSIONS_ADMITTED.increment();
+                return Admission.ADMITTED;
+            }
+            if (room.queue.size() >= MAX_QUEUE) {
+                Metrics.ADMISSIONS_BUSY.increment();
+                return Admission.BUSY;
+            }
+            Ticket ticket = new Ticket(0, room, seats, room.nextSeq++, false);
+            room.queue.add(ticket);
+            long deadline = start + TimeUnit.MILLISECONDS.toNanos(WAIT_MILLIS);
+            while (true) {
+                admitFromFront(room);
+                if (ticket.state == State.ADMITTED) {
+                    ticket.gone = true;
+                    Metrics.ADMISSION_WAIT.recordSince(start);
+                    return Admission.ADMITTED;
+                }
+                if (ticket.state == State.SOLD_OUT) {
+                    return Admission.SOLD_OUT;
+                }
+                long left = deadline - System.nanoTime();
+                if (left <= 0) {
+                    // Skipped when it reaches the front
+                    ticket.gone = true;
+                    Metrics.ADMISSIONS_BUSY.increment();
+                    return Admission.BUSY;
+                }
+                try {
+                    room.changed.awaitNanos(Math.min(left, nanosToNextToken(room)));
+                } catch (InterruptedException e) {
+                    ticket.gone = true;
+                    Thread.currentThread().interrupt();
+                    throw new SQLException("Interrupted while waiting to book", e);
+                }
+            }
+        } finally {
+            room.lock.unlock();
+        }
+    }
+
+    /**
+     * Puts a client in the queue for {@code seats} seats of a showtime and returns its ticket,
+     * already admitted if nobody is ahead. A sold-out showtime or a full queue gives a status
+     * with ticket id 0 and state {@link State#SOLD_OUT} or {@link State#FULL}.
+     */
+    public Status join(int showtimeId, int seats) throws SQLException {
+        if (seats <= 0) {
+            throw new IllegalArgumentException("Seats to book must be a positive number.");
+        }
+        if (soldOut(showtimeId, seats)) {
+            Metrics.ADMISSIONS_SOLD_OUT.increment();
+            return new Status(0, showtimeId, seats, State.SOLD_OUT, 0, 0, 0);
+        }
+        Room room = lockRoom(showtimeId);
+        try {
+            if (room.queue.size() >= MAX_QUEUE) {
+                Metrics.ADMISSIONS_BUSY.increment();
+                return new Status(0, showtimeId, seats, State.FULL, 0, 0, 0);
+            }
+            Ticket ticket = new Ticket(nextTicketId.getAndIncrement(), room, seats, room.nextSeq++, true);
+            tickets.put(ticket.ticketId, ticket);
+            room.queue.add(ticket);
+            admitFromFront(room);
+            return status(ticket);
+        } finally {
+            room.lock.unlock();
+        }
+    }
+
+    /** Where a ticket from {@link #join} stands, or null if there is no such ticket any more. */
+    public Status status(long ticketId) throws SQLException {
+        Ticket ticket = tickets.get(ticketId);
+        if (ticket == null) {
+            return null;
+        }
+        Room room = ticket.room;
+        room.lock.lock();
+        try {
+            if (ticket.gone) {
+                return null;
+            }
+            ticket.lastSeenMillis = System.currentTimeMillis();
+            admitFromFront(room);
+            return status(ticket);
+        } finally {
+            room.lock.unlock();
+        }
+    }
+
+    /** Gives up a ticket, waiting or admitted. Returns false if there is no such ticket. */
+    public boolean leave(long ticketId) {
+        Ticket ticket = tickets.remove(ticketId);
+        if (ticket == null) {
+            return false;
+        }
+        ticket.room.lock.lock();
+        try {
+            ticket.gone = true;
+        } finally {
+            ticket.room.lock.unlock();
+        }
+        return true;
+    }
+
+    /**
+     * Uses up an admitted ticket for a booking of at most the seats it was issued for. Returns
+     * false if the ticket is still waiting, has expired, or is for another showtime.
+     */
+    public boolean redeem(long ticketId, int showtimeId, int seats) {
+        Ticket ticket = tickets.get(ticketId);
+        if (ticket == null || ticket.room.showtimeId != showtimeId || seats > ticket.seats) {
+            return false;
+        }
+        ticket.room.lock.lock();
+        try {
+            if (ticket.gone || ticket.state != State.ADMITTED
+                    || System.currentTimeMillis() > ticket.admittedUntilMillis) {
+                return false;
+            }
+            ticket.gone = true;
+        } finally {
+            ticket.room.lock.unlock();
+        }
+        tickets.remove(ticketId);
+        return true;
+    }
+
+    // Sold out by the in-memory count; a showtime the inventory does not know is left to the booking path
+    private static boolean soldOut(int showtimeId, int seats) throws SQLException {
+        int left = SeatInventory.getInstance().available(showtimeId);
+        return left != ShowtimeRepository.NO_SEAT_COUNT && left < seats;
+    }
+
+    // The showtime's room, locked
+    private Room lockRoom(int showtimeId) {
+        while (true) {
+            Room room = rooms.computeIfAbsent(showtimeId, Room::new);
+            room.lock.lock();
+            if (!room.closed) {
+                room.lastUsedMillis = System.currentTimeMillis();
+                return room;
+            }
+            room.lock.unlock();
+        }
+    }
+
+    // Lets in waiting tickets from the front while there are tokens; called with room.lock held
+    private void admitFromFront(Room room) throws SQLException {
+        refill(room);
+        long now = System.currentTimeMillis();
+        boolean changed = false;
+        while (!room.queue.isEmpty()) {
+            Ticket head = room.queue.peek();
+            if (head.gone || (head.polled && now - head.lastSeenMillis > ABANDON_MILLIS)) {
+                room.queue.poll();
+                if (!head.gone) {
+                    head.gone = true;
+                    tickets.remove(head.ticketId);
+                }
+                continue;
+            }
+            if (soldOut(room.showtimeId, head.seats)) {
+                head.state = State.SOLD_OUT;
+                room.queue.poll();
+                Metrics.ADMISSIONS_SOLD_OUT.increment();
+                changed = true;
+                continue;
+            }
+            if (room.tokens < 1) {
+                break;
+            }
+            room.tokens -= 1;
+            head.state = State.ADMITTED;
+            head.admittedUntilMillis = now + ADMITTED_MILLIS;
+            room.queue.poll();
+            Metrics.ADMISSIONS_ADMITTED.increment();
+            changed = true;
+        }
+        if (changed) {
+            room.changed.signalAll();
+        }
+    }
+
+    private static void refill(Room room) {
+        long now = System.nanoTime();
+        room.tokens = Math.min(BURST, room.tokens + (now - room.refilledNanos) * (double) RATE_PER_SECOND / 1e9);
+        room.refilledNanos = now;
+    }
+
+    private static long nanosToNextToken(Room room) {
+        return room.tokens >= 1 ? TimeUnit.MILLISECONDS.toNanos(1)
+                : (long) Math.ceil((1 - room.tokens) * 1e9 / RATE_PER_SECOND);
+    }
+
+    private Status status(Ticket ticket) {
+        Room room = ticket.room;
+        if (ticket.state == State.ADMITTED) {
+            long left = ticket.admittedUntilMillis - System.currentTimeMillis();
+            return left < 0
+                    ? new Status(ticket.ticketId, room.showtimeId, ticket.seats, State.EXPIRED, 0, 0, 0)
+                    : new Status(ticket.ticketId, room.showtimeId, ticket.seats, State.ADMITTED, 0, 0, left);
+        }
+        if (ticket.state != State.WAITING) {
+            return new Status(ticket.ticketId, room.showtimeId, ticket.seats, ticket.state, 0, 0, 0);
+        }
+        // Tickets given up further ahead still count until they reach the front
+        int position = (int) (ticket.seq - room.queue.peek().seq) + 1;
+        long eta = (long) Math.ceil(Math.max(0, position - room.tokens) * 1000.0 / RATE_PER_SECOND);
+        return new Status(ticket.ticketId, room.showtimeId, ticket.seats, State.WAITING, position, eta, 0);
+    }
+
+    // Keeps unpolled queues moving, and forgets used-up tickets and idle showtimes
+    private void sweep() {
+        long now = System.currentTimeMillis();
+        try {
+            for (Room room : rooms.values()) {
+                room.lock.lock();
+                try {
+                    admitFromFront(room);
+                    refill(room);
+                    if (room.queue.isEmpty() && room.tokens >= BURST && now - room.lastUsedMillis > IDLE_MILLIS) {
+                        room.closed = true;
+                        rooms.remove(room.showtimeId, room);
+                    }
+                } finally {
+                    room.lock.unlock();
+                }
+            }
+        } catch (SQLException e) {
+            System.out.println("Error checking seat counts for the waiting room: " + e.getMessage());
+        }
+        for (Ticket ticket : tickets.values()) {
+            ticket.room.lock.lock();
+            try {
+                // Admitted and not used in time, or turned away and not asked about since
+                long since = ticket.state == State.ADMITTED ? ticket.admittedUntilMillis : ticket.lastSeenMillis;
+                if (ticket.state != State.WAITING && now - since > ADMITTED_MILLIS) {
+                    ticket.gone = true;
+                    tickets.remove(ticket.ticketId);
+                }
+            } finally {
+                ticket.room.lock.unlock();
+            }
+        }
+    }
+
+    // Tickets waiting across all showtimes, for the metrics gauge
+    private long waiting() {
+        long n = 0;
+        for (Room room : rooms.values()) {
+            room.lock.lock();
+            try {
+                n += room.queue.size();
+            } finally {
+                room.lock.unlock();
+            }
+        }
+        return n;
+    }
+}
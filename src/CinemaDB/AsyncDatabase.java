@@ -0,0 +1,129 @@
+package CinemaDB;
+
+import javax.swing.SwingUtilities;
+import java.sql.*;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+
+/**
+ * Runs database work off the Swing Event Dispatch Thread.
+ *
+ * Every task runs on its own virtual thread and returns a {@link CompletableFuture}. At most
+ * {@code -Dcinemadb.async.maxInFlight} tasks (default 8) talk to the database at once; the
+ * rest wait their turn without tying up a platform thread. Cancelling a returned future
+ * interrupts the task, which aborts a query that is still running.
+ *
+ * A task that first has to wait for something other than the database, such as its turn in the
+ * {@link AdmissionController} waiting room, does that wait before taking one of those places, so
+ * a ticket rush cannot hold up unrelated queries.
+ */
+public class AsyncDatabase {
+    private static final ExecutorService EXECUTOR = Executors.newVirtualThreadPerTaskExecutor();
+    private static final Semaphore IN_FLIGHT = new Semaphore(Integer.getInteger("cinemadb.async.maxInFlight", 8), true);
+
+    /** Work that runs on a connection borrowed for it from the pool. */
+    @FunctionalInterface
+    public interface SqlTask<T> {
+        T run(Connection connection) throws SQLException;
+    }
+
+    /** Work that gets its own connections, e.g. a {@link SeatReservationService} call. */
+    @FunctionalInterface
+    public interface SqlCall<T> {
+        T call() throws SQLException;
+    }
+
+    /** Work that goes on with what a wait before it returned, see {@link #submit(SqlCall, AfterWait)}. */
+    @FunctionalInterface
+    public interface AfterWait<A, T> {
+        T call(A waited) throws SQLException;
+    }
+
+    /** Runs {@code task} on a pooled connection in the background. */
+    public static <T> CompletableFuture<T> query(SqlTask<T> task) {
+        return submit(() -> {
+            try (Connection connection = DatabaseConnection.borrowConnection()) {
+                return task.run(connection);
+            }
+        });
+    }
+
+    /** Runs {@code call} in the background. */
+    public static <T> CompletableFuture<T> submit(SqlCall<T> call) {
+        return run(null, waited -> call.call());
+    }
+
+    /**
+     * Runs {@code wait} in the background before taking a place among the tasks talking to the
+     * database, then {@code call} with its result.
+     */
+    public static <A, T> CompletableFuture<T> submit(SqlCall<A> wait, AfterWait<A, T> call) {
+        return run(wait, call);
+    }
+
+    private static <A, T> CompletableFuture<T> run(SqlCall<A> wait, AfterWait<A, T> call) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        long submitted = System.nanoTime();
+        Future<?> worker = EXECUTOR.submit(() -> {
+            A waited = null;
+            long queued = submitted;
+            if (wait != null) {
+                try {
+                    waited = wait.call();
+                } catch (Throwable t) {
+                    result.completeExceptionally(t);
+                    return;
+                }
+                queued = System.nanoTime();
+            }
+            try {
+                IN_FLIGHT.acquire();
+            } catch (InterruptedException e) {
+                result.cancel(false);
+                return;
+            }
+            Metrics.ASYNC_QUEUE_WAIT.recordSince(queued);
+            try {
+                if (!result.isDone()) {
+                    result.complete(call.call(waited));
+                }
+            } catch (Throwable t) {
+                result.completeExceptionally(t);
+            } finally {
+                IN_FLIGHT.release();
+            }
+        });
+        result.whenComplete((value, error) -> {
+            if (result.isCancelled()) {
+                worker.cancel(true);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Hands the outcome of {@code future} to the EDT. Neither callback runs if the future was
+     * cancelled, since whoever cancelled it is no longer interested.
+     */
+    public static <T> void onEdt(CompletableFuture<T> future, Consumer<? super T> onSuccess, Consumer<Throwable> onError) {
+        future.whenComplete((value, error) -> {
+            if (future.isCancelled()) {
+                return;
+            }
+            SwingUtilities.invokeLater(() -> {
+                if (error == null) {
+                    onSuccess.accept(value);
+                } else {
+                    onError.accept(unwrap(error));
+                }
+            });
+        });
+    }
+
+    private static Throwable unwrap(Throwable error) {
+        while ((error instanceof CompletionException || error instanceof ExecutionException) && error.getCause() != null) {
+            error = error.getCause();
+        }
+        return error;
+    }
+}
@@ -0,0 +1,282 @@
+package CinemaDB;
+
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Books a group of seats in one go, e.g. a school trip or a partner's ticket allocation.
+ *
+ * A batch is all-or-nothing: either every booking in it is made, or none is. All items are
+ * validated first; then the seats are taken out of {@link SeatInventory}, one decrement per
+ * showtime, and written in a single transaction with one batched UPDATE for the showtimes and
+ * one batched INSERT for the bookings. Showtime rows are locked in ascending id order, the
+ * same order {@link SeatInventory}'s group commit uses, so concurrent batches cannot deadlock
+ * on each other.
+ *
+ * The bookings are written straight away in either durability mode, so every booked item has
+ * its booking id.
+ *
+ * When bookings are sharded (see {@link ShardRouter}) and the batch's showtimes live on more than
+ * one shard, each shard gets its own transaction. If one of them fails or runs short, the ones
+ * already committed are undone by deleting their bookings and giving the seats back, so the
+ * batch still ends up booked in full or not at all, but another terminal may briefly see part of
+ * it.
+ */
+public class BatchBookingService {
+    /** One booking in a batch. */
+    public record Item(int movieId, int showtimeId, String customerName, String phoneNumber, int seats) {
+    }
+
+    public enum Status {
+        /** Booked; the booking id is set. */
+        BOOKED,
+        /** The item itself is invalid; see the message. */
+        INVALID,
+        /** Its showtime does not have enough seats left for all of the batch's items on it. */
+        NOT_ENOUGH_SEATS,
+        /** The item was fine, but another item in the batch failed so nothing was booked. */
+        NOT_BOOKED
+    }
+
+    /** Outcome of one item, at the same index as the item. */
+    public record ItemResult(Status status, int bookingId, String message) {
+    }
+
+    /** Per-item outcomes; {@code booked} is true if the whole batch went through. */
+    public record Result(boolean booked, List<ItemResult> items) {
+    }
+
+    private static final int MAX_ATTEMPTS = 3;
+
+    public static Result reserveAll(List<Item> items) throws SQLException {
+        int n = items.size();
+        ItemResult[] results = new ItemResult[n];
+        boolean failed = false;
+        for (int i = 0; i < n; i++) {
+            Item item = items.get(i);
+            try {
+                BookingService.validateBooking(item.customerName(), item.phoneNumber(), item.seats());
+            } catch (IllegalArgumentException e) {
+                results[i] = new ItemResult(Status.INVALID, 0, e.getMessage());
+                failed = true;
+            }
+        }
+        if (failed || n == 0) {
+            return finish(false, results);
+        }
+
+        // One decrement per showtime, lowest showtime_id first
+        IntIntMap seatsByShowtime = new IntIntMap(n);
+        for (Item item : items) {
+            seatsByShowtime.add(item.showtimeId(), item.seats());
+        }
+        List<int[]> decrements = new ArrayList<>(seatsByShowtime.size());
+        seatsByShowtime.forEach((showtimeId, seats) -> decrements.add(new int[] { showtimeId, seats }));
+        decrements.sort((a, b) -> Integer.compare(a[0], b[0]));
+
+        SeatInventory inventory = SeatInventory.getInstance();
+        IntIntMap shortShowtimes = new IntIntMap();
+        List<int[]> taken = new ArrayList<>(decrements.size());
+        for (int[] d : decrements) {
+            SeatInventory.Result r = inventory.tryReserve(d[0], d[1]);
+            if (r == SeatInventory.Result.UNKNOWN_SHOWTIME && inventory.refresh(d[0]) >= 0) {
+                r = inventory.tryReserve(d[0], d[1]);
+            }
+            if (r == SeatInventory.Result.RESERVED) {
+                taken.add(d);
+            } else {
+                shortShowtimes.put(d[0], 1);
+            }
+        }
+        if (shortShowtimes.size() > 0) {
+            releaseAll(inventory, taken);
+            markShort(items, results, shortShowtimes);
+            return finish(false, results);
+        }
+
+        List<SeatInventory.PendingBooking> bookings = new ArrayList<>(n);
+        for (Item item : items) {
+            bookings.add(new SeatInventory.PendingBooking(item.movieId(), item.showtimeId(),
+                    item.customerName(), item.phoneNumber(), item.seats()));
+        }
+        int[] bookingIds;
+        try {
+            bookingIds = writeInDatabase(decrements, bookings, shortShowtimes);
+        } catch (SQLException | RuntimeException e) {
+            releaseAll(inventory, taken);
+            throw e;
+        }
+        if (bookingIds == null) {
+            // Another process took the seats; memory was ahead of the database
+            releaseAll(inventory, taken);
+            shortShowtimes.forEach((showtimeId, ignored) -> refreshQuietly(inventory, showtimeId));
+            markShort(items, results, shortShowtimes);
+            return finish(false, results);
+        }
+        BookingJournal.recordReserves(bookings, bookingIds);
+        SalesAnalytics.recordReserves(bookings, bookingIds);
+        BookingLookupIndex.recordReserves(bookings, bookingIds);
+        for (int i = 0; i < n; i++) {
+            results[i] = new ItemResult(Status.BOOKED, bookingIds[i], null);
+        }
+        return finish(true, results);
+    }
+
+    /** Returns the booking ids, or null (after rolling back) if a showtime ran short; those are put in {@code shortShowtimes}. */
+    private static int[] writeInDatabase(List<int[]> decrements, List<SeatInventory.PendingBooking> bookings,
+                                         IntIntMap shortShowtimes) throws SQLException {
+        ShardRouter shards = DatabaseConnection.getShards();
+        Map<ShardRouter.Shard, List<int[]>> decrementsByShard = new LinkedHashMap<>();
+        for (int[] d : decrements) {
+            decrementsByShard.computeIfAbsent(shards.shardFor(d[0]), k -> new ArrayList<>()).add(d);
+        }
+        if (decrementsByShard.size() == 1) {
+            return writeOnShard(shards, decrementsByShard.keySet().iterator().next(), decrements, bookings, shortShowtimes);
+        }
+
+        // Across shards: one transaction each, and the ones already committed are undone if a later one fails
+        int[] ids = new int[bookings.size()];
+        Map<ShardRouter.Shard, List<int[]>> written = new LinkedHashMap<>();
+        for (Map.Entry<ShardRouter.Shard, List<int[]>> e : decrementsByShard.entrySet()) {
+            IntIntMap onShard = new IntIntMap(e.getValue().size());
+            for (int[] d : e.getValue()) {
+                onShard.put(d[0], 1);
+            }
+            List<Integer> indexes = new ArrayList<>();
+            List<SeatInventory.PendingBooking> part = new ArrayList<>();
+            for (int i = 0; i < bookings.size(); i++) {
+                if (onShard.containsKey(bookings.get(i).showtimeId)) {
+                    indexes.add(i);
+                    part.add(bookings.get(i));
+                }
+            }
+            int[] partIds;
+            try {
+                partIds = writeOnShard(shards, e.getKey(), e.getValue(), part, shortShowtimes);
+            } catch (SQLException | RuntimeException ex) {
+                undo(written, ids);
+                throw ex;
+            }
+            if (partIds == null) {
+                undo(written, ids);
+                return null;
+            }
+            for (int i = 0; i < partIds.length; i++) {
+                ids[indexes.get(i)] = partIds[i];
+            }
+            written.put(e.getKey(), e.getValue());
+        }
+        return ids;
+    }
+
+    private static int[] writeOnShard(ShardRouter shards, ShardRouter.Shard shard, List<int[]> decrements,
+                                      List<SeatInventory.PendingBooking> bookings, IntIntMap shortShowtimes)
+            throws SQLException {
+        for (int attempt = 1; ; attempt++) {
+            try (Connection connection = shard.borrow()) {
+                connection.setAutoCommit(false);
+                try {
+                    boolean[] reserved = ShowtimeRepository.reserveSeatsBatch(connection, decrements);
+                    for (int i = 0; i < reserved.length; i++) {
+                        if (!reserved[i]) {
+                            shortShowtimes.put(decrements.get(i)[0], 1);
+                        }
+                    }
+                    if (shortShowtimes.size() > 0) {
+                        connection.rollback();
+                        if (movedAway(shards, connection, decrements, reserved)) {
+                            // Retried on the shards they live on now, which may be several
+                            shortShowtimes.clear();
+                            return writeInDatabase(decrements, bookings, shortShowtimes);
+                        }
+                        return null;
+                    }
+                    int[] ids = BookingRepository.insertBatch(connection, bookings);
+                    connection.commit();
+                    return ids;
+                } catch (SQLException e) {
+                    connection.rollback();
+                    throw e;
+                }
+            } catch (SQLException e) {
+                if (attempt >= MAX_ATTEMPTS || !SeatReservationService.isRetryable(e)) {
+                    throw e;
+                }
+                SeatReservationService.backOff(attempt);
+            }
+        }
+    }
+
+    // True if any showtime that ran short on this shard has been moved off it
+    private static boolean movedAway(ShardRouter shards, Connection connection, List<int[]> decrements,
+                                     boolean[] reserved) throws SQLException {
+        boolean moved = false;
+        for (int i = 0; i < reserved.length; i++) {
+            if (!reserved[i]) {
+                moved |= shards.movedAway(connection, decrements.get(i)[0]);
+            }
+        }
+        return moved;
+    }
+
+    // Deletes the bookings of the shards already written and gives their seats back
+    private static void undo(Map<ShardRouter.Shard, List<int[]>> written, int[] ids) {
+        for (Map.Entry<ShardRouter.Shard, List<int[]>> e : written.entrySet()) {
+            try (Connection connection = e.getKey().borrow()) {
+                connection.setAutoCommit(false);
+                try {
+                    for (int[] d : e.getValue()) {
+                        ShowtimeRepository.releaseSeats(connection, d[0], d[1]);
+                    }
+                    for (int id : ids) {
+                        if (id != 0) {
+                            BookingRepository.delete(connection, id);
+                        }
+                    }
+                    connection.commit();
+                } catch (SQLException ex) {
+                    connection.rollback();
+                    throw ex;
+                }
+            } catch (SQLException ex) {
+                System.out.println("Error undoing part of a batch on shard " + e.getKey() + "; bookings "
+                        + Arrays.toString(ids) + " may need cancelling by hand: " + ex.getMessage());
+            }
+        }
+    }
+
+    private static void markShort(List<Item> items, ItemResult[] results, IntIntMap shortShowtimes) {
+        for (int i = 0; i < results.length; i++) {
+            if (shortShowtimes.containsKey(items.get(i).showtimeId())) {
+                results[i] = new ItemResult(Status.NOT_ENOUGH_SEATS, 0, "Not enough available seats for this showtime.");
+            }
+        }
+    }
+
+    private static Result finish(boolean booked, ItemResult[] results) {
+        for (int i = 0; i < results.length; i++) {
+            if (results[i] == null) {
+                results[i] = new ItemResult(Status.NOT_BOOKED, 0, "Not booked because another booking in the batch failed.");
+            }
+        }
+        return new Result(booked, List.of(results));
+    }
+
+    private static void releaseAll(SeatInventory inventory, List<int[]> taken) {
+        for (int[] d : taken) {
+            inventory.release(d[0], d[1]);
+        }
+    }
+
+    private static void refreshQuietly(SeatInventory inventory, int showtimeId) {
+        try {
+            inventory.refresh(showtimeId);
+        } catch (SQLException e) {
+            System.out.println("Error reloading seat count for showtime " + showtimeId + ": " + e.getMessage());
+        }
+    }
+}
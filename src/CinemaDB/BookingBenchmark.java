@@ -0,0 +1,264 @@
+package CinemaDB;
+
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Throughput and latency benchmark for the booking, listing and cancellation paths.
+ *
+ * Usage: BookingBenchmark <bookings> [threads] [seconds]
+ *
+ * Point it at a scratch database with {@code -Dcinemadb.url=...}, or run it without a server
+ * with {@code -Dcinemadb.backend=embedded} or {@code memory} and the H2 jar on the class path
+ * (see {@link StorageBackend}). The tables are created if missing and topped up to
+ * {@code bookings} rows, so the same database can be grown from 10^3 to 10^7 bookings between
+ * runs. With MySQL add {@code rewriteBatchedStatements=true} to the URL or loading large sizes
+ * takes a long time.
+ *
+ * Every operation runs for {@code seconds} (default 10) after a warm-up of
+ * {@code -Dcinemadb.bench.warmupSeconds} (default 5), first on one thread and then contended on
+ * {@code threads} (default 16). Bookings made by the benchmark are cancelled again by the cancel
+ * run, and any left over are removed at the end.
+ */
+public class BookingBenchmark {
+    private static final String CUSTOMER = "Benchmark";
+    private static final int MOVIES = 100;
+    private static final int SHOWTIMES_PER_MOVIE = 10;
+    private static final int SEATS_PER_SHOWTIME = 1_000_000_000;
+    private static final int PAGE_SIZE = 200;
+    private static final int MAX_SAMPLES_PER_THREAD = 1 << 20;
+
+    /** One benchmarked call; gets a per-thread random source so threads do not contend on it. */
+    private interface Operation {
+        void run(ThreadLocalRandom random) throws Exception;
+    }
+
+    private record Result(long operations, long errors, double seconds, long[] samples) {
+    }
+
+    private static int[] movieIds;
+    private static int[][] showtimesByMovie;
+    private static long bookingCount;
+    private static final BlockingQueue<Integer> bookedIds = new LinkedBlockingQueue<>();
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.out.println("Usage: BookingBenchmark <bookings> [threads] [seconds]");
+            return;
+        }
+        long bookings = Long.parseLong(args[0]);
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+        int warmupSeconds = Integer.getInteger("cinemadb.bench.warmupSeconds", 5);
+
+        if (!DatabaseConnection.isAvailable()) {
+            System.out.println("Failed to connect to the database.");
+            return;
+        }
+
+        long t0 = System.nanoTime();
+        try (Connection connection = DatabaseConnection.borrowConnection()) {
+            SchemaMigrator.migrate(connection);
+            Schema.populate(connection, MOVIES, SHOWTIMES_PER_MOVIE, bookings, SEATS_PER_SHOWTIME);
+            bookingCount = Schema.count(connection, "Bookings");
+            loadCatalog(connection);
+        }
+        SeatInventory.getInstance().reconcile();
+        System.out.println(String.format("Loaded %d bookings, %d movies in %d ms (durability: %s)",
+                bookingCount, movieIds.length, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - t0),
+                SeatInventory.getInstance().getMode()));
+
+        List<String> names = new ArrayList<>();
+        List<Operation> operations = new ArrayList<>();
+
+        // Seat check + insert, as the Save button in the add booking dialog
+        names.add("reserve");
+        operations.add(random -> {
+            int m = random.nextInt(movieIds.length);
+            int[] showtimes = showtimesByMovie[m];
+            int bookingId = BookingService.reserve(movieIds[m], showtimes[random.nextInt(showtimes.length)], CUSTOMER, "+000", 1);
+            if (bookingId > 0) {
+                bookedIds.add(bookingId);
+            }
+        });
+        // Cancel by id, on the bookings made above; once those run out each call books one seat
+        // first, which is why the reserve run should be at least as long as this one
+        names.add("cancel");
+        operations.add(random -> {
+            Integer bookingId = bookedIds.poll();
+            if (bookingId == null) {
+                int[] showtimes = showtimesByMovie[0];
+                bookingId = BookingService.reserve(movieIds[0], showtimes[random.nextInt(showtimes.length)], CUSTOMER, "+000", 1);
+            }
+            if (bookingId > 0) {
+                BookingService.cancel(bookingId);
+            }
+        });
+        // Movie listing straight from the database, and through the catalog cache
+        names.add("movies (query)");
+        operations.add(random -> {
+            try (Connection connection = DatabaseConnection.borrowConnection()) {
+                MovieRepository.findAll(connection);
+            }
+        });
+        names.add("movies (cached)");
+        operations.add(random -> BookingService.listMovies());
+        // Showtime lookup for one movie, as updateShowtimeOptions
+        names.add("showtimes (query)");
+        operations.add(random -> {
+            try (Connection connection = DatabaseConnection.borrowConnection()) {
+                ShowtimeRepository.findByMovie(connection, movieIds[random.nextInt(movieIds.length)]);
+            }
+        });
+        names.add("showtimes (cached)");
+        operations.add(random -> BookingService.listShowtimes(movieIds[random.nextInt(movieIds.length)]));
+        // Bookings dialog: row count, first page, and a jump to a random page
+        names.add("bookings count");
+        operations.add(random -> {
+            try (Connection connection = DatabaseConnection.borrowConnection();
+                 PreparedStatement stmt = connection.prepareStatement(BookingRepository.COUNT_SQL);
+                 ResultSet rs = stmt.executeQuery()) {
+                rs.next();
+            }
+        });
+        names.add("bookings first page");
+        operations.add(random -> BookingService.listBookings(0, PAGE_SIZE));
+        names.add("bookings random page");
+        operations.add(random -> {
+            try (Connection connection = DatabaseConnection.borrowConnection()) {
+                int afterKey = 0;
+                long offset = bookingCount <= PAGE_SIZE ? 0 : random.nextLong(bookingCount - PAGE_SIZE);
+                if (offset > 0) {
+                    try (PreparedStatement stmt = connection.prepareStatement(BookingRepository.KEY_AT_OFFSET_SQL)) {
+                        stmt.setLong(1, offset - 1);
+                        try (ResultSet rs = stmt.executeQuery()) {
+                            afterKey = rs.next() ? rs.getInt(1) : 0;
+                        }
+                    }
+                }
+                BookingRepository.findPage(connection, afterKey, PAGE_SIZE);
+            }
+        });
+
+        System.out.println(String.format("%-22s %7s %12s %10s %10s %10s %10s %7s",
+                "operation", "threads", "ops/s", "p50 us", "p90 us", "p99 us", "max us", "errors"));
+        int[] threadCounts = threads > 1 ? new int[] { 1, threads } : new int[] { 1 };
+        for (int i = 0; i < operations.size(); i++) {
+            for (int n : threadCounts) {
+                run(operations.get(i), n, warmupSeconds);
+                print(names.get(i), n, run(operations.get(i), n, seconds));
+            }
+        }
+
+        cleanUp();
+        System.out.println(DatabaseConnection.getPool());
+        System.out.println(CatalogCache.getInstance());
+        System.exit(0);
+    }
+
+    private static void loadCatalog(Connection connection) throws SQLException {
+        List<Movie> movies = MovieRepository.findAll(connection);
+        movieIds = new int[movies.size()];
+        showtimesByMovie = new int[movies.size()][];
+        for (int i = 0; i < movieIds.length; i++) {
+            movieIds[i] = movies.get(i).movieId();
+            List<Showtime> showtimes = ShowtimeRepository.findByMovie(connection, movieIds[i]);
+            showtimesByMovie[i] = showtimes.stream().mapToInt(Showtime::showtimeId).toArray();
+        }
+    }
+
+    private static Result run(Operation operation, int threads, int seconds) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        AtomicBoolean stop = new AtomicBoolean();
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<long[]>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            futures.add(executor.submit(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                long[] samples = new long[1024];
+                long ops = 0;
+                long errors = 0;
+                start.await();
+                while (!stop.get()) {
+                    long begin = System.nanoTime();
+                    try {
+                        operation.run(random);
+                    } catch (Exception e) {
+                        errors++;
+                        continue;
+                    }
+                    long elapsed = System.nanoTime() - begin;
+                    if (ops < MAX_SAMPLES_PER_THREAD) {
+                        if (ops == samples.length) {
+                            samples = Arrays.copyOf(samples, samples.length * 2);
+                        }
+                        samples[(int) ops] = elapsed;
+                    }
+                    ops++;
+                }
+                // Last two slots carry the counts back; the rest are latency samples
+                long[] result = Arrays.copyOf(samples, (int) Math.min(ops, MAX_SAMPLES_PER_THREAD) + 2);
+                result[result.length - 2] = ops;
+                result[result.length - 1] = errors;
+                return result;
+            }));
+        }
+        long t0 = System.nanoTime();
+        start.countDown();
+        Thread.sleep(TimeUnit.SECONDS.toMillis(seconds));
+        stop.set(true);
+
+        long ops = 0;
+        long errors = 0;
+        long[] all = new long[0];
+        for (Future<long[]> f : futures) {
+            long[] r = f.get();
+            ops += r[r.length - 2];
+            errors += r[r.length - 1];
+            int n = r.length - 2;
+            all = Arrays.copyOf(all, all.length + n);
+            System.arraycopy(r, 0, all, all.length - n, n);
+        }
+        double elapsedSeconds = (System.nanoTime() - t0) / 1e9;
+        executor.shutdown();
+        // Queued bookings count as done only once they are written
+        SeatInventory.getInstance().flush();
+        Arrays.sort(all);
+        return new Result(ops, errors, elapsedSeconds, all);
+    }
+
+    private static void print(String name, int threads, Result r) {
+        System.out.println(String.format("%-22s %7d %12.1f %10.1f %10.1f %10.1f %10.1f %7d",
+                name, threads, r.operations() / r.seconds(),
+                percentile(r.samples(), 0.50), percentile(r.samples(), 0.90), percentile(r.samples(), 0.99),
+                percentile(r.samples(), 1.0), r.errors()));
+    }
+
+    private static double percentile(long[] sorted, double p) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.min(sorted.length - 1, Math.ceil(p * sorted.length) - 1);
+        return sorted[Math.max(0, index)] / 1_000.0;
+    }
+
+    private static void cleanUp() throws SQLException {
+        Integer bookingId;
+        while ((bookingId = bookedIds.poll()) != null) {
+            BookingService.cancel(bookingId);
+        }
+        // Bookings whose id never came back (driver without generated keys, interrupted waits) have none to cancel by
+        try (Connection connection = DatabaseConnection.borrowConnection();
+             PreparedStatement stmt = connection.prepareStatement("DELETE FROM Bookings WHERE customer_name = ?")) {
+            stmt.setString(1, CUSTOMER);
+            int removed = stmt.executeUpdate();
+            if (removed > 0) {
+                System.out.println("Removed " + removed + " benchmark bookings without an id; their seats are not given back.");
+            }
+        }
+    }
+}
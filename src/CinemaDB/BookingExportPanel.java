@@ -0,0 +1,77 @@
+package CinemaDB;
+
+import javax.swing.*;
+import java.awt.BorderLayout;
+import java.awt.FlowLayout;
+import java.awt.Window;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Export controls above the bookings table: format, gzip and an optional show date, then a file
+ * chooser. The export runs in the background through {@link BookingExporter}, so it streams
+ * straight from the database to the file however many bookings there are; the Cancel button or
+ * closing the dialog stops it.
+ */
+public class BookingExportPanel extends JPanel {
+    private static final long serialVersionUID = 1L;
+    private final JComboBox<BookingExporter.Format> formatBox = new JComboBox<>(BookingExporter.Format.values());
+    private final JCheckBox gzipBox = new JCheckBox("gzip");
+    private final JTextField dateField = new JTextField(10);
+    private final JButton exportButton = new JButton("Export...");
+    private final ProgressPanel progress = new ProgressPanel("Exporting bookings...");
+
+    public BookingExportPanel(Window dialog) {
+        super(new BorderLayout());
+        JPanel controls = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        controls.add(new JLabel("Export as"));
+        controls.add(formatBox);
+        controls.add(gzipBox);
+        controls.add(new JLabel("Show date (yyyy-mm-dd, blank for all):"));
+        controls.add(dateField);
+        controls.add(exportButton);
+        add(controls, BorderLayout.CENTER);
+        add(progress, BorderLayout.SOUTH);
+
+        exportButton.addActionListener(e -> export(dialog));
+    }
+
+    private void export(Window dialog) {
+        LocalDate day;
+        try {
+            String text = dateField.getText().trim();
+            day = text.isEmpty() ? null : LocalDate.parse(text);
+        } catch (DateTimeParseException e) {
+            JOptionPane.showMessageDialog(dialog, "Show date must be yyyy-mm-dd.", "Error", JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+        BookingExporter.Format format = (BookingExporter.Format) formatBox.getSelectedItem();
+        boolean gzip = gzipBox.isSelected();
+        String suggested = "bookings" + (day == null ? "" : "-" + day) + "." + format.name().toLowerCase()
+                + (gzip ? ".gz" : "");
+        JFileChooser chooser = new JFileChooser();
+        chooser.setSelectedFile(new File(suggested));
+        if (chooser.showSaveDialog(dialog) != JFileChooser.APPROVE_OPTION) {
+            return;
+        }
+        File file = chooser.getSelectedFile();
+
+        exportButton.setEnabled(false);
+        CompletableFuture<Long> rows = AsyncDatabase.submit(() -> {
+            try {
+                return BookingExporter.export(file.toPath(), format, gzip, day, n -> { });
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        progress.track(dialog, rows);
+        rows.whenComplete((n, error) -> SwingUtilities.invokeLater(() -> exportButton.setEnabled(true)));
+        AsyncDatabase.onEdt(rows,
+                n -> JOptionPane.showMessageDialog(dialog, "Exported " + n + " bookings to " + file + "."),
+                e -> JOptionPane.showMessageDialog(dialog, "Error exporting bookings: " + e.getMessage(), "Error", JOptionPane.ERROR_MESSAGE));
+    }
+}
@@ -0,0 +1,272 @@
+package CinemaDB;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes bookings to a CSV or JSON file, for the finance team and other systems.
+ *
+ * Usage: BookingExporter <file|-> [--format csv|json] [--gzip] [--date yyyy-mm-dd]
+ *
+ * Columns: booking_id, movie_id, title, showtime_id, show_time, customer_name, phone_number,
+ * seats. JSON is an array with one object per line. The format defaults to JSON for a
+ * {@code .json} or {@code .json.gz} file and CSV otherwise; a name ending in {@code .gz} is
+ * gzip-compressed without {@code --gzip}. {@code --date} limits the export to showtimes on that
+ * day, and {@code -} writes to standard output.
+ *
+ * Memory use does not grow with the number of rows. Rows are streamed off a forward-only cursor
+ * (see {@link BookingRepository#streamExport}), each is formatted into one reused
+ * {@code StringBuilder}, and the text is encoded into a {@value #BUFFER_BYTES}-byte buffer that is
+ * written to the file channel whenever it fills up.
+ *
+ * When bookings are sharded (see {@link ShardRouter}) the shards are exported one after the
+ * other, so the file is in booking_id order within each shard only.
+ */
+public class BookingExporter {
+    private static final int BUFFER_BYTES = 256 * 1024;
+    private static final int GZIP_BUFFER_BYTES = 64 * 1024;
+    // How often a long export checks whether it was cancelled, and the CLI reports progress
+    private static final int CHECK_EVERY_ROWS = 10_000;
+    private static final int PROGRESS_EVERY_ROWS = 1_000_000;
+
+    public enum Format { CSV, JSON }
+
+    /** Receives the running row count every {@value #CHECK_EVERY_ROWS} rows. */
+    public interface Progress {
+        void exported(long rows);
+    }
+
+    public static void main(String[] args) throws IOException, SQLException {
+        if (args.length < 1) {
+            System.out.println("Usage: BookingExporter <file|-> [--format csv|json] [--gzip] [--date yyyy-mm-dd]");
+            return;
+        }
+        String target = args[0];
+        Format format = defaultFormat(target);
+        boolean gzip = target.endsWith(".gz");
+        LocalDate day = null;
+        for (int i = 1; i < args.length; i++) {
+            switch (args[i]) {
+                case "--format" -> format = Format.valueOf(args[++i].toUpperCase());
+                case "--gzip" -> gzip = true;
+                case "--date" -> day = LocalDate.parse(args[++i]);
+                default -> {
+                    System.out.println("Unknown option: " + args[i]);
+                    return;
+                }
+            }
+        }
+
+        if (!DatabaseConnection.isAvailable()) {
+            System.out.println("Failed to connect to the database.");
+            return;
+        }
+        SchemaMigrator.migrateOnStartup();
+
+        long t0 = System.nanoTime();
+        long rows;
+        if (target.equals("-")) {
+            // Nothing else may go to standard output, so there is no progress report
+            rows = export(Channels.newChannel(System.out), false, format, gzip, day, n -> { });
+            System.out.flush();
+        } else {
+            rows = export(Path.of(target), format, gzip, day, n -> {
+                if (n % PROGRESS_EVERY_ROWS == 0) {
+                    System.out.println(n + " bookings exported...");
+                }
+            });
+        }
+        long elapsedMillis = (System.nanoTime() - t0) / 1_000_000;
+        String message = String.format("Exported %d bookings in %d ms.", rows, elapsedMillis);
+        if (target.equals("-")) {
+            System.err.println(message);
+        } else {
+            System.out.println(message);
+        }
+    }
+
+    /** JSON for a {@code .json} or {@code .json.gz} name, CSV otherwise. */
+    public static Format defaultFormat(String fileName) {
+        String name = fileName.toLowerCase();
+        return name.endsWith(".json") || name.endsWith(".json.gz") ? Format.JSON : Format.CSV;
+    }
+
+    /**
+     * Exports all bookings, or those for showtimes on {@code day} if it is not null, to
+     * {@code file}, replacing it; returns the number written. An interrupted thread stops the
+     * export with an {@link InterruptedIOException} and leaves a partial file.
+     */
+    public static long export(Path file, Format format, boolean gzip, LocalDate day, Progress progress)
+            throws IOException, SQLException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        return export(channel, true, format, gzip, day, progress);
+    }
+
+    private static long export(WritableByteChannel channel, boolean closeChannel, Format format, boolean gzip,
+                               LocalDate day, Progress progress) throws IOException, SQLException {
+        WritableByteChannel target = channel;
+        GZIPOutputStream compressed = null;
+        if (gzip) {
+            compressed = new GZIPOutputStream(Channels.newOutputStream(channel), GZIP_BUFFER_BYTES);
+            target = Channels.newChannel(compressed);
+        }
+        try (ChannelWriter out = new ChannelWriter(target, closeChannel)) {
+            StringBuilder row = new StringBuilder(256);
+            long[] count = { 0 };
+            out.write(format == Format.CSV
+                    ? "booking_id,movie_id,title,showtime_id,show_time,customer_name,phone_number,seats\n"
+                    : "[\n");
+            for (ShardRouter.Shard shard : DatabaseConnection.getShards().shards()) {
+                try (Connection connection = shard.borrowRead()) {
+                    BookingRepository.streamExport(connection,
+                            day == null ? null : day.atStartOfDay(), day == null ? null : day.plusDays(1).atStartOfDay(),
+                            rs -> {
+                                row.setLength(0);
+                                if (format == Format.CSV) {
+                                    appendCsv(row, rs);
+                                } else {
+                                    appendJson(row, rs, count[0] == 0);
+                                }
+                                out.write(row);
+                                if (++count[0] % CHECK_EVERY_ROWS == 0) {
+                                    if (Thread.currentThread().isInterrupted()) {
+                                        throw new InterruptedIOException("Export cancelled after " + count[0] + " rows.");
+                                    }
+                                    progress.exported(count[0]);
+                                }
+                            });
+                }
+            }
+            if (format == Format.JSON) {
+                out.write(count[0] == 0 ? "]\n" : "\n]\n");
+            }
+            out.flush();
+            if (compressed != null) {
+                compressed.finish();
+            }
+            return count[0];
+        }
+    }
+
+    private static void appendCsv(StringBuilder row, ResultSet rs) throws SQLException {
+        row.append(rs.getInt(1)).append(',').append(rs.getInt(2)).append(',');
+        appendCsvField(row, rs.getString(3));
+        row.append(',').append(rs.getInt(4)).append(',');
+        Timestamp showTime = rs.getTimestamp(5);
+        if (showTime != null) {
+            row.append(showTime.toLocalDateTime());
+        }
+        row.append(',');
+        appendCsvField(row, rs.getString(6));
+        row.append(',');
+        appendCsvField(row, rs.getString(7));
+        row.append(',').append(rs.getInt(8)).append('\n');
+    }
+
+    // Quoted only when it has to be, with quotes doubled, as BookingImporter reads it
+    private static void appendCsvField(StringBuilder row, String value) {
+        if (value == null) {
+            return;
+        }
+        boolean quote = false;
+        for (int i = 0; i < value.length() && !quote; i++) {
+            char c = value.charAt(i);
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!quote) {
+            row.append(value);
+            return;
+        }
+        row.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"') {
+                row.append('"');
+            }
+            row.append(c);
+        }
+        row.append('"');
+    }
+
+    private static void appendJson(StringBuilder row, ResultSet rs, boolean first) throws SQLException {
+        if (!first) {
+            row.append(",\n");
+        }
+        row.append("{\"booking_id\":").append(rs.getInt(1)).append(",\"movie_id\":").append(rs.getInt(2))
+                .append(",\"title\":");
+        Json.appendString(row, rs.getString(3)).append(",\"showtime_id\":").append(rs.getInt(4))
+                .append(",\"show_time\":");
+        Timestamp showTime = rs.getTimestamp(5);
+        Json.appendString(row, showTime == null ? null : showTime.toLocalDateTime().toString())
+                .append(",\"customer_name\":");
+        Json.appendString(row, rs.getString(6)).append(",\"phone_number\":");
+        Json.appendString(row, rs.getString(7)).append(",\"seats\":").append(rs.getInt(8)).append('}');
+    }
+
+    /** UTF-8 encodes text into a fixed buffer and writes the buffer to a channel each time it fills up. */
+    private static final class ChannelWriter implements Closeable {
+        private final WritableByteChannel channel;
+        private final boolean closeChannel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_BYTES);
+        private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+        ChannelWriter(WritableByteChannel channel, boolean closeChannel) {
+            this.channel = channel;
+            this.closeChannel = closeChannel;
+        }
+
+        void write(CharSequence text) throws IOException {
+            CharBuffer chars = CharBuffer.wrap(text);
+            // Each call is whole rows, so a surrogate pair is never split between two calls
+            while (true) {
+                CoderResult result = encoder.encode(chars, buffer, true);
+                if (result.isOverflow()) {
+                    drain();
+                } else {
+                    break;
+                }
+            }
+            encoder.reset();
+        }
+
+        void flush() throws IOException {
+            drain();
+        }
+
+        private void drain() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closeChannel) {
+                channel.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,771 @@
+package CinemaDB;
+
+import com.sun.net.httpserver.Filter;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * JSON over HTTP front end to {@link BookingService}, for kiosks and web pages.
+ *
+ * Every request runs on its own virtual thread and all of them share this JVM's connection
+ * pool, seat inventory and catalog cache.
+ *
+ * <pre>
+ * GET    /movies
+ * GET    /movies?q=star+wa&amp;genre=Sci-Fi&amp;released_from=1977-01-01&amp;released_to=1983-12-31&amp;limit=20
+ * GET    /showtimes?movie_id=1
+ * GET    /bookings?after=0&amp;limit=50
+ * GET    /bookings?phone=555-0101  or  ?name=jo+smi   (newest first, limit as above)
+ * POST   /bookings        {"movie_id":1,"showtime_id":2,"customer_name":"...","phone_number":"...","seats":2}
+ *                          (optionally with "ticket_id" from /queue)
+ * DELETE /bookings/{id}
+ * GET    /seats/stream    (Server-Sent Events)
+ * POST   /holds           {"showtime_id":2,"seats":4}
+ *                          (optionally with "ticket_id" from /queue)
+ * POST   /holds/{id}/confirm  {"movie_id":1,"customer_name":"...","phone_number":"..."}
+ * DELETE /holds/{id}
+ * POST   /queue           {"showtime_id":2,"seats":4}
+ * GET    /queue/{id}
+ * DELETE /queue/{id}
+ * GET    /metrics         (Prometheus text format, see {@link Metrics})
+ * GET    /reports/sales?by=movie   (or showtime, day, hour; see {@link SalesAnalytics})
+ * </pre>
+ *
+ * {@code /movies} with any of q, genre, released_from or released_to searches the catalog with
+ * {@link MovieSearchIndex} instead of listing all of it.
+ *
+ * {@code /holds} picks the best block of adjacent seats on the {@link SeatMapService} seat map
+ * and holds it; rows and seats in its responses are numbered from 1. Taking the hold is the
+ * booking's turn in the waiting room below, so confirming it does not queue again.
+ *
+ * {@code /queue} is the waiting room of {@link AdmissionController}: it hands out a ticket with
+ * its place in the queue and estimated wait, which the client polls until the status is
+ * {@code admitted} and then books or holds with the ticket_id. A booking or hold without a
+ * ticket waits for its turn inside the request; if the wait runs out, or the queue is full, the
+ * answer is 429 with a Retry-After header.
+ *
+ * {@code /seats/stream} first sends a {@code snapshot} event with the seat count of every
+ * showtime, then a {@code seats} event with the coalesced changes from {@link SeatEventBus}
+ * whenever counts change, at most every {@value #STREAM_INTERVAL_MILLIS} ms.
+ *
+ * Each request runs in the read-your-writes session of its client (see {@link ReplicaRouter}):
+ * the {@code X-Session-Id} header if it has one, or else its IP address. A client that has just
+ * booked then sees its booking even when listings come from a read replica.
+ *
+ * Only {@code /movies}, {@code /showtimes} and {@code /seats/stream} are open to anyone. Every
+ * other path books, cancels or shows customer data, and answers 401 unless the request has an
+ * {@code Authorization: Bearer <token>} header with the token from {@code -Dcinemadb.http.token}.
+ * Without that property a random token is made at startup and printed.
+ *
+ * Port: first argument, or {@code -Dcinemadb.http.port}, default 8080. The server listens on
+ * {@code -Dcinemadb.http.host}, default 127.0.0.1; set it to 0.0.0.0 to serve other machines.
+ */
+public class BookingHttpServer {
+    private static final int MAX_BODY_BYTES = 16 * 1024;
+    private static final int MAX_PAGE_SIZE = 1000;
+    private static final DateTimeFormatter SHOW_TIME = DateTimeFormatter.ISO_LOCAL_DATE_TIME;
+    private static final long STREAM_INTERVAL_MILLIS = 250;
+    private static final long KEEP_ALIVE_MILLIS = 15_000;
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final String token;
+
+    /** Listens on {@code -Dcinemadb.http.host} with the token from {@code -Dcinemadb.http.token}, or a random one. */
+    public BookingHttpServer(int port) throws IOException {
+        this(System.getProperty("cinemadb.http.host", "127.0.0.1"), port, System.getProperty("cinemadb.http.token"));
+    }
+
+    public BookingHttpServer(String host, int port, String token) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(host, port), 0);
+        executor = Executors.newVirtualThreadPerTaskExecutor();
+        server.setExecutor(executor);
+        this.token = token == null || token.isBlank() ? randomToken() : token;
+        Filter session = new SessionFilter();
+        Filter auth = new TokenFilter(this.token);
+        server.createContext("/movies", this::handleMovies).getFilters().add(session);
+        server.createContext("/showtimes", this::handleShowtimes).getFilters().add(session);
+        server.createContext("/seats/stream", this::handleSeatStream).getFilters().add(session);
+        server.createContext("/bookings", this::handleBookings).getFilters().addAll(List.of(auth, session));
+        server.createContext("/holds", this::handleHolds).getFilters().addAll(List.of(auth, session));
+        server.createContext("/queue", this::handleQueue).getFilters().addAll(List.of(auth, session));
+        server.createContext("/metrics", this::handleMetrics).getFilters().addAll(List.of(auth, session));
+        server.createContext("/reports/sales", this::handleSalesReport).getFilters().addAll(List.of(auth, session));
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    public void stop(int delaySeconds) {
+        server.stop(delaySeconds);
+        executor.shutdown();
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /** The bearer token every path but the catalog and seat stream asks for. */
+    public String getToken() {
+        return token;
+    }
+
+    private static String randomToken() {
+        byte[] bytes = new byte[24];
+        new SecureRandom().nextBytes(bytes);
+        return HexFormat.of().formatHex(bytes);
+    }
+
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : Integer.getInteger("cinemadb.http.port", 8080);
+        if (!DatabaseConnection.isAvailable()) {
+            System.out.println("Not starting the booking server: the database is not reachable.");
+            return;
+        }
+        SchemaMigrator.migrateOnStartup();
+        Metrics.startLogSummary();
+        BookingHttpServer httpServer = new BookingHttpServer(port);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> httpServer.stop(1)));
+        httpServer.start();
+        System.out.println("Booking server listening on " + httpServer.server.getAddress());
+        if (System.getProperty("cinemadb.http.token", "").isBlank()) {
+            System.out.println("Access token: " + httpServer.getToken());
+        }
+    }
+
+    private void handleMovies(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            if (!allow(exchange, "GET")) {
+                return;
+            }
+            Map<String, String> params = queryParams(exchange);
+            List<Movie> movies;
+            if (params.containsKey("q") || params.containsKey("genre")
+                    || params.containsKey("released_from") || params.containsKey("released_to")) {
+                MovieSearchIndex.Query query;
+                try {
+                    query = new MovieSearchIndex.Query(params.get("q"), params.get("genre"),
+                            date(params.get("released_from")), date(params.get("released_to")),
+                            Integer.parseInt(params.getOrDefault("limit", String.valueOf(MovieSearchIndex.DEFAULT_LIMIT))));
+                } catch (NumberFormatException | DateTimeParseException e) {
+                    send(exchange, 400, Json.error("limit must be a number and dates must be yyyy-mm-dd."));
+                    return;
+                } catch (IllegalArgumentException e) {
+                    send(exchange, 400, Json.error(e.getMessage()));
+                    return;
+                }
+                movies = BookingService.searchMovies(query);
+            } else {
+                movies = BookingService.listMovies();
+            }
+            StringBuilder json = new StringBuilder("[");
+            for (Movie movie : movies) {
+                if (json.length() > 1) {
+                    json.append(',');
+                }
+                json.append("{\"movie_id\":").append(movie.movieId()).append(",\"title\":");
+                Json.appendString(json, movie.title()).append(",\"genre\":");
+                Json.appendString(json, movie.genre()).append(",\"duration\":").append(movie.durationMinutes())
+                        .append(",\"release_date\":");
+                Json.appendString(json, movie.releaseDate() == null ? null : movie.releaseDate().toString()).append('}');
+            }
+            send(exchange, 200, json.append(']').toString());
+        } catch (SQLException e) {
+            serverError(exchange, e);
+        }
+    }
+
+    private void handleShowtimes(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            if (!allow(exchange, "GET")) {
+                return;
+            }
+            int movieId;
+            try {
+                movieId = Integer.parseInt(queryParams(exchange).getOrDefault("movie_id", ""));
+            } catch (NumberFormatException e) {
+                send(exchange, 400, Json.error("movie_id is required and must be a number."));
+                return;
+            }
+            StringBuilder json = new StringBuilder("[");
+            for (BookingService.ShowtimeSeats s : BookingService.listShowtimes(movieId)) {
+                if (json.length() > 1) {
+                    json.append(',');
+                }
+                json.append("{\"showtime_id\":").append(s.showtimeId())
+                        .append(",\"movie_id\":").append(s.movieId()).append(",\"show_time\":");
+                Json.appendString(json, s.showTime() == null ? null : SHOW_TIME.format(s.showTime()))
+                        .append(",\"available_seats\":").append(s.availableSeats()).append('}');
+            }
+            send(exchange, 200, json.append(']').toString());
+        } catch (SQLException e) {
+            serverError(exchange, e);
+        }
+    }
+
+    private void handleBookings(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            String path = exchange.getRequestURI().getPath();
+            if (path.equals("/bookings") || path.equals("/bookings/")) {
+                switch (exchange.getRequestMethod()) {
+                    case "GET" -> listBookings(exchange);
+                    case "POST" -> createBooking(exchange);
+                    default -> methodNotAllowed(exchange, "GET, POST");
+                }
+                return;
+            }
+            int bookingId;
+            try {
+                bookingId = Integer.parseInt(path.substring("/bookings/".length()));
+            } catch (NumberFormatException | IndexOutOfBoundsException e) {
+                send(exchange, 404, Json.error("Not found."));
+                return;
+            }
+            if (allow(exchange, "DELETE")) {
+                if (BookingService.cancel(bookingId)) {
+                    send(exchange, 200, "{\"booking_id\":" + bookingId + ",\"status\":\"cancelled\"}");
+                } else {
+                    send(exchange, 404, Json.error("Booking ID not found."));
+                }
+            }
+        } catch (SQLException e) {
+            serverError(exchange, e);
+        }
+    }
+
+    // Binds the client's read-your-writes session for the length of one request
+    private static final class SessionFilter extends Filter {
+        @Override
+        public void doFilter(HttpExchange exchange, Chain chain) throws IOException {
+            String key = exchange.getRequestHeaders().getFirst("X-Session-Id");
+            if (key == null || key.isBlank()) {
+                key = exchange.getRemoteAddress().getAddress().getHostAddress();
+            }
+            ReplicaRouter.bind(ReplicaRouter.session(key));
+            try {
+                chain.doFilter(exchange);
+            } finally {
+                ReplicaRouter.unbind();
+            }
+        }
+
+        @Override
+        public String description() {
+            return "Read-your-writes session";
+        }
+    }
+
+    // Turns away requests without the server's bearer token
+    private static final class TokenFilter extends Filter {
+        private final byte[] expected;
+
+        TokenFilter(String token) {
+            expected = ("Bearer " + token).getBytes(StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public void doFilter(HttpExchange exchange, Chain chain) throws IOException {
+            String header = exchange.getRequestHeaders().getFirst("Authorization");
+            // Compares in constant time, so the answer time does not give the token away
+            if (header == null || !MessageDigest.isEqual(expected, header.getBytes(StandardCharsets.UTF_8))) {
+                try (exchange) {
+                    exchange.getResponseHeaders().set("WWW-Authenticate", "Bearer");
+                    send(exchange, 401, Json.error("Missing or wrong access token."));
+                }
+                return;
+            }
+            chain.doFilter(exchange);
+        }
+
+        @Override
+        public String description() {
+            return "Bearer token check";
+        }
+    }
+
+    private void handleMetrics(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            if (!allow(exchange, "GET")) {
+                return;
+            }
+            byte[] bytes = Metrics.prometheus().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, bytes.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            }
+        }
+    }
+
+    private void handleHolds(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            String[] parts = exchange.getRequestURI().getPath().split("/");
+            // "", "holds", id, "confirm"
+            if (parts.length == 2) {
+                if (allow(exchange, "POST")) {
+                    createHold(exchange);
+                }
+                return;
+            }
+            long holdId;
+            try {
+                holdId = Long.parseLong(parts[2]);
+            } catch (NumberFormatException e) {
+                send(exchange, 404, Json.error("Not found."));
+                return;
+            }
+            if (parts.length == 4 && parts[3].equals("confirm")) {
+                if (allow(exchange, "POST")) {
+                    confirmHold(exchange, holdId);
+                }
+            } else if (parts.length == 3) {
+                if (allow(exchange, "DELETE")) {
+                    if (SeatMapService.getInstance().release(holdId)) {
+                        send(exchange, 200, "{\"hold_id\":" + holdId + ",\"status\":\"released\"}");
+                    } else {
+                        send(exchange, 404, Json.error("Hold not found or already expired."));
+                    }
+                }
+            } else {
+                send(exchange, 404, Json.error("Not found."));
+            }
+        } catch (SQLException e) {
+            serverError(exchange, e);
+        }
+    }
+
+    private void handleQueue(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            String[] parts = exchange.getRequestURI().getPath().split("/");
+            // "", "queue", id
+            if (parts.length == 2) {
+                if (allow(exchange, "POST")) {
+                    joinQueue(exchange);
+                }
+                return;
+            }
+            long ticketId;
+            try {
+                ticketId = Long.parseLong(parts[2]);
+            } catch (NumberFormatException | IndexOutOfBoundsException e) {
+                send(exchange, 404, Json.error("Not found."));
+                return;
+            }
+            if (parts.length != 3) {
+                send(exchange, 404, Json.error("Not found."));
+                return;
+            }
+            switch (exchange.getRequestMethod()) {
+                case "GET" -> {
+                    AdmissionController.Status status = AdmissionController.getInstance().status(ticketId);
+                    if (status == null) {
+                        send(exchange, 404, Json.error("Ticket not found, used or given up."));
+                    } else {
+                        send(exchange, 200, ticketJson(status));
+                    }
+                }
+                case "DELETE" -> {
+                    if (AdmissionController.getInstance().leave(ticketId)) {
+                        send(exchange, 200, "{\"ticket_id\":" + ticketId + ",\"status\":\"left\"}");
+                    } else {
+                        send(exchange, 404, Json.error("Ticket not found, used or given up."));
+                    }
+                }
+                default -> methodNotAllowed(exchange, "GET, DELETE");
+            }
+        } catch (SQLException e) {
+            serverError(exchange, e);
+        }
+    }
+
+    private void joinQueue(HttpExchange exchange) throws IOException, SQLException {
+        AdmissionController.Status status;
+        try {
+            Map<String, Object> body = Json.parseObject(readBody(exchange));
+            status = AdmissionController.getInstance().join(Json.intField(body, "showtime_id"), Json.intField(body, "seats"));
+        } catch (IllegalArgumentException e) {
+            send(exchange, 400, Json.error(e.getMessage()));
+            return;
+        }
+        switch (status.state()) {
+            case SOLD_OUT -> send(exchange, 409, Json.error("Not enough seats available."));
+            case FULL -> tooBusy(exchange);
+            default -> send(exchange, 201, ticketJson(status));
+        }
+    }
+
+    private static String ticketJson(AdmissionController.Status status) {
+        StringBuilder json = new StringBuilder(160);
+        json.append("{\"ticket_id\":").append(status.ticketId())
+                .append(",\"showtime_id\":").append(status.showtimeId())
+                .append(",\"seats\":").append(status.seats())
+                .append(",\"status\":\"").append(status.state().name().toLowerCase(Locale.ROOT)).append('"');
+        switch (status.state()) {
+            case WAITING -> json.append(",\"position\":").append(status.position())
+                    .append(",\"eta_ms\":").append(status.etaMillis());
+            case ADMITTED -> json.append(",\"expires_in_ms\":").append(status.expiresInMillis());
+        }
+        return json.append('}').toString();
+    }
+
+    private static void tooBusy(HttpExchange exchange) throws IOException {
+        exchange.getResponseHeaders().set("Retry-After", "1");
+        send(exchange, 429, Json.error("This showtime is very busy; join the queue at /queue or try again shortly."));
+    }
+
+    private void createHold(HttpExchange exchange) throws IOException, SQLException {
+        SeatMapService.Hold hold;
+        try {
+            Map<String, Object> body = Json.parseObject(readBody(exchange));
+            int showtimeId = Json.intField(body, "showtime_id");
+            int seats = Json.intField(body, "seats");
+            int admitted = BookingService.admit(showtimeId, seats,
+                    body.containsKey("ticket_id") ? Json.longField(body, "ticket_id") : BookingService.NO_TICKET);
+            if (admitted == AdmissionController.BUSY) {
+                tooBusy(exchange);
+                return;
+            }
+            if (admitted == AdmissionController.NOT_ADMITTED) {
+                send(exchange, 403, Json.error("Ticket is not admitted yet, has expired, or is for another showtime."));
+                return;
+            }
+            hold = admitted == AdmissionController.ADMITTED
+                    ? SeatMapService.getInstance().holdBest(showtimeId, seats) : null;
+        } catch (IllegalArgumentException e) {
+            send(exchange, 400, Json.error(e.getMessage()));
+            return;
+        }
+        if (hold == null) {
+            send(exchange, 409, Json.error("Not enough adjacent seats available."));
+            return;
+        }
+        send(exchange, 201, "{\"hold_id\":" + hold.holdId()
+                + ",\"showtime_id\":" + hold.showtimeId()
+                + ",\"row\":" + (hold.row() + 1)
+                + ",\"first_seat\":" + (hold.firstSeat() + 1)
+                + ",\"seats\":" + hold.seats()
+                + ",\"expires_in_ms\":" + Math.max(0, hold.expiresAtMillis() - System.currentTimeMillis()) + "}");
+    }
+
+    private void confirmHold(HttpExchange exchange, long holdId) throws IOException, SQLException {
+        int result;
+        try {
+            Map<String, Object> body = Json.parseObject(readBody(exchange));
+            result = SeatMapService.getInstance().confirm(holdId,
+                    Json.intField(body, "movie_id"),
+                    Json.stringField(body, "customer_name"),
+                    Json.stringField(body, "phone_number"));
+        } catch (IllegalArgumentException e) {
+            send(exchange, 400, Json.error(e.getMessage()));
+            return;
+        }
+        if (result == SeatMapService.HOLD_EXPIRED) {
+            send(exchange, 410, Json.error("Hold not found or already expired."));
+        } else if (result == SeatReservationService.NOT_ENOUGH_SEATS) {
+            send(exchange, 409, Json.error("Not enough seats available."));
+        } else {
+            send(exchange, 201, "{\"booking_id\":" + result + ",\"status\":\"booked\"}");
+        }
+    }
+
+    private void listBookings(HttpExchange exchange) throws IOException, SQLException {
+        Map<String, String> params = queryParams(exchange);
+        if (params.containsKey("phone") || params.containsKey("name")) {
+            findBookings(exchange, params);
+            return;
+        }
+        int after;
+        int limit;
+        try {
+            after = Integer.parseInt(params.getOrDefault("after", "0"));
+            limit = Integer.parseInt(params.getOrDefault("limit", "100"));
+        } catch (NumberFormatException e) {
+            send(exchange, 400, Json.error("after and limit must be numbers."));
+            return;
+        }
+        if (limit <= 0 || limit > MAX_PAGE_SIZE) {
+            send(exchange, 400, Json.error("limit must be between 1 and " + MAX_PAGE_SIZE + "."));
+            return;
+        }
+        List<BookingSummary> page = BookingService.listBookings(after, limit);
+        StringBuilder json = new StringBuilder("{\"bookings\":[");
+        for (int i = 0; i < page.size(); i++) {
+            BookingSummary b = page.get(i);
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("{\"booking_id\":").append(b.bookingId()).append(",\"customer_name\":");
+            Json.appendString(json, b.customerName()).append(",\"title\":");
+            Json.appendString(json, b.title()).append(",\"seats\":").append(b.seatsBooked()).append('}');
+        }
+        json.append(']');
+        if (page.size() == limit) {
+            json.append(",\"next_after\":").append(page.get(page.size() - 1).bookingId());
+        }
+        send(exchange, 200, json.append('}').toString());
+    }
+
+    private void createBooking(HttpExchange exchange) throws IOException, SQLException {
+        int result;
+        try {
+            Map<String, Object> body = Json.parseObject(readBody(exchange));
+            result = BookingService.reserve(
+                    Json.intField(body, "movie_id"),
+                    Json.intField(body, "showtime_id"),
+                    Json.stringField(body, "customer_name"),
+                    Json.stringField(body, "phone_number"),
+                    Json.intField(body, "seats"),
+                    body.containsKey("ticket_id") ? Json.longField(body, "ticket_id") : BookingService.NO_TICKET);
+        } catch (IllegalArgumentException e) {
+            send(exchange, 400, Json.error(e.getMessage()));
+            return;
+        }
+        if (result == SeatReservationService.NOT_ENOUGH_SEATS) {
+            send(exchange, 409, Json.error("Not enough seats available."));
+        } else if (result == AdmissionController.BUSY) {
+            tooBusy(exchange);
+        } else if (result == AdmissionController.NOT_ADMITTED) {
+            send(exchange, 403, Json.error("Ticket is not admitted yet, has expired, or is for another showtime."));
+        } else if (result == SeatReservationService.BOOKING_QUEUED) {
+            send(exchange, 202, "{\"status\":\"queued\"}");
+        } else if (result == 0) {
+            // Booked, but the driver did not report the generated key
+            send(exchange, 201, "{\"status\":\"booked\"}");
+        } else {
+            send(exchange, 201, "{\"booking_id\":" + result + ",\"status\":\"booked\"}");
+        }
+    }
+
+    private void handleSeatStream(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            if (!allow(exchange, "GET")) {
+                return;
+            }
+            // Subscribe before taking the snapshot so no change falls in between
+            try (SeatEventBus.Subscription subscription = SeatEventBus.getInstance().subscribe()) {
+                List<BookingService.ShowtimeSeats> snapshot;
+                try {
+                    snapshot = BookingService.listAvailability();
+                } catch (SQLException e) {
+                    serverError(exchange, e);
+                    return;
+                }
+                exchange.getResponseHeaders().set("Content-Type", "text/event-stream; charset=utf-8");
+                exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+                exchange.sendResponseHeaders(200, 0);
+                OutputStream out = exchange.getResponseBody();
+
+                StringBuilder json = new StringBuilder("[");
+                for (BookingService.ShowtimeSeats s : snapshot) {
+                    if (s.showtimeId() == 0) {
+                        continue;
+                    }
+                    appendSeatCount(json, s.showtimeId(), s.availableSeats());
+                }
+                writeEvent(out, "snapshot", json.append(']').toString());
+
+                while (!Thread.currentThread().isInterrupted()) {
+                    List<SeatEventBus.SeatCount> changes = subscription.poll(KEEP_ALIVE_MILLIS);
+                    if (changes.isEmpty()) {
+                        out.write(": keep-alive\n\n".getBytes(StandardCharsets.UTF_8));
+                        out.flush();
+                        continue;
+                    }
+                    json.setLength(0);
+                    json.append('[');
+                    for (SeatEventBus.SeatCount c : changes) {
+                        appendSeatCount(json, c.showtimeId(), c.availableSeats());
+                    }
+                    writeEvent(out, "seats", json.append(']').toString());
+                    // Let changes pile up (and coalesce) for a moment instead of sending every single one
+                    Thread.sleep(STREAM_INTERVAL_MILLIS);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (IOException e) {
+                // Client went away
+            }
+        }
+    }
+
+    private void handleSalesReport(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            if (!allow(exchange, "GET")) {
+                return;
+            }
+            String by = queryParams(exchange).getOrDefault("by", "movie");
+            StringBuilder json = new StringBuilder("[");
+            switch (by) {
+                case "showtime" -> {
+                    for (SalesAnalytics.ShowtimeSales s : BookingService.salesByShowtime()) {
+                        if (json.length() > 1) {
+                            json.append(',');
+                        }
+                        json.append("{\"showtime_id\":").append(s.showtimeId())
+                                .append(",\"movie_id\":").append(s.movieId()).append(",\"title\":");
+                        Json.appendString(json, s.title()).append(",\"show_time\":");
+                        Json.appendString(json, s.showTime() == null ? null : SHOW_TIME.format(s.showTime()));
+                        appendSales(json, s.bookings(), s.seatsSold(), s.capacity(), s.occupancy());
+                    }
+                }
+                case "movie" -> {
+                    for (SalesAnalytics.MovieSales m : BookingService.salesByMovie()) {
+                        if (json.length() > 1) {
+                            json.append(',');
+                        }
+                        json.append("{\"movie_id\":").append(m.movieId()).append(",\"title\":");
+                        Json.appendString(json, m.title()).append(",\"showtimes\":").append(m.showtimes());
+                        appendSales(json, m.bookings(), m.seatsSold(), m.capacity(), m.occupancy());
+                    }
+                }
+                case "day", "hour" -> {
+                    List<SalesAnalytics.PeriodSales> periods =
+                            by.equals("day") ? BookingService.salesByDay() : BookingService.salesByHour();
+                    for (SalesAnalytics.PeriodSales p : periods) {
+                        if (json.length() > 1) {
+                            json.append(',');
+                        }
+                        json.append("{\"start\":");
+                        Json.appendString(json, SHOW_TIME.format(p.start())).append(",\"showtimes\":").append(p.showtimes());
+                        appendSales(json, p.bookings(), p.seatsSold(), p.capacity(), p.occupancy());
+                    }
+                }
+                default -> {
+                    send(exchange, 400, Json.error("by must be movie, showtime, day or hour."));
+                    return;
+                }
+            }
+            send(exchange, 200, json.append(']').toString());
+        } catch (SQLException e) {
+            serverError(exchange, e);
+        }
+    }
+
+    private static void appendSales(StringBuilder json, int bookings, int seatsSold, int capacity, double occupancy) {
+        json.append(",\"bookings\":").append(bookings).append(",\"seats_sold\":").append(seatsSold)
+                .append(",\"capacity\":").append(capacity)
+                .append(",\"occupancy\":").append(Math.round(occupancy * 10_000) / 10_000.0).append('}');
+    }
+
+    private static void appendSeatCount(StringBuilder json, int showtimeId, int availableSeats) {
+        if (json.length() > 1) {
+            json.append(',');
+        }
+        json.append("{\"showtime_id\":").append(showtimeId).append(",\"available_seats\":").append(availableSeats).append('}');
+    }
+
+    private static void writeEvent(OutputStream out, String event, String data) throws IOException {
+        out.write(("event: " + event + "\ndata: " + data + "\n\n").getBytes(StandardCharsets.UTF_8));
+        out.flush();
+    }
+
+    private static String readBody(HttpExchange exchange) throws IOException {
+        try (InputStream in = exchange.getRequestBody()) {
+            byte[] body = in.readNBytes(MAX_BODY_BYTES + 1);
+            if (body.length > MAX_BODY_BYTES) {
+                throw new IllegalArgumentException("Request body is too large.");
+            }
+            return new String(body, StandardCharsets.UTF_8);
+        }
+    }
+
+    private static Map<String, String> queryParams(HttpExchange exchange) {
+        Map<String, String> params = new HashMap<>();
+        String query = exchange.getRequestURI().getRawQuery();
+        if (query == null || query.isEmpty()) {
+            return params;
+        }
+        for (String pair : query.split("&")) {
+            int eq = pair.indexOf('=');
+            String key = eq < 0 ? pair : pair.substring(0, eq);
+            String value = eq < 0 ? "" : pair.substring(eq + 1);
+            params.put(URLDecoder.decode(key, StandardCharsets.UTF_8), URLDecoder.decode(value, StandardCharsets.UTF_8));
+        }
+        return params;
+    }
+
+    private void findBookings(HttpExchange exchange, Map<String, String> params) throws IOException, SQLException {
+        List<CustomerBooking> found;
+        try {
+            int limit = Integer.parseInt(params.getOrDefault("limit", String.valueOf(BookingLookupIndex.DEFAULT_LIMIT)));
+            if (limit <= 0 || limit > MAX_PAGE_SIZE) {
+                send(exchange, 400, Json.error("limit must be between 1 and " + MAX_PAGE_SIZE + "."));
+                return;
+            }
+            found = params.containsKey("phone")
+                    ? BookingService.findBookingsByPhone(params.get("phone"), limit)
+                    : BookingService.findBookingsByName(params.get("name"), limit);
+        } catch (NumberFormatException e) {
+            send(exchange, 400, Json.error("limit must be a number."));
+            return;
+        } catch (IllegalArgumentException e) {
+            send(exchange, 400, Json.error(e.getMessage()));
+            return;
+        }
+        StringBuilder json = new StringBuilder("{\"bookings\":[");
+        for (int i = 0; i < found.size(); i++) {
+            CustomerBooking b = found.get(i);
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("{\"booking_id\":").append(b.bookingId()).append(",\"customer_name\":");
+            Json.appendString(json, b.customerName()).append(",\"phone_number\":");
+            Json.appendString(json, b.phoneNumber()).append(",\"title\":");
+            Json.appendString(json, b.title()).append(",\"showtime_id\":").append(b.showtimeId())
+                    .append(",\"seats\":").append(b.seatsBooked()).append('}');
+        }
+        send(exchange, 200, json.append("]}").toString());
+    }
+
+    private static LocalDate date(String text) {
+        return text == null || text.isEmpty() ? null : LocalDate.parse(text);
+    }
+
+    private static boolean allow(HttpExchange exchange, String method) throws IOException {
+        if (method.equals(exchange.getRequestMethod())) {
+            return true;
+        }
+        methodNotAllowed(exchange, method);
+        return false;
+    }
+
+    private static void methodNotAllowed(HttpExchange exchange, String allowed) throws IOException {
+        exchange.getResponseHeaders().set("Allow", allowed);
+        send(exchange, 405, Json.error("Method not allowed."));
+    }
+
+    private static void serverError(HttpExchange exchange, SQLException e) throws IOException {
+        System.out.println("Error handling " + exchange.getRequestMethod() + " " + exchange.getRequestURI() + ": " + e.getMessage());
+        send(exchange, 500, Json.error("Database error."));
+    }
+
+    private static void send(HttpExchange exchange, int status, String json) throws IOException {
+        byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package CinemaDB;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Bulk-imports bookings from a CSV file, e.g. a partner's ticket allocation.
+ *
+ * Usage: BookingImporter <file.csv> [batchSize]
+ *
+ * Columns: movie_id, showtime_id, customer_name, phone_number, seats. A first line that does
+ * not start with a number is taken as a header. Values may be double-quoted.
+ *
+ * Rows are booked through {@link BatchBookingService} in batches of {@code batchSize} (default
+ * 1000), each of them all-or-nothing; rows that cannot be parsed or booked are listed with their
+ * line numbers and the import carries on with the next batch.
+ */
+public class BookingImporter {
+    public static void main(String[] args) throws IOException, SQLException {
+        if (args.length < 1) {
+            System.out.println("Usage: BookingImporter <file.csv> [batchSize]");
+            return;
+        }
+        Path file = Path.of(args[0]);
+        int batchSize = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+
+        if (!DatabaseConnection.isAvailable()) {
+            System.out.println("Failed to connect to the database.");
+            return;
+        }
+        SchemaMigrator.migrateOnStartup();
+
+        long t0 = System.nanoTime();
+        int booked = 0;
+        int failed = 0;
+        List<BatchBookingService.Item> batch = new ArrayList<>(batchSize);
+        List<Integer> batchLines = new ArrayList<>(batchSize);
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (line.isBlank() || (lineNumber == 1 && !Character.isDigit(line.strip().replace("\"", "").charAt(0)))) {
+                    continue;
+                }
+                try {
+                    batch.add(parse(line));
+                    batchLines.add(lineNumber);
+                } catch (IllegalArgumentException e) {
+                    System.out.println("Line " + lineNumber + ": " + e.getMessage());
+                    failed++;
+                }
+                if (batch.size() == batchSize) {
+                    int ok = importBatch(batch, batchLines);
+                    booked += ok;
+                    failed += batch.size() - ok;
+                    batch.clear();
+                    batchLines.clear();
+                }
+            }
+        }
+        if (!batch.isEmpty()) {
+            int ok = importBatch(batch, batchLines);
+            booked += ok;
+            failed += batch.size() - ok;
+        }
+
+        long elapsedMillis = (System.nanoTime() - t0) / 1_000_000;
+        System.out.println(String.format("Imported %d bookings in %d ms; %d rows not booked.", booked, elapsedMillis, failed));
+        System.exit(failed == 0 ? 0 : 1);
+    }
+
+    /** Books one batch and reports its failures; returns the number of bookings made. */
+    private static int importBatch(List<BatchBookingService.Item> batch, List<Integer> lines) throws SQLException {
+        BatchBookingService.Result result = BatchBookingService.reserveAll(batch);
+        if (result.booked()) {
+            return batch.size();
+        }
+        List<BatchBookingService.ItemResult> items = result.items();
+        for (int i = 0; i < items.size(); i++) {
+            BatchBookingService.ItemResult r = items.get(i);
+            if (r.status() != BatchBookingService.Status.NOT_BOOKED) {
+                System.out.println("Line " + lines.get(i) + ": " + r.message());
+            }
+        }
+        System.out.println("Lines " + lines.get(0) + "-" + lines.get(lines.size() - 1) + " were not imported.");
+        return 0;
+    }
+
+    static BatchBookingService.Item parse(String line) {
+        List<String> fields = splitCsv(line);
+        if (fields.size() != 5) {
+            throw new IllegalArgumentException("Expected 5 columns but found " + fields.size() + ".");
+        }
+        try {
+            return new BatchBookingService.Item(
+                    Integer.parseInt(fields.get(0).trim()),
+                    Integer.parseInt(fields.get(1).trim()),
+                    fields.get(2).trim(),
+                    fields.get(3).trim(),
+                    Integer.parseInt(fields.get(4).trim()));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Movie ID, showtime ID and seats must be valid numbers.");
+        }
+    }
+
+    private static List<String> splitCsv(String line) {
+        List<String> fields = new ArrayList<>(5);
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    field.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+}
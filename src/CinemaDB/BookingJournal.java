@@ -0,0 +1,411 @@
+package CinemaDB;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log of every booking and cancellation, kept next to the database as an audit
+ * trail and as a way to rebuild the Bookings table without MySQL binlogs (see
+ * {@link JournalReplay}).
+ *
+ * The journal is off unless -Dcinemadb.journal names its file. The file is a header slot
+ * followed by fixed-width {@value #RECORD_SIZE}-byte records. Each record holds a sequence
+ * number, the time, the booking id, movie, showtime, seats, seat position, phone number and
+ * name, and a CRC32 of the record. The file is memory-mapped {@value #REGION_SIZE} bytes at a
+ * time, so an append is a copy into memory. {@link #sync} then forces the appended records to
+ * disk. Callers that arrive while another caller is forcing wait for it to finish, and one
+ * force then covers all of them, which is how bursts of bookings share the cost of the disk
+ * flush (group commit).
+ *
+ * Records are written after the database transaction commits, and the booking is reported back
+ * only after its record is on disk, so every booking a customer was told about is in the
+ * journal. A crash between the commit and the append loses that record but not the booking.
+ * Journal write errors are logged rather than thrown, because the booking itself has already
+ * been made by then.
+ *
+ * On opening, the log is read forward from the start and every record's checksum is checked.
+ * The first empty or damaged slot, such as a record torn by a crash, is where appending resumes;
+ * that slot and everything after it are zeroed first.
+ *
+ * Names longer than {@value #NAME_BYTES} bytes of UTF-8 and phone numbers longer than
+ * {@value #PHONE_BYTES} bytes are cut at a character boundary. The limits hold 100 and 20 ASCII
+ * characters, the column widths.
+ */
+public class BookingJournal {
+    public static final byte RESERVE = 1;
+    public static final byte CANCEL = 2;
+
+    static final int RECORD_SIZE = 256;
+    static final int REGION_SIZE = 64 << 20;
+    private static final int PHONE_BYTES = 24;
+    private static final int NAME_BYTES = 184;
+    private static final long MAGIC = 0x43494E454D414A31L;  // "CINEMAJ1"
+    private static final byte[] NO_CHECKSUM = new byte[4];
+    // Bytes read at a time when looking for the end on opening; a whole number of records
+    private static final int SCAN_CHUNK = 1 << 20;
+
+    // Record layout
+    private static final int TYPE = 0;
+    private static final int NAME_LENGTH = 1;
+    private static final int PHONE_LENGTH = 2;
+    private static final int SEQUENCE = 4;
+    private static final int TIME = 12;
+    private static final int BOOKING_ID = 20;
+    private static final int MOVIE_ID = 24;
+    private static final int SHOWTIME_ID = 28;
+    private static final int SEATS = 32;
+    private static final int SEAT_ROW = 36;
+    private static final int FIRST_SEAT = 40;
+    private static final int CHECKSUM = 44;
+    private static final int PHONE = 48;
+    private static final int NAME = PHONE + PHONE_BYTES;
+
+    /** One journal record; seatRow and firstSeat are -1 for a booking made by count. */
+    public record Entry(byte type, long sequence, long timeMillis, int bookingId, int movieId, int showtimeId,
+                        int seats, int seatRow, int firstSeat, String phoneNumber, String customerName) {
+    }
+
+    /** Receives journal records in log order. */
+    public interface Visitor {
+        void visit(Entry entry);
+    }
+
+    private static volatile BookingJournal instance;
+    private static volatile boolean opened;
+
+    private final Path path;
+    private final FileChannel channel;
+    private final Object syncLock = new Object();
+    private MappedByteBuffer region;
+    private long regionStart;
+    // File offset of the next record, and of the first one not forced yet
+    private long writePosition;
+    private long forcedPosition;
+    private long nextSequence;
+    private volatile long durableSequence;
+
+    private BookingJournal(Path path) throws IOException {
+        this.path = path;
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        if (channel.size() == 0) {
+            ByteBuffer header = ByteBuffer.allocate(RECORD_SIZE);
+            header.putLong(MAGIC).putInt(RECORD_SIZE);
+            header.flip();
+            channel.write(header, 0);
+            channel.force(true);
+        } else {
+            checkHeader(channel, path);
+        }
+        long end = findEnd(channel);
+        writePosition = end;
+        forcedPosition = end;
+        nextSequence = end == RECORD_SIZE ? 1 : readAt(channel, end - RECORD_SIZE).sequence() + 1;
+        durableSequence = nextSequence - 1;
+        mapRegion(end);
+    }
+
+    /**
+     * The journal named by -Dcinemadb.journal, opened on first use; null if no journal is
+     * configured or it could not be opened (the reason is printed once).
+     */
+    public static BookingJournal getInstance() {
+        if (opened) {
+            return instance;
+        }
+        synchronized (BookingJournal.class) {
+            if (!opened) {
+                String file = System.getProperty("cinemadb.journal");
+                if (file != null && !file.isBlank()) {
+                    try {
+                        BookingJournal journal = new BookingJournal(Path.of(file));
+                        Runtime.getRuntime().addShutdownHook(new Thread(journal::close, "cinemadb-journal-shutdown"));
+                        instance = journal;
+                    } catch (IOException | RuntimeException e) {
+                        System.out.println("Error opening booking journal " + file + ": " + e.getMessage());
+                    }
+                }
+                opened = true;
+            }
+        }
+        return instance;
+    }
+
+    /** Journals a committed booking and waits until it is on disk. Does nothing without a journal. */
+    static void recordReserve(int bookingId, int movieId, int showtimeId, String customerName, String phoneNumber,
+                              int seats, int seatRow, int firstSeat) {
+        BookingJournal journal = getInstance();
+        if (journal == null) {
+            return;
+        }
+        try {
+            journal.sync(journal.append(RESERVE, bookingId, movieId, showtimeId, seats, seatRow, firstSeat,
+                    phoneNumber, customerName));
+        } catch (IOException | RuntimeException e) {
+            System.out.println("Error journalling booking " + bookingId + ": " + e.getMessage());
+        }
+    }
+
+    /** Journals bookings committed together (ids in the same order), with a single disk flush. */
+    static void recordReserves(List<SeatInventory.PendingBooking> bookings, int[] bookingIds) {
+        BookingJournal journal = getInstance();
+        if (journal == null) {
+            return;
+        }
+        try {
+            long last = 0;
+            for (int i = 0; i < bookingIds.length; i++) {
+                SeatInventory.PendingBooking b = bookings.get(i);
+                last = journal.append(RESERVE, bookingIds[i], b.movieId, b.showtimeId, b.seats, -1, -1,
+                        b.phoneNumber, b.customerName);
+            }
+            journal.sync(last);
+        } catch (IOException | RuntimeException e) {
+            System.out.println("Error journalling " + bookingIds.length + " bookings: " + e.getMessage());
+        }
+    }
+
+    /** Journals a committed cancellation and waits until it is on disk. Does nothing without a journal. */
+    static void recordCancel(int bookingId, int showtimeId, int seats, String customerName, String phoneNumber) {
+        BookingJournal journal = getInstance();
+        if (journal == null) {
+            return;
+        }
+        try {
+            journal.sync(journal.append(CANCEL, bookingId, 0, showtimeId, seats, -1, -1, phoneNumber, customerName));
+        } catch (IOException | RuntimeException e) {
+            System.out.println("Error journalling cancellation of booking " + bookingId + ": " + e.getMessage());
+        }
+    }
+
+    /** Copies a record into the mapped file and returns its sequence number; not durable until {@link #sync}. */
+    public long append(byte type, int bookingId, int movieId, int showtimeId, int seats, int seatRow, int firstSeat,
+                       String phoneNumber, String customerName) throws IOException {
+        byte[] phone = truncate(phoneNumber, PHONE_BYTES);
+        byte[] name = truncate(customerName, NAME_BYTES);
+        byte[] record = new byte[RECORD_SIZE];
+        ByteBuffer b = ByteBuffer.wrap(record);
+        b.put(TYPE, type).put(NAME_LENGTH, (byte) name.length).put(PHONE_LENGTH, (byte) phone.length);
+        b.putLong(TIME, System.currentTimeMillis());
+        b.putInt(BOOKING_ID, bookingId).putInt(MOVIE_ID, movieId).putInt(SHOWTIME_ID, showtimeId);
+        b.putInt(SEATS, seats).putInt(SEAT_ROW, seatRow).putInt(FIRST_SEAT, firstSeat);
+        b.put(PHONE, phone).put(NAME, name);
+
+        synchronized (this) {
+            if (!channel.isOpen()) {
+                throw new IOException("The booking journal is closed.");
+            }
+            if (writePosition - regionStart == REGION_SIZE) {
+                // Everything in the full region goes to disk before moving on, so sync only
+                // ever needs to force the current one
+                region.force();
+                forcedPosition = writePosition;
+                mapRegion(writePosition);
+            }
+            long sequence = nextSequence++;
+            b.putLong(SEQUENCE, sequence);
+            b.putInt(CHECKSUM, checksum(record));
+            region.put((int) (writePosition - regionStart), record);
+            writePosition += RECORD_SIZE;
+            return sequence;
+        }
+    }
+
+    /** Waits until every record up to {@code sequence} is on disk, forcing it there if no one else is. */
+    public void sync(long sequence) throws IOException {
+        if (durableSequence >= sequence) {
+            return;
+        }
+        synchronized (syncLock) {
+            if (durableSequence >= sequence) {
+                // Forced by the caller that held the lock before us
+                return;
+            }
+            MappedByteBuffer toForce;
+            long from;
+            long to;
+            long upTo;
+            synchronized (this) {
+                toForce = region;
+                from = Math.max(forcedPosition, regionStart) - regionStart;
+                to = writePosition - regionStart;
+                upTo = nextSequence - 1;
+            }
+            if (to > from) {
+                toForce.force((int) from, (int) (to - from));
+            }
+            synchronized (this) {
+                forcedPosition = Math.max(forcedPosition, regionStart + to);
+            }
+            durableSequence = upTo;
+        }
+    }
+
+    /** Records appended so far. */
+    public synchronized long size() {
+        return (writePosition - RECORD_SIZE) / RECORD_SIZE;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    /** Forces what is left to disk and closes the file. */
+    public void close() {
+        synchronized (syncLock) {
+            synchronized (this) {
+                try {
+                    if (channel.isOpen()) {
+                        region.force();
+                        durableSequence = nextSequence - 1;
+                        channel.close();
+                    }
+                } catch (IOException e) {
+                    System.out.println("Error closing booking journal: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads a journal file from the start, handing each intact record to {@code visitor}, and
+     * returns how many there were. Reading stops at the first empty or damaged slot.
+     */
+    public static long read(Path path, Visitor visitor) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            checkHeader(channel, path);
+            long count = 0;
+            long size = channel.size();
+            for (long start = 0; start < size; start += REGION_SIZE) {
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(REGION_SIZE, size - start));
+                byte[] record = new byte[RECORD_SIZE];
+                for (int at = start == 0 ? RECORD_SIZE : 0; at + RECORD_SIZE <= buffer.limit(); at += RECORD_SIZE) {
+                    buffer.get(at, record);
+                    if (record[TYPE] == 0 || !intact(record)) {
+                        return count;
+                    }
+                    visitor.visit(decode(record));
+                    count++;
+                }
+            }
+            return count;
+        }
+    }
+
+    private void mapRegion(long position) throws IOException {
+        regionStart = position - position % REGION_SIZE;
+        region = channel.map(FileChannel.MapMode.READ_WRITE, regionStart, REGION_SIZE);
+    }
+
+    // Offset of the first empty or damaged slot, reading forward from the start and checking
+    // every record. That slot and everything after it are zeroed: a record torn by a crash was
+    // never reported as durable, and nothing past it may turn up again as the log grows over it
+    private static long findEnd(FileChannel channel) throws IOException {
+        long size = channel.size();
+        ByteBuffer chunk = ByteBuffer.allocate(SCAN_CHUNK);
+        ByteBuffer zeros = ByteBuffer.allocate(SCAN_CHUNK);
+        byte[] record = new byte[RECORD_SIZE];
+        long end = -1;
+        boolean zeroed = false;
+        for (long start = RECORD_SIZE; start < size; start += SCAN_CHUNK) {
+            int length = (int) Math.min(SCAN_CHUNK, size - start);
+            chunk.clear().limit(length);
+            while (chunk.hasRemaining() && channel.read(chunk, start + chunk.position()) >= 0) {
+                // Keep reading until the chunk is full
+            }
+            int from = 0;
+            if (end < 0) {
+                while (from + RECORD_SIZE <= length) {
+                    chunk.get(from, record);
+                    if (record[TYPE] == 0 || !intact(record)) {
+                        break;
+                    }
+                    from += RECORD_SIZE;
+                }
+                if (from == length) {
+                    continue;
+                }
+                end = start + from;
+            }
+            if (!isZero(chunk, from, length)) {
+                zeros.clear().limit(length - from);
+                while (zeros.hasRemaining()) {
+                    channel.write(zeros, start + from + zeros.position());
+                }
+                zeroed = true;
+            }
+        }
+        if (zeroed) {
+            channel.force(false);
+        }
+        return end < 0 ? Math.max(size, RECORD_SIZE) : end;
+    }
+
+    private static boolean isZero(ByteBuffer buffer, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (buffer.get(i) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static Entry readAt(FileChannel channel, long position) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(RECORD_SIZE);
+        channel.read(buffer, position);
+        return decode(buffer.array());
+    }
+
+    private static void checkHeader(FileChannel channel, Path path) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(12);
+        channel.read(header, 0);
+        if (header.getLong(0) != MAGIC || header.getInt(8) != RECORD_SIZE) {
+            throw new IOException(path + " is not a booking journal.");
+        }
+    }
+
+    private static Entry decode(byte[] record) {
+        ByteBuffer b = ByteBuffer.wrap(record);
+        String phone = new String(record, PHONE, record[PHONE_LENGTH] & 0xFF, StandardCharsets.UTF_8);
+        String name = new String(record, NAME, record[NAME_LENGTH] & 0xFF, StandardCharsets.UTF_8);
+        return new Entry(record[TYPE], b.getLong(SEQUENCE), b.getLong(TIME), b.getInt(BOOKING_ID), b.getInt(MOVIE_ID),
+                b.getInt(SHOWTIME_ID), b.getInt(SEATS), b.getInt(SEAT_ROW), b.getInt(FIRST_SEAT), phone, name);
+    }
+
+    private static boolean intact(byte[] record) {
+        return ByteBuffer.wrap(record).getInt(CHECKSUM) == checksum(record);
+    }
+
+    // CRC32 of the record with the checksum field counted as zero
+    private static int checksum(byte[] record) {
+        CRC32 crc = new CRC32();
+        crc.update(record, 0, CHECKSUM);
+        crc.update(NO_CHECKSUM);
+        crc.update(record, CHECKSUM + 4, RECORD_SIZE - CHECKSUM - 4);
+        return (int) crc.getValue();
+    }
+
+    // UTF-8 bytes of s, cut at a character boundary to fit in max bytes
+    private static byte[] truncate(String s, int max) {
+        if (s == null) {
+            return new byte[0];
+        }
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length <= max) {
+            return bytes;
+        }
+        int end = max;
+        while (end > 0 && (bytes[end] & 0xC0) == 0x80) {
+            end--;
+        }
+        byte[] cut = new byte[end];
+        System.arraycopy(bytes, 0, cut, 0, end);
+        return cut;
+    }
+}
@@ -0,0 +1,426 @@
+package CinemaDB;
+
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Finds bookings by the customer's phone number or the start of their name, so the counter does
+ * not need a booking id or a scan of every booking.
+ *
+ * Each phone number (its digits) and each word of a name (its first three letters) is hashed to
+ * an int key that maps to the sorted ids of the bookings carrying it, which costs a few ints per
+ * booking. A lookup takes the ids from memory and reads only those rows by primary key. That
+ * read also weeds out hash collisions and bookings cancelled by another process.
+ *
+ * Bookings and cancellations made in this process go into the index as soon as they commit.
+ * The first lookup loads the index with one pass over (booking_id, customer_name,
+ * phone_number), which the composite indexes from {@link SchemaMigrator} cover. After that,
+ * each lookup first reads only the rows past the highest booking_id seen, for bookings made
+ * elsewhere: other terminals or bulk imports.
+ *
+ * With shards (see {@link ShardRouter}) the catch-up reads every shard and merges the rows by
+ * booking_id, and lookups read the candidate rows from all of them.
+ *
+ * Auto-increment ids do not always commit in order. An id skipped over by a catch-up may belong
+ * to a transaction that has not committed yet, so skipped ids are looked up again on later
+ * lookups for {@value #GAP_RECHECK_MILLIS} ms. Another process's booking that commits later than
+ * that is not found until this process restarts.
+ *
+ * Catch-ups run one at a time and read the database without holding the index's monitor, so
+ * bookings recorded meanwhile only wait for the short step that adds each chunk.
+ */
+public class BookingLookupIndex {
+    /** Default number of bookings a lookup returns. */
+    public static final int DEFAULT_LIMIT = 50;
+
+    private static final BookingLookupIndex INSTANCE = new BookingLookupIndex();
+
+    // Name words are indexed by this many leading letters; a shorter query word is looked up
+    // under every key it starts
+    private static final int NAME_KEY_LENGTH = 3;
+    private static final int LOAD_CHUNK = 10_000;
+    private static final int FETCH_CHUNK = 200;
+    private static final long GAP_RECHECK_MILLIS = 30_000;
+    // Most skipped ids remembered; a bigger jump is not a transaction in flight
+    private static final int MAX_GAPS = 1_000;
+
+    // Key -> {count, id, id, ...} with the ids ascending
+    private final IntObjectMap<int[]> byPhone = new IntObjectMap<>();
+    private final IntObjectMap<int[]> byName = new IntObjectMap<>();
+    // Every name key ever indexed, so keys starting with a short query word can be found; at most
+    // one per distinct three-letter start, so it is never pruned
+    private final TreeSet<String> nameKeys = new TreeSet<>();
+    // Skipped booking ids -> when they were first skipped (ms, truncated to int)
+    private final IntIntMap gaps = new IntIntMap();
+    private int lastBookingId;
+    private boolean loaded;
+    // Held for a whole catch-up; the fields above are guarded by the monitor
+    private final ReentrantLock catchUpLock = new ReentrantLock();
+
+    public static BookingLookupIndex getInstance() {
+        return INSTANCE;
+    }
+
+    /** Bookings made with this phone number, newest first; only the digits are compared. */
+    public List<CustomerBooking> findByPhone(String phoneNumber, int limit) throws SQLException {
+        String digits = digits(phoneNumber);
+        if (digits.isEmpty()) {
+            throw new IllegalArgumentException("Enter a phone number to look up.");
+        }
+        catchUp();
+        int[] candidates;
+        synchronized (this) {
+            candidates = copy(byPhone.get(key(digits)));
+        }
+        return fetch(candidates, limit, b -> digits.equals(digits(b.phoneNumber())));
+    }
+
+    /**
+     * Bookings whose customer name has a word starting with each word of {@code namePrefix},
+     * newest first: "jo sm" finds "John Smith". A query word shorter than three letters is looked
+     * up under every indexed key it starts, unless the query has a longer word to narrow by.
+     */
+    public List<CustomerBooking> findByName(String namePrefix, int limit) throws SQLException {
+        String[] words = MovieSearchIndex.tokenize(namePrefix);
+        if (words.length == 0) {
+            throw new IllegalArgumentException("Enter a name to look up.");
+        }
+        boolean anyLong = false;
+        for (String word : words) {
+            anyLong |= word.length() >= NAME_KEY_LENGTH;
+        }
+        catchUp();
+        int[] candidates = null;
+        synchronized (this) {
+            for (String word : words) {
+                int[] ids;
+                if (word.length() >= NAME_KEY_LENGTH) {
+                    ids = byName.get(nameKey(word));
+                } else if (anyLong) {
+                    continue;
+                } else {
+                    ids = startingWith(word);
+                }
+                candidates = candidates == null ? copy(ids) : intersect(candidates, ids);
+                if (candidates.length == 0) {
+                    break;
+                }
+            }
+        }
+        return fetch(candidates, limit, b -> nameMatches(b.customerName(), words));
+    }
+
+    /** Adds a booking committed in this process. */
+    static void recordReserve(int bookingId, String customerName, String phoneNumber) {
+        if (bookingId > 0) {
+            synchronized (INSTANCE) {
+                INSTANCE.add(bookingId, customerName, phoneNumber);
+            }
+        }
+    }
+
+    /** Adds bookings committed together; {@code bookingIds[i]} belongs to {@code bookings.get(i)}. */
+    static void recordReserves(List<SeatInventory.PendingBooking> bookings, int[] bookingIds) {
+        synchronized (INSTANCE) {
+            for (int i = 0; i < bookingIds.length; i++) {
+                if (bookingIds[i] > 0) {
+                    SeatInventory.PendingBooking b = bookings.get(i);
+                    INSTANCE.add(bookingIds[i], b.customerName, b.phoneNumber);
+                }
+            }
+        }
+    }
+
+    /** Takes a booking cancelled in this process out of the index. */
+    synchronized void remove(int bookingId, String customerName, String phoneNumber) {
+        String digits = digits(phoneNumber);
+        if (!digits.isEmpty()) {
+            remove(byPhone, key(digits), bookingId);
+        }
+        for (String word : nameKeyWords(customerName)) {
+            remove(byName, nameKey(word), bookingId);
+        }
+    }
+
+    private record Contact(int bookingId, String customerName, String phoneNumber) {
+    }
+
+    // Reads bookings past the highest id seen (on the first call, that is all of them), then
+    // those skipped over recently. Every shard reads a chunk, and the chunks are merged in
+    // booking_id order up to the lowest last id of a full chunk, since a shard may have more
+    // below that; without shards that is just the primary's chunk.
+    private void catchUp() throws SQLException {
+        ShardRouter shards = DatabaseConnection.getShards();
+        catchUpLock.lock();
+        try {
+            int[] recheck;
+            int after;
+            synchronized (this) {
+                recheck = gapsToRecheck();
+                after = lastBookingId;
+            }
+            boolean more = true;
+            while (more) {
+                int from = after;
+                List<List<Contact>> chunks = shards.gather(false, c -> {
+                    List<Contact> rows = new ArrayList<>();
+                    BookingRepository.scanContacts(c, from, LOAD_CHUNK, (id, name, phone) -> rows.add(new Contact(id, name, phone)));
+                    return rows;
+                });
+                int bound = Integer.MAX_VALUE;
+                for (List<Contact> chunk : chunks) {
+                    if (chunk.size() == LOAD_CHUNK) {
+                        bound = Math.min(bound, chunk.get(LOAD_CHUNK - 1).bookingId());
+                    }
+                }
+                more = bound != Integer.MAX_VALUE;
+                synchronized (this) {
+                    for (Contact c : ShardRouter.mergeById(chunks, Contact::bookingId, Integer.MAX_VALUE)) {
+                        if (c.bookingId() > bound) {
+                            break;
+                        }
+                        append(c.bookingId(), c.customerName(), c.phoneNumber());
+                    }
+                    after = lastBookingId;
+                }
+            }
+            List<List<Contact>> found = recheck.length == 0 ? List.of() : shards.gather(false, c -> {
+                List<Contact> rows = new ArrayList<>();
+                BookingRepository.scanContacts(c, recheck, (id, name, phone) -> rows.add(new Contact(id, name, phone)));
+                return rows;
+            });
+            synchronized (this) {
+                loaded = true;
+                for (List<Contact> rows : found) {
+                    for (Contact c : rows) {
+                        gaps.remove(c.bookingId());
+                        add(c.bookingId(), c.customerName(), c.phoneNumber());
+                    }
+                }
+            }
+        } finally {
+            catchUpLock.unlock();
+        }
+    }
+
+    private int[] gapsToRecheck() {
+        if (gaps.size() == 0) {
+            return new int[0];
+        }
+        int now = (int) System.currentTimeMillis();
+        List<Integer> expired = new ArrayList<>();
+        List<Integer> live = new ArrayList<>();
+        gaps.forEach((id, since) -> (now - since > GAP_RECHECK_MILLIS ? expired : live).add(id));
+        for (int id : expired) {
+            gaps.remove(id);
+        }
+        return live.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    // Called in booking_id order by the catch-up scan, under the monitor
+    private void append(int bookingId, String customerName, String phoneNumber) {
+        if (loaded && bookingId > lastBookingId + 1 && bookingId - lastBookingId <= MAX_GAPS) {
+            int now = (int) System.currentTimeMillis();
+            for (int id = lastBookingId + 1; id < bookingId; id++) {
+                gaps.put(id, now);
+            }
+        }
+        lastBookingId = bookingId;
+        add(bookingId, customerName, phoneNumber);
+    }
+
+    private void add(int bookingId, String customerName, String phoneNumber) {
+        String digits = digits(phoneNumber);
+        if (!digits.isEmpty()) {
+            add(byPhone, key(digits), bookingId);
+        }
+        for (String word : nameKeyWords(customerName)) {
+            add(byName, nameKey(word), bookingId);
+            nameKeys.add(word);
+        }
+    }
+
+    // Ids under every name key starting with a word shorter than a key, laid out like an index entry
+    private int[] startingWith(String word) {
+        List<int[]> lists = new ArrayList<>();
+        int total = 0;
+        for (String k : nameKeys.subSet(word, word + Character.MAX_VALUE)) {
+            int[] ids = byName.get(key(k));
+            if (ids != null) {
+                lists.add(ids);
+                total += ids[0];
+            }
+        }
+        int[] all = new int[total];
+        int n = 0;
+        for (int[] ids : lists) {
+            System.arraycopy(ids, 1, all, n, ids[0]);
+            n += ids[0];
+        }
+        Arrays.sort(all);
+        // Keys sharing a hash share an entry, so an id can come up twice
+        int[] result = new int[total + 1];
+        for (int id : all) {
+            if (result[0] == 0 || result[result[0]] != id) {
+                result[++result[0]] = id;
+            }
+        }
+        return result;
+    }
+
+    private interface Check {
+        boolean matches(CustomerBooking booking);
+    }
+
+    // Reads the candidates newest first, a chunk at a time, until there are enough matches
+    private static List<CustomerBooking> fetch(int[] candidates, int limit, Check check) throws SQLException {
+        if (limit <= 0) {
+            throw new IllegalArgumentException("The result limit must be a positive number.");
+        }
+        List<CustomerBooking> result = new ArrayList<>();
+        if (candidates == null || candidates.length == 0) {
+            return result;
+        }
+        ShardRouter shards = DatabaseConnection.getShards();
+        for (int to = candidates.length; to > 0 && result.size() < limit; to -= FETCH_CHUNK) {
+            int from = Math.max(0, to - FETCH_CHUNK);
+            int end = to;
+            List<CustomerBooking> rows = new ArrayList<>();
+            for (List<CustomerBooking> found : shards.gather(true, c -> BookingRepository.findByIds(c, candidates, from, end))) {
+                rows.addAll(found);
+            }
+            rows.sort((a, b) -> Integer.compare(b.bookingId(), a.bookingId()));
+            int lastId = 0;
+            for (CustomerBooking row : rows) {
+                // A booking caught mid-move is on two shards
+                if (result.size() < limit && row.bookingId() != lastId && check.matches(row)) {
+                    result.add(row);
+                }
+                lastId = row.bookingId();
+            }
+        }
+        return result;
+    }
+
+    private static boolean nameMatches(String customerName, String[] words) {
+        String[] nameWords = MovieSearchIndex.tokenize(customerName);
+        for (String word : words) {
+            boolean found = false;
+            for (String nameWord : nameWords) {
+                if (nameWord.startsWith(word)) {
+                    found = true;
+                    break;
+                }
+            }
+            if (!found) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static String digits(String phoneNumber) {
+        if (phoneNumber == null) {
+            return "";
+        }
+        StringBuilder digits = new StringBuilder(phoneNumber.length());
+        for (int i = 0; i < phoneNumber.length(); i++) {
+            char c = phoneNumber.charAt(i);
+            if (c >= '0' && c <= '9') {
+                digits.append(c);
+            }
+        }
+        return digits.toString();
+    }
+
+    // Distinct words of a name, cut to their indexed length
+    private static List<String> nameKeyWords(String customerName) {
+        List<String> keys = new ArrayList<>();
+        for (String word : MovieSearchIndex.tokenize(customerName)) {
+            String k = word.length() > NAME_KEY_LENGTH ? word.substring(0, NAME_KEY_LENGTH) : word;
+            if (!keys.contains(k)) {
+                keys.add(k);
+            }
+        }
+        return keys;
+    }
+
+    private static int nameKey(String word) {
+        return key(word.length() > NAME_KEY_LENGTH ? word.substring(0, NAME_KEY_LENGTH) : word);
+    }
+
+    private static int key(String s) {
+        int h = s.hashCode();
+        // The maps reserve Integer.MIN_VALUE
+        return h == Integer.MIN_VALUE ? 0 : h;
+    }
+
+    // Ids nearly always arrive in ascending order, so this is usually an append
+    private static void add(IntObjectMap<int[]> index, int key, int bookingId) {
+        int[] ids = index.get(key);
+        int at;
+        if (ids == null) {
+            ids = new int[2];
+            index.put(key, ids);
+            at = 1;
+        } else {
+            at = ids[ids[0]] < bookingId ? ids[0] + 1 : Arrays.binarySearch(ids, 1, ids[0] + 1, bookingId);
+            if (at < 0) {
+                at = -at - 1;
+            } else if (at <= ids[0]) {
+                return;
+            }
+            if (ids[0] + 1 == ids.length) {
+                ids = Arrays.copyOf(ids, ids.length * 2);
+                index.put(key, ids);
+            }
+        }
+        System.arraycopy(ids, at, ids, at + 1, ids[0] + 1 - at);
+        ids[at] = bookingId;
+        ids[0]++;
+    }
+
+    private static void remove(IntObjectMap<int[]> index, int key, int bookingId) {
+        int[] ids = index.get(key);
+        if (ids == null) {
+            return;
+        }
+        int i = Arrays.binarySearch(ids, 1, ids[0] + 1, bookingId);
+        if (i < 0) {
+            return;
+        }
+        System.arraycopy(ids, i + 1, ids, i, ids[0] - i);
+        if (--ids[0] == 0) {
+            index.remove(key);
+        }
+    }
+
+    private static int[] copy(int[] ids) {
+        return ids == null ? new int[0] : Arrays.copyOfRange(ids, 1, ids[0] + 1);
+    }
+
+    // Ids in both; a is a plain sorted array, b has its count in front
+    private static int[] intersect(int[] a, int[] b) {
+        if (b == null) {
+            return new int[0];
+        }
+        int[] result = new int[Math.min(a.length, b[0])];
+        int n = 0;
+        for (int i = 0, j = 1; i < a.length && j <= b[0]; ) {
+            if (a[i] < b[j]) {
+                i++;
+            } else if (a[i] > b[j]) {
+                j++;
+            } else {
+                result[n++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(result, n);
+    }
+}
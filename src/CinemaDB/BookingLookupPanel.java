@@ -0,0 +1,172 @@
+package CinemaDB;
+
+import javax.swing.*;
+import javax.swing.table.AbstractTableModel;
+import java.awt.BorderLayout;
+import java.awt.FlowLayout;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Find a customer's bookings by phone number, name or booking id, and cancel the one selected.
+ * Phone and name lookups go through {@link BookingLookupIndex}, so they read only the matching
+ * rows rather than every booking.
+ */
+public class BookingLookupPanel extends JPanel {
+    private static final long serialVersionUID = 1L;
+    private static final String BY_PHONE = "Phone number";
+    private static final String BY_NAME = "Name";
+    private static final String BY_ID = "Booking ID";
+
+    private final JComboBox<String> modeBox = new JComboBox<>(new String[] { BY_PHONE, BY_NAME, BY_ID });
+    private final JTextField queryField = new JTextField(18);
+    private final JButton findButton = new JButton("Find");
+    private final JButton cancelBookingButton = new JButton("Cancel Selected Booking");
+    private final ResultModel model = new ResultModel();
+    private final JTable table = new JTable(model);
+
+    private static final class ResultModel extends AbstractTableModel {
+        private static final long serialVersionUID = 1L;
+        private static final String[] COLUMNS = { "ID", "Customer", "Phone", "Movie", "Showtime", "Seats" };
+
+        private transient List<CustomerBooking> rows = Collections.emptyList();
+
+        void setRows(List<CustomerBooking> rows) {
+            this.rows = rows;
+            fireTableDataChanged();
+        }
+
+        CustomerBooking row(int index) {
+            return rows.get(index);
+        }
+
+        @Override
+        public int getRowCount() {
+            return rows.size();
+        }
+
+        @Override
+        public int getColumnCount() {
+            return COLUMNS.length;
+        }
+
+        @Override
+        public String getColumnName(int column) {
+            return COLUMNS[column];
+        }
+
+        @Override
+        public Object getValueAt(int rowIndex, int columnIndex) {
+            CustomerBooking b = rows.get(rowIndex);
+            switch (columnIndex) {
+                case 0: return b.bookingId();
+                case 1: return b.customerName();
+                case 2: return b.phoneNumber();
+                case 3: return b.title();
+                case 4: return b.showtimeId();
+                case 5: return b.seatsBooked();
+                default: return null;
+            }
+        }
+    }
+
+    public BookingLookupPanel() {
+        super(new BorderLayout(5, 5));
+        JPanel searchPanel = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        searchPanel.add(new JLabel("Find by:"));
+        searchPanel.add(modeBox);
+        searchPanel.add(queryField);
+        searchPanel.add(findButton);
+
+        JPanel actions = new JPanel(new FlowLayout(FlowLayout.RIGHT));
+        actions.add(cancelBookingButton);
+        cancelBookingButton.setEnabled(false);
+
+        add(searchPanel, BorderLayout.NORTH);
+        add(new JScrollPane(table), BorderLayout.CENTER);
+        add(actions, BorderLayout.SOUTH);
+
+        table.getSelectionModel().addListSelectionListener(e -> cancelBookingButton.setEnabled(table.getSelectedRow() >= 0));
+        findButton.addActionListener(e -> find());
+        queryField.addActionListener(e -> find());
+        cancelBookingButton.addActionListener(e -> cancelSelected());
+    }
+
+    private void find() {
+        String query = queryField.getText().trim();
+        if (query.isEmpty()) {
+            JOptionPane.showMessageDialog(this, "Enter something to look up.", "Error", JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+        Object mode = modeBox.getSelectedItem();
+        int bookingId = 0;
+        if (BY_ID.equals(mode)) {
+            try {
+                bookingId = Integer.parseInt(query);
+            } catch (NumberFormatException ex) {
+                JOptionPane.showMessageDialog(this, "Booking ID must be a number.", "Error", JOptionPane.ERROR_MESSAGE);
+                return;
+            }
+        }
+        int id = bookingId;
+        findButton.setEnabled(false);
+        CompletableFuture<List<CustomerBooking>> found = AsyncDatabase.submit(() -> {
+            if (BY_PHONE.equals(mode)) {
+                return BookingService.findBookingsByPhone(query, BookingLookupIndex.DEFAULT_LIMIT);
+            }
+            if (BY_NAME.equals(mode)) {
+                return BookingService.findBookingsByName(query, BookingLookupIndex.DEFAULT_LIMIT);
+            }
+            CustomerBooking booking = BookingService.findBooking(id);
+            return booking == null ? Collections.<CustomerBooking>emptyList() : List.of(booking);
+        });
+        AsyncDatabase.onEdt(found, rows -> {
+            findButton.setEnabled(true);
+            model.setRows(rows);
+            if (rows.isEmpty()) {
+                JOptionPane.showMessageDialog(this, "No bookings found.", "Info", JOptionPane.INFORMATION_MESSAGE);
+            } else if (rows.size() == 1) {
+                table.setRowSelectionInterval(0, 0);
+            }
+        }, ex -> {
+            findButton.setEnabled(true);
+            JOptionPane.showMessageDialog(this, "Error looking up bookings: " + ex.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+        });
+    }
+
+    private void cancelSelected() {
+        int selected = table.getSelectedRow();
+        if (selected < 0) {
+            return;
+        }
+        CustomerBooking booking = model.row(table.convertRowIndexToModel(selected));
+        int answer = JOptionPane.showConfirmDialog(this, "Cancel booking " + booking.bookingId() + " for "
+                + booking.customerName() + " (" + booking.seatsBooked() + " seats)?", "Cancel Booking", JOptionPane.YES_NO_OPTION);
+        if (answer != JOptionPane.YES_OPTION) {
+            return;
+        }
+
+        // Deletes the booking and returns its seats to the showtime
+        cancelBookingButton.setEnabled(false);
+        CompletableFuture<Boolean> cancelled = AsyncDatabase.submit(() -> BookingService.cancel(booking.bookingId()));
+        AsyncDatabase.onEdt(cancelled, ok -> {
+            if (ok) {
+                JOptionPane.showMessageDialog(this, "Booking cancelled successfully!");
+            } else {
+                JOptionPane.showMessageDialog(this, "No booking found with ID: " + booking.bookingId(), "Error", JOptionPane.ERROR_MESSAGE);
+            }
+            List<CustomerBooking> rows = new ArrayList<>();
+            for (int i = 0; i < model.getRowCount(); i++) {
+                if (model.row(i).bookingId() != booking.bookingId()) {
+                    rows.add(model.row(i));
+                }
+            }
+            model.setRows(rows);
+        }, ex -> {
+            cancelBookingButton.setEnabled(table.getSelectedRow() >= 0);
+            JOptionPane.showMessageDialog(this, "Error cancelling booking: " + ex.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+        });
+    }
+}
@@ -0,0 +1,445 @@
+package CinemaDB;
+
+import java.io.IOException;
+import java.sql.*;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+/** Inserts, lookups and deletes on the Bookings table. */
+public class BookingRepository {
+    private static final String INSERT_SQL =
+            "INSERT INTO Bookings (movie_id, showtime_id, customer_name, phone_number, seats_booked) VALUES (?, ?, ?, ?, ?)";
+    private static final String FIND_SEATS_SQL =
+            "SELECT showtime_id, seats_booked, customer_name, phone_number FROM Bookings WHERE booking_id = ?";
+    private static final String INSERT_WITH_SEATS_SQL =
+            "INSERT INTO Bookings (movie_id, showtime_id, customer_name, phone_number, seats_booked, seat_row, first_seat) "
+                    + "VALUES (?, ?, ?, ?, ?, ?, ?)";
+    private static final String INSERT_WITH_ID_SQL =
+            "INSERT INTO Bookings (booking_id, movie_id, showtime_id, customer_name, phone_number, seats_booked, seat_row, first_seat) "
+                    + "VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
+    private static final String FIND_SEAT_POSITION_SQL =
+            "SELECT showtime_id, seats_booked, seat_row, first_seat FROM Bookings WHERE booking_id = ?";
+    private static final String CONTACTS_AFTER_SQL =
+            "SELECT booking_id, customer_name, phone_number FROM Bookings WHERE booking_id > ? ORDER BY booking_id LIMIT ?";
+    // booking_id, movie_id, title, showtime_id, show_time, customer_name, phone_number, seats_booked
+    static final String EXPORT_SQL =
+            "SELECT b.booking_id, b.movie_id, m.title, b.showtime_id, s.show_time, b.customer_name, b.phone_number, "
+                    + "b.seats_booked FROM Bookings b "
+                    + "JOIN Showtimes s ON b.showtime_id = s.showtime_id "
+                    + "LEFT JOIN Movies m ON b.movie_id = m.movie_id ";
+    private static final String EXPORT_ALL_SQL = EXPORT_SQL + "ORDER BY b.booking_id";
+    private static final String EXPORT_BETWEEN_SQL =
+            EXPORT_SQL + "WHERE s.show_time >= ? AND s.show_time < ? ORDER BY b.booking_id";
+    // Rows per round trip when streaming from a database other than MySQL
+    private static final int STREAM_FETCH_SIZE = 1_000;
+    private static final String SALES_AFTER_SQL =
+            "SELECT booking_id, showtime_id, seats_booked FROM Bookings WHERE booking_id > ? ORDER BY booking_id LIMIT ?";
+    private static final String CONTACTS_BY_IDS_SQL =
+            "SELECT booking_id, customer_name, phone_number FROM Bookings WHERE booking_id IN (";
+    private static final String FIND_BY_IDS_SQL =
+            "SELECT b.booking_id, b.customer_name, b.phone_number, m.title, b.showtime_id, b.seats_booked FROM Bookings b "
+                    + "LEFT JOIN Movies m ON b.movie_id = m.movie_id WHERE b.booking_id IN (";
+    // Completes an IN query prefix for row counting; lists of two or more share one metrics entry
+    private static final String IN_LIST_LABEL = "?, ?)";
+    private static final String DELETE_SQL =
+            "DELETE FROM Bookings WHERE booking_id = ?";
+    // Booking id counter on the primary, used instead of AUTO_INCREMENT once bookings are sharded
+    private static final String RESERVE_ID_BLOCK_SQL = "UPDATE booking_id_blocks SET next_id = next_id + ? WHERE block_id = 1";
+    private static final String FIND_NEXT_ID_SQL = "SELECT next_id FROM booking_id_blocks WHERE block_id = 1";
+
+    // Listing queries for PagedTableModel; keyset pagination on booking_id
+    static final String COUNT_SQL = "SELECT COUNT(*) FROM Bookings";
+    // With shards, where the union of all shards is paged; see PagedTableModel
+    static final String COUNT_UP_TO_SQL = "SELECT COUNT(*) FROM Bookings WHERE booking_id <= ?";
+    static final String KEY_AT_OFFSET_SQL = "SELECT booking_id FROM Bookings ORDER BY booking_id LIMIT 1 OFFSET ?";
+    static final String PAGE_SQL =
+            "SELECT b.booking_id, b.customer_name, m.title, b.seats_booked FROM Bookings b "
+                    + "JOIN Movies m ON b.movie_id = m.movie_id "
+                    + "WHERE b.booking_id > ? ORDER BY b.booking_id LIMIT ?";
+
+    /** The showtime and seat count of one booking, and who made it. */
+    public static final class BookedSeats {
+        public final int showtimeId;
+        public final int seats;
+        public final String customerName;
+        public final String phoneNumber;
+
+        BookedSeats(int showtimeId, int seats, String customerName, String phoneNumber) {
+            this.showtimeId = showtimeId;
+            this.seats = seats;
+            this.customerName = customerName;
+            this.phoneNumber = phoneNumber;
+        }
+    }
+
+    /** Receives the rows of {@link #scanContacts}. */
+    interface ContactVisitor {
+        void visit(int bookingId, String customerName, String phoneNumber);
+    }
+
+    /** Receives the rows of {@link #scanSales}. */
+    interface SalesVisitor {
+        void visit(int bookingId, int showtimeId, int seatsBooked);
+    }
+
+    /** Receives the rows of {@link #streamExport}; the row is only valid during the call. */
+    interface ExportVisitor {
+        void visit(ResultSet row) throws SQLException, IOException;
+    }
+
+    /** Maps the {@link #PAGE_SQL} select list. */
+    public static final RowMapper<BookingSummary> SUMMARY_MAPPER =
+            rs -> new BookingSummary(rs.getInt(1), rs.getString(2), rs.getString(3), rs.getInt(4));
+
+    private static final RowMapper<BookedSeats> BOOKED_SEATS_MAPPER =
+            rs -> new BookedSeats(rs.getInt(1), rs.getInt(2), rs.getString(3), rs.getString(4));
+
+    /** Maps the {@link #FIND_BY_IDS_SQL} select list. */
+    private static final RowMapper<CustomerBooking> CUSTOMER_MAPPER = rs -> new CustomerBooking(rs.getInt(1),
+            rs.getString(2), rs.getString(3), rs.getString(4), rs.getInt(5), rs.getInt(6));
+
+    /** Inserts a booking and returns its generated booking_id (0 if the driver did not report one). */
+    public static int insert(Connection connection, int movieId, int showtimeId, String customerName,
+                             String phoneNumber, int seats) throws SQLException {
+        int id = allocateId();
+        if (id != 0) {
+            insertWithId(connection, id, movieId, showtimeId, customerName, phoneNumber, seats, -1, -1);
+            return id;
+        }
+        try (PreparedStatement stmt = connection.prepareStatement(INSERT_SQL, Statement.RETURN_GENERATED_KEYS)) {
+            stmt.setInt(1, movieId);
+            stmt.setInt(2, showtimeId);
+            stmt.setString(3, customerName);
+            stmt.setString(4, phoneNumber);
+            stmt.setInt(5, seats);
+            stmt.executeUpdate();
+
+            try (ResultSet keys = stmt.getGeneratedKeys()) {
+                return keys.next() ? keys.getInt(1) : 0;
+            }
+        }
+    }
+
+    /**
+     * Inserts several bookings with one batched statement (one multi-row INSERT when the URL has
+     * {@code rewriteBatchedStatements=true}) and returns their booking_ids in the same order;
+     * an id is 0 if the driver did not report it.
+     */
+    static int[] insertBatch(Connection connection, List<SeatInventory.PendingBooking> bookings) throws SQLException {
+        if (DatabaseConnection.getShards().isSharded()) {
+            return insertBatchWithIds(connection, bookings);
+        }
+        try (PreparedStatement stmt = connection.prepareStatement(INSERT_SQL, Statement.RETURN_GENERATED_KEYS)) {
+            for (SeatInventory.PendingBooking b : bookings) {
+                stmt.setInt(1, b.movieId);
+                stmt.setInt(2, b.showtimeId);
+                stmt.setString(3, b.customerName);
+                stmt.setString(4, b.phoneNumber);
+                stmt.setInt(5, b.seats);
+                stmt.addBatch();
+            }
+            stmt.executeBatch();
+
+            int[] ids = new int[bookings.size()];
+            try (ResultSet keys = stmt.getGeneratedKeys()) {
+                for (int i = 0; i < ids.length && keys.next(); i++) {
+                    ids[i] = keys.getInt(1);
+                }
+            }
+            return ids;
+        }
+    }
+
+    /**
+     * Inserts a booking for a block of seats picked on the seat map and returns its booking_id
+     * (0 if the driver did not report one).
+     */
+    static int insertWithSeats(Connection connection, int movieId, int showtimeId, String customerName,
+                               String phoneNumber, int seats, int seatRow, int firstSeat) throws SQLException {
+        int id = allocateId();
+        if (id != 0) {
+            insertWithId(connection, id, movieId, showtimeId, customerName, phoneNumber, seats, seatRow, firstSeat);
+            return id;
+        }
+        try (PreparedStatement stmt = connection.prepareStatement(INSERT_WITH_SEATS_SQL, Statement.RETURN_GENERATED_KEYS)) {
+            stmt.setInt(1, movieId);
+            stmt.setInt(2, showtimeId);
+            stmt.setString(3, customerName);
+            stmt.setString(4, phoneNumber);
+            stmt.setInt(5, seats);
+            stmt.setInt(6, seatRow);
+            stmt.setInt(7, firstSeat);
+            stmt.executeUpdate();
+
+            try (ResultSet keys = stmt.getGeneratedKeys()) {
+                return keys.next() ? keys.getInt(1) : 0;
+            }
+        }
+    }
+
+    // With shards, the id for the next booking (see ShardRouter); 0 to use AUTO_INCREMENT
+    private static int allocateId() throws SQLException {
+        ShardRouter shards = DatabaseConnection.getShards();
+        return shards.isSharded() ? shards.nextBookingId() : 0;
+    }
+
+    private static int[] insertBatchWithIds(Connection connection, List<SeatInventory.PendingBooking> bookings)
+            throws SQLException {
+        ShardRouter shards = DatabaseConnection.getShards();
+        int[] ids = new int[bookings.size()];
+        try (PreparedStatement stmt = connection.prepareStatement(INSERT_WITH_ID_SQL)) {
+            for (int i = 0; i < ids.length; i++) {
+                SeatInventory.PendingBooking b = bookings.get(i);
+                ids[i] = shards.nextBookingId();
+                stmt.setInt(1, ids[i]);
+                stmt.setInt(2, b.movieId);
+                stmt.setInt(3, b.showtimeId);
+                stmt.setString(4, b.customerName);
+                stmt.setString(5, b.phoneNumber);
+                stmt.setInt(6, b.seats);
+                stmt.setNull(7, Types.INTEGER);
+                stmt.setNull(8, Types.INTEGER);
+                stmt.addBatch();
+            }
+            stmt.executeBatch();
+        }
+        return ids;
+    }
+
+    /**
+     * Takes {@code count} booking ids off the counter on the primary and returns the first; the
+     * row stays locked until the caller's transaction ends.
+     */
+    static int reserveIdBlock(Connection connection, int count) throws SQLException {
+        try (PreparedStatement stmt = connection.prepareStatement(RESERVE_ID_BLOCK_SQL)) {
+            stmt.setInt(1, count);
+            if (stmt.executeUpdate() == 0) {
+                throw new SQLException("The booking id counter is missing; add shards with ShardRebalancer.");
+            }
+        }
+        try (PreparedStatement stmt = connection.prepareStatement(FIND_NEXT_ID_SQL);
+             ResultSet rs = stmt.executeQuery()) {
+            rs.next();
+            Metrics.rowsRead(FIND_NEXT_ID_SQL, 1);
+            return rs.getInt(1) - count;
+        }
+    }
+
+    /**
+     * Inserts a booking under a known booking_id, e.g. one replayed from the {@link BookingJournal};
+     * seatRow -1 stores a booking made by count.
+     */
+    static void insertWithId(Connection connection, int bookingId, int movieId, int showtimeId, String customerName,
+                             String phoneNumber, int seats, int seatRow, int firstSeat) throws SQLException {
+        try (PreparedStatement stmt = connection.prepareStatement(INSERT_WITH_ID_SQL)) {
+            stmt.setInt(1, bookingId);
+            stmt.setInt(2, movieId);
+            stmt.setInt(3, showtimeId);
+            stmt.setString(4, customerName);
+            stmt.setString(5, phoneNumber);
+            stmt.setInt(6, seats);
+            if (seatRow < 0) {
+                stmt.setNull(7, Types.INTEGER);
+                stmt.setNull(8, Types.INTEGER);
+            } else {
+                stmt.setInt(7, seatRow);
+                stmt.setInt(8, firstSeat);
+            }
+            stmt.executeUpdate();
+        }
+    }
+
+    /**
+     * Where a booking sits: {showtime_id, seats_booked, seat_row, first_seat}, with seat_row -1 for
+     * a booking made without the seat map; null if there is no such booking.
+     */
+    static int[] findSeatPosition(Connection connection, int bookingId) throws SQLException {
+        try (PreparedStatement stmt = connection.prepareStatement(FIND_SEAT_POSITION_SQL)) {
+            stmt.setInt(1, bookingId);
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (!rs.next()) {
+                    return null;
+                }
+                Metrics.rowsRead(FIND_SEAT_POSITION_SQL, 1);
+                int row = rs.getInt(3);
+                if (rs.wasNull()) {
+                    row = -1;
+                }
+                return new int[] { rs.getInt(1), rs.getInt(2), row, rs.getInt(4) };
+            }
+        }
+    }
+
+    /** The showtime and seats of a booking, or null if there is no such booking. */
+    public static BookedSeats findSeats(Connection connection, int bookingId) throws SQLException {
+        try (PreparedStatement stmt = connection.prepareStatement(FIND_SEATS_SQL)) {
+            stmt.setInt(1, bookingId);
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (!rs.next()) {
+                    return null;
+                }
+                Metrics.rowsRead(FIND_SEATS_SQL, 1);
+                return BOOKED_SEATS_MAPPER.map(rs);
+            }
+        }
+    }
+
+    /** Up to {@code limit} bookings with booking_id greater than {@code afterBookingId}, in id order. */
+    public static List<BookingSummary> findPage(Connection connection, int afterBookingId, int limit) throws SQLException {
+        try (PreparedStatement stmt = connection.prepareStatement(PAGE_SQL)) {
+            stmt.setFetchSize(limit);
+            stmt.setInt(1, afterBookingId);
+            stmt.setInt(2, limit);
+            try (ResultSet rs = stmt.executeQuery()) {
+                List<BookingSummary> page = new ArrayList<>(limit);
+                while (rs.next()) {
+                    page.add(SUMMARY_MAPPER.map(rs));
+                }
+                Metrics.rowsRead(PAGE_SQL, page.size());
+                return page;
+            }
+        }
+    }
+
+    /**
+     * Passes the id, name and phone number of up to {@code limit} bookings with booking_id greater
+     * than {@code afterBookingId} to the visitor, in id order, and returns how many there were.
+     */
+    static int scanContacts(Connection connection, int afterBookingId, int limit, ContactVisitor visitor) throws SQLException {
+        try (PreparedStatement stmt = connection.prepareStatement(CONTACTS_AFTER_SQL)) {
+            stmt.setFetchSize(limit);
+            stmt.setInt(1, afterBookingId);
+            stmt.setInt(2, limit);
+            int n = 0;
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    visitor.visit(rs.getInt(1), rs.getString(2), rs.getString(3));
+                    n++;
+                }
+            }
+            Metrics.rowsRead(CONTACTS_AFTER_SQL, n);
+            return n;
+        }
+    }
+
+    /**
+     * Reads booking id, showtime and seat count of up to {@code limit} bookings after
+     * {@code afterBookingId} in booking_id order; returns how many were read.
+     */
+    static int scanSales(Connection connection, int afterBookingId, int limit, SalesVisitor visitor) throws SQLException {
+        try (PreparedStatement stmt = connection.prepareStatement(SALES_AFTER_SQL)) {
+            stmt.setFetchSize(limit);
+            stmt.setInt(1, afterBookingId);
+            stmt.setInt(2, limit);
+            int n = 0;
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    visitor.visit(rs.getInt(1), rs.getInt(2), rs.getInt(3));
+                    n++;
+                }
+            }
+            Metrics.rowsRead(SALES_AFTER_SQL, n);
+            return n;
+        }
+    }
+
+    /**
+     * Passes every booking, or those for showtimes from {@code from} (inclusive) to {@code to}
+     * (exclusive) when both are given, to the visitor in booking_id order with the
+     * {@link #EXPORT_SQL} columns; returns how many there were.
+     *
+     * The rows come through a forward-only, read-only cursor. On MySQL the fetch size is
+     * {@code Integer.MIN_VALUE}, which makes Connector/J stream them one at a time instead of
+     * reading the whole result into memory, so the connection can run no other statement until
+     * this returns. If the visitor throws, the statement is cancelled before it is closed, so the
+     * server stops sending rows rather than the driver reading the rest just to discard them.
+     */
+    static long streamExport(Connection connection, LocalDateTime from, LocalDateTime to, ExportVisitor visitor)
+            throws SQLException, IOException {
+        boolean between = from != null && to != null;
+        try (PreparedStatement stmt = connection.prepareStatement(between ? EXPORT_BETWEEN_SQL : EXPORT_ALL_SQL,
+                ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+            stmt.setFetchSize(DatabaseConnection.getBackend() == StorageBackend.MYSQL ? Integer.MIN_VALUE : STREAM_FETCH_SIZE);
+            if (between) {
+                stmt.setTimestamp(1, Timestamp.valueOf(from));
+                stmt.setTimestamp(2, Timestamp.valueOf(to));
+            }
+            long n = 0;
+            try (ResultSet rs = stmt.executeQuery()) {
+                try {
+                    while (rs.next()) {
+                        visitor.visit(rs);
+                        n++;
+                    }
+                } catch (SQLException | IOException | RuntimeException e) {
+                    // Before the result set is closed, which is what would drain it
+                    try {
+                        stmt.cancel();
+                    } catch (SQLException ignored) {
+                        // Closing still ends the query, only more slowly
+                    }
+                    throw e;
+                } finally {
+                    Metrics.rowsRead(between ? EXPORT_BETWEEN_SQL : EXPORT_ALL_SQL, n);
+                }
+            }
+            return n;
+        }
+    }
+
+    /** As {@link #scanContacts}, for those of {@code ids} that exist, in no particular order. */
+    static void scanContacts(Connection connection, int[] ids, ContactVisitor visitor) throws SQLException {
+        if (ids.length == 0) {
+            return;
+        }
+        try (PreparedStatement stmt = prepareIn(connection, CONTACTS_BY_IDS_SQL, ids, 0, ids.length);
+             ResultSet rs = stmt.executeQuery()) {
+            int n = 0;
+            while (rs.next()) {
+                visitor.visit(rs.getInt(1), rs.getString(2), rs.getString(3));
+                n++;
+            }
+            Metrics.rowsRead(CONTACTS_BY_IDS_SQL + IN_LIST_LABEL, n);
+        }
+    }
+
+    /** The bookings among {@code ids[from..to)} that still exist, in no particular order. */
+    static List<CustomerBooking> findByIds(Connection connection, int[] ids, int from, int to) throws SQLException {
+        if (from >= to) {
+            return new ArrayList<>();
+        }
+        try (PreparedStatement stmt = prepareIn(connection, FIND_BY_IDS_SQL, ids, from, to)) {
+            try (ResultSet rs = stmt.executeQuery()) {
+                List<CustomerBooking> rows = new ArrayList<>(to - from);
+                while (rs.next()) {
+                    rows.add(CUSTOMER_MAPPER.map(rs));
+                }
+                Metrics.rowsRead(FIND_BY_IDS_SQL + IN_LIST_LABEL, rows.size());
+                return rows;
+            }
+        }
+    }
+
+    // sqlPrefix ends in "IN ("; adds a placeholder per id and binds them
+    private static PreparedStatement prepareIn(Connection connection, String sqlPrefix, int[] ids, int from, int to)
+            throws SQLException {
+        StringBuilder sql = new StringBuilder(sqlPrefix);
+        for (int i = from; i < to; i++) {
+            sql.append(i == from ? "?" : ", ?");
+        }
+        PreparedStatement stmt = connection.prepareStatement(sql.append(')').toString());
+        for (int i = from; i < to; i++) {
+            stmt.setInt(i - from + 1, ids[i]);
+        }
+        return stmt;
+    }
+
+    /** Returns false if there was no booking to delete. */
+    public static boolean delete(Connection connection, int bookingId) throws SQLException {
+        try (PreparedStatement stmt = connection.prepareStatement(DELETE_SQL)) {
+            stmt.setInt(1, bookingId);
+            return stmt.executeUpdate() > 0;
+        }
+    }
+}
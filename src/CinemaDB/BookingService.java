@@ -0,0 +1,346 @@
+package CinemaDB;
+
+import java.sql.*;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Booking, listing and cancellation without any UI.
+ *
+ * The Swing dialogs and {@link BookingHttpServer} both go through here, so the validation
+ * rules and the reservation path are the same no matter where a booking comes from.
+ */
+public class BookingService {
+    /** Seat count shown for a showtime whose available_seats is NULL, as the old listing did. */
+    public static final int DEFAULT_SEATS = 150;
+    /** Ticket id for {@link #reserve(int, int, String, String, int, long)} without a waiting room ticket. */
+    public static final long NO_TICKET = 0;
+
+    // Per-call latency, see Metrics
+    private static final Metrics.Timer LIST_MOVIES = Metrics.action("list_movies");
+    private static final Metrics.Timer SEARCH_MOVIES = Metrics.action("search_movies");
+    private static final Metrics.Timer LIST_GENRES = Metrics.action("list_genres");
+    private static final Metrics.Timer LIST_SHOWTIMES = Metrics.action("list_showtimes");
+    private static final Metrics.Timer LIST_AVAILABILITY = Metrics.action("list_availability");
+    private static final Metrics.Timer ADD_BOOKING = Metrics.action("add_booking");
+    private static final Metrics.Timer HOLD_SEATS = Metrics.action("hold_seats");
+    private static final Metrics.Timer CONFIRM_HOLD = Metrics.action("confirm_hold");
+    private static final Metrics.Timer RELEASE_HOLD = Metrics.action("release_hold");
+    private static final Metrics.Timer CANCEL_BOOKING = Metrics.action("cancel_booking");
+    private static final Metrics.Timer FIND_BOOKINGS_BY_PHONE = Metrics.action("find_bookings_by_phone");
+    private static final Metrics.Timer FIND_BOOKINGS_BY_NAME = Metrics.action("find_bookings_by_name");
+    private static final Metrics.Timer FIND_BOOKING = Metrics.action("find_booking");
+    private static final Metrics.Timer LIST_BOOKINGS = Metrics.action("list_bookings");
+    private static final Metrics.Timer SALES_REPORT = Metrics.action("sales_report");
+
+    /** A showtime with its movie title and current seat count. */
+    public record ShowtimeSeats(int movieId, String title, int showtimeId, LocalDateTime showTime, int availableSeats) {
+        /** As {@link Showtime#formattedShowTime()}. */
+        public String formattedShowTime() {
+            return showTime == null ? "null" : Showtime.DISPLAY_FORMAT.format(showTime);
+        }
+    }
+
+    public static List<Movie> listMovies() throws SQLException {
+        long start = System.nanoTime();
+        try {
+            return CatalogCache.getInstance().snapshot().movies();
+        } finally {
+            LIST_MOVIES.recordSince(start);
+        }
+    }
+
+    /** Movies matching a search, ordered by title; see {@link MovieSearchIndex}. */
+    public static List<Movie> searchMovies(MovieSearchIndex.Query query) throws SQLException {
+        long start = System.nanoTime();
+        try {
+            return CatalogCache.getInstance().search(query);
+        } finally {
+            SEARCH_MOVIES.recordSince(start);
+        }
+    }
+
+    public static List<String> listGenres() throws SQLException {
+        long start = System.nanoTime();
+        try {
+            return CatalogCache.getInstance().genres();
+        } finally {
+            LIST_GENRES.recordSince(start);
+        }
+    }
+
+    /** The showtimes of one movie, ordered by show time. */
+    public static List<ShowtimeSeats> listShowtimes(int movieId) throws SQLException {
+        long start = System.nanoTime();
+        try {
+            CatalogCache.Snapshot catalog = CatalogCache.getInstance().snapshot();
+            SeatInventory inventory = SeatInventory.getInstance();
+            Movie movie = catalog.movie(movieId);
+            List<ShowtimeSeats> result = new ArrayList<>();
+            for (Showtime showtime : catalog.showtimesForMovie(movieId)) {
+                result.add(seatsFor(movie, showtime, inventory));
+            }
+            return result;
+        } finally {
+            LIST_SHOWTIMES.recordSince(start);
+        }
+    }
+
+    /**
+     * Every movie with every one of its showtimes. A movie without showtimes still gets one row,
+     * with showtime id 0 and no show time, like the Movies LEFT JOIN Showtimes listing it replaces.
+     */
+    public static List<ShowtimeSeats> listAvailability() throws SQLException {
+        long start = System.nanoTime();
+        try {
+            CatalogCache.Snapshot catalog = CatalogCache.getInstance().snapshot();
+            SeatInventory inventory = SeatInventory.getInstance();
+            List<ShowtimeSeats> result = new ArrayList<>();
+            for (Movie movie : catalog.movies()) {
+                List<Showtime> showtimes = catalog.showtimesForMovie(movie.movieId());
+                if (showtimes.isEmpty()) {
+                    result.add(new ShowtimeSeats(movie.movieId(), movie.title(), 0, null, DEFAULT_SEATS));
+                }
+                for (Showtime showtime : showtimes) {
+                    result.add(seatsFor(movie, showtime, inventory));
+                }
+            }
+            return result;
+        } finally {
+            LIST_AVAILABILITY.recordSince(start);
+        }
+    }
+
+    private static ShowtimeSeats seatsFor(Movie movie, Showtime showtime, SeatInventory inventory) {
+        int available = inventory.available(showtime.showtimeId());
+        return new ShowtimeSeats(showtime.movieId(), movie == null ? null : movie.title(), showtime.showtimeId(),
+                showtime.showTime(), available < 0 ? DEFAULT_SEATS : available);
+    }
+
+    /**
+     * Checks customer details and seat count.
+     *
+     * @throws IllegalArgumentException with a message suitable for showing to the user
+     */
+    public static void validateBooking(String customerName, String phoneNumber, int seats) {
+        if (customerName == null || customerName.isEmpty() || phoneNumber == null || phoneNumber.isEmpty()) {
+            throw new IllegalArgumentException("All fields must be filled out!");
+        }
+        if (!customerName.matches("[a-zA-Z ]+")) {
+            throw new IllegalArgumentException("Full name should only contain letters and spaces.");
+        }
+        if (!phoneNumber.matches("[+0-9]+")) {
+            throw new IllegalArgumentException("Phone number should only contain digits and optional '+' sign.");
+        }
+        if (seats <= 0) {
+            throw new IllegalArgumentException("Seats to book must be a positive number.");
+        }
+    }
+
+    /**
+     * Validates and books seats, after waiting for the showtime's turn in the
+     * {@link AdmissionController} waiting room.
+     *
+     * @return as {@link SeatReservationService#reserve}: the booking id,
+     *         {@link SeatReservationService#NOT_ENOUGH_SEATS} or {@link SeatReservationService#BOOKING_QUEUED};
+     *         or {@link AdmissionController#BUSY} if the wait ran out
+     */
+    public static int reserve(int movieId, int showtimeId, String customerName, String phoneNumber, int seats)
+            throws SQLException {
+        return reserve(movieId, showtimeId, customerName, phoneNumber, seats, NO_TICKET);
+    }
+
+    /**
+     * As {@link #reserve(int, int, String, String, int)}, for a client already let in with a
+     * waiting room ticket ({@link AdmissionController#join}); {@link #NO_TICKET} waits as usual.
+     *
+     * @return as above, or {@link AdmissionController#NOT_ADMITTED} if the ticket cannot be used
+     */
+    public static int reserve(int movieId, int showtimeId, String customerName, String phoneNumber, int seats,
+                              long ticketId) throws SQLException {
+        validateBooking(customerName, phoneNumber, seats);
+        int admitted = admit(showtimeId, seats, ticketId);
+        if (admitted != AdmissionController.ADMITTED) {
+            return admitted;
+        }
+        return reserveAdmitted(movieId, showtimeId, customerName, phoneNumber, seats);
+    }
+
+    /**
+     * Takes the showtime's turn for {@code seats} seats: redeems a waiting room ticket, or with
+     * {@link #NO_TICKET} waits in {@link AdmissionController#enter}. Nothing here uses the
+     * database, so {@link AsyncDatabase} callers do it before taking a connection permit.
+     *
+     * @return {@link AdmissionController#ADMITTED}, {@link SeatReservationService#NOT_ENOUGH_SEATS}
+     *         if the showtime is sold out, {@link AdmissionController#BUSY} or
+     *         {@link AdmissionController#NOT_ADMITTED}
+     */
+    public static int admit(int showtimeId, int seats, long ticketId) throws SQLException {
+        if (seats <= 0) {
+            throw new IllegalArgumentException("Seats to book must be a positive number.");
+        }
+        AdmissionController admission = AdmissionController.getInstance();
+        if (ticketId != NO_TICKET) {
+            return admission.redeem(ticketId, showtimeId, seats)
+                    ? AdmissionController.ADMITTED : AdmissionController.NOT_ADMITTED;
+        }
+        return switch (admission.enter(showtimeId, seats)) {
+            case ADMITTED -> AdmissionController.ADMITTED;
+            case SOLD_OUT -> SeatReservationService.NOT_ENOUGH_SEATS;
+            case BUSY -> AdmissionController.BUSY;
+        };
+    }
+
+    /**
+     * As {@link #reserve(int, int, String, String, int)}, for a caller that {@link #admit} has
+     * already let in.
+     */
+    public static int reserveAdmitted(int movieId, int showtimeId, String customerName, String phoneNumber, int seats)
+            throws SQLException {
+        long start = System.nanoTime();
+        try {
+            validateBooking(customerName, phoneNumber, seats);
+            return SeatReservationService.reserve(movieId, showtimeId, customerName, phoneNumber, seats);
+        } finally {
+            ADD_BOOKING.recordSince(start);
+        }
+    }
+
+    /**
+     * Holds seats while the customer fills in the rest of the booking; see {@link SeatHoldService}.
+     * The hold is where the booking takes its turn, so call {@link #admit} first; confirming the
+     * hold later does not wait again.
+     *
+     * @return the hold, or null if the showtime does not have that many seats left
+     */
+    public static SeatHoldService.Hold holdSeats(int showtimeId, int seats) throws SQLException {
+        long start = System.nanoTime();
+        try {
+            return SeatHoldService.hold(showtimeId, seats);
+        } finally {
+            HOLD_SEATS.recordSince(start);
+        }
+    }
+
+    /**
+     * Validates and books the seats of a hold.
+     *
+     * @return as {@link #reserve}, or {@link SeatHoldService#HOLD_EXPIRED}
+     */
+    public static int confirmHold(long holdId, int movieId, String customerName, String phoneNumber)
+            throws SQLException {
+        long start = System.nanoTime();
+        try {
+            return SeatHoldService.confirm(holdId, movieId, customerName, phoneNumber);
+        } finally {
+            CONFIRM_HOLD.recordSince(start);
+        }
+    }
+
+    /** Returns false if the hold was already confirmed, released or lapsed. */
+    public static boolean releaseHold(long holdId) throws SQLException {
+        long start = System.nanoTime();
+        try {
+            return SeatHoldService.release(holdId);
+        } finally {
+            RELEASE_HOLD.recordSince(start);
+        }
+    }
+
+    /** Returns false if there is no booking with that id. */
+    public static boolean cancel(int bookingId) throws SQLException {
+        long start = System.nanoTime();
+        try {
+            return SeatReservationService.cancel(bookingId);
+        } finally {
+            CANCEL_BOOKING.recordSince(start);
+        }
+    }
+
+    /** Bookings made with this phone number, newest first; see {@link BookingLookupIndex}. */
+    public static List<CustomerBooking> findBookingsByPhone(String phoneNumber, int limit) throws SQLException {
+        long start = System.nanoTime();
+        try {
+            return BookingLookupIndex.getInstance().findByPhone(phoneNumber, limit);
+        } finally {
+            FIND_BOOKINGS_BY_PHONE.recordSince(start);
+        }
+    }
+
+    /** Bookings whose customer name starts with the given words, newest first; see {@link BookingLookupIndex}. */
+    public static List<CustomerBooking> findBookingsByName(String namePrefix, int limit) throws SQLException {
+        long start = System.nanoTime();
+        try {
+            return BookingLookupIndex.getInstance().findByName(namePrefix, limit);
+        } finally {
+            FIND_BOOKINGS_BY_NAME.recordSince(start);
+        }
+    }
+
+    /** The booking with that id, or null. */
+    public static CustomerBooking findBooking(int bookingId) throws SQLException {
+        long start = System.nanoTime();
+        try {
+            // Asks every shard; without shards that is just the primary (or a replica)
+            for (List<CustomerBooking> rows : DatabaseConnection.getShards().gather(true,
+                    c -> BookingRepository.findByIds(c, new int[] { bookingId }, 0, 1))) {
+                if (!rows.isEmpty()) {
+                    return rows.get(0);
+                }
+            }
+            return null;
+        } finally {
+            FIND_BOOKING.recordSince(start);
+        }
+    }
+
+    /** One page of bookings with booking_id greater than {@code afterBookingId}. */
+    public static List<BookingSummary> listBookings(int afterBookingId, int limit) throws SQLException {
+        long start = System.nanoTime();
+        try {
+            ShardRouter shards = DatabaseConnection.getShards();
+            List<List<BookingSummary>> pages = shards.gather(true, c -> BookingRepository.findPage(c, afterBookingId, limit));
+            return pages.size() == 1 ? pages.get(0) : ShardRouter.mergeById(pages, BookingSummary::bookingId, limit);
+        } finally {
+            LIST_BOOKINGS.recordSince(start);
+        }
+    }
+
+    /** Sales and occupancy per showtime, from {@link SalesAnalytics}; no query on the booking tables. */
+    public static List<SalesAnalytics.ShowtimeSales> salesByShowtime() throws SQLException {
+        long start = System.nanoTime();
+        try {
+            return SalesAnalytics.getInstance().byShowtime();
+        } finally {
+            SALES_REPORT.recordSince(start);
+        }
+    }
+
+    public static List<SalesAnalytics.MovieSales> salesByMovie() throws SQLException {
+        long start = System.nanoTime();
+        try {
+            return SalesAnalytics.getInstance().byMovie();
+        } finally {
+            SALES_REPORT.recordSince(start);
+        }
+    }
+
+    public static List<SalesAnalytics.PeriodSales> salesByDay() throws SQLException {
+        long start = System.nanoTime();
+        try {
+            return SalesAnalytics.getInstance().byDay();
+        } finally {
+            SALES_REPORT.recordSince(start);
+        }
+    }
+
+    public static List<SalesAnalytics.PeriodSales> salesByHour() throws SQLException {
+        long start = System.nanoTime();
+        try {
+            return SalesAnalytics.getInstance().byHour();
+        } finally {
+            SALES_REPORT.recordSince(start);
+        }
+    }
+}
@@ -0,0 +1,5 @@
+package CinemaDB;
+
+/** One line of the bookings listing: a booking with its movie title. */
+public record BookingSummary(int bookingId, String customerName, String title, int seatsBooked) {
+}
@@ -0,0 +1,168 @@
+package CinemaDB;
+
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Read-through cache of the movie catalog and showtime schedule.
+ *
+ * The whole catalog is loaded into an immutable {@link Snapshot} that is swapped in one piece,
+ * so readers never see a half-loaded catalog and never take a lock. A snapshot older than the
+ * TTL ({@code -Dcinemadb.catalog.ttlMillis}, default five minutes) is still served while a fresh
+ * one is loaded in the background; only the very first load, or the first one after
+ * {@link #invalidate()}, makes the caller wait.
+ *
+ * Every load also brings a {@link MovieSearchIndex} up to date, re-indexing only the movies that
+ * changed since the previous load.
+ */
+public class CatalogCache {
+    private static final CatalogCache INSTANCE = new CatalogCache(Long.getLong("cinemadb.catalog.ttlMillis", 300_000));
+
+    /** One consistent, read-only view of the catalog. */
+    public static final class Snapshot {
+        private final List<Movie> movies;
+        private final IntObjectMap<Movie> moviesById;
+        private final IntObjectMap<Showtime> showtimesById;
+        private final IntObjectMap<List<Showtime>> showtimesByMovie;
+        private final long loadedAtNanos;
+
+        Snapshot(List<Movie> movies, List<Showtime> showtimes, long loadedAtNanos) {
+            this.movies = Collections.unmodifiableList(movies);
+            this.moviesById = new IntObjectMap<>(movies.size());
+            for (Movie m : movies) {
+                moviesById.put(m.movieId(), m);
+            }
+            this.showtimesById = new IntObjectMap<>(showtimes.size());
+            this.showtimesByMovie = new IntObjectMap<>(movies.size());
+            for (Showtime s : showtimes) {
+                showtimesById.put(s.showtimeId(), s);
+                showtimesByMovie.computeIfAbsent(s.movieId(), k -> new ArrayList<>()).add(s);
+            }
+            this.loadedAtNanos = loadedAtNanos;
+        }
+
+        /** All movies ordered by movie_id. */
+        public List<Movie> movies() {
+            return movies;
+        }
+
+        public Movie movie(int movieId) {
+            return moviesById.get(movieId);
+        }
+
+        public Showtime showtime(int showtimeId) {
+            return showtimesById.get(showtimeId);
+        }
+
+        /** Showtimes of one movie ordered by show time; empty if it has none. */
+        public List<Showtime> showtimesForMovie(int movieId) {
+            List<Showtime> list = showtimesByMovie.get(movieId);
+            return list == null ? Collections.emptyList() : Collections.unmodifiableList(list);
+        }
+    }
+
+    private final long ttlNanos;
+    private volatile Snapshot snapshot;
+    private final Object loadLock = new Object();
+    private final AtomicBoolean refreshing = new AtomicBoolean();
+    private final MovieSearchIndex searchIndex = new MovieSearchIndex();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong loads = new AtomicLong();
+    private final AtomicLong totalLoadNanos = new AtomicLong();
+    private volatile long lastLoadNanos;
+
+    CatalogCache(long ttlMillis) {
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+    }
+
+    static {
+        Metrics.cacheCounters("catalog", INSTANCE::getHits, INSTANCE::getMisses);
+    }
+
+    public static CatalogCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Returns the current catalog, loading it first if there is none yet. An expired snapshot is
+     * returned as-is and replaced in the background.
+     */
+    public Snapshot snapshot() throws SQLException {
+        Snapshot s = snapshot;
+        if (s != null) {
+            hits.incrementAndGet();
+            if (System.nanoTime() - s.loadedAtNanos > ttlNanos && refreshing.compareAndSet(false, true)) {
+                AsyncDatabase.submit(this::reload).whenComplete((r, e) -> {
+                    refreshing.set(false);
+                    if (e != null) {
+                        System.out.println("Error refreshing movie catalog: " + e.getMessage());
+                    }
+                });
+            }
+            return s;
+        }
+        misses.incrementAndGet();
+        synchronized (loadLock) {
+            s = snapshot;
+            return s != null ? s : reload();
+        }
+    }
+
+    /** Searches the catalog, loading it first if there is none yet. */
+    public List<Movie> search(MovieSearchIndex.Query query) throws SQLException {
+        snapshot();
+        return searchIndex.search(query);
+    }
+
+    /** Distinct genres in the catalog, loading it first if there is none yet. */
+    public List<String> genres() throws SQLException {
+        snapshot();
+        return searchIndex.genres();
+    }
+
+    /** Drops the current snapshot; the next {@link #snapshot()} call loads a new one. */
+    public void invalidate() {
+        snapshot = null;
+    }
+
+    private Snapshot reload() throws SQLException {
+        long start = System.nanoTime();
+        List<Movie> movies;
+        List<Showtime> showtimes;
+        try (Connection connection = DatabaseConnection.borrowReadConnection()) {
+            movies = MovieRepository.findAll(connection);
+            showtimes = ShowtimeRepository.findAll(connection);
+        }
+        Snapshot s = new Snapshot(movies, showtimes, System.nanoTime());
+        // Indexed before the snapshot is published, so a search never misses a listed movie
+        searchIndex.sync(movies);
+        snapshot = s;
+
+        long elapsed = System.nanoTime() - start;
+        loads.incrementAndGet();
+        totalLoadNanos.addAndGet(elapsed);
+        lastLoadNanos = elapsed;
+        return s;
+    }
+
+    public long getHits() { return hits.get(); }
+    public long getMisses() { return misses.get(); }
+    public long getLoads() { return loads.get(); }
+    public long getTotalLoadNanos() { return totalLoadNanos.get(); }
+    public long getLastLoadNanos() { return lastLoadNanos; }
+
+    @Override
+    public String toString() {
+        Snapshot s = snapshot;
+        return String.format("CatalogCache[movies=%d, hits=%d, misses=%d, loads=%d, lastLoad=%dms]",
+                s == null ? 0 : s.movies.size(), getHits(), getMisses(), getLoads(),
+                TimeUnit.NANOSECONDS.toMillis(getLastLoadNanos()));
+    }
+}
@@ -2,17 +2,21 @@ package CinemaDB;
 
 import javax.swing.*;
 import java.awt.*;
-import java.awt.event.*;
-import java.sql.*;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 public class CinemaApp {
-    private static Connection connection = DatabaseConnection.getConnection();
-
     public static void main(String[] args) {
-        if (connection == null) {
+        if (!DatabaseConnection.isAvailable()) {
             System.out.println("Failed to connect to the database.");
             return;
         }
+        SchemaMigrator.migrateOnStartup();
+        Metrics.startLogSummary();
+        SwingUtilities.invokeLater(CinemaApp::createAndShowGUI);
+    }
+
+    private static void createAndShowGUI() {
         // Create the main application window
         JFrame frame = new JFrame("Cinema Reservation System");
         frame.setSize(600, 400);
@@ -46,30 +50,22 @@ public class CinemaApp {
 
     private static void showMoviesDialog(JFrame parent) {
         JDialog dialog = new JDialog(parent, "Available Movies", true);
-        dialog.setSize(500, 400);
-
-        JTextArea moviesArea = new JTextArea();
-        moviesArea.setEditable(false);
-
-        try {
-            String sql = "SELECT * FROM Movies";
-            Statement statement = connection.createStatement();
-            ResultSet resultSet = statement.executeQuery(sql);
-            StringBuilder moviesText = new StringBuilder();
-            while (resultSet.next()) {
-                moviesText.append(String.format("%d: %s (%s) - %d min, Released: %s\n",
-                        resultSet.getInt("movie_id"),
-                        resultSet.getString("title"),
-                        resultSet.getString("genre"),
-                        resultSet.getInt("duration_minutes"),
-                        resultSet.getDate("release_date")));
-            }
-            moviesArea.setText(moviesText.toString());
-        } catch (SQLException e) {
-            moviesArea.setText("Error retrieving movies: " + e.getMessage());
-        }
+        dialog.setSize(700, 450);
 
-        dialog.add(new JScrollPane(moviesArea));
+        // The catalog is served from the cache behind BookingService; only its first load touches the database
+        MovieTableModel model = new MovieTableModel();
+        JTable moviesTable = new JTable(model);
+
+        // Typing in the search box filters the table from an in-memory index of the catalog
+        MovieSearchPanel searchPanel = new MovieSearchPanel(model);
+        CompletableFuture<List<Movie>> movies = searchPanel.load(dialog);
+
+        ProgressPanel progress = new ProgressPanel("Loading movies...");
+        progress.track(dialog, movies);
+
+        dialog.add(searchPanel, BorderLayout.NORTH);
+        dialog.add(new JScrollPane(moviesTable));
+        dialog.add(progress, BorderLayout.SOUTH);
         dialog.setLocationRelativeTo(parent); // Center the dialog relative to parent
         dialog.setVisible(true);
     }
@@ -110,45 +106,40 @@ public class CinemaApp {
        inputPanel.add(seatsField);
 
        // Buttons for Save and Cancel
-       JPanel buttonPanel = new JPanel();
+       JPanel buttonPanel = new JPanel(new BorderLayout());
+       JPanel buttons = new JPanel();
        
        JButton saveButton = new JButton("Save");
        JButton cancelButton = new JButton("Cancel");
        
-       buttonPanel.add(saveButton);
-       buttonPanel.add(cancelButton);
+       buttons.add(saveButton);
+       buttons.add(cancelButton);
+
+       ProgressPanel progress = new ProgressPanel("Working...");
+       buttonPanel.add(progress, BorderLayout.NORTH);
+       buttonPanel.add(buttons, BorderLayout.CENTER);
+       
+       // Seats are held as soon as the showtime and number of seats are known
+       SeatHoldLabel holdLabel = new SeatHoldLabel();
+       holdLabel.watch(dialog, showtimeIdField, seatsField);
+       buttonPanel.add(holdLabel, BorderLayout.SOUTH);
 
        dialog.setLayout(new BorderLayout());
        
        dialog.add(inputPanel, BorderLayout.CENTER);
        dialog.add(buttonPanel, BorderLayout.SOUTH);
 
-       // Populate available movies and showtimes
-       try {
-           String movieQuery = "SELECT m.movie_id, m.title, s.showtime_id, s.show_time, " +
-                   "IFNULL(s.available_seats, 150) AS available_seats " +
-                   "FROM Movies m " +
-                   "LEFT JOIN Showtimes s ON m.movie_id = s.movie_id " +
-                   "ORDER BY m.movie_id, s.show_time";
-           Statement movieStatement = connection.createStatement();
-           ResultSet movieResultSet = movieStatement.executeQuery(movieQuery);
-
-           StringBuilder moviesText = new StringBuilder();
-           while (movieResultSet.next()) {
-               int movieId = movieResultSet.getInt("movie_id");
-               String title = movieResultSet.getString("title");
-               int showtimeId = movieResultSet.getInt("showtime_id");
-               String showTime = movieResultSet.getString("show_time");
-               int availableSeats = movieResultSet.getInt("available_seats");
-
-               String movieInfo = String.format("Movie ID: %d, Title: %s, Showtime ID: %d, Showtime: %s, Available Seats: %d\n",
-                       movieId, title, showtimeId, showTime, availableSeats);
-               moviesText.append(movieInfo);
-           }
-           // Display available movies in a text area or other component as needed.
-           JTextArea moviesArea = new JTextArea(moviesText.toString());
-           moviesArea.setEditable(false); 
-           dialog.add(new JScrollPane(moviesArea), BorderLayout.NORTH); // Add to dialog
+       // Display available movies in a text area once they are loaded
+       SeatAvailabilityArea moviesArea = new SeatAvailabilityArea();
+       dialog.add(new JScrollPane(moviesArea), BorderLayout.NORTH);
+
+       // Populate available movies and showtimes from the cached catalog and in-memory seat counts;
+       // seat counts then update live as bookings are made and cancelled anywhere in this process
+       CompletableFuture<List<BookingService.ShowtimeSeats>> catalog = moviesArea.load(dialog);
+       AsyncDatabase.onEdt(catalog, rows -> { }, e -> {
+           JOptionPane.showMessageDialog(dialog, "Error retrieving movie/showtime information: " + e.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+       });
+       progress.track(dialog, catalog);
            
            // Add action listener to Movie ID field
            movieIdField.addActionListener(e -> {
@@ -159,74 +150,66 @@ public class CinemaApp {
                        selectedMovieId = Integer.parseInt(selectedMovieIdText);
                        updateShowtimeOptions(selectedMovieId, showtimeIdField); // Update options based on selected Movie ID
                    } catch (NumberFormatException ex) {
-                       JOptionPane.showMessageDialog(dialog,"Invalid Movie ID. Please enter a number.","Error",JOptionPane.ERROR_MESSAGE); 
+                       JOptionPane.showMessageDialog(dialog, "Invalid Movie ID. Please enter a number.", "Error", JOptionPane.ERROR_MESSAGE);
                    }
                }
            });
 
-       } catch (SQLException e) {
-           JOptionPane.showMessageDialog(dialog,"Error retrieving movie/showtime information: "+ e.getMessage(),"Error",JOptionPane.ERROR_MESSAGE); 
-       }
-
    // Save button logic
    saveButton.addActionListener(e -> {
        String fullName = nameField.getText().trim();
        String phoneNumber = phoneField.getText().trim();
        String movieIdText = movieIdField.getText().trim();
-       String showtimeIdText=showtimeIdField.getText().trim(); 
-       String seatsText=seatsField.getText().trim();
+       String showtimeIdText = showtimeIdField.getText().trim();
+       String seatsText = seatsField.getText().trim();
 
        if (fullName.isEmpty() || phoneNumber.isEmpty() || movieIdText.isEmpty() || seatsText.isEmpty() || showtimeIdText.isEmpty()) {
-           JOptionPane.showMessageDialog(dialog,"All fields must be filled out!","Error",JOptionPane.ERROR_MESSAGE); 
+           JOptionPane.showMessageDialog(dialog, "All fields must be filled out!", "Error", JOptionPane.ERROR_MESSAGE);
            return; 
        }
 
-       if (!fullName.matches("[a-zA-Z ]+")) { 
-           JOptionPane.showMessageDialog(dialog,"Full name should only contain letters and spaces.","Error",JOptionPane.ERROR_MESSAGE); 
+       int movieId;
+       int showtimeId;
+       int seats;
+       try {
+           movieId = Integer.parseInt(movieIdText);
+           showtimeId = Integer.parseInt(showtimeIdText);
+           seats = Integer.parseInt(seatsText);
+       } catch (NumberFormatException ex) {
+           JOptionPane.showMessageDialog(dialog, "Movie ID and seats must be valid numbers.", "Error", JOptionPane.ERROR_MESSAGE);
            return; 
        }
 
-       if (!phoneNumber.matches("[+0-9]+")) { 
-           JOptionPane.showMessageDialog(dialog,"Phone number should only contain digits and optional '+' sign.","Error",JOptionPane.ERROR_MESSAGE); 
+       // Same rules the HTTP API applies; checked here as well so mistakes show without a round trip
+       try {
+           BookingService.validateBooking(fullName, phoneNumber, seats);
+       } catch (IllegalArgumentException ex) {
+           JOptionPane.showMessageDialog(dialog, ex.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
            return; 
        }
 
-      try { 
-          int movieId=Integer.parseInt(movieIdText); 
-          int showtimeId=Integer.parseInt(showtimeIdText); 
-          int seats=Integer.parseInt(seatsText); 
-
-          // Check if enough seats are available for the selected showtime
-          String checkSeatsSql="SELECT available_seats FROM Showtimes WHERE showtime_id=? AND available_seats>=?"; 
-          PreparedStatement checkSeatsStmt=connection.prepareStatement(checkSeatsSql); 
-          checkSeatsStmt.setInt(1,showtimeId); 
-          checkSeatsStmt.setInt(2,seats); 
-
-          ResultSet checkResultSet=checkSeatsStmt.executeQuery(); 
-          if (!checkResultSet.next()) { 
-              JOptionPane.showMessageDialog(dialog,"Not enough available seats for this showtime.","Error",JOptionPane.ERROR_MESSAGE); 
-              return; 
-          }
-
-         // Proceed with booking
-         String insertSql="INSERT INTO Bookings (movie_id, showtime_id, customer_name ,phone_number ,seats_booked) VALUES (?, ?, ?, ?, ?)"; 
-         PreparedStatement insertStmt=connection.prepareStatement(insertSql); 
-         insertStmt.setInt(1,movieId); 
-         insertStmt.setInt(2 ,showtimeId); 
-         insertStmt.setString(3 ,fullName); 
-         insertStmt.setString(4 ,phoneNumber); 
-         insertStmt.setInt(5 ,seats); 
-
-         insertStmt.executeUpdate(); 
-
-         JOptionPane.showMessageDialog(dialog,"Booking added successfully!"); 
-         dialog.dispose(); 
-
-     } catch (NumberFormatException ex) { 
-         JOptionPane.showMessageDialog(dialog,"Movie ID and seats must be valid numbers.","Error",JOptionPane.ERROR_MESSAGE); 
-     } catch (SQLException ex) { 
-         JOptionPane.showMessageDialog(dialog,"Error adding booking: "+ ex.getMessage(),"Error",JOptionPane.ERROR_MESSAGE); 
-     } 
+       // Book the held seats; without a hold (or once it has lapsed), reserve the seats and
+       // insert the booking in one transaction
+       saveButton.setEnabled(false);
+       CompletableFuture<Integer> booking = holdLabel.book(movieId, showtimeId, seats, fullName, phoneNumber);
+       progress.trackWrite(booking);
+       AsyncDatabase.onEdt(booking, bookingId -> {
+           saveButton.setEnabled(true);
+           if (bookingId == SeatReservationService.NOT_ENOUGH_SEATS) {
+               JOptionPane.showMessageDialog(dialog, "Not enough available seats for this showtime.", "Error", JOptionPane.ERROR_MESSAGE);
+               return; 
+           }
+           if (bookingId == AdmissionController.BUSY) {
+               JOptionPane.showMessageDialog(dialog, "This showtime is very busy right now. Please try again in a moment.", "Busy", JOptionPane.WARNING_MESSAGE);
+               return;
+           }
+           holdLabel.confirmed();
+           JOptionPane.showMessageDialog(dialog, "Booking added successfully!");
+           dialog.dispose(); 
+       }, ex -> {
+           saveButton.setEnabled(true);
+           JOptionPane.showMessageDialog(dialog, "Error adding booking: " + ex.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+       });
    });
 
    cancelButton.addActionListener(e -> dialog.dispose());
@@ -235,81 +218,63 @@ public class CinemaApp {
 }
 
 // Method to update the Showtime ID based on selected Movie ID
-private static void updateShowtimeOptions(int movieId,JTextField showtimeIdField) { 
-   try { 
-      String queryShowtimes="SELECT showtime_id FROM Showtimes WHERE movie_id=?"; 
-      PreparedStatement pstmt=connection.prepareStatement(queryShowtimes); 
-      pstmt.setInt(1,movieId); 
-
-      ResultSet rsShowtimes=pstmt.executeQuery(); 
-
-      StringBuilder optionsBuilder=new StringBuilder(); 
+private static void updateShowtimeOptions(int movieId, JTextField showtimeIdField) {
+   showtimeIdField.setEnabled(false);
+   CompletableFuture<String> showtimes = AsyncDatabase.submit(() -> {
+      StringBuilder optionsBuilder = new StringBuilder();
 
-      while (rsShowtimes.next()) { 
-         int showtimeId=rsShowtimes.getInt("showtime_id"); 
-         optionsBuilder.append(showtimeId).append(", "); // Collecting all valid IDs
+      for (BookingService.ShowtimeSeats showtime : BookingService.listShowtimes(movieId)) {
+         optionsBuilder.append(showtime.showtimeId()).append(", "); // Collecting all valid IDs
       } 
 
-      if (optionsBuilder.length()>0) { 
-         optionsBuilder.setLength(optionsBuilder.length()-2); // Remove last comma and space
-         showtimeIdField.setText(optionsBuilder.toString()); // Display available Showtime IDs
-      } else { 
-         showtimeIdField.setText(""); // Clear if no showtimes found
-         JOptionPane.showMessageDialog(null,"No available showtimes for this Movie ID.","Info",JOptionPane.INFORMATION_MESSAGE);  
+      if (optionsBuilder.length() > 0) {
+         optionsBuilder.setLength(optionsBuilder.length() - 2); // Remove last comma and space
       } 
+      return optionsBuilder.toString();
+   });
 
-   } catch (SQLException e) { 
-      JOptionPane.showMessageDialog(null,"Error retrieving showtimes: "+ e.getMessage(),"Error",JOptionPane.ERROR_MESSAGE);  
-   }  
+   AsyncDatabase.onEdt(showtimes, options -> {
+      showtimeIdField.setEnabled(true);
+      showtimeIdField.setText(options); // Display available Showtime IDs, or clear if none found
+      if (options.isEmpty()) {
+         JOptionPane.showMessageDialog(null, "No available showtimes for this Movie ID.", "Info", JOptionPane.INFORMATION_MESSAGE);
+      }  
+   }, e -> {
+      showtimeIdField.setEnabled(true);
+      JOptionPane.showMessageDialog(null, "Error retrieving showtimes: " + e.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+   });
 }
 
 private static void showBookingsDialog(JFrame parent) { 
-   JDialog dialog=new JDialog(parent,"Bookings",true); 
-   dialog.setSize(500,400);
-
-   JTextArea bookingsArea=new JTextArea(); bookingsArea.setEditable(false);
-
-   try { 
-      String sql="SELECT b.booking_id,b.customer_name,m.title,b.seats_booked FROM Bookings b JOIN Movies m ON b.movie_id=m.movie_id"; Statement statement=connection.createStatement(); ResultSet resultSet=statement.executeQuery(sql);
-
-      StringBuilder bookingsText=new StringBuilder(); while(resultSet.next()){ bookingsText.append(String.format("%d: %s booked %s (%d seats)\n",
-              resultSet.getInt("booking_id"),
-              resultSet.getString("customer_name"),
-              resultSet.getString("title"),
-              resultSet.getInt("seats_booked")));
-      }
-      bookingsArea.setText(bookingsText.toString());
-   } catch (SQLException e) {
-      bookingsArea.setText("Error retrieving bookings: "+ e.getMessage());
-   }
-
-   dialog.add(new JScrollPane(bookingsArea));
+   JDialog dialog = new JDialog(parent, "Bookings", true);
+   dialog.setSize(850, 450);
+
+   // Rows are fetched a page at a time as the table scrolls
+   PagedTableModel model = PagedTableModel.bookings();
+   JTable bookingsTable = new JTable(model);
+
+   CompletableFuture<Integer> bookings = model.load();
+   AsyncDatabase.onEdt(bookings, count -> { },
+           e -> JOptionPane.showMessageDialog(dialog, "Error retrieving bookings: " + e.getMessage(), "Error", JOptionPane.ERROR_MESSAGE));
+
+   ProgressPanel progress = new ProgressPanel("Loading bookings...");
+   progress.track(dialog, bookings);
+
+   // Exports stream straight to a file instead of going through the table
+   dialog.add(new BookingExportPanel(dialog), BorderLayout.NORTH);
+   dialog.add(new JScrollPane(bookingsTable));
+   dialog.add(progress, BorderLayout.SOUTH);
    dialog.setLocationRelativeTo(parent); // Center the dialog relative to parent
    dialog.setVisible(true);
 }
 
 private static void showCancelBookingDialog(JFrame parent) {  
-   String bookingIdText=JOptionPane.showInputDialog(parent,"Enter Booking ID to cancel:");
-   if (bookingIdText != null && !bookingIdText.trim().isEmpty()) {  
-      try {  
-         int bookingId=Integer.parseInt(bookingIdText.trim());  
-         String sql="DELETE FROM Bookings WHERE booking_id=?";  
-         PreparedStatement statement=connection.prepareStatement(sql);  
-         statement.setInt(1,bookingId);
-
-         int rowsAffected=statement.executeUpdate();  
-         if(rowsAffected>0){  
-            JOptionPane.showMessageDialog(parent,"Booking cancelled successfully!");  
-         } else{  
-            JOptionPane.showMessageDialog(parent,"No booking found with ID: "+ bookingId,"Error",JOptionPane.ERROR_MESSAGE);  
-         }  
-      } catch(NumberFormatException ex){  
-         JOptionPane.showMessageDialog(parent,"Booking ID must be a number.","Error",JOptionPane.ERROR_MESSAGE);  
-      } catch(SQLException ex){  
-         JOptionPane.showMessageDialog(parent,"Error cancelling booking: "+ ex.getMessage(),"Error",JOptionPane.ERROR_MESSAGE);  
-      }  
-   } else{  
-      JOptionPane.showMessageDialog(parent,"Booking ID cannot be empty.","Error",JOptionPane.ERROR_MESSAGE);  
-   }  
+   JDialog dialog = new JDialog(parent, "Cancel Booking", true);
+   dialog.setSize(650, 400);
+
+   // Look the booking up by phone number, name or id, then cancel it from the list
+   dialog.add(new BookingLookupPanel());
+   dialog.setLocationRelativeTo(parent); // Center the dialog relative to parent
+   dialog.setVisible(true);
+}  
 }
-}
\ No newline at end of file
@@ -0,0 +1,469 @@
+package CinemaDB;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.*;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Fixed-size JDBC connection pool.
+ *
+ * Keeps between {@code minSize} and {@code maxSize} physical connections open. Borrowed
+ * connections are handed out as proxies whose {@code close()} puts the physical connection
+ * back into the pool. Idle connections are validated on borrow, evicted after
+ * {@code idleTimeoutMillis}, and connections held longer than {@code leakThresholdMillis}
+ * are reported together with the stack trace of the code that borrowed them.
+ *
+ * Each physical connection carries its own {@link StatementCache}, so statements prepared
+ * through a borrowed connection are parsed once per physical connection and reused after that.
+ */
+public class ConnectionPool {
+    private static final long VALIDATION_BYPASS_NANOS = TimeUnit.MILLISECONDS.toNanos(500);
+    private static final int STATEMENT_CACHE_SIZE = Integer.getInteger("cinemadb.pool.statementCacheSize", 64);
+
+    private final String url;
+    private final String user;
+    private final String password;
+    private final int minSize;
+    private final int maxSize;
+    private final long borrowTimeoutMillis;
+    private final long idleTimeoutMillis;
+    private final long leakThresholdMillis;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition available = lock.newCondition();
+    private final ArrayDeque<PooledConnection> idle = new ArrayDeque<>();
+    private final Map<PooledConnection, Boolean> borrowed = new IdentityHashMap<>();
+    private int totalConnections;
+    private int pendingCreates;
+    private boolean closed;
+
+    private final ScheduledExecutorService housekeeper;
+
+    // Metrics
+    private final AtomicLong borrowCount = new AtomicLong();
+    private final AtomicLong borrowTimeouts = new AtomicLong();
+    private final AtomicLong totalWaitNanos = new AtomicLong();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+    private final AtomicLong createdCount = new AtomicLong();
+    private final AtomicLong evictedCount = new AtomicLong();
+    private final AtomicLong validationFailures = new AtomicLong();
+    private final AtomicLong leaksDetected = new AtomicLong();
+
+    public ConnectionPool(String url, String user, String password, int minSize, int maxSize,
+                          long borrowTimeoutMillis, long idleTimeoutMillis, long leakThresholdMillis) {
+        if (minSize < 0 || maxSize < 1 || minSize > maxSize) {
+            throw new IllegalArgumentException("Invalid pool size: min=" + minSize + ", max=" + maxSize);
+        }
+        this.url = url;
+        this.user = user;
+        this.password = password;
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        this.borrowTimeoutMillis = borrowTimeoutMillis;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.leakThresholdMillis = leakThresholdMillis;
+
+        this.housekeeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "cinemadb-pool-housekeeper");
+            t.setDaemon(true);
+            return t;
+        });
+        long period = Math.max(1000, Math.min(idleTimeoutMillis, leakThresholdMillis) / 2);
+        housekeeper.scheduleWithFixedDelay(this::housekeep, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /** Opens the minimum number of connections up front so the first dialog does not pay for it. */
+    public void warmUp() throws SQLException {
+        while (true) {
+            lock.lock();
+            try {
+                if (closed || totalConnections + pendingCreates >= minSize) {
+                    return;
+                }
+                pendingCreates++;
+            } finally {
+                lock.unlock();
+            }
+            Connection physical = null;
+            try {
+                physical = openPhysical();
+            } finally {
+                lock.lock();
+                try {
+                    pendingCreates--;
+                    if (physical != null) {
+                        totalConnections++;
+                        PooledConnection pc = new PooledConnection(physical);
+                        idle.addLast(pc);
+                    }
+                    available.signal();
+                } finally {
+                    lock.unlock();
+                }
+            }
+        }
+    }
+
+    /**
+     * Borrows a connection, waiting up to the configured borrow timeout for one to become free.
+     * The caller must close the returned connection (try-with-resources) to give it back.
+     */
+    public Connection borrow() throws SQLException {
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(borrowTimeoutMillis);
+
+        while (true) {
+            PooledConnection candidate = null;
+            boolean create = false;
+
+            lock.lock();
+            try {
+                while (candidate == null && !create) {
+                    if (closed) {
+                        throw new SQLException("Connection pool is closed");
+                    }
+                    candidate = idle.pollLast();
+                    if (candidate == null) {
+                        if (totalConnections + pendingCreates < maxSize) {
+                            pendingCreates++;
+                            create = true;
+                        } else {
+                            long remaining = deadline - System.nanoTime();
+                            if (remaining <= 0) {
+                                borrowTimeouts.incrementAndGet();
+                                throw new SQLTimeoutException("Timed out after " + borrowTimeoutMillis
+                                        + " ms waiting for a database connection (pool size " + maxSize + ")");
+                            }
+                            try {
+                                available.awaitNanos(remaining);
+                            } catch (InterruptedException e) {
+                                Thread.currentThread().interrupt();
+                                throw new SQLException("Interrupted while waiting for a database connection", e);
+                            }
+                        }
+                    }
+                }
+            } finally {
+                lock.unlock();
+            }
+
+            if (create) {
+                PooledConnection pc;
+                try {
+                    pc = new PooledConnection(openPhysical());
+                } catch (SQLException e) {
+                    lock.lock();
+                    try {
+                        pendingCreates--;
+                        available.signal();
+                    } finally {
+                        lock.unlock();
+                    }
+                    throw e;
+                }
+                lock.lock();
+                try {
+                    pendingCreates--;
+                    totalConnections++;
+                } finally {
+                    lock.unlock();
+                }
+                candidate = pc;
+            } else if (!validate(candidate)) {
+                discard(candidate);
+                continue;
+            }
+
+            lock.lock();
+            try {
+                borrowed.put(candidate, Boolean.TRUE);
+            } finally {
+                lock.unlock();
+            }
+            recordWait(System.nanoTime() - start);
+            return candidate.lease();
+        }
+    }
+
+    private boolean validate(PooledConnection pc) {
+        // A connection that was in use a moment ago is almost certainly still alive; skip the round trip.
+        if (System.nanoTime() - pc.lastReturned < VALIDATION_BYPASS_NANOS) {
+            return true;
+        }
+        try {
+            if (pc.physical.isValid(2)) {
+                return true;
+            }
+        } catch (SQLException e) {
+            // Treated as invalid below
+        }
+        validationFailures.incrementAndGet();
+        return false;
+    }
+
+    private void recordWait(long waitNanos) {
+        borrowCount.incrementAndGet();
+        totalWaitNanos.addAndGet(waitNanos);
+        maxWaitNanos.accumulateAndGet(waitNanos, Math::max);
+        Metrics.POOL_WAIT.record(waitNanos);
+    }
+
+    private Connection openPhysical() throws SQLException {
+        Connection c = DriverManager.getConnection(url, user, password);
+        createdCount.incrementAndGet();
+        return c;
+    }
+
+    private void release(PooledConnection pc, boolean broken) {
+        if (!broken) {
+            pc.statements.releaseAll();
+            try {
+                if (!pc.physical.getAutoCommit()) {
+                    pc.physical.rollback();
+                    pc.physical.setAutoCommit(true);
+                }
+                pc.physical.clearWarnings();
+            } catch (SQLException e) {
+                broken = true;
+            }
+        }
+
+        lock.lock();
+        try {
+            borrowed.remove(pc);
+            if (broken || closed) {
+                totalConnections--;
+            } else {
+                pc.lastReturned = System.nanoTime();
+                idle.addLast(pc);
+            }
+            available.signal();
+        } finally {
+            lock.unlock();
+        }
+        if (broken || closed) {
+            pc.statements.closeAll();
+            closeQuietly(pc.physical);
+        }
+    }
+
+    private void discard(PooledConnection pc) {
+        lock.lock();
+        try {
+            totalConnections--;
+            available.signal();
+        } finally {
+            lock.unlock();
+        }
+        closeQuietly(pc.physical);
+    }
+
+    private void housekeep() {
+        List<PooledConnection> toClose = new ArrayList<>();
+        long now = System.nanoTime();
+        long idleNanos = TimeUnit.MILLISECONDS.toNanos(idleTimeoutMillis);
+        long leakNanos = TimeUnit.MILLISECONDS.toNanos(leakThresholdMillis);
+
+        lock.lock();
+        try {
+            // The oldest idle connections sit at the head of the deque.
+            while (totalConnections > minSize && !idle.isEmpty()
+                    && now - idle.peekFirst().lastReturned > idleNanos) {
+                toClose.add(idle.pollFirst());
+                totalConnections--;
+                evictedCount.incrementAndGet();
+            }
+            for (PooledConnection pc : borrowed.keySet()) {
+                if (!pc.leakReported && now - pc.borrowedAt > leakNanos) {
+                    pc.leakReported = true;
+                    leaksDetected.incrementAndGet();
+                    System.out.println("Possible connection leak: connection borrowed "
+                            + TimeUnit.NANOSECONDS.toMillis(now - pc.borrowedAt) + " ms ago and not returned.");
+                    pc.borrowSite.printStackTrace(System.out);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        for (PooledConnection pc : toClose) {
+            closeQuietly(pc.physical);
+        }
+
+        try {
+            warmUp();
+        } catch (SQLException e) {
+            System.out.println("Error replenishing connection pool: " + e.getMessage());
+        }
+    }
+
+    /** Closes all idle connections; borrowed ones are closed when they are returned. */
+    public void close() {
+        List<PooledConnection> toClose;
+        lock.lock();
+        try {
+            closed = true;
+            toClose = new ArrayList<>(idle);
+            totalConnections -= idle.size();
+            idle.clear();
+            available.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        housekeeper.shutdownNow();
+        for (PooledConnection pc : toClose) {
+            closeQuietly(pc.physical);
+        }
+    }
+
+    private static void closeQuietly(Connection c) {
+        try {
+            c.close();
+        } catch (SQLException e) {
+            // Nothing useful to do with a failure while closing
+        }
+    }
+
+    public int getActiveCount() {
+        lock.lock();
+        try {
+            return borrowed.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getIdleCount() {
+        lock.lock();
+        try {
+            return idle.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getBorrowCount() { return borrowCount.get(); }
+    public long getBorrowTimeouts() { return borrowTimeouts.get(); }
+    public long getTotalWaitNanos() { return totalWaitNanos.get(); }
+    public long getMaxWaitNanos() { return maxWaitNanos.get(); }
+    public long getCreatedCount() { return createdCount.get(); }
+    public long getEvictedCount() { return evictedCount.get(); }
+    public long getValidationFailures() { return validationFailures.get(); }
+    public long getLeaksDetected() { return leaksDetected.get(); }
+
+    @Override
+    public String toString() {
+        long borrows = getBorrowCount();
+        long avgWaitMicros = borrows == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(getTotalWaitNanos() / borrows);
+        return String.format("ConnectionPool[active=%d, idle=%d, max=%d, borrows=%d, timeouts=%d, avgWait=%dus, maxWait=%dus, created=%d, evicted=%d, invalid=%d, leaks=%d]",
+                getActiveCount(), getIdleCount(), maxSize, borrows, getBorrowTimeouts(), avgWaitMicros,
+                TimeUnit.NANOSECONDS.toMicros(getMaxWaitNanos()), getCreatedCount(), getEvictedCount(),
+                getValidationFailures(), getLeaksDetected());
+    }
+
+    /** One physical connection plus the bookkeeping the pool needs for it. */
+    private final class PooledConnection {
+        final Connection physical;
+        final StatementCache statements;
+        Connection currentLease;
+        volatile long lastReturned = System.nanoTime();
+        volatile long borrowedAt;
+        volatile Throwable borrowSite;
+        volatile boolean leakReported;
+
+        PooledConnection(Connection physical) {
+            this.physical = physical;
+            // Statements hand out whichever lease is current as their connection
+            this.statements = new StatementCache(physical, (Connection) Proxy.newProxyInstance(
+                    Connection.class.getClassLoader(), new Class<?>[] { Connection.class },
+                    (proxy, method, args) -> {
+                        try {
+                            return method.invoke(currentLease, args);
+                        } catch (InvocationTargetException e) {
+                            throw e.getCause();
+                        }
+                    }), STATEMENT_CACHE_SIZE);
+        }
+
+        Connection lease() {
+            borrowedAt = System.nanoTime();
+            borrowSite = new Throwable("Connection borrowed here");
+            leakReported = false;
+            currentLease = (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                    new Class<?>[] { Connection.class }, new Lease(this));
+            return currentLease;
+        }
+    }
+
+    private static boolean isCacheable(Method method) {
+        Class<?>[] params = method.getParameterTypes();
+        return params.length == 1 || (params.length == 2 && params[1] == int.class);
+    }
+
+    /** Handler behind each borrowed connection; only the first close() returns it to the pool. */
+    private final class Lease implements InvocationHandler {
+        private final PooledConnection pc;
+        private boolean returned;
+        private boolean broken;
+
+        Lease(PooledConnection pc) {
+            this.pc = pc;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            switch (name) {
+                case "close":
+                    if (!returned) {
+                        returned = true;
+                        release(pc, broken);
+                    }
+                    return null;
+                case "isClosed":
+                    return returned || pc.physical.isClosed();
+                case "abort":
+                    broken = true;
+                    break;
+                case "prepareStatement":
+                    if (!returned && isCacheable(method)) {
+                        int keys = args.length == 2 ? (Integer) args[1] : Statement.NO_GENERATED_KEYS;
+                        return pc.statements.prepare((String) args[0], keys);
+                    }
+                    break;
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "Pooled" + pc.physical;
+                default:
+                    break;
+            }
+            if (returned) {
+                throw new SQLException("Connection has already been returned to the pool");
+            }
+            try {
+                return method.invoke(pc.physical, args);
+            } catch (InvocationTargetException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof SQLRecoverableException || cause instanceof SQLNonTransientConnectionException) {
+                    broken = true;
+                }
+                throw cause;
+            }
+        }
+    }
+}
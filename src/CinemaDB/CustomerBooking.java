@@ -0,0 +1,6 @@
+package CinemaDB;
+
+/** A booking as shown when looking a customer up: who booked, for which movie and showtime. */
+public record CustomerBooking(int bookingId, String customerName, String phoneNumber, String title,
+                              int showtimeId, int seatsBooked) {
+}
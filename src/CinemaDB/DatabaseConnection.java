@@ -1,25 +1,183 @@
 package CinemaDB;
 
 import java.sql.*;
+import java.util.ArrayList;
+import java.util.List;
 
 public class DatabaseConnection {
-    private static final String URL = "jdbc:mysql://localhost:3306/CinemaDB";
-    private static final String USER = "root";
-    private static final String PASSWORD = "";  // Update with the correct password
+    // Connection settings come from the backend (-Dcinemadb.backend, see StorageBackend);
+    // -Dcinemadb.url/user/password/driver point the app (or a benchmark) at another database
+    private static final StorageBackend BACKEND = StorageBackend.configured();
+    private static final String URL = System.getProperty("cinemadb.url", BACKEND.url());
+    private static final String USER = System.getProperty("cinemadb.user", BACKEND.user());
+    private static final String PASSWORD = System.getProperty("cinemadb.password", BACKEND.password());  // Update with the correct password
+    private static final String DRIVER = System.getProperty("cinemadb.driver", BACKEND.driver());
 
-    public static Connection getConnection() {
+    // Pool settings, overridable with -Dcinemadb.pool.* system properties
+    private static final int POOL_MIN_SIZE = Integer.getInteger("cinemadb.pool.minSize", 2);
+    private static final int POOL_MAX_SIZE = Integer.getInteger("cinemadb.pool.maxSize", 10);
+    private static final long BORROW_TIMEOUT_MILLIS = Long.getLong("cinemadb.pool.borrowTimeoutMillis", 5_000);
+    private static final long IDLE_TIMEOUT_MILLIS = Long.getLong("cinemadb.pool.idleTimeoutMillis", 600_000);
+    private static final long LEAK_THRESHOLD_MILLIS = Long.getLong("cinemadb.pool.leakThresholdMillis", 60_000);
+
+    // Read replicas: comma-separated JDBC URLs, same credentials as the primary unless
+    // -Dcinemadb.replica.user/password are set; see ReplicaRouter
+    private static final String REPLICA_URLS = System.getProperty("cinemadb.replicas", "");
+    private static final String REPLICA_USER = System.getProperty("cinemadb.replica.user", USER);
+    private static final String REPLICA_PASSWORD = System.getProperty("cinemadb.replica.password", PASSWORD);
+    private static final int REPLICA_POOL_MAX_SIZE = Integer.getInteger("cinemadb.replica.pool.maxSize", POOL_MAX_SIZE);
+    // Short, so a replica that stops answering costs a read little before it falls back to the primary
+    private static final long REPLICA_BORROW_TIMEOUT_MILLIS = Long.getLong("cinemadb.replica.pool.borrowTimeoutMillis", 1_000);
+
+    // Shards are listed in the Shards table (see ShardRouter); these set up their pools
+    private static final String SHARD_USER = System.getProperty("cinemadb.shard.user", USER);
+    private static final String SHARD_PASSWORD = System.getProperty("cinemadb.shard.password", PASSWORD);
+    private static final int SHARD_POOL_MAX_SIZE = Integer.getInteger("cinemadb.shard.pool.maxSize", POOL_MAX_SIZE);
+
+    private static volatile ConnectionPool pool;
+    private static volatile ReplicaRouter replicas;
+    private static volatile ShardRouter shards;
+
+    /**
+     * Starts the connection pool if needed and checks that the database can be reached.
+     * Returns false (after printing the reason) if it cannot.
+     */
+    public static boolean isAvailable() {
         try {
-            // Load the MySQL JDBC driver (this may be unnecessary if you are using a recent version of MySQL Connector)
-            Class.forName("com.mysql.cj.jdbc.Driver");
-            return DriverManager.getConnection(URL, USER, PASSWORD);
-        } catch (ClassNotFoundException e) {
-            System.out.println("MySQL JDBC Driver not found. Make sure the MySQL Connector/J is added to the build path.");
+            getPool();
+            return true;
+        } catch (SQLException e) {
+            System.out.println("Error connecting to the database: " + e.getMessage());
             e.printStackTrace();
-            return null;
+            return false;
+        }
+    }
+
+    /**
+     * Borrows a pooled connection. Close it (try-with-resources) to return it to the pool.
+     */
+    public static Connection borrowConnection() throws SQLException {
+        return getPool().borrow();
+    }
+
+    /**
+     * Borrows a connection to the database that holds a showtime's seat count and bookings: its
+     * shard when bookings are sharded (see {@link ShardRouter}), the primary otherwise.
+     */
+    public static Connection borrowConnection(int showtimeId) throws SQLException {
+        return getShards().borrowFor(showtimeId);
+    }
+
+    /**
+     * Borrows a connection for read-only work that can live with a little replication lag, such
+     * as loading the catalog or listing bookings. It comes from a read replica when one is
+     * configured ({@code -Dcinemadb.replicas}), healthy and caught up with this session's own
+     * writes, and from the primary otherwise. Nothing may be written through it.
+     */
+    public static Connection borrowReadConnection() throws SQLException {
+        ReplicaRouter router = getReplicas();
+        Connection c = router == null ? null : router.borrowRead();
+        return c != null ? c : borrowConnection();
+    }
+
+    /**
+     * Borrows a pooled connection, or returns null if the database cannot be reached.
+     */
+    public static Connection getConnection() {
+        try {
+            return borrowConnection();
         } catch (SQLException e) {
             System.out.println("Error connecting to the database: " + e.getMessage());
             e.printStackTrace();
             return null;
         }
     }
-}
\ No newline at end of file
+
+    /** The storage backend the connection settings were taken from. */
+    public static StorageBackend getBackend() {
+        return BACKEND;
+}
+
+    public static ConnectionPool getPool() throws SQLException {
+        ConnectionPool p = pool;
+        if (p == null) {
+            synchronized (DatabaseConnection.class) {
+                p = pool;
+                if (p == null) {
+                    p = createPool();
+                    pool = p;
+                }
+            }
+        }
+        return p;
+    }
+
+    static ShardRouter getShards() throws SQLException {
+        ShardRouter s = shards;
+        if (s == null) {
+            // The shard list is read from the primary
+            getPool();
+            synchronized (DatabaseConnection.class) {
+                s = shards;
+                if (s == null) {
+                    s = new ShardRouter(SHARD_USER, SHARD_PASSWORD, SHARD_POOL_MAX_SIZE, BORROW_TIMEOUT_MILLIS,
+                            IDLE_TIMEOUT_MILLIS, LEAK_THRESHOLD_MILLIS);
+                    shards = s;
+                }
+            }
+        }
+        return s;
+    }
+
+    // Null when no replicas are configured
+    private static ReplicaRouter getReplicas() throws SQLException {
+        if (REPLICA_URLS.isBlank()) {
+            return null;
+        }
+        ReplicaRouter r = replicas;
+        if (r == null) {
+            // The driver is loaded with the primary pool
+            getPool();
+            synchronized (DatabaseConnection.class) {
+                r = replicas;
+                if (r == null) {
+                    List<String> urls = new ArrayList<>();
+                    for (String url : REPLICA_URLS.split(",")) {
+                        if (!url.isBlank()) {
+                            urls.add(url.trim());
+                        }
+                    }
+                    r = new ReplicaRouter(urls, REPLICA_USER, REPLICA_PASSWORD, REPLICA_POOL_MAX_SIZE,
+                            REPLICA_BORROW_TIMEOUT_MILLIS, IDLE_TIMEOUT_MILLIS, LEAK_THRESHOLD_MILLIS);
+                    replicas = r;
+                }
+            }
+        }
+        return r;
+    }
+
+    private static ConnectionPool createPool() throws SQLException {
+        try {
+            // Load the JDBC driver (this may be unnecessary if you are using a recent version of MySQL Connector)
+            Class.forName(DRIVER);
+        } catch (ClassNotFoundException e) {
+            System.out.println("JDBC Driver " + DRIVER + " not found. Make sure it ("
+                    + (BACKEND.isInProcess() ? "the H2 jar" : "e.g. MySQL Connector/J") + ") is added to the build path.");
+            throw new SQLException("JDBC Driver not found: " + DRIVER, e);
+        }
+        ConnectionPool p = new ConnectionPool(URL, USER, PASSWORD, POOL_MIN_SIZE, POOL_MAX_SIZE,
+                BORROW_TIMEOUT_MILLIS, IDLE_TIMEOUT_MILLIS, LEAK_THRESHOLD_MILLIS);
+        try {
+            p.warmUp();
+        } catch (SQLException e) {
+            p.close();
+            throw e;
+        }
+        Metrics.poolGauges(p::getActiveCount, p::getIdleCount);
+        Metrics.counterFunction("cinemadb_pool_borrow_timeouts_total",
+                "Borrows that gave up waiting for a database connection.", p::getBorrowTimeouts);
+        Metrics.counterFunction("cinemadb_pool_leaks_total",
+                "Connections held longer than the leak threshold.", p::getLeaksDetected);
+        return p;
+    }
+}
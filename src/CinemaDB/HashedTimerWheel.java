@@ -0,0 +1,213 @@
+package CinemaDB;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hashed timer wheel for large numbers of timeouts that are usually cancelled before they fire,
+ * such as seat holds.
+ *
+ * The wheel is an array of buckets, each covering one tick. A timeout goes into the bucket its
+ * deadline falls in, with the number of full turns left before it is due. Scheduling and
+ * cancelling are O(1): both are handed to the worker thread through lock-free queues. Each tick
+ * the worker only looks at one bucket, so the cost per tick depends on how many timeouts share a
+ * bucket, not on how many are pending overall. Timeouts fire up to one tick late.
+ *
+ * Tasks run on the worker thread and should be short; anything slow should be handed off.
+ */
+class HashedTimerWheel {
+    private final long tickNanos;
+    private final Bucket[] wheel;
+    private final int mask;
+    private final Queue<Timeout> added = new ConcurrentLinkedQueue<>();
+    private final Queue<Timeout> cancelled = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pending = new AtomicInteger();
+    private final long startNanos;
+    private final Thread worker;
+    private volatile boolean stopped;
+    private long tick;
+
+    /** A scheduled task; {@link #cancel()} it when it is no longer needed. */
+    final class Timeout {
+        private static final int WAITING = 0;
+        private static final int CANCELLED = 1;
+        private static final int EXPIRED = 2;
+
+        private final Runnable task;
+        private final long deadlineNanos;
+        private final AtomicInteger state = new AtomicInteger(WAITING);
+        private long remainingRounds;
+        private Bucket bucket;
+        private Timeout prev;
+        private Timeout next;
+
+        private Timeout(Runnable task, long deadlineNanos) {
+            this.task = task;
+            this.deadlineNanos = deadlineNanos;
+        }
+
+        /** Returns false if the task already ran or was cancelled before. */
+        boolean cancel() {
+            if (!state.compareAndSet(WAITING, CANCELLED)) {
+                return false;
+            }
+            cancelled.add(this);
+            return true;
+        }
+
+        boolean isCancelled() {
+            return state.get() == CANCELLED;
+        }
+
+        private void expire() {
+            if (!state.compareAndSet(WAITING, EXPIRED)) {
+                return;
+            }
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                System.out.println("Error in timer task: " + e.getMessage());
+            }
+        }
+    }
+
+    // Doubly linked so a cancelled timeout can be unlinked without a search
+    private static final class Bucket {
+        private Timeout head;
+        private Timeout tail;
+
+        void add(Timeout t) {
+            t.bucket = this;
+            if (head == null) {
+                head = tail = t;
+            } else {
+                tail.next = t;
+                t.prev = tail;
+                tail = t;
+            }
+        }
+
+        Timeout remove(Timeout t) {
+            Timeout next = t.next;
+            if (t.prev != null) {
+                t.prev.next = next;
+            }
+            if (t.next != null) {
+                t.next.prev = t.prev;
+            }
+            if (t == head) {
+                head = next;
+            }
+            if (t == tail) {
+                tail = t.prev;
+            }
+            t.prev = null;
+            t.next = null;
+            t.bucket = null;
+            return next;
+        }
+    }
+
+    /**
+     * @param tickMillis length of one tick, i.e. the timing resolution
+     * @param wheelSize  number of buckets, rounded up to a power of two
+     */
+    HashedTimerWheel(String name, long tickMillis, int wheelSize) {
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+        int size = Integer.highestOneBit(Math.max(2, wheelSize - 1)) << 1;
+        this.wheel = new Bucket[size];
+        for (int i = 0; i < size; i++) {
+            wheel[i] = new Bucket();
+        }
+        this.mask = size - 1;
+        this.startNanos = System.nanoTime();
+        this.worker = new Thread(this::run, name);
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /** Runs {@code task} on the wheel's thread after {@code delay}. */
+    Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+        Timeout t = new Timeout(task, System.nanoTime() - startNanos + unit.toNanos(delay));
+        pending.incrementAndGet();
+        added.add(t);
+        return t;
+    }
+
+    /** Timeouts scheduled and neither run nor cancelled yet. */
+    int pendingTimeouts() {
+        return pending.get();
+    }
+
+    void stop() {
+        stopped = true;
+        worker.interrupt();
+    }
+
+    private void run() {
+        while (!stopped) {
+            long deadline = tickNanos * (tick + 1);
+            long sleepNanos = deadline - (System.nanoTime() - startNanos);
+            if (sleepNanos > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(sleepNanos);
+                } catch (InterruptedException e) {
+                    if (stopped) {
+                        return;
+                    }
+                    continue;
+                }
+            }
+            removeCancelled();
+            transferAdded();
+            expire(wheel[(int) (tick & mask)], deadline);
+            tick++;
+        }
+    }
+
+    private void removeCancelled() {
+        for (Timeout t = cancelled.poll(); t != null; t = cancelled.poll()) {
+            if (t.bucket != null) {
+                t.bucket.remove(t);
+                pending.decrementAndGet();
+            }
+            // Not in a bucket yet: transferAdded() drops it
+        }
+    }
+
+    private void transferAdded() {
+        // Bounded, so a flood of new timeouts cannot stall the clock
+        for (int i = 0; i < 100_000; i++) {
+            Timeout t = added.poll();
+            if (t == null) {
+                return;
+            }
+            if (t.isCancelled()) {
+                pending.decrementAndGet();
+                continue;
+            }
+            long due = Math.max(t.deadlineNanos / tickNanos, tick);
+            t.remainingRounds = (due - tick) / wheel.length;
+            wheel[(int) (due & mask)].add(t);
+        }
+    }
+
+    private void expire(Bucket bucket, long deadlineNanos) {
+        Timeout t = bucket.head;
+        while (t != null) {
+            if (t.remainingRounds > 0) {
+                t.remainingRounds--;
+                t = t.next;
+            } else if (t.deadlineNanos <= deadlineNanos) {
+                Timeout next = bucket.remove(t);
+                pending.decrementAndGet();
+                t.expire();
+                t = next;
+            } else {
+                t = t.next;
+            }
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package CinemaDB;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressing hash map from int to int, without boxing.
+ *
+ * Not thread-safe; callers guard it with their own lock. {@link Integer#MIN_VALUE} is
+ * reserved as the empty-slot marker and cannot be used as a key.
+ */
+class IntIntMap {
+    private static final int EMPTY = Integer.MIN_VALUE;
+
+    private int[] keys;
+    private int[] values;
+    private int size;
+    private int mask;
+
+    IntIntMap() {
+        this(16);
+    }
+
+    IntIntMap(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(4, expectedSize * 2 - 1)) << 1;
+        keys = new int[capacity];
+        values = new int[capacity];
+        Arrays.fill(keys, EMPTY);
+        mask = capacity - 1;
+    }
+
+    private static int mix(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private int slot(int key) {
+        int i = mix(key) & mask;
+        while (keys[i] != EMPTY && keys[i] != key) {
+            i = (i + 1) & mask;
+        }
+        return i;
+    }
+
+    int get(int key, int defaultValue) {
+        int i = slot(key);
+        return keys[i] == key ? values[i] : defaultValue;
+    }
+
+    boolean containsKey(int key) {
+        return keys[slot(key)] == key;
+    }
+
+    void put(int key, int value) {
+        if (key == EMPTY) {
+            throw new IllegalArgumentException("Key not supported: " + key);
+        }
+        int i = slot(key);
+        if (keys[i] != key) {
+            keys[i] = key;
+            if (++size * 2 > keys.length) {
+                values[i] = value;
+                resize();
+                return;
+            }
+        }
+        values[i] = value;
+    }
+
+    /** Adds {@code delta} to the value for {@code key} (starting from 0) and returns the new value. */
+    int add(int key, int delta) {
+        int i = slot(key);
+        if (keys[i] == key) {
+            return values[i] += delta;
+        }
+        put(key, delta);
+        return delta;
+    }
+
+    boolean remove(int key) {
+        int i = slot(key);
+        if (keys[i] != key) {
+            return false;
+        }
+        keys[i] = EMPTY;
+        size--;
+        // Re-insert the rest of the probe run so lookups past the hole still find their keys.
+        int j = (i + 1) & mask;
+        while (keys[j] != EMPTY) {
+            int k = keys[j];
+            int v = values[j];
+            keys[j] = EMPTY;
+            int s = slot(k);
+            keys[s] = k;
+            values[s] = v;
+            j = (j + 1) & mask;
+        }
+        return true;
+    }
+
+    int size() {
+        return size;
+    }
+
+    void clear() {
+        Arrays.fill(keys, EMPTY);
+        size = 0;
+    }
+
+    interface Visitor {
+        void visit(int key, int value);
+    }
+
+    void forEach(Visitor visitor) {
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != EMPTY) {
+                visitor.visit(keys[i], values[i]);
+            }
+        }
+    }
+
+    private void resize() {
+        int[] oldKeys = keys;
+        int[] oldValues = values;
+        keys = new int[oldKeys.length * 2];
+        values = new int[oldValues.length * 2];
+        Arrays.fill(keys, EMPTY);
+        mask = keys.length - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY) {
+                int s = slot(oldKeys[i]);
+                keys[s] = oldKeys[i];
+                values[s] = oldValues[i];
+            }
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package CinemaDB;
+
+import java.util.Arrays;
+import java.util.function.IntFunction;
+
+/**
+ * Open-addressing hash map from int keys to objects, without boxing the keys.
+ *
+ * Not thread-safe; {@link CatalogCache} fills one while loading and only reads it afterwards,
+ * {@link MovieSearchIndex} guards its own with a lock.
+ * {@link Integer#MIN_VALUE} is reserved as the empty-slot marker and cannot be used as a key.
+ */
+class IntObjectMap<V> {
+    private static final int EMPTY = Integer.MIN_VALUE;
+
+    private int[] keys;
+    private Object[] values;
+    private int size;
+    private int mask;
+
+    IntObjectMap() {
+        this(16);
+    }
+
+    IntObjectMap(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(4, expectedSize * 2 - 1)) << 1;
+        keys = new int[capacity];
+        values = new Object[capacity];
+        Arrays.fill(keys, EMPTY);
+        mask = capacity - 1;
+    }
+
+    private static int mix(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private int slot(int key) {
+        int i = mix(key) & mask;
+        while (keys[i] != EMPTY && keys[i] != key) {
+            i = (i + 1) & mask;
+        }
+        return i;
+    }
+
+    @SuppressWarnings("unchecked")
+    V get(int key) {
+        int i = slot(key);
+        return keys[i] == key ? (V) values[i] : null;
+    }
+
+    void put(int key, V value) {
+        if (key == EMPTY) {
+            throw new IllegalArgumentException("Key not supported: " + key);
+        }
+        int i = slot(key);
+        if (keys[i] != key) {
+            keys[i] = key;
+            size++;
+        }
+        values[i] = value;
+        if (size * 2 > keys.length) {
+            resize();
+        }
+    }
+
+    /** Returns the value for {@code key}, creating and storing it first if there is none. */
+    V computeIfAbsent(int key, IntFunction<V> factory) {
+        V value = get(key);
+        if (value == null) {
+            value = factory.apply(key);
+            put(key, value);
+        }
+        return value;
+    }
+
+    /** Removes the key; returns its value, or null if it was not there. */
+    @SuppressWarnings("unchecked")
+    V remove(int key) {
+        int i = slot(key);
+        if (keys[i] != key) {
+            return null;
+        }
+        V old = (V) values[i];
+        keys[i] = EMPTY;
+        values[i] = null;
+        size--;
+        // Re-insert the rest of the probe run so lookups past the hole still find their keys.
+        int j = (i + 1) & mask;
+        while (keys[j] != EMPTY) {
+            int k = keys[j];
+            Object v = values[j];
+            keys[j] = EMPTY;
+            values[j] = null;
+            int s = slot(k);
+            keys[s] = k;
+            values[s] = v;
+            j = (j + 1) & mask;
+        }
+        return old;
+    }
+
+    int size() {
+        return size;
+    }
+
+    void clear() {
+        Arrays.fill(keys, EMPTY);
+        Arrays.fill(values, null);
+        size = 0;
+    }
+
+    interface Visitor<V> {
+        void visit(int key, V value);
+    }
+
+    @SuppressWarnings("unchecked")
+    void forEach(Visitor<? super V> visitor) {
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != EMPTY) {
+                visitor.visit(keys[i], (V) values[i]);
+            }
+        }
+    }
+
+    private void resize() {
+        int[] oldKeys = keys;
+        Object[] oldValues = values;
+        keys = new int[oldKeys.length * 2];
+        values = new Object[oldValues.length * 2];
+        Arrays.fill(keys, EMPTY);
+        mask = keys.length - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY) {
+                int s = slot(oldKeys[i]);
+                keys[s] = oldKeys[i];
+                values[s] = oldValues[i];
+            }
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package CinemaDB;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Half-open intervals [start, end) with an int id each, in an AVL tree ordered by start and
+ * augmented with the latest end in every subtree. Adding, removing and finding one interval that
+ * overlaps a range take O(log n); listing all k overlaps takes O(log n + k). Overlapping intervals
+ * may be stored, so a schedule that already has clashes can still be loaded and reported on.
+ *
+ * Not thread-safe.
+ */
+final class IntervalTree {
+    /** One stored interval. */
+    record Interval(long start, long end, int id) {
+    }
+
+    private static final class Node {
+        final long start;
+        final long end;
+        final int id;
+        long maxEnd;
+        int height = 1;
+        Node left;
+        Node right;
+
+        Node(long start, long end, int id) {
+            this.start = start;
+            this.end = end;
+            this.id = id;
+            this.maxEnd = end;
+        }
+    }
+
+    private Node root;
+    private int size;
+
+    int size() {
+        return size;
+    }
+
+    void add(long start, long end, int id) {
+        if (end <= start) {
+            throw new IllegalArgumentException("Empty interval [" + start + ", " + end + ")");
+        }
+        root = insert(root, new Node(start, end, id));
+        size++;
+    }
+
+    /** Removes the interval with this start and id; false if there is none. */
+    boolean remove(long start, int id) {
+        int before = size;
+        root = delete(root, start, id);
+        return size < before;
+    }
+
+    /** Some interval that overlaps [start, end), or null if none does. */
+    Interval firstOverlap(long start, long end) {
+        Node n = root;
+        while (n != null) {
+            if (n.start < end && n.end > start) {
+                return new Interval(n.start, n.end, n.id);
+            }
+            // If nothing on the left reaches past start, nothing there overlaps. If something
+            // does and still does not overlap, it starts at or after end, and so does everything
+            // on the right
+            n = n.left != null && n.left.maxEnd > start ? n.left : n.right;
+        }
+        return null;
+    }
+
+    /** All intervals that overlap [start, end), ordered by start. */
+    List<Interval> overlapping(long start, long end) {
+        List<Interval> out = new ArrayList<>();
+        collect(root, start, end, out);
+        return out;
+    }
+
+    private static void collect(Node n, long start, long end, List<Interval> out) {
+        if (n == null || n.maxEnd <= start) {
+            return;
+        }
+        collect(n.left, start, end, out);
+        if (n.start >= end) {
+            // Everything to the right starts even later
+            return;
+        }
+        if (n.end > start) {
+            out.add(new Interval(n.start, n.end, n.id));
+        }
+        collect(n.right, start, end, out);
+    }
+
+    private static int compare(long start, int id, Node n) {
+        int c = Long.compare(start, n.start);
+        return c != 0 ? c : Integer.compare(id, n.id);
+    }
+
+    private static Node insert(Node n, Node x) {
+        if (n == null) {
+            return x;
+        }
+        if (compare(x.start, x.id, n) < 0) {
+            n.left = insert(n.left, x);
+        } else {
+            n.right = insert(n.right, x);
+        }
+        return balance(n);
+    }
+
+    private Node delete(Node n, long start, int id) {
+        if (n == null) {
+            return null;
+        }
+        int c = compare(start, id, n);
+        if (c < 0) {
+            n.left = delete(n.left, start, id);
+        } else if (c > 0) {
+            n.right = delete(n.right, start, id);
+        } else {
+            size--;
+            if (n.left == null) {
+                return n.right;
+            }
+            if (n.right == null) {
+                return n.left;
+            }
+            Node successor = n.right;
+            while (successor.left != null) {
+                successor = successor.left;
+            }
+            successor.right = deleteMin(n.right);
+            successor.left = n.left;
+            n = successor;
+        }
+        return balance(n);
+    }
+
+    private static Node deleteMin(Node n) {
+        if (n.left == null) {
+            return n.right;
+        }
+        n.left = deleteMin(n.left);
+        return balance(n);
+    }
+
+    private static int height(Node n) {
+        return n == null ? 0 : n.height;
+    }
+
+    private static void update(Node n) {
+        n.height = 1 + Math.max(height(n.left), height(n.right));
+        long maxEnd = n.end;
+        if (n.left != null && n.left.maxEnd > maxEnd) {
+            maxEnd = n.left.maxEnd;
+        }
+        if (n.right != null && n.right.maxEnd > maxEnd) {
+            maxEnd = n.right.maxEnd;
+        }
+        n.maxEnd = maxEnd;
+    }
+
+    private static Node balance(Node n) {
+        update(n);
+        int skew = height(n.left) - height(n.right);
+        if (skew > 1) {
+            if (height(n.left.left) < height(n.left.right)) {
+                n.left = rotateLeft(n.left);
+            }
+            return rotateRight(n);
+        }
+        if (skew < -1) {
+            if (height(n.right.right) < height(n.right.left)) {
+                n.right = rotateRight(n.right);
+            }
+            return rotateLeft(n);
+        }
+        return n;
+    }
+
+    private static Node rotateRight(Node n) {
+        Node l = n.left;
+        n.left = l.right;
+        l.right = n;
+        update(n);
+        update(l);
+        return l;
+    }
+
+    private static Node rotateLeft(Node n) {
+        Node r = n.right;
+        n.right = r.left;
+        r.left = n;
+        update(n);
+        update(r);
+        return r;
+    }
+}
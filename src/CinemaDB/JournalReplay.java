@@ -0,0 +1,232 @@
+package CinemaDB;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Rebuilds the bookings from a {@link BookingJournal}.
+ *
+ * Usage: JournalReplay <journal> [--apply]
+ *
+ * The tool reads the whole log and works out which bookings are still live and how many seats
+ * each showtime has sold. It then compares that with the Bookings table and lists:
+ * <ul>
+ * <li>bookings in the log that are missing from the table, and</li>
+ * <li>bookings cancelled in the log that are still in the table.</li>
+ * </ul>
+ * With {@code --apply} it fixes both. A missing booking is inserted under its original
+ * booking_id and its seats are taken from the showtime. A cancelled booking is deleted and its
+ * seats given back. Seat positions are updated on the stored seat maps. Bookings the log knows
+ * nothing about, e.g. from before the journal was turned on, are left alone.
+ *
+ * This is how a database restored from an older backup is brought up to date. Run it while no
+ * application is taking bookings. Running it a second time changes nothing. It only works on an
+ * unsharded database (see {@link ShardRouter}) and refuses to run once shards are added.
+ */
+public class JournalReplay {
+    private static final int CHUNK = 1_000;
+    private static final int SCAN_CHUNK = 10_000;
+
+    public static void main(String[] args) throws IOException, SQLException {
+        if (args.length < 1) {
+            System.out.println("Usage: JournalReplay <journal> [--apply]");
+            return;
+        }
+        Path file = Path.of(args[0]);
+        boolean apply = args.length > 1 && "--apply".equals(args[1]);
+
+        // Replay the log: the last record for a booking id decides whether it is live
+        IntObjectMap<BookingJournal.Entry> live = new IntObjectMap<>();
+        IntObjectMap<BookingJournal.Entry> cancelled = new IntObjectMap<>();
+        long[] counts = new long[3];
+        long records = BookingJournal.read(file, e -> {
+            if (e.bookingId() <= 0) {
+                // The driver did not report the id, so the record cannot be matched to a row
+                counts[2]++;
+            } else if (e.type() == BookingJournal.RESERVE) {
+                live.put(e.bookingId(), e);
+                cancelled.remove(e.bookingId());
+                counts[0]++;
+            } else if (e.type() == BookingJournal.CANCEL) {
+                live.remove(e.bookingId());
+                cancelled.put(e.bookingId(), e);
+                counts[1]++;
+            }
+        });
+        IntIntMap seatsByShowtime = new IntIntMap();
+        List<BookingJournal.Entry> liveEntries = values(live);
+        for (BookingJournal.Entry e : liveEntries) {
+            seatsByShowtime.add(e.showtimeId(), e.seats());
+        }
+        System.out.println(String.format("%d records: %d bookings, %d cancellations, %d without a booking id",
+                records, counts[0], counts[1], counts[2]));
+        System.out.println(String.format("%d live bookings over %d showtimes", liveEntries.size(), seatsByShowtime.size()));
+        List<int[]> showtimes = new ArrayList<>();
+        seatsByShowtime.forEach((showtimeId, seats) -> showtimes.add(new int[] { showtimeId, seats }));
+        showtimes.sort((a, b) -> Integer.compare(a[0], b[0]));
+        for (int[] s : showtimes) {
+            System.out.println("  showtime " + s[0] + ": " + s[1] + " seats booked");
+        }
+
+        if (!DatabaseConnection.isAvailable()) {
+            System.out.println("Failed to connect to the database; nothing compared.");
+            return;
+        }
+        SchemaMigrator.migrateOnStartup();
+        if (DatabaseConnection.getShards().isSharded()) {
+            System.out.println("Bookings are sharded; restore each shard from its own backup instead. Nothing compared.");
+            return;
+        }
+        IntIntMap inDatabase = new IntIntMap();
+        try (Connection connection = DatabaseConnection.borrowConnection()) {
+            int[] last = { 0 };
+            while (BookingRepository.scanContacts(connection, last[0], SCAN_CHUNK, (id, name, phone) -> {
+                inDatabase.put(id, 1);
+                last[0] = id;
+            }) == SCAN_CHUNK) {
+                // Keep reading in chunks so a large table never sits in memory at once
+            }
+        }
+        List<BookingJournal.Entry> missing = new ArrayList<>();
+        for (BookingJournal.Entry e : liveEntries) {
+            if (!inDatabase.containsKey(e.bookingId())) {
+                missing.add(e);
+            }
+        }
+        List<BookingJournal.Entry> stale = new ArrayList<>();
+        for (BookingJournal.Entry e : values(cancelled)) {
+            if (inDatabase.containsKey(e.bookingId())) {
+                stale.add(e);
+            }
+        }
+        missing.sort((a, b) -> Integer.compare(a.bookingId(), b.bookingId()));
+        stale.sort((a, b) -> Integer.compare(a.bookingId(), b.bookingId()));
+        System.out.println(String.format("Database: %d bookings; %d missing from it, %d cancelled but still in it",
+                inDatabase.size(), missing.size(), stale.size()));
+        if (!apply) {
+            if (!missing.isEmpty() || !stale.isEmpty()) {
+                System.out.println("Run again with --apply to bring the database in line with the journal.");
+            }
+            return;
+        }
+
+        // Seat map changes per showtime: {row, firstSeat, seats, +1 to sell or -1 to free}
+        IntObjectMap<List<int[]>> seatChanges = new IntObjectMap<>();
+        int removed = removeCancelled(stale, seatChanges);
+        int[] restored = restoreMissing(missing, seatChanges);
+        int maps = updateSeatMaps(seatChanges);
+        System.out.println(String.format("Removed %d cancelled bookings, restored %d bookings, updated %d seat maps",
+                removed, restored[0], maps));
+        if (restored[1] > 0) {
+            System.out.println(restored[1] + " bookings were not restored because their showtime had too few seats left.");
+        }
+    }
+
+    private static int removeCancelled(List<BookingJournal.Entry> stale, IntObjectMap<List<int[]>> seatChanges)
+            throws SQLException {
+        int removed = 0;
+        try (Connection connection = DatabaseConnection.borrowConnection()) {
+            connection.setAutoCommit(false);
+            try {
+                for (int i = 0; i < stale.size(); i++) {
+                    int bookingId = stale.get(i).bookingId();
+                    int[] position = BookingRepository.findSeatPosition(connection, bookingId);
+                    if (SeatReservationService.cancel(connection, bookingId) != null) {
+                        removed++;
+                        if (position != null && position[2] >= 0) {
+                            changes(seatChanges, position[0]).add(new int[] { position[2], position[3], position[1], -1 });
+                        }
+                    }
+                    if ((i + 1) % CHUNK == 0) {
+                        connection.commit();
+                    }
+                }
+                connection.commit();
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            }
+        }
+        return removed;
+    }
+
+    // Returns {restored, skipped for lack of seats}
+    private static int[] restoreMissing(List<BookingJournal.Entry> missing, IntObjectMap<List<int[]>> seatChanges)
+            throws SQLException {
+        int restored = 0;
+        int skipped = 0;
+        try (Connection connection = DatabaseConnection.borrowConnection()) {
+            connection.setAutoCommit(false);
+            try {
+                for (int i = 0; i < missing.size(); i++) {
+                    BookingJournal.Entry e = missing.get(i);
+                    if (!ShowtimeRepository.reserveSeats(connection, e.showtimeId(), e.seats())) {
+                        System.out.println("Not restoring booking " + e.bookingId() + " for " + e.customerName()
+                                + ": showtime " + e.showtimeId() + " has fewer than " + e.seats() + " seats left.");
+                        skipped++;
+                        continue;
+                    }
+                    BookingRepository.insertWithId(connection, e.bookingId(), e.movieId(), e.showtimeId(),
+                            e.customerName(), e.phoneNumber(), e.seats(), e.seatRow(), e.firstSeat());
+                    restored++;
+                    if (e.seatRow() >= 0) {
+                        changes(seatChanges, e.showtimeId()).add(new int[] { e.seatRow(), e.firstSeat(), e.seats(), 1 });
+                    }
+                    if ((i + 1) % CHUNK == 0) {
+                        connection.commit();
+                    }
+                }
+                connection.commit();
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            }
+        }
+        return new int[] { restored, skipped };
+    }
+
+    // Only showtimes that already have a stored map are touched; the others get theirs from the
+    // seat counts when SeatMapService first loads them
+    private static int updateSeatMaps(IntObjectMap<List<int[]>> seatChanges) throws SQLException {
+        List<Integer> showtimeIds = new ArrayList<>();
+        seatChanges.forEach((showtimeId, changes) -> showtimeIds.add(showtimeId));
+        int updated = 0;
+        try (Connection connection = DatabaseConnection.borrowConnection()) {
+            for (int showtimeId : showtimeIds) {
+                ShowtimeRepository.StoredSeatMap stored = ShowtimeRepository.findSeatMap(connection, showtimeId);
+                if (stored == null || stored.rows <= 0 || stored.seatsPerRow <= 0) {
+                    continue;
+                }
+                SeatMap map = SeatMap.fromBytes(stored.rows, stored.seatsPerRow, stored.seatMap);
+                for (int[] c : seatChanges.get(showtimeId)) {
+                    if (c[3] < 0) {
+                        map.unsell(c[0], c[1], c[2]);
+                    } else if (map.hold(c[0], c[1], c[2])) {
+                        map.confirm(c[0], c[1], c[2]);
+                    }
+                }
+                ShowtimeRepository.updateSeatMap(connection, showtimeId, stored.rows, stored.seatsPerRow, map.toBytes());
+                updated++;
+            }
+        }
+        return updated;
+    }
+
+    private static List<int[]> changes(IntObjectMap<List<int[]>> seatChanges, int showtimeId) {
+        List<int[]> list = seatChanges.get(showtimeId);
+        if (list == null) {
+            list = new ArrayList<>();
+            seatChanges.put(showtimeId, list);
+        }
+        return list;
+    }
+
+    private static List<BookingJournal.Entry> values(IntObjectMap<BookingJournal.Entry> map) {
+        List<BookingJournal.Entry> list = new ArrayList<>(map.size());
+        map.forEach((id, e) -> list.add(e));
+        return list;
+    }
+}
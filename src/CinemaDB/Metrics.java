@@ -0,0 +1,356 @@
+package CinemaDB;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Latency histograms and counters for the database calls and user actions, exported in the
+ * Prometheus text format ({@link #prometheus}, served at /metrics by {@link BookingHttpServer})
+ * and logged as a summary every -Dcinemadb.metrics.logSeconds seconds (default 60, 0 for never).
+ *
+ * What is measured:
+ * <ul>
+ * <li>cinemadb_db_query_seconds, rows fetched and errors, per SQL statement. Statements are
+ * timed by {@link StatementCache}, so every prepared statement a repository runs is covered. A
+ * statement that takes longer than -Dcinemadb.metrics.slowQueryMillis (default 1000) is also
+ * logged with its SQL.</li>
+ * <li>cinemadb_action_seconds, per {@link BookingService} call (list movies, add booking, cancel,
+ * ...), which is what a dialog or an HTTP request waits for.</li>
+ * <li>Time spent waiting for a pooled connection and for an {@link AsyncDatabase} slot.</li>
+ * <li>Statement cache and catalog cache hits and misses, pool sizes, and seat contention
+ * retries (deadlocks and lock wait timeouts that were run again).</li>
+ * </ul>
+ *
+ * Timers keep a {@link LatencyHistogram}, so recording allocates nothing and the quantiles are
+ * good to about 6%. The quantiles in the export cover everything since startup; the logged
+ * summary covers only the last interval.
+ */
+public final class Metrics {
+    private static final long SLOW_QUERY_NANOS =
+            TimeUnit.MILLISECONDS.toNanos(Long.getLong("cinemadb.metrics.slowQueryMillis", 1_000));
+    private static final double[] QUANTILES = { 0.5, 0.9, 0.99, 0.999 };
+    // Longest SQL text kept as a label value
+    private static final int MAX_SQL_LABEL = 160;
+
+    /** Latency of one kind of operation. */
+    public static final class Timer {
+        private final LatencyHistogram histogram = new LatencyHistogram();
+        // Touched only by the log summary thread
+        private LatencyHistogram.Snapshot lastLogged;
+
+        /** Records the time since {@code startNanos}, a {@link System#nanoTime} reading. */
+        public void recordSince(long startNanos) {
+            histogram.record(System.nanoTime() - startNanos);
+        }
+
+        public void record(long nanos) {
+            histogram.record(nanos);
+        }
+    }
+
+    /** A count that only goes up. */
+    public static final class Counter {
+        private final LongAdder value = new LongAdder();
+
+        public void increment() {
+            value.increment();
+        }
+
+        public void add(long n) {
+            value.add(n);
+        }
+
+        public long get() {
+            return value.sum();
+        }
+    }
+
+    /** Timer, row count and error count of one SQL statement. */
+    static final class Query {
+        final String sql;
+        final Timer timer;
+        final Counter rows;
+        final Counter errors;
+
+        private Query(String sql) {
+            this.sql = sql;
+            timer = timer(QUERY_SECONDS, "sql", sql);
+            rows = counter(ROWS_FETCHED, "sql", sql);
+            errors = counter(QUERY_ERRORS, "sql", sql);
+        }
+
+        /** Records one execution that started at {@code startNanos} and logs it if it was slow. */
+        void executed(long startNanos) {
+            long nanos = System.nanoTime() - startNanos;
+            timer.record(nanos);
+            if (nanos >= SLOW_QUERY_NANOS) {
+                System.out.println(String.format("Slow query (%d ms): %s", TimeUnit.NANOSECONDS.toMillis(nanos), sql));
+            }
+        }
+    }
+
+    private enum Type { SUMMARY, COUNTER, GAUGE }
+
+    private static final class Family {
+        final String name;
+        final Type type;
+        final String help;
+        // Label text ("" or name="value",...) -> Timer, Counter or LongSupplier
+        final Map<String, Object> series = new ConcurrentHashMap<>();
+
+        Family(String name, Type type, String help) {
+            this.name = name;
+            this.type = type;
+            this.help = help;
+        }
+    }
+
+    private static final Map<String, Family> FAMILIES = new LinkedHashMap<>();
+    private static final Map<String, Query> QUERIES = new ConcurrentHashMap<>();
+    // The same entries by SQL as written, so a repeated lookup skips normalize()
+    private static final Map<String, Query> QUERIES_BY_SQL = new ConcurrentHashMap<>();
+
+    private static final Family QUERY_SECONDS = family("cinemadb_db_query_seconds", Type.SUMMARY,
+            "Time to execute a prepared statement, by SQL.");
+    private static final Family ROWS_FETCHED = family("cinemadb_db_rows_fetched_total", Type.COUNTER,
+            "Rows read from query results by the repositories, by SQL.");
+    private static final Family QUERY_ERRORS = family("cinemadb_db_errors_total", Type.COUNTER,
+            "Statement executions that failed, by SQL.");
+    private static final Family ACTION_SECONDS = family("cinemadb_action_seconds", Type.SUMMARY,
+            "Time taken by a booking service call, e.g. listing movies or adding a booking.");
+    private static final Family POOL = family("cinemadb_pool_connections", Type.GAUGE,
+            "Pooled database connections, by state.");
+    private static final Family CACHE = family("cinemadb_cache_requests_total", Type.COUNTER,
+            "Cache lookups, by cache and result.");
+    private static final Family READS = family("cinemadb_read_connections_total", Type.COUNTER,
+            "Connections borrowed for read-only queries, by the database they went to.");
+    private static final Family REPLICA_UP = family("cinemadb_replica_up", Type.GAUGE,
+            "1 if a read replica passed its last health check, else 0.");
+    private static final Family REPLICA_LAG = family("cinemadb_replica_lag_millis", Type.GAUGE,
+            "Replication lag a read replica reported at its last health check.");
+    private static final Family ADMISSIONS = family("cinemadb_admissions_total", Type.COUNTER,
+            "Bookings let through the waiting room or turned away, by result.");
+    private static final Family WAITING_ROOM = family("cinemadb_waiting_room_tickets", Type.GAUGE,
+            "Tickets waiting in the waiting room, over all showtimes.");
+
+    /** Time spent waiting for a pooled connection. */
+    public static final Timer POOL_WAIT = timer(family("cinemadb_pool_wait_seconds", Type.SUMMARY,
+            "Time spent waiting to borrow a database connection."));
+    /** Time a background task waited for an {@link AsyncDatabase} slot. */
+    public static final Timer ASYNC_QUEUE_WAIT = timer(family("cinemadb_async_queue_seconds", Type.SUMMARY,
+            "Time background database work waited for a free slot."));
+    /** Transactions run again after a deadlock or lock wait timeout. */
+    public static final Counter SEAT_RETRIES = counter(family("cinemadb_seat_contention_retries_total", Type.COUNTER,
+            "Booking transactions retried after a deadlock or lock wait timeout."));
+    static final Counter STATEMENT_CACHE_HITS = counter(CACHE, "cache", "statement", "result", "hit");
+    static final Counter STATEMENT_CACHE_MISSES = counter(CACHE, "cache", "statement", "result", "miss");
+    /** Read-only work sent to a replica, or kept on the primary. */
+    static final Counter READS_ON_REPLICA = counter(READS, "target", "replica");
+    static final Counter READS_ON_PRIMARY = counter(READS, "target", "primary");
+    /** Outcomes of {@link AdmissionController}: let in, sold out, or told to come back later. */
+    static final Counter ADMISSIONS_ADMITTED = counter(ADMISSIONS, "result", "admitted");
+    static final Counter ADMISSIONS_SOLD_OUT = counter(ADMISSIONS, "result", "sold_out");
+    static final Counter ADMISSIONS_BUSY = counter(ADMISSIONS, "result", "busy");
+    /** Time a booking waited in the queue before it was let in. */
+    static final Timer ADMISSION_WAIT = timer(family("cinemadb_admission_wait_seconds", Type.SUMMARY,
+            "Time bookings waited in the waiting room before they were let in."));
+
+    private static volatile ScheduledExecutorService logger;
+
+    private Metrics() {
+    }
+
+    /** The timer for a {@link BookingService} call, e.g. "add_booking". */
+    public static Timer action(String name) {
+        return timer(ACTION_SECONDS, "action", name);
+    }
+
+    /**
+     * Metrics for one SQL statement; IN lists of any length share one entry. Looked up once per
+     * cached statement, and once per query by {@link #rowsRead}.
+     */
+    static Query query(String sql) {
+        Query query = QUERIES_BY_SQL.get(sql);
+        if (query == null) {
+            query = QUERIES.computeIfAbsent(normalize(sql), Query::new);
+            QUERIES_BY_SQL.put(sql, query);
+        }
+        return query;
+    }
+
+    /** Counts the rows a repository loop read from one result of {@code sql}. */
+    static void rowsRead(String sql, long rows) {
+        if (rows > 0) {
+            query(sql).rows.add(rows);
+        }
+    }
+
+    /** Exports the pool's connection counts, taken from {@code active} and {@code idle} when scraped. */
+    static void poolGauges(LongSupplier active, LongSupplier idle) {
+        POOL.series.put(labels("state", "active"), active);
+        POOL.series.put(labels("state", "idle"), idle);
+    }
+
+    /** Exports the health and lag of one read replica, taken from the suppliers when scraped. */
+    static void replicaGauges(String replica, LongSupplier up, LongSupplier lagMillis) {
+        REPLICA_UP.series.put(labels("replica", replica), up);
+        REPLICA_LAG.series.put(labels("replica", replica), lagMillis);
+    }
+
+    /** Exports the number of tickets in the waiting room, taken from {@code waiting} when scraped. */
+    static void waitingRoomGauge(LongSupplier waiting) {
+        WAITING_ROOM.series.put("", waiting);
+    }
+
+    /** Exports hit and miss counts a cache keeps itself. */
+    static void cacheCounters(String cache, LongSupplier hits, LongSupplier misses) {
+        CACHE.series.put(labels("cache", cache, "result", "hit"), hits);
+        CACHE.series.put(labels("cache", cache, "result", "miss"), misses);
+    }
+
+    /** Exports any other count that only goes up, e.g. pool borrow timeouts. */
+    static void counterFunction(String name, String help, LongSupplier value) {
+        family(name, Type.COUNTER, help).series.put("", value);
+    }
+
+    /** All metrics in the Prometheus text exposition format; times are in seconds. */
+    public static String prometheus() {
+        StringBuilder out = new StringBuilder(4096);
+        for (Family family : families()) {
+            if (family.series.isEmpty()) {
+                continue;
+            }
+            out.append("# HELP ").append(family.name).append(' ').append(family.help).append('\n');
+            out.append("# TYPE ").append(family.name).append(' ').append(family.type.name().toLowerCase(Locale.ROOT)).append('\n');
+            for (Map.Entry<String, Object> e : sorted(family.series)) {
+                String labels = e.getKey();
+                Object metric = e.getValue();
+                if (metric instanceof Timer timer) {
+                    LatencyHistogram.Snapshot s = timer.histogram.snapshot();
+                    for (double q : QUANTILES) {
+                        String quantile = "quantile=\"" + q + "\"";
+                        out.append(family.name).append('{').append(labels.isEmpty() ? quantile : labels + "," + quantile)
+                                .append("} ").append(seconds(s.valueAt(q))).append('\n');
+                    }
+                    out.append(family.name).append("_sum").append(braces(labels)).append(' ').append(seconds(s.sum)).append('\n');
+                    out.append(family.name).append("_count").append(braces(labels)).append(' ').append(s.count).append('\n');
+                } else {
+                    long value = metric instanceof Counter c ? c.get() : ((LongSupplier) metric).getAsLong();
+                    out.append(family.name).append(braces(labels)).append(' ').append(value).append('\n');
+                }
+            }
+        }
+        return out.toString();
+    }
+
+    /**
+     * Starts logging the count, p50, p99 and max of every timer that saw activity in the last
+     * interval; later calls do nothing.
+     */
+    public static void startLogSummary() {
+        long seconds = Long.getLong("cinemadb.metrics.logSeconds", 60);
+        if (seconds <= 0 || logger != null) {
+            return;
+        }
+        synchronized (Metrics.class) {
+            if (logger != null) {
+                return;
+            }
+            logger = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "cinemadb-metrics-log");
+                t.setDaemon(true);
+                return t;
+            });
+            logger.scheduleAtFixedRate(() -> logSummary(seconds), seconds, seconds, TimeUnit.SECONDS);
+        }
+    }
+
+    private static void logSummary(long seconds) {
+        List<String> lines = new ArrayList<>();
+        for (Family family : families()) {
+            if (family.type != Type.SUMMARY) {
+                continue;
+            }
+            for (Map.Entry<String, Object> e : sorted(family.series)) {
+                Timer timer = (Timer) e.getValue();
+                LatencyHistogram.Snapshot now = timer.histogram.snapshot();
+                LatencyHistogram.Snapshot interval = timer.lastLogged == null ? now : now.minus(timer.lastLogged);
+                timer.lastLogged = now;
+                if (interval.count > 0) {
+                    lines.add(String.format("  %s%s: n=%d p50=%.2fms p99=%.2fms max=%.2fms", family.name,
+                            braces(e.getKey()), interval.count, millis(interval.valueAt(0.5)),
+                            millis(interval.valueAt(0.99)), millis(interval.max())));
+                }
+            }
+        }
+        if (!lines.isEmpty()) {
+            System.out.println("Metrics for the last " + seconds + " s:\n" + String.join("\n", lines));
+        }
+    }
+
+    private static Timer timer(Family family, String... labels) {
+        return (Timer) family.series.computeIfAbsent(labels(labels), k -> new Timer());
+    }
+
+    private static Counter counter(Family family, String... labels) {
+        return (Counter) family.series.computeIfAbsent(labels(labels), k -> new Counter());
+    }
+
+    private static Family family(String name, Type type, String help) {
+        synchronized (FAMILIES) {
+            return FAMILIES.computeIfAbsent(name, k -> new Family(name, type, help));
+        }
+    }
+
+    private static List<Family> families() {
+        synchronized (FAMILIES) {
+            return new ArrayList<>(FAMILIES.values());
+        }
+    }
+
+    private static List<Map.Entry<String, Object>> sorted(Map<String, Object> series) {
+        List<Map.Entry<String, Object>> entries = new ArrayList<>(series.entrySet());
+        entries.sort(Map.Entry.comparingByKey());
+        return entries;
+    }
+
+    // Label names and values alternate
+    private static String labels(String... labels) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i + 1 < labels.length; i += 2) {
+            if (text.length() > 0) {
+                text.append(',');
+            }
+            String value = labels[i + 1].replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+            text.append(labels[i]).append("=\"").append(value).append('"');
+        }
+        return text.toString();
+    }
+
+    private static String braces(String labels) {
+        return labels.isEmpty() ? "" : "{" + labels + "}";
+    }
+
+    // SQL as a label value: whitespace collapsed, IN lists shortened
+    static String normalize(String sql) {
+        String s = sql.replaceAll("\\s+", " ").replaceAll("\\?(, ?\\?)+", "?, ...").trim();
+        return s.length() > MAX_SQL_LABEL ? s.substring(0, MAX_SQL_LABEL) + "..." : s;
+    }
+
+    private static String seconds(long nanos) {
+        return Double.toString(nanos / 1e9);
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1e6;
+    }
+}
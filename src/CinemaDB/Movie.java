@@ -0,0 +1,7 @@
+package CinemaDB;
+
+import java.time.LocalDate;
+
+/** One row of the Movies table. */
+public record Movie(int movieId, String title, String genre, int durationMinutes, LocalDate releaseDate) {
+}
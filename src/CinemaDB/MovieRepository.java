@@ -0,0 +1,46 @@
+package CinemaDB;
+
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.List;
+
+/** Queries on the Movies table. */
+public class MovieRepository {
+    private static final String COLUMNS = "movie_id, title, genre, duration_minutes, release_date";
+
+    private static final String FIND_ALL_SQL = "SELECT " + COLUMNS + " FROM Movies ORDER BY movie_id";
+    private static final String FIND_BY_ID_SQL = "SELECT " + COLUMNS + " FROM Movies WHERE movie_id = ?";
+
+    /** Maps the {@link #COLUMNS} select list. */
+    public static final RowMapper<Movie> MAPPER = rs -> {
+        Date released = rs.getDate(5);
+        return new Movie(rs.getInt(1), rs.getString(2), rs.getString(3), rs.getInt(4),
+                released == null ? null : released.toLocalDate());
+    };
+
+    public static List<Movie> findAll(Connection connection) throws SQLException {
+        try (PreparedStatement stmt = connection.prepareStatement(FIND_ALL_SQL);
+             ResultSet rs = stmt.executeQuery()) {
+            List<Movie> movies = new ArrayList<>();
+            while (rs.next()) {
+                movies.add(MAPPER.map(rs));
+            }
+            Metrics.rowsRead(FIND_ALL_SQL, movies.size());
+            return movies;
+        }
+    }
+
+    /** The movie with that id, or null. */
+    public static Movie findById(Connection connection, int movieId) throws SQLException {
+        try (PreparedStatement stmt = connection.prepareStatement(FIND_BY_ID_SQL)) {
+            stmt.setInt(1, movieId);
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (!rs.next()) {
+                    return null;
+                }
+                Metrics.rowsRead(FIND_BY_ID_SQL, 1);
+                return MAPPER.map(rs);
+            }
+        }
+    }
+}
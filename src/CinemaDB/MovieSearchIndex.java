@@ -0,0 +1,396 @@
+package CinemaDB;
+
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * In-memory search over the movie catalog: search-as-you-type on the words of titles and genres,
+ * with a genre filter and a release date range.
+ *
+ * Titles and genres are split into lower-case words, and an inverted index maps each word to the
+ * sorted ids of the movies that contain it. The words are also kept in a sorted map, so all
+ * words starting with a prefix form one contiguous range; a hash map finds an existing word's
+ * postings without walking the tree. The genre and release date filters have their own
+ * indexes of the same kind.
+ *
+ * A query starts from whichever condition matches the fewest movies: its rarest word prefix,
+ * the genre, or the date range. Each candidate is then checked against the other conditions
+ * using that movie's own word list. Collection stops at the limit, so the cost depends on the
+ * size of the smallest posting list, not on the size of the catalog.
+ *
+ * The index is updated incrementally. {@link #sync} compares a freshly loaded catalog with
+ * what is indexed and re-indexes only the movies that were added, changed or removed.
+ */
+public class MovieSearchIndex {
+    /** Default number of results for a search. */
+    public static final int DEFAULT_LIMIT = 50;
+
+    // A prefix matching more distinct words than this is not counted to the end; a short prefix
+    // like "s" matches thousands. Of two such prefixes the longer one is assumed to be narrower.
+    private static final int MAX_WORDS_COUNTED = 256;
+
+    /**
+     * Every word of {@code text} must be the start of a word in the movie's title or genre.
+     * Null or blank fields match everything; the date range is inclusive.
+     */
+    public record Query(String text, String genre, LocalDate releasedFrom, LocalDate releasedTo, int limit) {
+        public Query {
+            if (limit <= 0) {
+                throw new IllegalArgumentException("The result limit must be a positive number.");
+            }
+        }
+
+        public static Query text(String text) {
+            return new Query(text, null, null, null, DEFAULT_LIMIT);
+        }
+    }
+
+    // Sorted set of movie ids; movies mostly arrive in id order, so adding usually appends
+    private static final class Postings {
+        private int[] ids = new int[4];
+        private int size;
+
+        void add(int id) {
+            int i = size == 0 || ids[size - 1] < id ? size : Arrays.binarySearch(ids, 0, size, id);
+            if (i >= 0 && i < size) {
+                return;
+            }
+            if (i < 0) {
+                i = -i - 1;
+            }
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+            }
+            System.arraycopy(ids, i, ids, i + 1, size - i);
+            ids[i] = id;
+            size++;
+        }
+
+        void remove(int id) {
+            int i = Arrays.binarySearch(ids, 0, size, id);
+            if (i >= 0) {
+                System.arraycopy(ids, i + 1, ids, i, size - i - 1);
+                size--;
+            }
+        }
+    }
+
+    private static final class Doc {
+        final Movie movie;
+        final String[] words;
+        final String genreKey;
+
+        Doc(Movie movie) {
+            this.movie = movie;
+            this.words = distinct(tokenize(movie.title()), tokenize(movie.genre()));
+            this.genreKey = genreKey(movie.genre());
+        }
+
+        boolean hasWordStartingWith(String prefix) {
+            for (String word : words) {
+                if (word.startsWith(prefix)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final IntObjectMap<Doc> docs = new IntObjectMap<>();
+    private final Postings all = new Postings();
+    private final Map<String, Postings> words = new HashMap<>();
+    // Same postings as words, in word order for prefix ranges
+    private final TreeMap<String, Postings> sortedWords = new TreeMap<>();
+    private final Map<String, Postings> genres = new HashMap<>();
+    // Genre as first seen, by lower-case key, for listing in the UI
+    private final TreeMap<String, String> genreNames = new TreeMap<>();
+    private final TreeMap<Long, Postings> released = new TreeMap<>();
+
+    /** Lower-case words of {@code text}; anything other than letters and digits separates words. */
+    static String[] tokenize(String text) {
+        if (text == null || text.isEmpty()) {
+            return new String[0];
+        }
+        List<String> result = new ArrayList<>();
+        String lower = text.toLowerCase(Locale.ROOT);
+        int start = -1;
+        for (int i = 0; i <= lower.length(); i++) {
+            boolean wordChar = i < lower.length() && Character.isLetterOrDigit(lower.charAt(i));
+            if (wordChar && start < 0) {
+                start = i;
+            } else if (!wordChar && start >= 0) {
+                result.add(lower.substring(start, i));
+                start = -1;
+            }
+        }
+        return result.toArray(new String[0]);
+    }
+
+    // Titles have a handful of words, so a linear scan beats building a set
+    private static String[] distinct(String[] a, String[] b) {
+        String[] result = new String[a.length + b.length];
+        int n = 0;
+        for (String[] words : new String[][] { a, b }) {
+            next:
+            for (String word : words) {
+                for (int i = 0; i < n; i++) {
+                    if (result[i].equals(word)) {
+                        continue next;
+                    }
+                }
+                result[n++] = word;
+            }
+        }
+        return n == result.length ? result : Arrays.copyOf(result, n);
+    }
+
+    private static String genreKey(String genre) {
+        return genre == null ? "" : genre.trim().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Brings the index in line with {@code catalog}, re-indexing only movies that are new or
+     * differ from the indexed version and dropping those no longer in it.
+     */
+    public synchronized void sync(List<Movie> catalog) {
+        // Writers are serialized by this object's monitor, so the index can be read here without
+        // the lock; tokenizing, the expensive part, also happens before readers are locked out
+        List<Doc> changed = new ArrayList<>();
+        IntIntMap present = new IntIntMap(catalog.size());
+        for (Movie movie : catalog) {
+            present.put(movie.movieId(), 0);
+            Doc doc = docs.get(movie.movieId());
+            if (doc == null || !doc.movie.equals(movie)) {
+                changed.add(new Doc(movie));
+            }
+        }
+        List<Integer> removed = new ArrayList<>();
+        docs.forEach((id, doc) -> {
+            if (!present.containsKey(id)) {
+                removed.add(id);
+            }
+        });
+        if (changed.isEmpty() && removed.isEmpty()) {
+            return;
+        }
+
+        lock.writeLock().lock();
+        try {
+            for (int id : removed) {
+                unindex(id);
+            }
+            for (Doc doc : changed) {
+                unindex(doc.movie.movieId());
+                index(doc);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /** Adds or replaces one movie. */
+    public synchronized void put(Movie movie) {
+        Doc doc = new Doc(movie);
+        lock.writeLock().lock();
+        try {
+            unindex(movie.movieId());
+            index(doc);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public synchronized void remove(int movieId) {
+        lock.writeLock().lock();
+        try {
+            unindex(movieId);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void index(Doc doc) {
+        int id = doc.movie.movieId();
+        docs.put(id, doc);
+        all.add(id);
+        for (String word : doc.words) {
+            Postings p = words.get(word);
+            if (p == null) {
+                p = new Postings();
+                words.put(word, p);
+                sortedWords.put(word, p);
+            }
+            p.add(id);
+        }
+        genres.computeIfAbsent(doc.genreKey, k -> new Postings()).add(id);
+        if (!doc.genreKey.isEmpty()) {
+            genreNames.putIfAbsent(doc.genreKey, doc.movie.genre().trim());
+        }
+        if (doc.movie.releaseDate() != null) {
+            released.computeIfAbsent(doc.movie.releaseDate().toEpochDay(), k -> new Postings()).add(id);
+        }
+    }
+
+    private void unindex(int movieId) {
+        Doc doc = docs.remove(movieId);
+        if (doc == null) {
+            return;
+        }
+        all.remove(movieId);
+        for (String word : doc.words) {
+            if (removeFrom(words, word, movieId)) {
+                sortedWords.remove(word);
+            }
+        }
+        if (removeFrom(genres, doc.genreKey, movieId)) {
+            genreNames.remove(doc.genreKey);
+        }
+        if (doc.movie.releaseDate() != null) {
+            removeFrom(released, doc.movie.releaseDate().toEpochDay(), movieId);
+        }
+    }
+
+    // Returns true if that was the last movie under the key, which is then dropped
+    private static <K> boolean removeFrom(Map<K, Postings> index, K key, int movieId) {
+        Postings p = index.get(key);
+        if (p == null) {
+            return false;
+        }
+        p.remove(movieId);
+        if (p.size == 0) {
+            index.remove(key);
+            return true;
+        }
+        return false;
+    }
+
+    /** Movies matching the query, at most {@code query.limit()} of them, ordered by title. */
+    public List<Movie> search(Query query) {
+        String[] terms = distinct(tokenize(query.text()), new String[0]);
+        String genre = query.genre() == null || query.genre().isBlank() ? null : genreKey(query.genre());
+        boolean dated = query.releasedFrom() != null || query.releasedTo() != null;
+        List<Movie> result = new ArrayList<>();
+
+        lock.readLock().lock();
+        try {
+            // Start from the condition that matches the fewest movies; any condition at all is
+            // better than walking the whole catalog
+            Collection<Postings> driver = List.of(all);
+            boolean whole = true;
+            long smallest = all.size;
+            int driverTerm = -1;
+            if (genre != null) {
+                Postings p = genres.get(genre);
+                if (p == null) {
+                    return result;
+                }
+                driver = List.of(p);
+                whole = false;
+                smallest = p.size;
+            }
+            for (int t = 0; t < terms.length; t++) {
+                SortedMap<String, Postings> range = sortedWords.subMap(terms[t], terms[t] + Character.MAX_VALUE);
+                long n = count(range.values(), smallest);
+                if (n == 0) {
+                    return result;
+                }
+                boolean longerUncounted = n == smallest && driverTerm >= 0 && terms[t].length() > terms[driverTerm].length();
+                if (n < smallest || whole || longerUncounted) {
+                    driver = range.values();
+                    whole = false;
+                    smallest = Math.min(n, smallest);
+                    driverTerm = t;
+                }
+            }
+            if (dated) {
+                long from = query.releasedFrom() == null ? Long.MIN_VALUE : query.releasedFrom().toEpochDay();
+                long to = query.releasedTo() == null ? Long.MAX_VALUE : query.releasedTo().toEpochDay();
+                if (from > to) {
+                    return result;
+                }
+                Collection<Postings> range = released.subMap(from, true, to, true).values();
+                if (count(range, smallest) < smallest || whole) {
+                    driver = range;
+                    driverTerm = -1;
+                }
+            }
+
+            // Several word postings can hold the same movie ("star" and "stars" for "sta")
+            IntIntMap seen = driverTerm >= 0 ? new IntIntMap() : null;
+            collect:
+            for (Postings p : driver) {
+                for (int i = 0; i < p.size; i++) {
+                    if (result.size() == query.limit()) {
+                        break collect;
+                    }
+                    int id = p.ids[i];
+                    if (seen != null && seen.containsKey(id)) {
+                        continue;
+                    }
+                    if (seen != null) {
+                        seen.put(id, 0);
+                    }
+                    Doc doc = docs.get(id);
+                    if (matches(doc, terms, driverTerm, genre, query)) {
+                        result.add(doc.movie);
+                    }
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        result.sort(Comparator.comparing((Movie m) -> m.title() == null ? "" : m.title(), String.CASE_INSENSITIVE_ORDER)
+                .thenComparingInt(Movie::movieId));
+        return result;
+    }
+
+    // Total movies in the postings, counting no further than cap or MAX_WORDS_COUNTED postings
+    private static long count(Collection<Postings> postings, long cap) {
+        long n = 0;
+        int counted = 0;
+        for (Postings p : postings) {
+            n += p.size;
+            if (n >= cap || ++counted > MAX_WORDS_COUNTED && n > 0) {
+                return Math.max(n, cap);
+            }
+        }
+        return n;
+    }
+
+    private static boolean matches(Doc doc, String[] terms, int skipTerm, String genre, Query query) {
+        for (int t = 0; t < terms.length; t++) {
+            if (t != skipTerm && !doc.hasWordStartingWith(terms[t])) {
+                return false;
+            }
+        }
+        if (genre != null && !genre.equals(doc.genreKey)) {
+            return false;
+        }
+        LocalDate released = doc.movie.releaseDate();
+        if (query.releasedFrom() != null && (released == null || released.isBefore(query.releasedFrom()))) {
+            return false;
+        }
+        return query.releasedTo() == null || (released != null && !released.isAfter(query.releasedTo()));
+    }
+
+    /** Distinct genres in the catalog, sorted case-insensitively. */
+    public List<String> genres() {
+        lock.readLock().lock();
+        try {
+            return new ArrayList<>(genreNames.values());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return docs.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+}
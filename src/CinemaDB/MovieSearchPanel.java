@@ -0,0 +1,105 @@
+package CinemaDB;
+
+import javax.swing.*;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import java.awt.FlowLayout;
+import java.awt.Window;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Search box with genre and release year filters above the movies table. The table follows
+ * what is typed: each keystroke runs a {@link MovieSearchIndex} query against the cached
+ * catalog, and an empty box with no filters shows the whole catalog again. A year that is not a
+ * number is ignored.
+ */
+public class MovieSearchPanel extends JPanel {
+    private static final long serialVersionUID = 1L;
+    private static final String ALL_GENRES = "All genres";
+
+    private final JTextField searchField = new JTextField(20);
+    private final JComboBox<String> genreBox = new JComboBox<>(new String[] { ALL_GENRES });
+    private final JTextField fromYearField = new JTextField(4);
+    private final JTextField toYearField = new JTextField(4);
+    private final transient MovieTableModel model;
+    private transient CompletableFuture<List<Movie>> latest;
+
+    public MovieSearchPanel(MovieTableModel model) {
+        super(new FlowLayout(FlowLayout.LEFT));
+        this.model = model;
+        add(new JLabel("Search:"));
+        add(searchField);
+        add(genreBox);
+        add(new JLabel("Released:"));
+        add(fromYearField);
+        add(new JLabel("to"));
+        add(toYearField);
+
+        DocumentListener onType = new DocumentListener() {
+            @Override
+            public void insertUpdate(DocumentEvent e) {
+                search();
+            }
+
+            @Override
+            public void removeUpdate(DocumentEvent e) {
+                search();
+            }
+
+            @Override
+            public void changedUpdate(DocumentEvent e) {
+                search();
+            }
+        };
+        searchField.getDocument().addDocumentListener(onType);
+        fromYearField.getDocument().addDocumentListener(onType);
+        toYearField.getDocument().addDocumentListener(onType);
+        genreBox.addActionListener(e -> search());
+    }
+
+    /** Loads the whole catalog and the genre list into the table and the filter. */
+    public CompletableFuture<List<Movie>> load(Window dialog) {
+        CompletableFuture<List<Movie>> movies = AsyncDatabase.submit(BookingService::listMovies);
+        latest = movies;
+        AsyncDatabase.onEdt(movies, list -> {
+            if (latest == movies) {
+                model.setMovies(list);
+            }
+        }, e -> JOptionPane.showMessageDialog(dialog, "Error retrieving movies: " + e.getMessage(), "Error", JOptionPane.ERROR_MESSAGE));
+
+        CompletableFuture<List<String>> genres = AsyncDatabase.submit(BookingService::listGenres);
+        AsyncDatabase.onEdt(genres, list -> list.forEach(genreBox::addItem),
+                e -> System.out.println("Error retrieving genres: " + e.getMessage()));
+        return movies;
+    }
+
+    private void search() {
+        String text = searchField.getText().trim();
+        String genre = ALL_GENRES.equals(genreBox.getSelectedItem()) ? null : (String) genreBox.getSelectedItem();
+        Integer fromYear = year(fromYearField);
+        Integer toYear = year(toYearField);
+        LocalDate from = fromYear == null ? null : LocalDate.of(fromYear, 1, 1);
+        LocalDate to = toYear == null ? null : LocalDate.of(toYear, 12, 31);
+        // Only the answer to the latest keystroke is shown, whatever order the answers arrive in
+        CompletableFuture<List<Movie>> movies = AsyncDatabase.submit(() -> text.isEmpty() && genre == null && from == null && to == null
+                ? BookingService.listMovies()
+                : BookingService.searchMovies(new MovieSearchIndex.Query(text, genre, from, to, MovieSearchIndex.DEFAULT_LIMIT)));
+        latest = movies;
+        AsyncDatabase.onEdt(movies, list -> {
+            if (latest == movies) {
+                model.setMovies(list);
+            }
+        }, e -> System.out.println("Error searching movies: " + e.getMessage()));
+    }
+
+    private static Integer year(JTextField field) {
+        try {
+            int year = Integer.parseInt(field.getText().trim());
+            return year >= 1 && year <= 9999 ? year : null;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package CinemaDB;
+
+import javax.swing.table.AbstractTableModel;
+import java.util.Collections;
+import java.util.List;
+
+/** Read-only table of movies, backed directly by a {@link CatalogCache} snapshot list. */
+public class MovieTableModel extends AbstractTableModel {
+    private static final long serialVersionUID = 1L;
+    private static final String[] COLUMNS = { "ID", "Title", "Genre", "Minutes", "Released" };
+
+    private transient List<Movie> movies = Collections.emptyList();
+
+    public void setMovies(List<Movie> movies) {
+        this.movies = movies;
+        fireTableDataChanged();
+    }
+
+    @Override
+    public int getRowCount() {
+        return movies.size();
+    }
+
+    @Override
+    public int getColumnCount() {
+        return COLUMNS.length;
+    }
+
+    @Override
+    public String getColumnName(int column) {
+        return COLUMNS[column];
+    }
+
+    @Override
+    public Object getValueAt(int rowIndex, int columnIndex) {
+        Movie m = movies.get(rowIndex);
+        switch (columnIndex) {
+            case 0: return m.movieId();
+            case 1: return m.title();
+            case 2: return m.genre();
+            case 3: return m.durationMinutes();
+            default: return m.releaseDate();
+        }
+    }
+}
@@ -0,0 +1,247 @@
+package CinemaDB;
+
+import javax.swing.table.AbstractTableModel;
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Table model that reads a large table a page at a time with keyset pagination.
+ *
+ * Only the pages the table actually asks for are fetched, on {@link AsyncDatabase}, and at
+ * most {@code maxPages} of them are kept; the least recently used page is dropped when the
+ * limit is reached. Rows of a page that is not loaded yet show as empty until it arrives.
+ *
+ * Pages are read with {@code WHERE key > ? ORDER BY key LIMIT ?}, so a page costs the same
+ * no matter how deep into the table it is. The start key of a page is the last key of the
+ * page before it; when the user jumps straight to a page whose predecessor was never loaded,
+ * the start key is looked up with an index-only {@code LIMIT 1 OFFSET ?} query instead.
+ *
+ * When bookings are sharded (see {@link ShardRouter}) the table is the union of every shard's.
+ * The count is summed, each page is read from every shard and merged by key, and the start key
+ * of a page jumped to is found by a binary search on the key with {@code countUpToSql}, whose
+ * counts are summed over the shards.
+ *
+ * The first column returned by {@code pageSql} must be the integer key.
+ */
+public class PagedTableModel extends AbstractTableModel {
+    private static final long serialVersionUID = 1L;
+    private static final int UNKNOWN_KEY = Integer.MIN_VALUE;
+    private static final int PAGE_SIZE = 200;
+    private static final int MAX_PAGES = 20;
+
+    private final String[] columnNames;
+    private final String countSql;
+    private final String keyAtOffsetSql;
+    private final String countUpToSql;
+    private final String pageSql;
+    private final int pageSize;
+    private final int maxPages;
+
+    private int rowCount;
+    private int[] lastKeyOfPage = new int[0];
+    private final transient Set<Integer> loading = new HashSet<>();
+    private final transient Map<Integer, Object[][]> pages;
+
+    /**
+     * @param countSql       returns the total number of rows
+     * @param keyAtOffsetSql returns the key of the row at the offset given as its only parameter
+     * @param countUpToSql   returns the number of rows with key at most its only parameter
+     * @param pageSql        returns up to {@code ?2} rows with key greater than {@code ?1}, ordered by key
+     */
+    public PagedTableModel(String[] columnNames, String countSql, String keyAtOffsetSql, String countUpToSql,
+                           String pageSql, int pageSize, int maxPages) {
+        this.columnNames = columnNames;
+        this.countSql = countSql;
+        this.keyAtOffsetSql = keyAtOffsetSql;
+        this.countUpToSql = countUpToSql;
+        this.pageSql = pageSql;
+        this.pageSize = pageSize;
+        this.maxPages = maxPages;
+        this.pages = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Object[][]> eldest) {
+                return size() > PagedTableModel.this.maxPages;
+            }
+        };
+    }
+
+    /** All bookings with their movie title, by booking_id. */
+    public static PagedTableModel bookings() {
+        return new PagedTableModel(
+                new String[] { "ID", "Customer", "Movie", "Seats" },
+                BookingRepository.COUNT_SQL,
+                BookingRepository.KEY_AT_OFFSET_SQL,
+                BookingRepository.COUNT_UP_TO_SQL,
+                BookingRepository.PAGE_SQL,
+                PAGE_SIZE, MAX_PAGES);
+    }
+
+    /**
+     * Counts the rows in the background; the table shows them once the returned future completes.
+     * Callers attach their own error handling to it.
+     */
+    public CompletableFuture<Integer> load() {
+        CompletableFuture<Integer> count = AsyncDatabase.submit(() -> {
+            int n = 0;
+            for (int shardCount : DatabaseConnection.getShards().gather(false, c -> readInt(c, countSql, null))) {
+                n += shardCount;
+            }
+            return n;
+        });
+        AsyncDatabase.onEdt(count, n -> {
+            rowCount = n;
+            lastKeyOfPage = new int[(n + pageSize - 1) / pageSize];
+            Arrays.fill(lastKeyOfPage, UNKNOWN_KEY);
+            pages.clear();
+            fireTableDataChanged();
+        }, e -> { });
+        return count;
+    }
+
+    @Override
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    @Override
+    public int getColumnCount() {
+        return columnNames.length;
+    }
+
+    @Override
+    public String getColumnName(int column) {
+        return columnNames[column];
+    }
+
+    @Override
+    public Object getValueAt(int rowIndex, int columnIndex) {
+        int page = rowIndex / pageSize;
+        Object[][] rows = pages.get(page);
+        if (rows == null) {
+            requestPage(page);
+            return null;
+        }
+        int offset = rowIndex % pageSize;
+        return offset < rows.length ? rows[offset][columnIndex] : null;
+    }
+
+    private void requestPage(int page) {
+        if (!loading.add(page)) {
+            return;
+        }
+        int knownAfterKey = page == 0 ? UNKNOWN_KEY : lastKeyOfPage[page - 1];
+        boolean needsOffsetLookup = page > 0 && knownAfterKey == UNKNOWN_KEY;
+
+        CompletableFuture<Object[][]> rows = AsyncDatabase.submit(() -> {
+            ShardRouter shards = DatabaseConnection.getShards();
+            int afterKey = knownAfterKey;
+            if (needsOffsetLookup) {
+                Integer key = keyAtOffset(shards, page * pageSize - 1);
+                if (key == null) {
+                    return new Object[0][];
+                }
+                afterKey = key;
+            }
+            int after = afterKey;
+            List<List<Object[]>> parts = shards.gather(false, c -> readPage(c, after));
+            List<Object[]> merged = parts.size() == 1 ? parts.get(0)
+                    : ShardRouter.mergeById(parts, row -> ((Number) row[0]).intValue(), pageSize);
+            return merged.toArray(new Object[0][]);
+        });
+        AsyncDatabase.onEdt(rows, result -> {
+            loading.remove(page);
+            pages.put(page, result);
+            if (result.length > 0 && page < lastKeyOfPage.length) {
+                lastKeyOfPage[page] = ((Number) result[result.length - 1][0]).intValue();
+            }
+            int first = page * pageSize;
+            int last = Math.min(rowCount, first + pageSize) - 1;
+            if (first <= last) {
+                fireTableRowsUpdated(first, last);
+            }
+        }, e -> {
+            loading.remove(page);
+            System.out.println("Error loading rows " + page * pageSize + "-" + ((page + 1) * pageSize - 1) + ": " + e.getMessage());
+        });
+    }
+
+    private List<Object[]> readPage(Connection connection, int afterKey) throws SQLException {
+        try (PreparedStatement stmt = connection.prepareStatement(pageSql)) {
+            stmt.setFetchSize(pageSize);
+            stmt.setInt(1, afterKey);
+            stmt.setInt(2, pageSize);
+            try (ResultSet rs = stmt.executeQuery()) {
+                int columns = columnNames.length;
+                List<Object[]> result = new ArrayList<>(pageSize);
+                while (rs.next() && result.size() < pageSize) {
+                    Object[] row = new Object[columns];
+                    for (int c = 0; c < columns; c++) {
+                        row[c] = rs.getObject(c + 1);
+                    }
+                    result.add(row);
+                }
+                Metrics.rowsRead(pageSql, result.size());
+                return result;
+            }
+        }
+    }
+
+    // The key of the row at {@code offset}, or null if there are not that many rows
+    private Integer keyAtOffset(ShardRouter shards, int offset) throws SQLException {
+        List<Integer> keys = shards.gather(false, c -> readInt(c, keyAtOffsetSql, offset));
+        if (keys.size() == 1) {
+            return keys.get(0);
+        }
+        if (countUpTo(shards, Integer.MAX_VALUE) <= offset) {
+            return null;
+        }
+        // The smallest key with more than offset rows up to it; no later than any shard's own row at that offset
+        long lo = Integer.MIN_VALUE;
+        long hi = Integer.MAX_VALUE;
+        for (Integer key : keys) {
+            if (key != null) {
+                hi = Math.min(hi, key);
+            }
+        }
+        while (lo < hi) {
+            long mid = (lo + hi) >> 1;
+            if (countUpTo(shards, (int) mid) > offset) {
+                hi = mid;
+            } else {
+                lo = mid + 1;
+            }
+        }
+        return (int) hi;
+    }
+
+    private long countUpTo(ShardRouter shards, int key) throws SQLException {
+        long rows = 0;
+        for (Integer n : shards.gather(false, c -> readInt(c, countUpToSql, key))) {
+            rows += n;
+        }
+        return rows;
+    }
+
+    // The first column of the first row of {@code sql}, or null if it returns none
+    private static Integer readInt(Connection connection, String sql, Integer param) throws SQLException {
+        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+            if (param != null) {
+                stmt.setInt(1, param);
+            }
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (!rs.next()) {
+                    return null;
+                }
+                Metrics.rowsRead(sql, 1);
+                return rs.getInt(1);
+            }
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package CinemaDB;
+
+import javax.swing.*;
+import java.awt.*;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * "Loading..." strip with an indeterminate progress bar and a Cancel button, shown in a dialog
+ * while an {@link AsyncDatabase} task is running. Only reads can be cancelled; a write shows the
+ * strip with the button disabled (see {@link #trackWrite}).
+ */
+public class ProgressPanel extends JPanel {
+    private static final long serialVersionUID = 1L;
+    private final JButton cancelButton = new JButton("Cancel");
+    private transient CompletableFuture<?> current;
+    private boolean cancellable;
+
+    public ProgressPanel(String message) {
+        super(new BorderLayout(5, 5));
+        setBorder(BorderFactory.createEmptyBorder(5, 5, 5, 5));
+
+        JProgressBar progressBar = new JProgressBar();
+        progressBar.setIndeterminate(true);
+
+        add(new JLabel(message), BorderLayout.WEST);
+        add(progressBar, BorderLayout.CENTER);
+        add(cancelButton, BorderLayout.EAST);
+        setVisible(false);
+
+        cancelButton.addActionListener(e -> {
+            if (current != null && cancellable) {
+                current.cancel(true);
+            }
+            setVisible(false);
+        });
+    }
+
+    /**
+     * Shows the panel until {@code future} completes. The Cancel button, or closing
+     * {@code dialog}, cancels the task.
+     */
+    public void track(Window dialog, CompletableFuture<?> future) {
+        show(future, true);
+        dialog.addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosing(WindowEvent e) {
+                future.cancel(true);
+            }
+
+            @Override
+            public void windowClosed(WindowEvent e) {
+                future.cancel(true);
+            }
+        });
+    }
+
+    /**
+     * Shows the panel until {@code future} completes, with Cancel disabled. For writes: an
+     * interrupted write could leave the user without word of whether it went through, so it
+     * always runs to the end and the caller reports how it ended.
+     */
+    public void trackWrite(CompletableFuture<?> future) {
+        show(future, false);
+    }
+
+    private void show(CompletableFuture<?> future, boolean canCancel) {
+        current = future;
+        cancellable = canCancel;
+        cancelButton.setEnabled(canCancel);
+        setVisible(true);
+        future.whenComplete((value, error) -> SwingUtilities.invokeLater(() -> {
+            if (current == future) {
+                setVisible(false);
+            }
+        }));
+    }
+}
@@ -0,0 +1,251 @@
+package CinemaDB;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Sends read-only work to read replicas, each with its own {@link ConnectionPool}, and keeps
+ * everything else on the primary.
+ *
+ * A background check runs every {@code -Dcinemadb.replica.checkMillis} (default 1000) and asks
+ * each replica how far behind it is: {@code SHOW REPLICA STATUS} (or {@code SHOW SLAVE STATUS})
+ * on MySQL. A replica that reports no replication at all, like a standalone local instance or
+ * an embedded database standing in for one, counts as up to date. A replica that cannot be
+ * reached, whose replication has stopped, or that is more than
+ * {@code -Dcinemadb.replica.maxLagMillis} (default 5000) behind gets no reads until a later
+ * check passes. Reads are spread over the usable replicas in turn, and go to the primary when
+ * there are none or a borrow fails.
+ *
+ * Read-your-writes: every statement that writes records the time against the current
+ * {@link Session}. Until a replica has shown that it was caught up to a point after that write,
+ * that session's reads go to the primary. The lag a replica reports is taken as
+ * {@code -Dcinemadb.replica.lagSlackMillis} (default 1000) longer than reported, because MySQL
+ * reports it in whole seconds. The desktop apps are one user, so they use the process-wide
+ * default session. {@link BookingHttpServer} binds one session per client.
+ */
+final class ReplicaRouter {
+    private static final ThreadLocal<Session> CURRENT = new ThreadLocal<>();
+    private static final Session DEFAULT_SESSION = new Session();
+    private static final int MAX_SESSIONS = 10_000;
+    // Keyed sessions, least recently used dropped first
+    private static final Map<String, Session> SESSIONS = Collections.synchronizedMap(
+            new LinkedHashMap<>(256, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Session> eldest) {
+                    return size() > MAX_SESSIONS;
+                }
+            });
+
+    /** Who is reading and writing, for read-your-writes. */
+    static final class Session {
+        private volatile long lastWriteNanos;
+        private volatile boolean wrote;
+    }
+
+    private static final class Replica {
+        final String name;
+        final String url;
+        volatile ConnectionPool pool;
+        volatile boolean up;
+        // Whether being down has been logged, so it is logged once until the replica comes back
+        volatile boolean downLogged;
+        volatile long lagMillis;
+        // When the replica last showed how far behind it was
+        volatile long checkedAtNanos;
+
+        Replica(String name, String url) {
+            this.name = name;
+            this.url = url;
+        }
+
+        /** Usable for {@code session} if up, not too far behind, and known to have its last write. */
+        boolean usableFor(Session session, long maxLagMillis, long slackMillis) {
+            if (!up || pool == null || lagMillis > maxLagMillis) {
+                return false;
+            }
+            if (!session.wrote) {
+                return true;
+            }
+            long caughtUpTo = checkedAtNanos - TimeUnit.MILLISECONDS.toNanos(lagMillis + slackMillis);
+            return caughtUpTo - session.lastWriteNanos > 0;
+        }
+    }
+
+    private final List<Replica> replicas = new ArrayList<>();
+    private final String user;
+    private final String password;
+    private final int maxPoolSize;
+    private final long borrowTimeoutMillis;
+    private final long idleTimeoutMillis;
+    private final long leakThresholdMillis;
+    private final long maxLagMillis = Long.getLong("cinemadb.replica.maxLagMillis", 5_000);
+    private final long slackMillis = Long.getLong("cinemadb.replica.lagSlackMillis", 1_000);
+    private final AtomicInteger next = new AtomicInteger();
+    private final ScheduledExecutorService checker;
+
+    ReplicaRouter(List<String> urls, String user, String password, int maxPoolSize, long borrowTimeoutMillis,
+                  long idleTimeoutMillis, long leakThresholdMillis) {
+        this.user = user;
+        this.password = password;
+        this.maxPoolSize = maxPoolSize;
+        this.borrowTimeoutMillis = borrowTimeoutMillis;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.leakThresholdMillis = leakThresholdMillis;
+        for (int i = 0; i < urls.size(); i++) {
+            Replica r = new Replica("replica" + (i + 1), urls.get(i));
+            replicas.add(r);
+            Metrics.replicaGauges(r.name, () -> r.up ? 1 : 0, () -> r.lagMillis);
+        }
+        checkAll();
+        long checkMillis = Long.getLong("cinemadb.replica.checkMillis", 1_000);
+        checker = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "cinemadb-replica-check");
+            t.setDaemon(true);
+            return t;
+        });
+        checker.scheduleWithFixedDelay(this::checkAll, checkMillis, checkMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /** The session bound to this thread, or the process-wide one. */
+    static Session currentSession() {
+        Session s = CURRENT.get();
+        return s != null ? s : DEFAULT_SESSION;
+    }
+
+    /** The session for {@code key}, e.g. one HTTP client, created on first use. */
+    static Session session(String key) {
+        return SESSIONS.computeIfAbsent(key, k -> new Session());
+    }
+
+    /** Makes {@code session} current on this thread until {@link #unbind()}. */
+    static void bind(Session session) {
+        CURRENT.set(session);
+    }
+
+    static void unbind() {
+        CURRENT.remove();
+    }
+
+    /** Records that the current session has just written. */
+    static void noteWrite() {
+        Session s = currentSession();
+        s.lastWriteNanos = System.nanoTime();
+        s.wrote = true;
+    }
+
+    /** A connection on a usable replica, or null if there is none; the caller then reads from the primary. */
+    Connection borrowRead() {
+        Session session = currentSession();
+        int n = replicas.size();
+        int first = next.getAndIncrement();
+        for (int i = 0; i < n; i++) {
+            Replica r = replicas.get(Math.floorMod(first + i, n));
+            if (!r.usableFor(session, maxLagMillis, slackMillis)) {
+                continue;
+            }
+            try {
+                Connection c = r.pool.borrow();
+                Metrics.READS_ON_REPLICA.increment();
+                return c;
+            } catch (SQLException e) {
+                markDown(r, e);
+            }
+        }
+        Metrics.READS_ON_PRIMARY.increment();
+        return null;
+    }
+
+    private void checkAll() {
+        for (Replica r : replicas) {
+            try {
+                if (r.pool == null) {
+                    ConnectionPool pool = new ConnectionPool(r.url, user, password, 1, maxPoolSize,
+                            borrowTimeoutMillis, idleTimeoutMillis, leakThresholdMillis);
+                    try {
+                        pool.warmUp();
+                    } catch (SQLException e) {
+                        pool.close();
+                        throw e;
+                    }
+                    r.pool = pool;
+                }
+                long checkedAt = System.nanoTime();
+                long lag;
+                try (Connection c = r.pool.borrow()) {
+                    lag = lagMillis(c);
+                }
+                if (lag < 0) {
+                    markDown(r, null);
+                    continue;
+                }
+                r.lagMillis = lag;
+                r.checkedAtNanos = checkedAt;
+                r.downLogged = false;
+                if (!r.up) {
+                    r.up = true;
+                    System.out.println("Read replica " + r.name + " (" + r.url + ") is available, " + lag + " ms behind.");
+                }
+            } catch (SQLException | RuntimeException e) {
+                markDown(r, e);
+            }
+        }
+    }
+
+    private static void markDown(Replica r, Exception cause) {
+        r.up = false;
+        if (!r.downLogged) {
+            r.downLogged = true;
+            System.out.println("Read replica " + r.name + " (" + r.url + ") is not used for reads: "
+                    + (cause == null ? "replication has stopped." : cause.getMessage()));
+        }
+    }
+
+    // Milliseconds behind the primary; 0 if the database is not replicating, -1 if its
+    // replication is stopped
+    private static long lagMillis(Connection c) throws SQLException {
+        if (!c.getMetaData().getDatabaseProductName().toLowerCase().contains("mysql")) {
+            try (Statement stmt = c.createStatement()) {
+                stmt.executeQuery("SELECT 1").close();
+            }
+            return 0;
+        }
+        try (Statement stmt = c.createStatement()) {
+            try (ResultSet rs = stmt.executeQuery("SHOW REPLICA STATUS")) {
+                return lagMillis(rs, "Seconds_Behind_Source");
+            } catch (SQLException e) {
+                // Before MySQL 8.0.22
+                try (ResultSet rs = stmt.executeQuery("SHOW SLAVE STATUS")) {
+                    return lagMillis(rs, "Seconds_Behind_Master");
+                }
+            }
+        }
+    }
+
+    private static long lagMillis(ResultSet rs, String column) throws SQLException {
+        if (!rs.next()) {
+            return 0;
+        }
+        long seconds = rs.getLong(column);
+        return rs.wasNull() ? -1 : seconds * 1000;
+    }
+
+    void close() {
+        checker.shutdownNow();
+        for (Replica r : replicas) {
+            if (r.pool != null) {
+                r.pool.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,398 @@
+package CinemaDB;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Seats sold and occupancy per showtime, movie, day and hour, answered from memory.
+ *
+ * The aggregates are columns indexed by a dense showtime slot: bookings and seats sold for each
+ * showtime. Every booking and cancellation this process commits is added to them as it happens,
+ * so a report is a walk over a few int arrays and never queries MySQL. Movie, day and hour
+ * figures are rolled up from the showtime columns through the {@link CatalogCache}; the capacity
+ * of a showtime is its seats sold plus what the {@link SeatInventory} says is left.
+ *
+ * The first report loads the aggregates with a {@link #recompute() backfill}. It reads the
+ * booking id, showtime and seat count of every booking, in keyset chunks, into a columnar
+ * snapshot and sums that on the fork/join pool. The backfill is repeated every
+ * {@code -Dcinemadb.analytics.refreshMinutes} (default 15, 0 for never) to take in bookings made
+ * by other processes. Bookings and cancellations committed while a backfill runs are kept aside
+ * and applied on top of its result, except where the snapshot has already seen them.
+ */
+public final class SalesAnalytics {
+    private static final SalesAnalytics INSTANCE = new SalesAnalytics();
+    private static final int SCAN_CHUNK = 10_000;
+    // Rows a fork/join leaf sums on its own before the range is split further
+    private static final int LEAF_ROWS = 1 << 16;
+
+    /** Sales of one showtime; capacity is seats sold plus seats left. */
+    public record ShowtimeSales(int showtimeId, int movieId, String title, LocalDateTime showTime,
+                                int bookings, int seatsSold, int capacity) {
+        public double occupancy() {
+            return SalesAnalytics.occupancy(seatsSold, capacity);
+        }
+    }
+
+    /** Sales of all showtimes of one movie. */
+    public record MovieSales(int movieId, String title, int showtimes, int bookings, int seatsSold, int capacity) {
+        public double occupancy() {
+            return SalesAnalytics.occupancy(seatsSold, capacity);
+        }
+    }
+
+    /** Sales of the showtimes starting in one day or hour; {@code start} is the beginning of it. */
+    public record PeriodSales(LocalDateTime start, int showtimes, int bookings, int seatsSold, int capacity) {
+        public double occupancy() {
+            return SalesAnalytics.occupancy(seatsSold, capacity);
+        }
+    }
+
+    /** Per-showtime columns; slot {@code i} holds the figures of {@code showtimeIds[i]}. */
+    private static final class Columns {
+        private final IntIntMap slots;
+        private int[] showtimeIds;
+        private int[] bookings;
+        private int[] seats;
+        private int size;
+
+        Columns(int expectedShowtimes) {
+            int capacity = Math.max(16, expectedShowtimes);
+            slots = new IntIntMap(capacity);
+            showtimeIds = new int[capacity];
+            bookings = new int[capacity];
+            seats = new int[capacity];
+        }
+
+        void add(int showtimeId, int bookingDelta, int seatDelta) {
+            int slot = slots.get(showtimeId, -1);
+            if (slot < 0) {
+                if (size == showtimeIds.length) {
+                    int grown = size * 2;
+                    showtimeIds = Arrays.copyOf(showtimeIds, grown);
+                    bookings = Arrays.copyOf(bookings, grown);
+                    seats = Arrays.copyOf(seats, grown);
+                }
+                slot = size++;
+                slots.put(showtimeId, slot);
+                showtimeIds[slot] = showtimeId;
+            }
+            bookings[slot] += bookingDelta;
+            seats[slot] += seatDelta;
+        }
+
+        void addAll(Columns other) {
+            for (int i = 0; i < other.size; i++) {
+                add(other.showtimeIds[i], other.bookings[i], other.seats[i]);
+            }
+        }
+    }
+
+    /** Bookings read for a backfill, one column per field, plus the set of booking ids seen. */
+    private static final class Snapshot {
+        private int[] showtimeIds = new int[SCAN_CHUNK];
+        private int[] seats = new int[SCAN_CHUNK];
+        private int size;
+        private final BitSet bookingIds = new BitSet();
+
+        void add(int bookingId, int showtimeId, int seatsBooked) {
+            if (bookingIds.get(bookingId)) {
+                // Read on two shards while its showtime was being moved
+                return;
+            }
+            if (size == showtimeIds.length) {
+                showtimeIds = Arrays.copyOf(showtimeIds, size * 2);
+                seats = Arrays.copyOf(seats, size * 2);
+            }
+            showtimeIds[size] = showtimeId;
+            seats[size] = seatsBooked;
+            size++;
+            bookingIds.set(bookingId);
+        }
+    }
+
+    /** Sums a range of the snapshot, splitting it in halves down to {@value #LEAF_ROWS} rows. */
+    private static final class Sum extends RecursiveTask<Columns> {
+        private static final long serialVersionUID = 1L;
+        private final transient Snapshot snapshot;
+        private final int from;
+        private final int to;
+
+        Sum(Snapshot snapshot, int from, int to) {
+            this.snapshot = snapshot;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Columns compute() {
+            if (to - from <= LEAF_ROWS) {
+                Columns columns = new Columns(0);
+                for (int i = from; i < to; i++) {
+                    columns.add(snapshot.showtimeIds[i], 1, snapshot.seats[i]);
+                }
+                return columns;
+            }
+            int mid = (from + to) >>> 1;
+            Sum right = new Sum(snapshot, mid, to);
+            right.fork();
+            Columns left = new Sum(snapshot, from, mid).compute();
+            left.addAll(right.join());
+            return left;
+        }
+    }
+
+    private final Object recomputeLock = new Object();
+    private ScheduledExecutorService refresher;
+
+    // Guarded by this; null until the first backfill has finished
+    private Columns columns;
+    // Guarded by this; {bookingId, showtimeId, bookings, seats} committed while a backfill runs
+    private List<int[]> pending;
+
+    private SalesAnalytics() {
+    }
+
+    public static SalesAnalytics getInstance() {
+        return INSTANCE;
+    }
+
+    /** Counts a committed booking. */
+    static void recordReserve(int bookingId, int showtimeId, int seats) {
+        INSTANCE.apply(bookingId, showtimeId, 1, seats);
+    }
+
+    /** Counts bookings committed together; {@code bookingIds[i]} belongs to {@code bookings.get(i)}. */
+    static void recordReserves(List<SeatInventory.PendingBooking> bookings, int[] bookingIds) {
+        for (int i = 0; i < bookingIds.length; i++) {
+            SeatInventory.PendingBooking b = bookings.get(i);
+            INSTANCE.apply(bookingIds[i], b.showtimeId, 1, b.seats);
+        }
+    }
+
+    /** Takes a committed cancellation off the counts. */
+    static void recordCancel(int bookingId, int showtimeId, int seats) {
+        INSTANCE.apply(bookingId, showtimeId, -1, -seats);
+    }
+
+    private synchronized void apply(int bookingId, int showtimeId, int bookings, int seats) {
+        if (columns != null) {
+            columns.add(showtimeId, bookings, seats);
+        }
+        if (pending != null) {
+            pending.add(new int[] { bookingId, showtimeId, bookings, seats });
+        }
+    }
+
+    /**
+     * Rebuilds the aggregates from the Bookings table, on every shard if bookings are sharded.
+     * The table is read in chunks of {@value #SCAN_CHUNK} rows, each on its own pooled
+     * connection, so the backfill never holds a connection the booking path is waiting for.
+     */
+    public void recompute() throws SQLException {
+        synchronized (recomputeLock) {
+            synchronized (this) {
+                pending = new ArrayList<>();
+            }
+            Snapshot snapshot = new Snapshot();
+            Columns result;
+            try {
+                // With shards, one after the other; without, this is just the primary
+                for (ShardRouter.Shard shard : DatabaseConnection.getShards().shards()) {
+                    int[] last = { 0 };
+                    int read;
+                    do {
+                        try (Connection connection = shard.borrow()) {
+                            read = BookingRepository.scanSales(connection, last[0], SCAN_CHUNK, (id, showtimeId, seats) -> {
+                                snapshot.add(id, showtimeId, seats);
+                                last[0] = id;
+                            });
+                        }
+                    } while (read == SCAN_CHUNK);
+                }
+                result = ForkJoinPool.commonPool().invoke(new Sum(snapshot, 0, snapshot.size));
+            } catch (SQLException | RuntimeException e) {
+                synchronized (this) {
+                    pending = null;
+                }
+                throw e;
+            }
+            synchronized (this) {
+                // Reserves the scan missed and that were counted from here, so their cancels count too
+                BitSet addedHere = new BitSet();
+                for (int[] change : pending) {
+                    boolean seen = change[0] > 0 && snapshot.bookingIds.get(change[0]);
+                    // Skip bookings the snapshot already counted and cancellations of rows nothing counted
+                    if (change[2] > 0) {
+                        if (!seen) {
+                            result.add(change[1], change[2], change[3]);
+                            if (change[0] > 0) {
+                                addedHere.set(change[0]);
+                            }
+                        }
+                    } else if (seen || addedHere.get(change[0])) {
+                        result.add(change[1], change[2], change[3]);
+                    }
+                }
+                columns = result;
+                pending = null;
+            }
+        }
+    }
+
+    /** Sales of every showtime in the catalog, by movie title and then show time. */
+    public List<ShowtimeSales> byShowtime() throws SQLException {
+        ensureLoaded();
+        CatalogCache.Snapshot catalog = CatalogCache.getInstance().snapshot();
+        List<Showtime> showtimes = new ArrayList<>();
+        List<Movie> movies = new ArrayList<>(catalog.movies());
+        movies.sort((a, b) -> String.CASE_INSENSITIVE_ORDER.compare(String.valueOf(a.title()), String.valueOf(b.title())));
+        for (Movie m : movies) {
+            showtimes.addAll(catalog.showtimesForMovie(m.movieId()));
+        }
+
+        int[] bookings = new int[showtimes.size()];
+        int[] seats = new int[showtimes.size()];
+        synchronized (this) {
+            for (int i = 0; i < showtimes.size(); i++) {
+                int slot = columns.slots.get(showtimes.get(i).showtimeId(), -1);
+                if (slot >= 0) {
+                    bookings[i] = columns.bookings[slot];
+                    seats[i] = columns.seats[slot];
+                }
+            }
+        }
+        SeatInventory inventory = SeatInventory.getInstance();
+        List<ShowtimeSales> rows = new ArrayList<>(showtimes.size());
+        for (int i = 0; i < showtimes.size(); i++) {
+            Showtime s = showtimes.get(i);
+            int left = Math.max(0, inventory.available(s.showtimeId()));
+            rows.add(new ShowtimeSales(s.showtimeId(), s.movieId(), catalog.movie(s.movieId()).title(), s.showTime(),
+                    bookings[i], seats[i], seats[i] + left));
+        }
+        return rows;
+    }
+
+    /** Sales per movie, by title. */
+    public List<MovieSales> byMovie() throws SQLException {
+        List<MovieSales> result = new ArrayList<>();
+        MovieSales current = null;
+        for (ShowtimeSales s : byShowtime()) {
+            if (current != null && current.movieId() != s.movieId()) {
+                result.add(current);
+                current = null;
+            }
+            current = current == null
+                    ? new MovieSales(s.movieId(), s.title(), 1, s.bookings(), s.seatsSold(), s.capacity())
+                    : new MovieSales(current.movieId(), current.title(), current.showtimes() + 1,
+                            current.bookings() + s.bookings(), current.seatsSold() + s.seatsSold(),
+                            current.capacity() + s.capacity());
+        }
+        if (current != null) {
+            result.add(current);
+        }
+        return result;
+    }
+
+    /** Sales per day of show time, earliest first. */
+    public List<PeriodSales> byDay() throws SQLException {
+        return byPeriod(s -> s.showTime().truncatedTo(ChronoUnit.DAYS));
+    }
+
+    /** Sales per hour of show time, earliest first. */
+    public List<PeriodSales> byHour() throws SQLException {
+        return byPeriod(s -> s.showTime().truncatedTo(ChronoUnit.HOURS));
+    }
+
+    private List<PeriodSales> byPeriod(Function<ShowtimeSales, LocalDateTime> period) throws SQLException {
+        // {showtimes, bookings, seats sold, capacity} per period
+        TreeMap<LocalDateTime, int[]> totals = new TreeMap<>();
+        for (ShowtimeSales s : byShowtime()) {
+            if (s.showTime() == null) {
+                continue;
+            }
+            int[] t = totals.computeIfAbsent(period.apply(s), k -> new int[4]);
+            t[0]++;
+            t[1] += s.bookings();
+            t[2] += s.seatsSold();
+            t[3] += s.capacity();
+        }
+        List<PeriodSales> result = new ArrayList<>(totals.size());
+        for (Map.Entry<LocalDateTime, int[]> e : totals.entrySet()) {
+            int[] t = e.getValue();
+            result.add(new PeriodSales(e.getKey(), t[0], t[1], t[2], t[3]));
+        }
+        return result;
+    }
+
+    private void ensureLoaded() throws SQLException {
+        synchronized (this) {
+            if (columns != null) {
+                return;
+            }
+        }
+        synchronized (recomputeLock) {
+            synchronized (this) {
+                if (columns != null) {
+                    return;
+                }
+            }
+            recompute();
+            long minutes = Long.getLong("cinemadb.analytics.refreshMinutes", 15);
+            if (minutes > 0 && refresher == null) {
+                refresher = Executors.newSingleThreadScheduledExecutor(r -> {
+                    Thread t = new Thread(r, "cinemadb-sales-analytics");
+                    t.setDaemon(true);
+                    return t;
+                });
+                refresher.scheduleWithFixedDelay(this::recomputeQuietly, minutes, minutes, TimeUnit.MINUTES);
+            }
+        }
+    }
+
+    private void recomputeQuietly() {
+        try {
+            recompute();
+        } catch (SQLException | RuntimeException e) {
+            System.out.println("Error recomputing sales figures: " + e.getMessage());
+        }
+    }
+
+    static double occupancy(int seatsSold, int capacity) {
+        return capacity <= 0 ? 0 : (double) seatsSold / capacity;
+    }
+
+    /** Prints sales per movie and per day. */
+    public static void main(String[] args) throws SQLException {
+        if (!DatabaseConnection.isAvailable()) {
+            System.out.println("Failed to connect to the database.");
+            return;
+        }
+        SchemaMigrator.migrateOnStartup();
+        SalesAnalytics analytics = getInstance();
+        System.out.println(String.format("%-40s %9s %9s %9s %9s", "Movie", "Showtimes", "Bookings", "Seats", "Occupancy"));
+        for (MovieSales m : analytics.byMovie()) {
+            System.out.println(String.format("%-40.40s %9d %9d %9d %8.1f%%", m.title(), m.showtimes(), m.bookings(),
+                    m.seatsSold(), m.occupancy() * 100));
+        }
+        System.out.println();
+        System.out.println(String.format("%-40s %9s %9s %9s %9s", "Day", "Showtimes", "Bookings", "Seats", "Occupancy"));
+        for (PeriodSales d : analytics.byDay()) {
+            System.out.println(String.format("%-40s %9d %9d %9d %8.1f%%", d.start().toLocalDate(), d.showtimes(),
+                    d.bookings(), d.seatsSold(), d.occupancy() * 100));
+        }
+    }
+}
@@ -0,0 +1,346 @@
+package CinemaDB;
+
+import java.sql.*;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * DDL for the tables the application queries, plus a bulk loader for synthetic data.
+ *
+ * {@link SchemaMigrator} applies the DDL as versioned migrations, and {@link BookingBenchmark}
+ * loads a scratch database with it. The statements stick to syntax that MySQL and H2 in MySQL
+ * mode both accept.
+ */
+public class Schema {
+    private static final String CREATE_SCREENS_SQL =
+            "CREATE TABLE IF NOT EXISTS Screens ("
+                    + "screen_id INT AUTO_INCREMENT PRIMARY KEY, "
+                    + "name VARCHAR(100) NOT NULL, "
+                    + "seat_rows INT NOT NULL, "
+                    + "seats_per_row INT NOT NULL)";
+
+    private static final String[] CREATE_TABLES = {
+            "CREATE TABLE IF NOT EXISTS Movies ("
+                    + "movie_id INT AUTO_INCREMENT PRIMARY KEY, "
+                    + "title VARCHAR(255) NOT NULL, "
+                    + "genre VARCHAR(100), "
+                    + "duration_minutes INT, "
+                    + "release_date DATE)",
+            "CREATE TABLE IF NOT EXISTS Showtimes ("
+                    + "showtime_id INT AUTO_INCREMENT PRIMARY KEY, "
+                    + "movie_id INT NOT NULL, "
+                    + "show_time DATETIME, "
+                    + "available_seats INT, "
+                    + "seat_rows INT, "
+                    + "seats_per_row INT, "
+                    + "seat_map VARBINARY(8192), "
+                    + "FOREIGN KEY (movie_id) REFERENCES Movies(movie_id))",
+            "CREATE TABLE IF NOT EXISTS Bookings ("
+                    + "booking_id INT AUTO_INCREMENT PRIMARY KEY, "
+                    + "movie_id INT NOT NULL, "
+                    + "showtime_id INT NOT NULL, "
+                    + "customer_name VARCHAR(100) NOT NULL, "
+                    + "phone_number VARCHAR(20) NOT NULL, "
+                    + "seats_booked INT NOT NULL, "
+                    + "seat_row INT, "
+                    + "first_seat INT, "
+                    + "FOREIGN KEY (movie_id) REFERENCES Movies(movie_id), "
+                    + "FOREIGN KEY (showtime_id) REFERENCES Showtimes(showtime_id))",
+    };
+
+    // Seat map columns, for databases created before SeatMapService
+    private static final String[] ADD_SEAT_MAP_COLUMNS = {
+            "ALTER TABLE Showtimes ADD COLUMN seat_rows INT",
+            "ALTER TABLE Showtimes ADD COLUMN seats_per_row INT",
+            "ALTER TABLE Showtimes ADD COLUMN seat_map VARBINARY(8192)",
+            "ALTER TABLE Bookings ADD COLUMN seat_row INT",
+            "ALTER TABLE Bookings ADD COLUMN first_seat INT",
+    };
+
+    // Composite indexes behind BookingLookupIndex: name, table, columns
+    private static final String[][] LOOKUP_INDEXES = {
+            { "idx_bookings_phone", "Bookings", "phone_number, booking_id" },
+            { "idx_bookings_name", "Bookings", "customer_name, booking_id" },
+    };
+
+    // Indexes behind the showtime list of a movie and the per-showtime booking queries
+    private static final String[][] QUERY_INDEXES = {
+            { "idx_showtimes_movie", "Showtimes", "movie_id, show_time" },
+            { "idx_bookings_showtime", "Bookings", "showtime_id" },
+    };
+
+    // Behind the per-screen schedule ShowtimeScheduler loads
+    private static final String[][] SCHEDULE_INDEXES = {
+            { "idx_showtimes_screen", "Showtimes", "screen_id, show_time" },
+    };
+
+    // Sharding: the shard list and the booking id counter live on the primary (see ShardRouter)
+    private static final String[] CREATE_SHARD_TABLES = {
+            "CREATE TABLE IF NOT EXISTS Shards ("
+                    + "name VARCHAR(64) PRIMARY KEY, "
+                    + "url VARCHAR(512) NOT NULL)",
+            "CREATE TABLE IF NOT EXISTS booking_id_blocks ("
+                    + "block_id INT PRIMARY KEY, "
+                    + "next_id INT NOT NULL)",
+    };
+
+    private static final int BATCH_SIZE = 10_000;
+
+    /** Creates any of the tables that do not exist yet; {@link SchemaMigrator} adds the indexes. */
+    public static void create(Connection connection) throws SQLException {
+        try (Statement stmt = connection.createStatement()) {
+            for (String sql : CREATE_TABLES) {
+                stmt.executeUpdate(sql);
+            }
+        }
+    }
+
+    /** True if the tables have the seat map columns. */
+    public static boolean hasSeatMapColumns(Connection connection) throws SQLException {
+        return hasColumn(connection, "Showtimes", "seat_map");
+    }
+
+    /** Adds the seat map columns to tables created without them. */
+    public static void addSeatMapColumns(Connection connection) throws SQLException {
+        if (hasSeatMapColumns(connection)) {
+            return;
+        }
+        try (Statement stmt = connection.createStatement()) {
+            for (String sql : ADD_SEAT_MAP_COLUMNS) {
+                stmt.executeUpdate(sql);
+            }
+        }
+    }
+
+    /**
+     * Creates the (phone_number, booking_id) and (customer_name, booking_id) indexes on Bookings
+     * if they are missing, so lookups by customer are index range scans.
+     */
+    public static void addLookupIndexes(Connection connection) throws SQLException {
+        createIndexes(connection, LOOKUP_INDEXES);
+    }
+
+    /**
+     * Creates the Showtimes (movie_id, show_time) and Bookings (showtime_id) indexes if they are
+     * missing, so listing a movie's showtimes needs no sort and counting a showtime's bookings
+     * reads only its rows.
+     */
+    public static void addQueryIndexes(Connection connection) throws SQLException {
+        createIndexes(connection, QUERY_INDEXES);
+    }
+
+    /**
+     * Creates the Screens table and adds the screen_id column to Showtimes if they are missing,
+     * then the Showtimes (screen_id, show_time) index, so {@link ShowtimeScheduler} reads one
+     * screen's schedule as an index range.
+     */
+    public static void addScreens(Connection connection) throws SQLException {
+        try (Statement stmt = connection.createStatement()) {
+            stmt.executeUpdate(CREATE_SCREENS_SQL);
+            if (!hasColumn(connection, "Showtimes", "screen_id")) {
+                stmt.executeUpdate("ALTER TABLE Showtimes ADD COLUMN screen_id INT");
+            }
+        }
+        createIndexes(connection, SCHEDULE_INDEXES);
+    }
+
+    /**
+     * Creates the Shards and booking_id_blocks tables and adds the shard column to Showtimes if
+     * they are missing. Unused until {@link ShardRebalancer} adds the first shard.
+     */
+    public static void addShards(Connection connection) throws SQLException {
+        try (Statement stmt = connection.createStatement()) {
+            for (String sql : CREATE_SHARD_TABLES) {
+                stmt.executeUpdate(sql);
+            }
+            if (!hasColumn(connection, "Showtimes", "shard")) {
+                stmt.executeUpdate("ALTER TABLE Showtimes ADD COLUMN shard VARCHAR(64)");
+            }
+        }
+    }
+
+    private static boolean hasColumn(Connection connection, String table, String column) throws SQLException {
+        try (Statement stmt = connection.createStatement()) {
+            stmt.executeQuery("SELECT " + column + " FROM " + table + " WHERE 1 = 0").close();
+            return true;
+        } catch (SQLException e) {
+            // Unknown column
+            return false;
+        }
+    }
+
+    /**
+     * Columns of each index on {@code table}, keyed by lower case index name, in index order and
+     * lower case. The primary key is reported as "primary" by MySQL and under a generated name by H2.
+     */
+    static Map<String, List<String>> indexColumns(Connection connection, String table) throws SQLException {
+        Map<String, List<String>> indexes = new HashMap<>();
+        DatabaseMetaData meta = connection.getMetaData();
+        // H2 reports unquoted names in upper case, MySQL as created
+        for (String name : new String[] { table, table.toUpperCase(Locale.ROOT) }) {
+            try (ResultSet rs = meta.getIndexInfo(connection.getCatalog(), null, name, false, false)) {
+                while (rs.next()) {
+                    String index = rs.getString("INDEX_NAME");
+                    String column = rs.getString("COLUMN_NAME");
+                    if (index == null || column == null) {
+                        continue;
+                    }
+                    List<String> columns = indexes.computeIfAbsent(index.toLowerCase(Locale.ROOT), k -> new ArrayList<>());
+                    int position = rs.getInt("ORDINAL_POSITION");
+                    while (columns.size() < position) {
+                        columns.add(null);
+                    }
+                    columns.set(position - 1, column.toLowerCase(Locale.ROOT));
+                }
+            }
+            if (!indexes.isEmpty() || name.equals(table.toUpperCase(Locale.ROOT))) {
+                break;
+            }
+        }
+        return indexes;
+    }
+
+    // Creates each {name, table, columns} index unless the table already has it, or has any
+    // index starting with the same columns (one a DBA made under another name serves as well)
+    private static void createIndexes(Connection connection, String[][] wanted) throws SQLException {
+        Map<String, Map<String, List<String>>> byTable = new HashMap<>();
+        try (Statement stmt = connection.createStatement()) {
+            for (String[] index : wanted) {
+                Map<String, List<String>> existing = byTable.get(index[1]);
+                if (existing == null) {
+                    existing = indexColumns(connection, index[1]);
+                    byTable.put(index[1], existing);
+                }
+                List<String> columns = Arrays.asList(index[2].toLowerCase(Locale.ROOT).split(",\\s*"));
+                if (existing.containsKey(index[0]) || hasIndexOn(existing, columns)) {
+                    continue;
+                }
+                stmt.executeUpdate("CREATE INDEX " + index[0] + " ON " + index[1] + " (" + index[2] + ")");
+                existing.put(index[0], columns);
+            }
+        }
+    }
+
+    private static boolean hasIndexOn(Map<String, List<String>> existing, List<String> columns) {
+        return !indexesOn(existing, columns).isEmpty();
+    }
+
+    /** Lower case names of the indexes on {@code table} whose leading columns are {@code columns}. */
+    static List<String> indexesOn(Connection connection, String table, String columns) throws SQLException {
+        return indexesOn(indexColumns(connection, table), Arrays.asList(columns.toLowerCase(Locale.ROOT).split(",\\s*")));
+    }
+
+    private static List<String> indexesOn(Map<String, List<String>> existing, List<String> columns) {
+        List<String> names = new ArrayList<>();
+        existing.forEach((name, indexed) -> {
+            if (indexed.size() >= columns.size() && indexed.subList(0, columns.size()).equals(columns)) {
+                names.add(name);
+            }
+        });
+        return names;
+    }
+
+    /**
+     * Adds movies, showtimes and bookings until the tables hold at least the given number of
+     * rows. Showtimes get {@code seatsPerShowtime} available seats. Rows already present are
+     * kept, so loading a larger size on top of a smaller one only inserts the difference.
+     */
+    public static void populate(Connection connection, int movies, int showtimesPerMovie, long bookings,
+                                int seatsPerShowtime) throws SQLException {
+        boolean autoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(false);
+        try {
+            long existingMovies = count(connection, "Movies");
+            try (PreparedStatement stmt = connection.prepareStatement(
+                    "INSERT INTO Movies (title, genre, duration_minutes, release_date) VALUES (?, ?, ?, ?)")) {
+                for (long i = existingMovies; i < movies; i++) {
+                    stmt.setString(1, "Movie " + (i + 1));
+                    stmt.setString(2, i % 3 == 0 ? "Drama" : i % 3 == 1 ? "Comedy" : "Action");
+                    stmt.setInt(3, 90 + (int) (i % 60));
+                    stmt.setDate(4, Date.valueOf(LocalDate.of(2000, 1, 1).plusDays(i)));
+                    stmt.addBatch();
+                }
+                stmt.executeBatch();
+            }
+            connection.commit();
+
+            int[] movieIds = ids(connection, "SELECT movie_id FROM Movies ORDER BY movie_id");
+            long existingShowtimes = count(connection, "Showtimes");
+            try (PreparedStatement stmt = connection.prepareStatement(
+                    "INSERT INTO Showtimes (movie_id, show_time, available_seats) VALUES (?, ?, ?)")) {
+                long wanted = (long) movieIds.length * showtimesPerMovie;
+                for (long i = existingShowtimes; i < wanted; i++) {
+                    stmt.setInt(1, movieIds[(int) (i % movieIds.length)]);
+                    stmt.setTimestamp(2, Timestamp.valueOf(LocalDateTime.of(2025, 1, 1, 10, 0).plusHours(i)));
+                    stmt.setInt(3, seatsPerShowtime);
+                    stmt.addBatch();
+                }
+                stmt.executeBatch();
+            }
+            connection.commit();
+
+            int[] showtimeIds = ids(connection, "SELECT showtime_id FROM Showtimes ORDER BY showtime_id");
+            int[] showtimeMovie = new int[showtimeIds.length];
+            try (Statement stmt = connection.createStatement();
+                 ResultSet rs = stmt.executeQuery("SELECT movie_id FROM Showtimes ORDER BY showtime_id")) {
+                for (int i = 0; rs.next(); i++) {
+                    showtimeMovie[i] = rs.getInt(1);
+                }
+            }
+            long existingBookings = count(connection, "Bookings");
+            try (PreparedStatement stmt = connection.prepareStatement(
+                    "INSERT INTO Bookings (movie_id, showtime_id, customer_name, phone_number, seats_booked) VALUES (?, ?, ?, ?, ?)")) {
+                int pending = 0;
+                for (long i = existingBookings; i < bookings; i++) {
+                    int s = (int) (i % showtimeIds.length);
+                    stmt.setInt(1, showtimeMovie[s]);
+                    stmt.setInt(2, showtimeIds[s]);
+                    stmt.setString(3, "Customer " + (i + 1));
+                    stmt.setString(4, "+1" + (5_550_000_000L + i));
+                    stmt.setInt(5, 1 + (int) (i % 4));
+                    stmt.addBatch();
+                    if (++pending == BATCH_SIZE) {
+                        stmt.executeBatch();
+                        connection.commit();
+                        pending = 0;
+                    }
+                }
+                stmt.executeBatch();
+            }
+            connection.commit();
+        } catch (SQLException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(autoCommit);
+        }
+    }
+
+    static long count(Connection connection, String table) throws SQLException {
+        try (Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM " + table)) {
+            return rs.next() ? rs.getLong(1) : 0;
+        }
+    }
+
+    private static int[] ids(Connection connection, String sql) throws SQLException {
+        int[] result = new int[64];
+        int n = 0;
+        try (Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery(sql)) {
+            while (rs.next()) {
+                if (n == result.length) {
+                    result = Arrays.copyOf(result, n * 2);
+                }
+                result[n++] = rs.getInt(1);
+            }
+        }
+        return Arrays.copyOf(result, n);
+    }
+}
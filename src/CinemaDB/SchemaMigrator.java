@@ -0,0 +1,261 @@
+package CinemaDB;
+
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Brings the database schema up to date on startup and checks that the application's queries use
+ * their indexes.
+ *
+ * Each migration has a version number, and the versions applied so far are kept in the
+ * schema_version table. A migration only runs when its version is missing from that table. Every
+ * step also checks what is already there before changing anything: it creates tables only if
+ * they do not exist, adds columns only if they are missing, and skips an index that exists under
+ * its own name or under any other name with the same leading columns. This means a database set
+ * up by hand, or by a build without this class, migrates cleanly. It also means two processes
+ * starting at once do not trip over each other.
+ *
+ * {@link #checkPlans} runs EXPLAIN on the queries that depend on an index. It reports any query
+ * whose index is missing or that the optimizer does not pick. Any index with the right leading
+ * columns counts, so one created for a foreign key serves as well as the one named here. The
+ * plan text is database specific, and MySQL's tabular EXPLAIN is read column by column. On a
+ * nearly empty table the optimizer may prefer a scan even when the index is there; that shows up
+ * as {@link Status#INDEX_NOT_USED} rather than {@link Status#INDEX_MISSING}.
+ *
+ * Startup migration can be turned off with -Dcinemadb.migrate=false, for example where the
+ * application account may not run DDL. Running this class on its own migrates and prints the
+ * plan report.
+ */
+public class SchemaMigrator {
+    private static final String CREATE_VERSION_TABLE_SQL =
+            "CREATE TABLE IF NOT EXISTS schema_version ("
+                    + "version INT PRIMARY KEY, "
+                    + "description VARCHAR(255) NOT NULL, "
+                    + "applied_at TIMESTAMP NOT NULL)";
+    private static final String FIND_VERSIONS_SQL = "SELECT version FROM schema_version ORDER BY version";
+    private static final String INSERT_VERSION_SQL =
+            "INSERT INTO schema_version (version, description, applied_at) VALUES (?, ?, CURRENT_TIMESTAMP)";
+
+    // Sample showtimes for -Dcinemadb.seedMovies
+    private static final int SEED_SHOWTIMES_PER_MOVIE = 4;
+    private static final int SEED_SEATS_PER_SHOWTIME = 100;
+
+    interface Step {
+        void apply(Connection connection) throws SQLException;
+    }
+
+    /** One versioned change to the schema. */
+    public record Migration(int version, String description, Step step) {
+    }
+
+    // In version order; append new migrations, never renumber or edit applied ones
+    private static final List<Migration> MIGRATIONS = List.of(
+            new Migration(1, "Movies, Showtimes and Bookings tables", Schema::create),
+            new Migration(2, "Seat map columns on Showtimes and Bookings", Schema::addSeatMapColumns),
+            new Migration(3, "Bookings indexes for lookups by phone number and name", Schema::addLookupIndexes),
+            new Migration(4, "Showtimes (movie_id, show_time) and Bookings (showtime_id) indexes", Schema::addQueryIndexes),
+            new Migration(5, "Screens table, Showtimes screen_id column and (screen_id, show_time) index", Schema::addScreens),
+            new Migration(6, "Shards and booking_id_blocks tables, Showtimes shard column", Schema::addShards));
+
+    /** How the plan of a checked query relates to the index it should use. */
+    public enum Status { USES_INDEX, INDEX_NOT_USED, INDEX_MISSING }
+
+    /**
+     * EXPLAIN result for one query: the table and leading index columns it should use, and the
+     * plan it got.
+     */
+    public record PlanCheck(String query, String table, String columns, Status status, String plan) {
+    }
+
+    // The plan should read {@code table} (named {@code alias} in the query) through any index
+    // starting with {@code columns}; the parameters only need to have the right types
+    private record Check(String query, String sql, String table, String alias, String columns, Object... params) {
+    }
+
+    private static final List<Check> CHECKS = List.of(
+            new Check("Showtimes of a movie", ShowtimeRepository.FIND_BY_MOVIE_SQL,
+                    "Showtimes", "Showtimes", "movie_id, show_time", 0),
+            new Check("Seats booked for a showtime",
+                    "SELECT IFNULL(SUM(seats_booked), 0) FROM Bookings WHERE showtime_id = ?",
+                    "Bookings", "Bookings", "showtime_id", 0),
+            new Check("Bookings by phone number",
+                    "SELECT booking_id FROM Bookings WHERE phone_number = ? ORDER BY booking_id",
+                    "Bookings", "Bookings", "phone_number, booking_id", ""),
+            new Check("Bookings by customer name",
+                    "SELECT booking_id FROM Bookings WHERE customer_name = ? ORDER BY booking_id",
+                    "Bookings", "Bookings", "customer_name, booking_id", ""),
+            new Check("Bookings page with movie titles", BookingRepository.PAGE_SQL,
+                    "Movies", "m", "movie_id", 0, 1),
+            new Check("Schedule of a screen", ShowtimeRepository.FIND_BY_SCREEN_SQL,
+                    "Showtimes", "s", "screen_id, show_time", 0, new Timestamp(0)));
+
+    /** Versions recorded in schema_version, ascending; empty if the table does not exist yet. */
+    public static List<Integer> appliedVersions(Connection connection) throws SQLException {
+        List<Integer> versions = new ArrayList<>();
+        try (Statement stmt = connection.createStatement()) {
+            stmt.executeUpdate(CREATE_VERSION_TABLE_SQL);
+            try (ResultSet rs = stmt.executeQuery(FIND_VERSIONS_SQL)) {
+                while (rs.next()) {
+                    versions.add(rs.getInt(1));
+                }
+            }
+        }
+        return versions;
+    }
+
+    /** Applies the migrations not yet recorded, in version order, and returns them. */
+    public static List<Migration> migrate(Connection connection) throws SQLException {
+        List<Integer> applied = appliedVersions(connection);
+        List<Migration> ran = new ArrayList<>();
+        for (Migration migration : MIGRATIONS) {
+            if (applied.contains(migration.version())) {
+                continue;
+            }
+            try {
+                migration.step().apply(connection);
+            } catch (SQLException e) {
+                if (!alreadyExists(e)) {
+                    throw e;
+                }
+                // Another process made the same change in between; the step skips whatever is
+                // there now, so a second run fails only on a real problem
+                try {
+                    migration.step().apply(connection);
+                } catch (SQLException again) {
+                    again.addSuppressed(e);
+                    throw again;
+                }
+            }
+            try (PreparedStatement stmt = connection.prepareStatement(INSERT_VERSION_SQL)) {
+                stmt.setInt(1, migration.version());
+                stmt.setString(2, migration.description());
+                stmt.executeUpdate();
+            } catch (SQLIntegrityConstraintViolationException e) {
+                // Recorded by a process that ran the same migration at the same time
+            }
+            ran.add(migration);
+        }
+        return ran;
+    }
+
+    // Table, column or index already there: MySQL 1050, 1060 and 1061, H2 42101, 42121 and 42111
+    private static boolean alreadyExists(SQLException e) {
+        int code = e.getErrorCode();
+        return code == 1050 || code == 1060 || code == 1061
+                || code == 42101 || code == 42121 || code == 42111
+                || "42S01".equals(e.getSQLState()) || "42S21".equals(e.getSQLState());
+    }
+
+    /**
+     * Migrates the database the application is configured for, unless -Dcinemadb.migrate=false,
+     * fills it with -Dcinemadb.seedMovies sample movies if it has none (for a new embedded
+     * database), and logs any query whose plan does not use its index. Problems are logged, not thrown, so
+     * the application still starts against a schema it cannot change.
+     */
+    public static void migrateOnStartup() {
+        if (!Boolean.parseBoolean(System.getProperty("cinemadb.migrate", "true"))) {
+            return;
+        }
+        try (Connection connection = DatabaseConnection.borrowConnection()) {
+            for (Migration migration : migrate(connection)) {
+                System.out.println("Applied schema migration " + migration.version() + ": " + migration.description());
+            }
+            int seedMovies = Integer.getInteger("cinemadb.seedMovies", 0);
+            if (seedMovies > 0 && Schema.count(connection, "Movies") == 0) {
+                Schema.populate(connection, seedMovies, SEED_SHOWTIMES_PER_MOVIE, 0, SEED_SEATS_PER_SHOWTIME);
+                System.out.println("Added " + seedMovies + " sample movies to the empty database.");
+            }
+            for (PlanCheck check : checkPlans(connection)) {
+                if (check.status() != Status.USES_INDEX) {
+                    System.out.println("Query plan check: " + describe(check));
+                }
+            }
+        } catch (SQLException e) {
+            System.out.println("Error migrating the database schema: " + e.getMessage());
+        }
+    }
+
+    /** Runs EXPLAIN on each query that relies on an index and reports whether the plan uses it. */
+    public static List<PlanCheck> checkPlans(Connection connection) throws SQLException {
+        List<PlanCheck> results = new ArrayList<>();
+        for (Check check : CHECKS) {
+            List<String> indexes = Schema.indexesOn(connection, check.table(), check.columns());
+            String plan;
+            boolean used;
+            try (PreparedStatement stmt = connection.prepareStatement("EXPLAIN " + check.sql())) {
+                for (int i = 0; i < check.params().length; i++) {
+                    stmt.setObject(i + 1, check.params()[i]);
+                }
+                try (ResultSet rs = stmt.executeQuery()) {
+                    if (hasColumn(rs.getMetaData(), "key")) {
+                        // MySQL: one row per table, with the chosen index in the key column
+                        StringBuilder rows = new StringBuilder();
+                        used = false;
+                        while (rs.next()) {
+                            String table = rs.getString("table");
+                            String key = rs.getString("key");
+                            if (rows.length() > 0) {
+                                rows.append("; ");
+                            }
+                            rows.append(table).append(": ").append(rs.getString("type")).append(" using ").append(key);
+                            used |= check.alias().equalsIgnoreCase(table) && key != null
+                                    && indexes.contains(key.toLowerCase(Locale.ROOT));
+                        }
+                        plan = rows.toString();
+                    } else {
+                        // H2 and others: the plan as text, naming the indexes it reads
+                        StringBuilder text = new StringBuilder();
+                        while (rs.next()) {
+                            text.append(rs.getString(1)).append('\n');
+                        }
+                        plan = text.toString().trim().replaceAll("\\s+", " ");
+                        String lower = plan.toLowerCase(Locale.ROOT);
+                        used = false;
+                        for (String index : indexes) {
+                            used |= lower.contains(index);
+                        }
+                    }
+                }
+            }
+            Status status = used ? Status.USES_INDEX : indexes.isEmpty() ? Status.INDEX_MISSING : Status.INDEX_NOT_USED;
+            results.add(new PlanCheck(check.query(), check.table(), check.columns(), status, plan));
+        }
+        return results;
+    }
+
+    static String describe(PlanCheck check) {
+        String index = check.table() + " (" + check.columns() + ")";
+        switch (check.status()) {
+            case USES_INDEX:
+                return check.query() + " uses an index on " + index;
+            case INDEX_NOT_USED:
+                return check.query() + " does not use the index on " + index + " (plan: " + check.plan() + ")";
+            default:
+                return check.query() + " has no index on " + index + " (plan: " + check.plan() + ")";
+        }
+    }
+
+    private static boolean hasColumn(ResultSetMetaData meta, String name) throws SQLException {
+        for (int i = 1; i <= meta.getColumnCount(); i++) {
+            if (name.equalsIgnoreCase(meta.getColumnLabel(i))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public static void main(String[] args) {
+        try (Connection connection = DatabaseConnection.borrowConnection()) {
+            List<Migration> ran = migrate(connection);
+            System.out.println("Schema versions applied: " + appliedVersions(connection)
+                    + (ran.isEmpty() ? " (nothing to do)" : " (" + ran.size() + " just now)"));
+            for (PlanCheck check : checkPlans(connection)) {
+                System.out.println((check.status() == Status.USES_INDEX ? "OK    " : "WARN  ") + describe(check));
+            }
+        } catch (SQLException e) {
+            System.out.println("Error migrating the database schema: " + e.getMessage());
+        }
+    }
+}
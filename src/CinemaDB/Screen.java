@@ -0,0 +1,8 @@
+package CinemaDB;
+
+/** One row of the Screens table: an auditorium and its seating layout. */
+public record Screen(int screenId, String name, int seatRows, int seatsPerRow) {
+    public int capacity() {
+        return seatRows * seatsPerRow;
+    }
+}
@@ -0,0 +1,107 @@
+package CinemaDB;
+
+import javax.swing.*;
+import java.awt.Window;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Text listing of every movie and showtime with its seats left, as shown in the add booking
+ * dialog, that stays current while the dialog is open.
+ *
+ * The listing is loaded once; after that, seat changes from {@link SeatEventBus} are applied to
+ * the rows in place, so bookings made on other terminals show up without querying again.
+ */
+public class SeatAvailabilityArea extends JTextArea {
+    private static final long serialVersionUID = 1L;
+    // How often an open dialog redraws at most, however busy the showtimes are
+    private static final long UPDATE_INTERVAL_MILLIS = 250;
+
+    private final transient List<BookingService.ShowtimeSeats> rows = new ArrayList<>();
+    private final transient Map<Integer, Integer> rowByShowtime = new HashMap<>();
+    // Changes that arrive before the listing has loaded; applied on top of it
+    private final transient Map<Integer, Integer> early = new HashMap<>();
+    private boolean loaded;
+
+    public SeatAvailabilityArea() {
+        super("Loading movies and showtimes...");
+        setEditable(false);
+    }
+
+    /**
+     * Loads the listing in the background and follows seat changes until {@code dialog} closes.
+     * Callers attach their own error handling to the returned future.
+     */
+    public CompletableFuture<List<BookingService.ShowtimeSeats>> load(Window dialog) {
+        // Subscribe first, so nothing that happens while the listing loads is missed
+        SeatEventBus.Subscription subscription = SeatEventBus.getInstance().subscribe(
+                changes -> SwingUtilities.invokeLater(() -> apply(changes)), UPDATE_INTERVAL_MILLIS);
+        dialog.addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosing(WindowEvent e) {
+                subscription.close();
+            }
+
+            @Override
+            public void windowClosed(WindowEvent e) {
+                subscription.close();
+            }
+        });
+
+        CompletableFuture<List<BookingService.ShowtimeSeats>> listing = AsyncDatabase.submit(BookingService::listAvailability);
+        AsyncDatabase.onEdt(listing, loadedRows -> {
+            rows.addAll(loadedRows);
+            for (int i = 0; i < rows.size(); i++) {
+                rowByShowtime.put(rows.get(i).showtimeId(), i);
+            }
+            loaded = true;
+            early.forEach(this::update);
+            early.clear();
+            refresh();
+        }, e -> {
+            subscription.close();
+            setText("");
+        });
+        return listing;
+    }
+
+    private void apply(List<SeatEventBus.SeatCount> changes) {
+        for (SeatEventBus.SeatCount c : changes) {
+            if (loaded) {
+                update(c.showtimeId(), c.availableSeats());
+            } else {
+                early.put(c.showtimeId(), c.availableSeats());
+            }
+        }
+        if (loaded) {
+            refresh();
+        }
+    }
+
+    private void update(int showtimeId, int availableSeats) {
+        Integer i = rowByShowtime.get(showtimeId);
+        if (i == null) {
+            return;
+        }
+        BookingService.ShowtimeSeats r = rows.get(i);
+        rows.set(i, new BookingService.ShowtimeSeats(r.movieId(), r.title(), r.showtimeId(), r.showTime(),
+                availableSeats < 0 ? BookingService.DEFAULT_SEATS : availableSeats));
+    }
+
+    // One line per movie and showtime, like the old Movies LEFT JOIN Showtimes listing
+    private void refresh() {
+        StringBuilder moviesText = new StringBuilder();
+        for (BookingService.ShowtimeSeats row : rows) {
+            moviesText.append(String.format("Movie ID: %d, Title: %s, Showtime ID: %d, Showtime: %s, Available Seats: %d\n",
+                    row.movieId(), row.title(), row.showtimeId(), row.formattedShowTime(), row.availableSeats()));
+        }
+        int caret = getCaretPosition();
+        setText(moviesText.toString());
+        setCaretPosition(Math.min(caret, getDocument().getLength()));
+    }
+}
@@ -0,0 +1,159 @@
+package CinemaDB;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pushes seat count changes to open booking screens and streaming clients.
+ *
+ * {@link SeatInventory} publishes the new count of a showtime every time it changes: a booking,
+ * a cancellation, or a reload from the database. Each subscriber has its own pending map of
+ * showtime id to latest count, so changes are coalesced: however many bookings hit a showtime
+ * between two deliveries, the subscriber gets one entry with the current count. That also
+ * bounds what a slow subscriber can fall behind by to one entry per showtime, and publishing
+ * never blocks on a subscriber.
+ *
+ * Listeners are called on a virtual thread, one call at a time per subscriber and at most once
+ * per {@code minIntervalMillis}; Swing code should hop to the EDT itself. Alternatively a
+ * subscriber without a listener pulls changes with {@link Subscription#poll(long)}.
+ */
+public class SeatEventBus {
+    private static final SeatEventBus INSTANCE = new SeatEventBus();
+
+    /** The current seat count of one showtime; {@link ShowtimeRepository#NO_SEAT_COUNT} if it is no longer tracked. */
+    public record SeatCount(int showtimeId, int availableSeats) {
+    }
+
+    public interface Listener {
+        void seatsChanged(List<SeatCount> changes);
+    }
+
+    private final List<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "cinemadb-seat-events");
+        t.setDaemon(true);
+        return t;
+    });
+
+    public static SeatEventBus getInstance() {
+        return INSTANCE;
+    }
+
+    /** Calls {@code listener} with coalesced changes, at most once every {@code minIntervalMillis}. */
+    public Subscription subscribe(Listener listener, long minIntervalMillis) {
+        Subscription s = new Subscription(listener, minIntervalMillis);
+        subscriptions.add(s);
+        return s;
+    }
+
+    /** A subscription whose changes are read with {@link Subscription#poll(long)}. */
+    public Subscription subscribe() {
+        return subscribe(null, 0);
+    }
+
+    /** Records the new count of a showtime for every subscriber. Cheap and non-blocking. */
+    void publish(int showtimeId, int availableSeats) {
+        for (Subscription s : subscriptions) {
+            s.offer(showtimeId, availableSeats);
+        }
+    }
+
+    public int getSubscriberCount() {
+        return subscriptions.size();
+    }
+
+    public final class Subscription implements AutoCloseable {
+        private final Listener listener;
+        private final long minIntervalNanos;
+        private final IntIntMap pending = new IntIntMap();
+        private boolean scheduled;
+        private boolean closed;
+        private long lastDeliveryNanos;
+
+        private Subscription(Listener listener, long minIntervalMillis) {
+            this.listener = listener;
+            this.minIntervalNanos = TimeUnit.MILLISECONDS.toNanos(minIntervalMillis);
+            this.lastDeliveryNanos = System.nanoTime() - minIntervalNanos;
+        }
+
+        private synchronized void offer(int showtimeId, int availableSeats) {
+            if (closed) {
+                return;
+            }
+            pending.put(showtimeId, availableSeats);
+            if (listener == null) {
+                notifyAll();
+            } else if (!scheduled) {
+                scheduleDelivery();
+            }
+        }
+
+        // Caller holds the monitor
+        private void scheduleDelivery() {
+            scheduled = true;
+            long delay = Math.max(0, lastDeliveryNanos + minIntervalNanos - System.nanoTime());
+            scheduler.schedule(() -> Thread.startVirtualThread(this::deliver), delay, TimeUnit.NANOSECONDS);
+        }
+
+        private void deliver() {
+            List<SeatCount> changes;
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                changes = drain();
+                lastDeliveryNanos = System.nanoTime();
+            }
+            try {
+                listener.seatsChanged(changes);
+            } catch (RuntimeException e) {
+                System.out.println("Error in seat change listener: " + e.getMessage());
+            } finally {
+                synchronized (this) {
+                    // Anything published while the listener ran goes out in the next delivery
+                    scheduled = false;
+                    if (!closed && pending.size() > 0) {
+                        scheduleDelivery();
+                    }
+                }
+            }
+        }
+
+        /**
+         * Waits up to {@code timeoutMillis} for changes and returns them, coalesced since the last
+         * poll; empty if nothing changed in time or the subscription was closed.
+         */
+        public synchronized List<SeatCount> poll(long timeoutMillis) throws InterruptedException {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+            while (pending.size() == 0 && !closed) {
+                long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (remaining <= 0) {
+                    break;
+                }
+                wait(remaining);
+            }
+            return drain();
+        }
+
+        private List<SeatCount> drain() {
+            List<SeatCount> changes = new ArrayList<>(pending.size());
+            pending.forEach((showtimeId, seats) -> changes.add(new SeatCount(showtimeId, seats)));
+            pending.clear();
+            return changes;
+        }
+
+        @Override
+        public void close() {
+            subscriptions.remove(this);
+            synchronized (this) {
+                closed = true;
+                pending.clear();
+                notifyAll();
+            }
+        }
+    }
+}
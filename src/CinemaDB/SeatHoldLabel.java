@@ -0,0 +1,177 @@
+package CinemaDB;
+
+import javax.swing.*;
+import java.awt.Window;
+import java.awt.event.FocusAdapter;
+import java.awt.event.FocusEvent;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Status line of the add booking dialog that holds the seats as soon as the showtime and number
+ * of seats are filled in, so they cannot sell out while the customer types a name and phone number.
+ *
+ * The hold follows the fields: changing either one gives the old seats back and holds new ones.
+ * Closing the dialog releases whatever is still held; a hold that is never confirmed also lapses
+ * on its own (see {@link SeatHoldService}).
+ *
+ * Taking a hold is when the booking waits its turn in {@link AdmissionController}, and it does so
+ * before taking one of {@link AsyncDatabase}'s places, as does a booking made without a hold.
+ */
+public class SeatHoldLabel extends JLabel {
+    private static final long serialVersionUID = 1L;
+    private static final DateTimeFormatter UNTIL = DateTimeFormatter.ofPattern("HH:mm:ss").withZone(ZoneId.systemDefault());
+
+    private transient SeatHoldService.Hold hold;
+    private transient CompletableFuture<Attempt> pending;
+    private int requestedShowtimeId = -1;
+    private int requestedSeats = -1;
+
+    // What a hold request came back with: the hold, or why there is none
+    private record Attempt(int admitted, SeatHoldService.Hold hold) {
+    }
+
+    public SeatHoldLabel() {
+        super(" ");
+        setBorder(BorderFactory.createEmptyBorder(0, 5, 0, 5));
+    }
+
+    /** Holds seats whenever both fields hold a number, and releases them when {@code dialog} closes. */
+    public void watch(Window dialog, JTextField showtimeIdField, JTextField seatsField) {
+        Runnable update = () -> update(showtimeIdField.getText().trim(), seatsField.getText().trim());
+        FocusAdapter onLeave = new FocusAdapter() {
+            @Override
+            public void focusLost(FocusEvent e) {
+                update.run();
+            }
+        };
+        showtimeIdField.addFocusListener(onLeave);
+        seatsField.addFocusListener(onLeave);
+        showtimeIdField.addActionListener(e -> update.run());
+        seatsField.addActionListener(e -> update.run());
+        dialog.addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosed(WindowEvent e) {
+                requestedShowtimeId = -1;
+                releaseCurrent();
+            }
+        });
+    }
+
+    /** Id of the hold for exactly these seats, or -1 if there is none (not taken yet, or lapsed). */
+    public long holdIdFor(int showtimeId, int seats) {
+        SeatHoldService.Hold h = hold;
+        if (h == null || h.showtimeId() != showtimeId || h.seats() != seats
+                || h.expiresAtMillis() <= System.currentTimeMillis()) {
+            return -1;
+        }
+        return h.holdId();
+    }
+
+    /**
+     * Books these seats in the background: confirms the hold if it is for exactly them, and
+     * otherwise, or if it lapsed in the meantime, waits for the showtime's turn and reserves them.
+     *
+     * @return as {@link BookingService#reserve}
+     */
+    public CompletableFuture<Integer> book(int movieId, int showtimeId, int seats, String customerName,
+                                           String phoneNumber) {
+        long holdId = holdIdFor(showtimeId, seats);
+        if (holdId < 0) {
+            return reserve(movieId, showtimeId, seats, customerName, phoneNumber);
+        }
+        return AsyncDatabase.submit(() -> BookingService.confirmHold(holdId, movieId, customerName, phoneNumber))
+                .thenCompose(bookingId -> bookingId == SeatHoldService.HOLD_EXPIRED
+                        ? reserve(movieId, showtimeId, seats, customerName, phoneNumber)
+                        : CompletableFuture.completedFuture(bookingId));
+    }
+
+    private static CompletableFuture<Integer> reserve(int movieId, int showtimeId, int seats, String customerName,
+                                                      String phoneNumber) {
+        return AsyncDatabase.submit(() -> BookingService.admit(showtimeId, seats, BookingService.NO_TICKET),
+                admitted -> admitted == AdmissionController.ADMITTED
+                        ? BookingService.reserveAdmitted(movieId, showtimeId, customerName, phoneNumber, seats)
+                        : admitted);
+    }
+
+    /** Forgets the current hold after it was confirmed, so closing the dialog does not release it. */
+    public void confirmed() {
+        hold = null;
+        setText(" ");
+    }
+
+    private void update(String showtimeIdText, String seatsText) {
+        int showtimeId;
+        int seats;
+        try {
+            showtimeId = Integer.parseInt(showtimeIdText);
+            seats = Integer.parseInt(seatsText);
+        } catch (NumberFormatException e) {
+            // Not filled in yet, or still the list of showtime ids
+            return;
+        }
+        if (seats <= 0 || (showtimeId == requestedShowtimeId && seats == requestedSeats)) {
+            return;
+        }
+        requestedShowtimeId = showtimeId;
+        requestedSeats = seats;
+        // A request still in flight is left to finish; the hold it brings back is released below
+        releaseCurrent();
+
+        setText("Holding seats...");
+        CompletableFuture<Attempt> request = AsyncDatabase.submit(
+                () -> BookingService.admit(showtimeId, seats, BookingService.NO_TICKET),
+                admitted -> new Attempt(admitted, admitted == AdmissionController.ADMITTED
+                        ? BookingService.holdSeats(showtimeId, seats) : null));
+        pending = request;
+        // A hold that arrives after the fields changed again, or after the dialog closed, is released
+        request.thenAccept(attempt -> {
+            SeatHoldService.Hold h = attempt.hold();
+            if (h != null) {
+                SwingUtilities.invokeLater(() -> {
+                    if (pending != request || requestedShowtimeId != showtimeId || requestedSeats != seats) {
+                        release(h);
+                    }
+                });
+            }
+        });
+        AsyncDatabase.onEdt(request, attempt -> {
+            if (pending != request) {
+                return;
+            }
+            pending = null;
+            SeatHoldService.Hold h = attempt.hold();
+            hold = h;
+            if (attempt.admitted() == AdmissionController.BUSY) {
+                // Tried again the next time either field is left or confirmed
+                requestedShowtimeId = -1;
+                setText("Showtime " + showtimeId + " is very busy; seats are not held yet.");
+            } else if (h == null) {
+                setText("Not enough seats left to hold " + seats + " for showtime " + showtimeId + ".");
+            } else {
+                setText(seats + " seat(s) held until " + UNTIL.format(Instant.ofEpochMilli(h.expiresAtMillis())) + ".");
+            }
+        }, e -> {
+            if (pending == request) {
+                pending = null;
+                setText("Could not hold seats: " + e.getMessage());
+            }
+        });
+    }
+
+    private void releaseCurrent() {
+        SeatHoldService.Hold h = hold;
+        hold = null;
+        if (h != null) {
+            release(h);
+        }
+    }
+
+    private static void release(SeatHoldService.Hold h) {
+        AsyncDatabase.submit(() -> BookingService.releaseHold(h.holdId()));
+    }
+}
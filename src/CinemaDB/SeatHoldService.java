@@ -0,0 +1,142 @@
+package CinemaDB;
+
+import java.sql.*;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Time-limited holds on a number of seats, so a customer filling in the booking form cannot
+ * lose the seats at the last step.
+ *
+ * A hold takes the seats in {@link SeatInventory} straight away; nothing is written to the
+ * database until it is confirmed. Holds lapse after {@code -Dcinemadb.holds.ttlMillis}
+ * (default five minutes) and their seats go back on sale. Expiry runs on a
+ * {@link HashedTimerWheel}, so hundreds of thousands of open holds cost one bucket visit per
+ * tick and no database work at all; confirming or releasing a hold cancels its timeout in O(1).
+ */
+public class SeatHoldService {
+    /** Returned by {@link #confirm} when the hold has lapsed or was released. */
+    public static final int HOLD_EXPIRED = -2;
+
+    private static final long TTL_MILLIS = Long.getLong("cinemadb.holds.ttlMillis", 300_000);
+
+    /** Expiry timer for all holds, seat map holds included: 100 ms ticks, 1024 buckets (about 100 s per turn). */
+    static final HashedTimerWheel TIMERS = new HashedTimerWheel("cinemadb-hold-timers", 100, 1024);
+
+    /** Seats held until confirmed, released, or {@code expiresAtMillis}. */
+    public record Hold(long holdId, int showtimeId, int seats, long expiresAtMillis) {
+    }
+
+    private record Entry(Hold hold, HashedTimerWheel.Timeout timeout) {
+    }
+
+    private static final Map<Long, Entry> holds = new ConcurrentHashMap<>();
+    private static final AtomicLong nextHoldId = new AtomicLong(1);
+
+    static long ttlMillis() {
+        return TTL_MILLIS;
+    }
+
+    /**
+     * Holds {@code seats} seats of a showtime.
+     *
+     * @return the hold, or null if the showtime does not have that many seats left
+     */
+    public static Hold hold(int showtimeId, int seats) throws SQLException {
+        if (seats <= 0) {
+            throw new IllegalArgumentException("Seats to book must be a positive number.");
+        }
+        SeatInventory inventory = SeatInventory.getInstance();
+        SeatInventory.Result result = inventory.hold(showtimeId, seats);
+        if (result == SeatInventory.Result.UNKNOWN_SHOWTIME && inventory.refresh(showtimeId) >= 0) {
+            result = inventory.hold(showtimeId, seats);
+        }
+        if (result != SeatInventory.Result.RESERVED) {
+            return null;
+        }
+        long holdId = nextHoldId.getAndIncrement();
+        Hold hold = new Hold(holdId, showtimeId, seats, System.currentTimeMillis() + TTL_MILLIS);
+        holds.put(holdId, new Entry(hold, TIMERS.schedule(() -> expire(holdId), TTL_MILLIS, TimeUnit.MILLISECONDS)));
+        return hold;
+    }
+
+    /** The hold, or null if it was confirmed, released or has lapsed. */
+    public static Hold getHold(long holdId) {
+        Entry entry = holds.get(holdId);
+        return entry == null ? null : entry.hold();
+    }
+
+    /** Gives the seats back. Returns false if the hold was already confirmed, released or lapsed. */
+    public static boolean release(long holdId) throws SQLException {
+        Entry entry = holds.remove(holdId);
+        if (entry == null) {
+            return false;
+        }
+        entry.timeout().cancel();
+        SeatInventory.getInstance().unhold(entry.hold().showtimeId(), entry.hold().seats(), true);
+        return true;
+    }
+
+    // Runs on the timer thread
+    private static void expire(long holdId) {
+        Entry entry = holds.remove(holdId);
+        if (entry == null) {
+            return;
+        }
+        try {
+            SeatInventory.getInstance().unhold(entry.hold().showtimeId(), entry.hold().seats(), true);
+        } catch (SQLException e) {
+            // Cannot happen: the inventory was loaded when the hold was taken
+        }
+    }
+
+    /**
+     * Books the held seats.
+     *
+     * @return as {@link SeatReservationService#reserve}: the booking id,
+     *         {@link SeatReservationService#NOT_ENOUGH_SEATS} or {@link SeatReservationService#BOOKING_QUEUED};
+     *         or {@link #HOLD_EXPIRED}
+     */
+    public static int confirm(long holdId, int movieId, String customerName, String phoneNumber) throws SQLException {
+        Entry entry = holds.get(holdId);
+        if (entry == null) {
+            return HOLD_EXPIRED;
+        }
+        Hold hold = entry.hold();
+        BookingService.validateBooking(customerName, phoneNumber, hold.seats());
+        if (!holds.remove(holdId, entry)) {
+            return HOLD_EXPIRED;
+        }
+        entry.timeout().cancel();
+
+        SeatInventory inventory = SeatInventory.getInstance();
+        if (inventory.getMode() == SeatInventory.DurabilityMode.GROUP_COMMIT) {
+            SeatInventory.PendingBooking booking =
+                    new SeatInventory.PendingBooking(movieId, hold.showtimeId(), customerName, phoneNumber, hold.seats());
+            inventory.enqueueHeld(booking);
+            return SeatInventory.awaitWritten(booking);
+        }
+        int bookingId;
+        try {
+            bookingId = SeatReservationService.reserveInDatabase(movieId, hold.showtimeId(), customerName, phoneNumber, hold.seats());
+        } catch (SQLException | RuntimeException e) {
+            inventory.unhold(hold.showtimeId(), hold.seats(), true);
+            throw e;
+        }
+        if (bookingId == SeatReservationService.NOT_ENOUGH_SEATS) {
+            // Another process took the seats; memory was ahead of the database
+            inventory.unhold(hold.showtimeId(), hold.seats(), true);
+            inventory.refresh(hold.showtimeId());
+        } else {
+            inventory.unhold(hold.showtimeId(), hold.seats(), false);
+        }
+        return bookingId;
+    }
+
+    /** Holds currently open. */
+    public static int getOpenHolds() {
+        return holds.size();
+    }
+}
@@ -0,0 +1,598 @@
+package CinemaDB;
+
+import java.sql.*;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * In-memory copy of {@code Showtimes.available_seats}, so availability checks and
+ * reservations do not need a database round trip.
+ *
+ * Counts are plain ints kept in one {@link IntIntMap} per lock stripe; a showtime always
+ * maps to the same stripe, so bookings for different showtimes rarely contend. The counts
+ * are loaded from the database on first use and whenever {@link #reconcile()} is called.
+ * Every change to a count is published on {@link SeatEventBus}.
+ *
+ * How bookings reach MySQL depends on the {@link DurabilityMode}:
+ * <ul>
+ * <li>{@code SYNC_COMMIT}: the caller commits each booking itself (see
+ *     {@link SeatReservationService}); the inventory only rejects sold-out requests early.</li>
+ * <li>{@code GROUP_COMMIT}: bookings are queued and a background flusher writes every
+ *     queued booking, plus one seat decrement per showtime, in a single transaction every
+ *     few milliseconds. Each caller waits until the transaction holding its booking has
+ *     committed and then gets its own outcome (see {@link #awaitWritten}), so a booking is
+ *     never reported before it is in the database. This mode assumes this process is the
+ *     only one taking bookings.</li>
+ * </ul>
+ */
+public class SeatInventory {
+    public enum DurabilityMode { SYNC_COMMIT, GROUP_COMMIT }
+
+    /** Outcome of an in-memory reservation attempt. */
+    public enum Result { RESERVED, NOT_ENOUGH_SEATS, UNKNOWN_SHOWTIME }
+
+    private static final int STRIPES = 64;
+    // Flushes a queued booking may fail in before its caller gets the error
+    private static final int MAX_FLUSH_ATTEMPTS = 3;
+    // How long a caller waits for the group commit holding its booking
+    private static final long WRITE_WAIT_MILLIS = Long.getLong("cinemadb.inventory.writeWaitMillis", 30_000);
+
+    private static volatile SeatInventory instance;
+
+    private final Stripe[] stripes = new Stripe[STRIPES];
+    private final DurabilityMode mode;
+    private final ConcurrentLinkedQueue<PendingBooking> pending = new ConcurrentLinkedQueue<>();
+    private final ReentrantLock flushLock = new ReentrantLock();
+    // Bookings a flush has to try again, written before anything in pending; only touched under flushLock
+    private final ArrayDeque<PendingBooking> retry = new ArrayDeque<>();
+    private final ScheduledExecutorService background;
+    private final SeatEventBus events = SeatEventBus.getInstance();
+
+    private static final class Stripe {
+        final ReentrantLock lock = new ReentrantLock();
+        final IntIntMap available = new IntIntMap();
+        // Seats taken by holds that are not booked yet; not in the database, so reloads subtract them
+        final IntIntMap held = new IntIntMap();
+    }
+
+    /** A booking accepted in memory and waiting for the next group commit. */
+    static final class PendingBooking {
+        final int movieId;
+        final int showtimeId;
+        final String customerName;
+        final String phoneNumber;
+        final int seats;
+        // Completed by the flusher with the booking id, or NOT_ENOUGH_SEATS if the database turned it down
+        final CompletableFuture<Integer> result = new CompletableFuture<>();
+        // Flushes that failed with this booking in the batch; only touched under flushLock
+        int failedFlushes;
+
+        PendingBooking(int movieId, int showtimeId, String customerName, String phoneNumber, int seats) {
+            this.movieId = movieId;
+            this.showtimeId = showtimeId;
+            this.customerName = customerName;
+            this.phoneNumber = phoneNumber;
+            this.seats = seats;
+        }
+    }
+
+    SeatInventory(DurabilityMode mode, long flushIntervalMillis, long reconcileIntervalMillis) {
+        this.mode = mode;
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe();
+        }
+        background = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "cinemadb-seat-inventory");
+            t.setDaemon(true);
+            return t;
+        });
+        if (mode == DurabilityMode.GROUP_COMMIT) {
+            background.scheduleWithFixedDelay(this::flushQuietly, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+            Runtime.getRuntime().addShutdownHook(new Thread(this::flushQuietly, "cinemadb-seat-flusher-shutdown"));
+        }
+        // Picks up seats freed or taken by other processes
+        background.scheduleWithFixedDelay(this::reconcileQuietly, reconcileIntervalMillis, reconcileIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * The process-wide inventory, loaded from the database on first use. The mode comes from
+     * {@code -Dcinemadb.durability=sync|group} (default sync) and the group commit interval from
+     * {@code -Dcinemadb.inventory.flushMillis} (default 20); a full reconcile runs every
+     * {@code -Dcinemadb.inventory.reconcileMillis} (default 60000).
+     */
+    public static SeatInventory getInstance() throws SQLException {
+        SeatInventory inv = instance;
+        if (inv == null) {
+            synchronized (SeatInventory.class) {
+                inv = instance;
+                if (inv == null) {
+                    DurabilityMode mode = "group".equalsIgnoreCase(System.getProperty("cinemadb.durability"))
+                            ? DurabilityMode.GROUP_COMMIT : DurabilityMode.SYNC_COMMIT;
+                    inv = new SeatInventory(mode, Long.getLong("cinemadb.inventory.flushMillis", 20),
+                            Long.getLong("cinemadb.inventory.reconcileMillis", 60_000));
+                    inv.reconcile();
+                    instance = inv;
+                }
+            }
+        }
+        return inv;
+    }
+
+    public DurabilityMode getMode() {
+        return mode;
+    }
+
+    private Stripe stripeFor(int showtimeId) {
+        return stripes[(showtimeId * 0x9E3779B9 >>> 26) & (STRIPES - 1)];
+    }
+
+    /** Seats left for a showtime, or -1 if the inventory does not track it. */
+    public int available(int showtimeId) {
+        Stripe s = stripeFor(showtimeId);
+        s.lock.lock();
+        try {
+            return s.available.get(showtimeId, ShowtimeRepository.NO_SEAT_COUNT);
+        } finally {
+            s.lock.unlock();
+        }
+    }
+
+    /** Takes {@code seats} seats out of memory if that many are left. */
+    public Result tryReserve(int showtimeId, int seats) {
+        Stripe s = stripeFor(showtimeId);
+        s.lock.lock();
+        try {
+            int left = s.available.get(showtimeId, ShowtimeRepository.NO_SEAT_COUNT);
+            if (left == ShowtimeRepository.NO_SEAT_COUNT) {
+                return Result.UNKNOWN_SHOWTIME;
+            }
+            if (left < seats) {
+                return Result.NOT_ENOUGH_SEATS;
+            }
+            s.available.put(showtimeId, left - seats);
+            events.publish(showtimeId, left - seats);
+            return Result.RESERVED;
+        } finally {
+            s.lock.unlock();
+        }
+    }
+
+    /**
+     * Takes seats for a hold: like {@link #tryReserve}, but the seats are also remembered as held
+     * so reloading the count from the database does not hand them out again. End the hold with
+     * {@link #unhold} or {@link #enqueueHeld}.
+     */
+    public Result hold(int showtimeId, int seats) {
+        Stripe s = stripeFor(showtimeId);
+        s.lock.lock();
+        try {
+            Result result = tryReserve(showtimeId, seats);
+            if (result == Result.RESERVED) {
+                s.held.add(showtimeId, seats);
+            }
+            return result;
+        } finally {
+            s.lock.unlock();
+        }
+    }
+
+    /**
+     * Ends a hold. With {@code giveBack} the seats become available again (hold expired or
+     * released); without, they stay taken because the booking is now in the database.
+     */
+    public void unhold(int showtimeId, int seats, boolean giveBack) {
+        Stripe s = stripeFor(showtimeId);
+        s.lock.lock();
+        try {
+            if (s.held.add(showtimeId, -seats) <= 0) {
+                s.held.remove(showtimeId);
+            }
+            if (giveBack) {
+                release(showtimeId, seats);
+            }
+        } finally {
+            s.lock.unlock();
+        }
+    }
+
+    /** Group commit mode: turns held seats into a queued booking, without taking the seats again. */
+    void enqueueHeld(PendingBooking booking) {
+        Stripe s = stripeFor(booking.showtimeId);
+        s.lock.lock();
+        try {
+            if (s.held.add(booking.showtimeId, -booking.seats) <= 0) {
+                s.held.remove(booking.showtimeId);
+            }
+            pending.add(booking);
+        } finally {
+            s.lock.unlock();
+        }
+    }
+
+    /** Gives seats back, e.g. after a cancellation or a failed database write. */
+    public void release(int showtimeId, int seats) {
+        Stripe s = stripeFor(showtimeId);
+        s.lock.lock();
+        try {
+            if (s.available.containsKey(showtimeId)) {
+                events.publish(showtimeId, s.available.add(showtimeId, seats));
+            }
+        } finally {
+            s.lock.unlock();
+        }
+    }
+
+    /**
+     * Reloads one showtime's count from the database, e.g. one created after startup or one
+     * whose count drifted because another process booked it. Returns the reloaded count, or -1.
+     */
+    public int refresh(int showtimeId) throws SQLException {
+        flushLock.lock();
+        try {
+            flush();
+            return reload(showtimeId);
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    private int reload(int showtimeId) throws SQLException {
+        int seats;
+        try (Connection connection = DatabaseConnection.borrowConnection(showtimeId)) {
+            seats = ShowtimeRepository.findAvailableSeats(connection, showtimeId);
+        }
+        Stripe s = stripeFor(showtimeId);
+        s.lock.lock();
+        try {
+            if (seats == ShowtimeRepository.NO_SEAT_COUNT) {
+                s.available.remove(showtimeId);
+            } else {
+                // Bookings queued after the flush, and held seats, are not in the database yet
+                seats -= pendingSeats(showtimeId) + s.held.get(showtimeId, 0);
+                s.available.put(showtimeId, seats);
+            }
+            events.publish(showtimeId, seats);
+            return seats;
+        } finally {
+            s.lock.unlock();
+        }
+    }
+
+    // Called under flushLock, so retry is stable
+    private int pendingSeats(int showtimeId) {
+        int seats = 0;
+        for (PendingBooking b : retry) {
+            if (b.showtimeId == showtimeId) {
+                seats += b.seats;
+            }
+        }
+        for (PendingBooking b : pending) {
+            if (b.showtimeId == showtimeId) {
+                seats += b.seats;
+            }
+        }
+        return seats;
+    }
+
+    /**
+     * Flushes anything queued and reloads every count from the database. Called on startup, and
+     * safe to call at any time to pick up changes made outside this process.
+     */
+    public void reconcile() throws SQLException {
+        flushLock.lock();
+        try {
+            flush();
+            // With shards each holds the counts of its own showtimes; moved ones have none on the primary
+            List<int[]> rows = new ArrayList<>();
+            for (List<int[]> shardRows : DatabaseConnection.getShards().gather(false, ShowtimeRepository::findAllAvailableSeats)) {
+                rows.addAll(shardRows);
+            }
+            for (Stripe s : stripes) {
+                s.lock.lock();
+            }
+            try {
+                // Remember the old counts so subscribers only hear about the ones that changed
+                IntIntMap before = new IntIntMap(rows.size());
+                for (Stripe s : stripes) {
+                    s.available.forEach(before::put);
+                    s.available.clear();
+                }
+                for (int[] row : rows) {
+                    stripeFor(row[0]).available.put(row[0], row[1]);
+                }
+                for (PendingBooking b : retry) {
+                    stripeFor(b.showtimeId).available.add(b.showtimeId, -b.seats);
+                }
+                for (PendingBooking b : pending) {
+                    stripeFor(b.showtimeId).available.add(b.showtimeId, -b.seats);
+                }
+                for (Stripe s : stripes) {
+                    s.held.forEach((showtimeId, seats) -> {
+                        if (s.available.containsKey(showtimeId)) {
+                            s.available.add(showtimeId, -seats);
+                        }
+                    });
+                }
+                for (Stripe s : stripes) {
+                    s.available.forEach((showtimeId, seats) -> {
+                        if (before.get(showtimeId, ShowtimeRepository.NO_SEAT_COUNT) != seats) {
+                            events.publish(showtimeId, seats);
+                        }
+                        before.remove(showtimeId);
+                    });
+                }
+                before.forEach((showtimeId, seats) -> events.publish(showtimeId, ShowtimeRepository.NO_SEAT_COUNT));
+            } finally {
+                for (Stripe s : stripes) {
+                    s.lock.unlock();
+                }
+            }
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    /**
+     * Takes the seats out of memory and queues the booking for the next group commit. Both happen
+     * under the stripe lock so a concurrent reload cannot miss the booking.
+     */
+    Result reserveAndEnqueue(PendingBooking booking) {
+        Stripe s = stripeFor(booking.showtimeId);
+        s.lock.lock();
+        try {
+            Result result = tryReserve(booking.showtimeId, booking.seats);
+            if (result == Result.RESERVED) {
+                pending.add(booking);
+            }
+            return result;
+        } finally {
+            s.lock.unlock();
+        }
+    }
+
+    /**
+     * Group commit mode: waits until the flusher has written a queued booking.
+     *
+     * @return the booking id, or {@link SeatReservationService#NOT_ENOUGH_SEATS} if the database had
+     *         fewer seats left than memory; {@link SeatReservationService#BOOKING_QUEUED} if the wait
+     *         was interrupted or took longer than {@code -Dcinemadb.inventory.writeWaitMillis}
+     *         (default 30000), in which case the booking is still written later
+     * @throws SQLException if the booking could not be written and its seats were given back
+     */
+    static int awaitWritten(PendingBooking booking) throws SQLException {
+        try {
+            return booking.result.get(WRITE_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return SeatReservationService.BOOKING_QUEUED;
+        } catch (TimeoutException e) {
+            System.out.println("Booking for showtime " + booking.showtimeId + " not written after "
+                    + WRITE_WAIT_MILLIS + " ms; still queued");
+            return SeatReservationService.BOOKING_QUEUED;
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof SQLException sql) {
+                throw new SQLException("Could not write the booking: " + sql.getMessage(), sql.getSQLState(),
+                        sql.getErrorCode(), sql);
+            }
+            throw new SQLException(cause);
+        }
+    }
+
+    // These two run on fixed-delay schedules, which stop for good if a run throws
+    private void reconcileQuietly() {
+        try {
+            reconcile();
+        } catch (SQLException e) {
+            System.out.println("Error reloading seat counts: " + e.getMessage());
+        } catch (RuntimeException e) {
+            System.out.println("Error reloading seat counts: " + e);
+            e.printStackTrace();
+        }
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (SQLException e) {
+            System.out.println("Error writing queued bookings: " + e.getMessage());
+        } catch (RuntimeException e) {
+            System.out.println("Error writing queued bookings: " + e);
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Writes all queued bookings in one transaction. If the transaction fails the bookings stay
+     * queued and are retried on the next flush; after {@value #MAX_FLUSH_ATTEMPTS} failed flushes
+     * a booking's seats are given back and its caller gets the error.
+     */
+    public void flush() throws SQLException {
+        flushLock.lock();
+        try {
+            List<PendingBooking> batch = new ArrayList<>();
+            while (!retry.isEmpty() && batch.size() < 10_000) {
+                batch.add(retry.poll());
+            }
+            for (PendingBooking b = pending.peek(); b != null && batch.size() < 10_000; b = pending.peek()) {
+                batch.add(b);
+                pending.poll();
+            }
+            if (batch.isEmpty()) {
+                return;
+            }
+            try {
+                writeBatch(batch);
+            } catch (SQLException | RuntimeException e) {
+                retryOrFail(batch, e);
+                throw e;
+            }
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    private void retryOrFail(List<PendingBooking> bookings, Exception error) {
+        List<PendingBooking> again = new ArrayList<>(bookings.size());
+        for (PendingBooking b : bookings) {
+            if (b.result.isDone()) {
+                // Settled before the failure; only SQLExceptions cut the batch down to the rest
+                continue;
+            }
+            if (++b.failedFlushes < MAX_FLUSH_ATTEMPTS) {
+                again.add(b);
+            } else {
+                release(b.showtimeId, b.seats);
+                b.result.completeExceptionally(error);
+            }
+        }
+        retryLater(again);
+    }
+
+    /**
+     * Queues bookings for the next flush, ahead of anything in {@code pending}. They go on a deque
+     * of their own rather than back into {@code pending}, which callers add to under stripe locks
+     * only. Called under flushLock.
+     */
+    private void retryLater(List<PendingBooking> bookings) {
+        retry.addAll(bookings);
+    }
+
+    /**
+     * Writes the batch with one transaction per database holding its showtimes: just the one
+     * without shards. If a transaction fails, {@code batch} is cut down to the bookings not
+     * settled yet and the exception is rethrown.
+     */
+    private void writeBatch(List<PendingBooking> batch) throws SQLException {
+        ShardRouter shards = DatabaseConnection.getShards();
+        Map<ShardRouter.Shard, List<PendingBooking>> byShard = new LinkedHashMap<>();
+        for (PendingBooking b : batch) {
+            byShard.computeIfAbsent(shards.shardFor(b.showtimeId), k -> new ArrayList<>()).add(b);
+        }
+        List<ShardRouter.Shard> targets = new ArrayList<>(byShard.keySet());
+        for (int i = 0; i < targets.size(); i++) {
+            try {
+                writeGroup(shards, targets.get(i), byShard.get(targets.get(i)));
+            } catch (SQLException e) {
+                batch.clear();
+                for (int j = i; j < targets.size(); j++) {
+                    for (PendingBooking b : byShard.get(targets.get(j))) {
+                        // A group can fail after its commit; those bookings are settled already
+                        if (!b.result.isDone()) {
+                            batch.add(b);
+                        }
+                    }
+                }
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Writes one shard's bookings in one transaction. A showtime without seats for all its queued
+     * bookings takes them one at a time, in queue order, and turns down only those that no longer
+     * fit. Every booking's caller is told its outcome once the transaction has committed.
+     */
+    private void writeGroup(ShardRouter shards, ShardRouter.Shard shard, List<PendingBooking> batch) throws SQLException {
+        IntIntMap seatsByShowtime = new IntIntMap(batch.size());
+        for (PendingBooking b : batch) {
+            seatsByShowtime.add(b.showtimeId, b.seats);
+        }
+        // Lowest showtime_id first, so concurrent writers lock rows in the same order
+        List<int[]> decrements = new ArrayList<>(seatsByShowtime.size());
+        seatsByShowtime.forEach((showtimeId, seats) -> decrements.add(new int[] { showtimeId, seats }));
+        decrements.sort((a, b) -> Integer.compare(a[0], b[0]));
+
+        List<PendingBooking> accepted = new ArrayList<>(batch.size());
+        List<PendingBooking> refused = new ArrayList<>();
+        IntIntMap moved = new IntIntMap();
+        try (Connection connection = shard.borrow()) {
+            connection.setAutoCommit(false);
+            int[] bookingIds;
+            try {
+                boolean[] reserved = ShowtimeRepository.reserveSeatsBatch(connection, decrements);
+                IntIntMap shortShowtimes = new IntIntMap();
+                for (int i = 0; i < reserved.length; i++) {
+                    if (!reserved[i]) {
+                        shortShowtimes.put(decrements.get(i)[0], 1);
+                    }
+                }
+                for (PendingBooking b : batch) {
+                    if (!shortShowtimes.containsKey(b.showtimeId)) {
+                        accepted.add(b);
+                    }
+                }
+                // Still in ascending showtime_id order
+                for (int[] d : decrements) {
+                    if (!shortShowtimes.containsKey(d[0])) {
+                        continue;
+                    }
+                    for (PendingBooking b : batch) {
+                        if (b.showtimeId == d[0]) {
+                            if (ShowtimeRepository.reserveSeats(connection, b.showtimeId, b.seats)) {
+                                accepted.add(b);
+                            } else {
+                                refused.add(b);
+                            }
+                        }
+                    }
+                }
+                bookingIds = BookingRepository.insertBatch(connection, accepted);
+                connection.commit();
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            }
+            BookingJournal.recordReserves(accepted, bookingIds);
+            SalesAnalytics.recordReserves(accepted, bookingIds);
+            BookingLookupIndex.recordReserves(accepted, bookingIds);
+            for (int i = 0; i < bookingIds.length; i++) {
+                accepted.get(i).result.complete(bookingIds[i]);
+            }
+
+            // If this check fails the refused bookings are not settled, so the next flush tries them again
+            IntIntMap checked = new IntIntMap();
+            for (PendingBooking b : refused) {
+                if (checked.add(b.showtimeId, 1) == 1 && shards.movedAway(connection, b.showtimeId)) {
+                    moved.put(b.showtimeId, 1);
+                }
+            }
+        }
+
+        // Moved to another shard since they were routed; written there on the next flush
+        List<PendingBooking> again = new ArrayList<>();
+        IntIntMap sold = new IntIntMap();
+        for (PendingBooking b : refused) {
+            if (moved.containsKey(b.showtimeId)) {
+                again.add(b);
+            } else {
+                // Someone outside this process booked the seats memory still counted
+                sold.put(b.showtimeId, 1);
+                b.result.complete(SeatReservationService.NOT_ENOUGH_SEATS);
+            }
+        }
+        if (!again.isEmpty()) {
+            retryLater(again);
+        }
+        List<Integer> ids = new ArrayList<>();
+        sold.forEach((showtimeId, ignored) -> ids.add(showtimeId));
+        for (int showtimeId : ids) {
+            try {
+                reload(showtimeId);
+            } catch (SQLException e) {
+                System.out.println("Error reloading seats of showtime " + showtimeId + ": " + e.getMessage());
+            }
+        }
+    }
+}
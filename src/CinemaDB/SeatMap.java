@@ -0,0 +1,244 @@
+package CinemaDB;
+
+import java.util.Arrays;
+
+/**
+ * Which seats of one showtime are sold or held, one bit per seat.
+ *
+ * Each row takes a whole number of 64-bit words, so a search for {@code n} adjacent free seats
+ * works a word at a time: a seat can start a block if it and the {@code n - 1} seats to its
+ * right are free, which is the free mask ANDed with itself shifted by 1 .. n-1. A 1,000-seat
+ * auditorium is a few dozen words, so the search takes microseconds.
+ *
+ * Not thread-safe; {@link SeatMapService} guards each map with its own lock. Rows and seats are
+ * numbered from 0.
+ */
+class SeatMap {
+    private final int rows;
+    private final int seatsPerRow;
+    private final int wordsPerRow;
+    private final long[] sold;
+    private final long[] held;
+
+    SeatMap(int rows, int seatsPerRow) {
+        if (rows <= 0 || seatsPerRow <= 0) {
+            throw new IllegalArgumentException("A seat map needs at least one row and one seat per row.");
+        }
+        this.rows = rows;
+        this.seatsPerRow = seatsPerRow;
+        this.wordsPerRow = (seatsPerRow + 63) >>> 6;
+        this.sold = new long[rows * wordsPerRow];
+        this.held = new long[rows * wordsPerRow];
+    }
+
+    int rows() {
+        return rows;
+    }
+
+    int seatsPerRow() {
+        return seatsPerRow;
+    }
+
+    int capacity() {
+        return rows * seatsPerRow;
+    }
+
+    boolean isFree(int row, int seat) {
+        int w = row * wordsPerRow + (seat >>> 6);
+        long bit = 1L << seat;
+        return ((sold[w] | held[w]) & bit) == 0;
+    }
+
+    int freeCount() {
+        int taken = 0;
+        for (int i = 0; i < sold.length; i++) {
+            taken += Long.bitCount(sold[i] | held[i]);
+        }
+        return capacity() - taken;
+    }
+
+    /**
+     * Finds the best block of {@code n} adjacent free seats: as close as possible to the
+     * preferred row (two thirds of the way back), then to the middle of the row. Moving one row
+     * away counts as much as moving two seats sideways.
+     *
+     * @return {row, firstSeat}, or null if no row has that many adjacent free seats
+     */
+    int[] findBestAdjacent(int n) {
+        if (n <= 0 || n > seatsPerRow) {
+            return null;
+        }
+        int idealRow = (rows * 2) / 3;
+        int idealStart = (seatsPerRow - n) / 2;
+        long[] free = new long[wordsPerRow];
+        long[] starts = new long[wordsPerRow];
+        int[] best = null;
+        int bestScore = Integer.MAX_VALUE;
+        // Rows in order of distance from the ideal one: ideal, ideal+1, ideal-1, ideal+2, ...
+        for (int d = 0; d < rows * 2; d++) {
+            int row = idealRow + ((d & 1) == 0 ? d >>> 1 : -((d + 1) >>> 1));
+            if (row < 0 || row >= rows) {
+                continue;
+            }
+            int rowScore = 2 * Math.abs(row - idealRow);
+            if (rowScore >= bestScore) {
+                break;
+            }
+            startsOfFreeRuns(row, n, free, starts);
+            for (int w = 0; w < wordsPerRow; w++) {
+                for (long bits = starts[w]; bits != 0; bits &= bits - 1) {
+                    int seat = (w << 6) + Long.numberOfTrailingZeros(bits);
+                    int score = rowScore + Math.abs(seat - idealStart);
+                    if (score < bestScore) {
+                        bestScore = score;
+                        best = new int[] { row, seat };
+                    }
+                }
+            }
+        }
+        return best;
+    }
+
+    // starts = seats in the row followed by at least n-1 more free seats
+    private void startsOfFreeRuns(int row, int n, long[] free, long[] starts) {
+        int base = row * wordsPerRow;
+        for (int w = 0; w < wordsPerRow; w++) {
+            free[w] = ~(sold[base + w] | held[base + w]) & validMask(w);
+        }
+        System.arraycopy(free, 0, starts, 0, wordsPerRow);
+        for (int k = 1; k < n; k++) {
+            int wordShift = k >>> 6;
+            int bitShift = k & 63;
+            for (int w = 0; w < wordsPerRow; w++) {
+                int src = w + wordShift;
+                long shifted = src < wordsPerRow ? free[src] >>> bitShift : 0;
+                if (bitShift != 0 && src + 1 < wordsPerRow) {
+                    shifted |= free[src + 1] << (64 - bitShift);
+                }
+                starts[w] &= shifted;
+            }
+        }
+    }
+
+    private long validMask(int word) {
+        int seatsInWord = Math.min(64, seatsPerRow - (word << 6));
+        return seatsInWord == 64 ? -1L : (1L << seatsInWord) - 1;
+    }
+
+    /** Marks the seats as held if all of them are free; returns false (changing nothing) otherwise. */
+    boolean hold(int row, int firstSeat, int n) {
+        if (!inRange(row, firstSeat, n)) {
+            return false;
+        }
+        for (int s = firstSeat; s < firstSeat + n; s++) {
+            if (!isFree(row, s)) {
+                return false;
+            }
+        }
+        setBits(held, row, firstSeat, n, true);
+        return true;
+    }
+
+    void releaseHold(int row, int firstSeat, int n) {
+        setBits(held, row, firstSeat, n, false);
+    }
+
+    /** Turns held seats into sold ones. */
+    void confirm(int row, int firstSeat, int n) {
+        setBits(held, row, firstSeat, n, false);
+        setBits(sold, row, firstSeat, n, true);
+    }
+
+    /** Frees sold seats, e.g. after a cancellation. */
+    void unsell(int row, int firstSeat, int n) {
+        setBits(sold, row, firstSeat, n, false);
+    }
+
+    /**
+     * Marks {@code n} free seats as sold, filling from the back row towards the front. Used for
+     * seats sold before the showtime had a seat map, whose positions are not known.
+     */
+    void sellFromBack(int n) {
+        for (int row = rows - 1; row >= 0 && n > 0; row--) {
+            for (int seat = 0; seat < seatsPerRow && n > 0; seat++) {
+                if (isFree(row, seat)) {
+                    setBits(sold, row, seat, 1, true);
+                    n--;
+                }
+            }
+        }
+    }
+
+    private boolean inRange(int row, int firstSeat, int n) {
+        return row >= 0 && row < rows && firstSeat >= 0 && n > 0 && firstSeat + n <= seatsPerRow;
+    }
+
+    private void setBits(long[] bits, int row, int firstSeat, int n, boolean value) {
+        if (!inRange(row, firstSeat, n)) {
+            throw new IllegalArgumentException("Seats " + firstSeat + "-" + (firstSeat + n - 1)
+                    + " of row " + row + " are outside the seat map.");
+        }
+        int base = row * wordsPerRow;
+        for (int s = firstSeat; s < firstSeat + n; s++) {
+            if (value) {
+                bits[base + (s >>> 6)] |= 1L << s;
+            } else {
+                bits[base + (s >>> 6)] &= ~(1L << s);
+            }
+        }
+    }
+
+    /**
+     * The sold seats as a packed bitset, seat by seat and row by row, least significant bit
+     * first; {@code ceil(rows * seatsPerRow / 8)} bytes. Holds are not included.
+     */
+    byte[] toBytes() {
+        return toBytes(sold);
+    }
+
+    /** As {@link #toBytes()}, with the given extra seats counted as sold. */
+    byte[] toBytesWith(int row, int firstSeat, int n) {
+        long[] copy = Arrays.copyOf(sold, sold.length);
+        setBits(copy, row, firstSeat, n, true);
+        return toBytes(copy);
+    }
+
+    /** As {@link #toBytes()}, with the given sold seats counted as free. */
+    byte[] toBytesWithout(int row, int firstSeat, int n) {
+        long[] copy = Arrays.copyOf(sold, sold.length);
+        setBits(copy, row, firstSeat, n, false);
+        return toBytes(copy);
+    }
+
+    private byte[] toBytes(long[] bits) {
+        byte[] packed = new byte[(capacity() + 7) >>> 3];
+        int i = 0;
+        for (int row = 0; row < rows; row++) {
+            int base = row * wordsPerRow;
+            for (int seat = 0; seat < seatsPerRow; seat++, i++) {
+                if ((bits[base + (seat >>> 6)] & (1L << seat)) != 0) {
+                    packed[i >>> 3] |= (byte) (1 << (i & 7));
+                }
+            }
+        }
+        return packed;
+    }
+
+    /** Rebuilds a map from {@link #toBytes()}; a null or short array leaves the missing seats free. */
+    static SeatMap fromBytes(int rows, int seatsPerRow, byte[] packed) {
+        SeatMap map = new SeatMap(rows, seatsPerRow);
+        if (packed == null) {
+            return map;
+        }
+        int i = 0;
+        for (int row = 0; row < rows; row++) {
+            int base = row * map.wordsPerRow;
+            for (int seat = 0; seat < seatsPerRow; seat++, i++) {
+                if ((i >>> 3) < packed.length && (packed[i >>> 3] & (1 << (i & 7))) != 0) {
+                    map.sold[base + (seat >>> 6)] |= 1L << seat;
+                }
+            }
+        }
+        return map;
+    }
+}
@@ -0,0 +1,339 @@
+package CinemaDB;
+
+import java.sql.*;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Seat selection: hold the best block of adjacent seats, then confirm it as a booking.
+ *
+ * Each showtime has a {@link SeatMap} in memory, loaded on first use from the seat_map column
+ * of Showtimes. A showtime without a stored map gets the default layout
+ * ({@code -Dcinemadb.seatmap.rows} x {@code -Dcinemadb.seatmap.seatsPerRow}, default 10 x 15,
+ * the old 150-seat default, plus rows if the showtime has more seats left than that), with the
+ * seats already sold by count filled in from the back row. The seat_map columns come from
+ * {@link SchemaMigrator} migration 2; without them seat maps are not available.
+ *
+ * A hold takes its seats out of both the map and {@link SeatInventory}, so nobody else can book
+ * them, and lapses after the same time as a {@link SeatHoldService} hold unless it is confirmed;
+ * expiry runs on the same timer wheel. Confirming writes the seat count, the booking with its
+ * seat position and the whole packed map in one transaction. Writers of one showtime's map take
+ * its write lock for the length of their transaction, so the stored map is always the one in
+ * memory.
+ *
+ * Bookings made by count alone, e.g. from the booking dialogs, still only reduce
+ * available_seats; {@link SeatInventory} keeps holds from selling more seats than are left.
+ */
+public class SeatMapService {
+    /** Returned by {@link #confirm} when the hold has lapsed or was released. */
+    public static final int HOLD_EXPIRED = -2;
+
+    private static final int DEFAULT_ROWS = Integer.getInteger("cinemadb.seatmap.rows", 10);
+    private static final int DEFAULT_SEATS_PER_ROW = Integer.getInteger("cinemadb.seatmap.seatsPerRow", 15);
+
+    private static final SeatMapService INSTANCE = new SeatMapService();
+    private static volatile Boolean enabled;
+
+    /** Seats held for a customer until confirmed, released, or {@code expiresAtMillis}. Rows and seats count from 0. */
+    public record Hold(long holdId, int showtimeId, int row, int firstSeat, int seats, long expiresAtMillis) {
+    }
+
+    private record HeldSeats(Hold hold, HashedTimerWheel.Timeout timeout) {
+    }
+
+    private static final class Entry {
+        final SeatMap map;
+        // Held for the whole transaction by anyone writing this showtime's map to the database
+        final ReentrantLock writeLock = new ReentrantLock();
+
+        Entry(SeatMap map) {
+            this.map = map;
+        }
+    }
+
+    private final Map<Integer, Entry> maps = new ConcurrentHashMap<>();
+    private final Map<Long, HeldSeats> holds = new ConcurrentHashMap<>();
+    private final AtomicLong nextHoldId = new AtomicLong(1);
+
+    public static SeatMapService getInstance() {
+        return INSTANCE;
+    }
+
+    /** True if the database has the seat map columns (see {@link SchemaMigrator}); checked once and then remembered. */
+    static boolean isEnabled() throws SQLException {
+        Boolean e = enabled;
+        if (e == null) {
+            try (Connection connection = DatabaseConnection.borrowConnection()) {
+                e = Schema.hasSeatMapColumns(connection);
+            }
+            enabled = e;
+        }
+        return e;
+    }
+
+    /**
+     * Holds the best block of {@code seats} adjacent seats (see {@link SeatMap#findBestAdjacent}).
+     * Callers take the showtime's turn with {@link BookingService#admit} first; {@link #confirm}
+     * does not wait again.
+     *
+     * @return the hold, or null if no row has that many adjacent free seats or the showtime does
+     *         not have that many seats left
+     */
+    public Hold holdBest(int showtimeId, int seats) throws SQLException {
+        if (seats <= 0) {
+            throw new IllegalArgumentException("Seats to book must be a positive number.");
+        }
+        Entry entry = entry(showtimeId);
+        if (entry == null) {
+            return null;
+        }
+        SeatInventory inventory = SeatInventory.getInstance();
+        if (inventory.hold(showtimeId, seats) != SeatInventory.Result.RESERVED) {
+            return null;
+        }
+        int[] block;
+        synchronized (entry.map) {
+            block = entry.map.findBestAdjacent(seats);
+            if (block != null) {
+                entry.map.hold(block[0], block[1], seats);
+            }
+        }
+        if (block == null) {
+            inventory.unhold(showtimeId, seats, true);
+            return null;
+        }
+        long ttl = SeatHoldService.ttlMillis();
+        Hold hold = new Hold(nextHoldId.getAndIncrement(), showtimeId, block[0], block[1], seats,
+                System.currentTimeMillis() + ttl);
+        holds.put(hold.holdId(), new HeldSeats(hold,
+                SeatHoldService.TIMERS.schedule(() -> release(hold.holdId()), ttl, TimeUnit.MILLISECONDS)));
+        return hold;
+    }
+
+    public Hold getHold(long holdId) {
+        HeldSeats held = holds.get(holdId);
+        return held == null ? null : held.hold();
+    }
+
+    /** Gives held seats back. Returns false if the hold was already confirmed, released or lapsed. */
+    public boolean release(long holdId) {
+        HeldSeats held = holds.remove(holdId);
+        if (held == null) {
+            return false;
+        }
+        held.timeout().cancel();
+        try {
+            giveBack(maps.get(held.hold().showtimeId()), held.hold());
+        } catch (SQLException e) {
+            // Cannot happen: the inventory was loaded when the hold was taken
+        }
+        return true;
+    }
+
+    /**
+     * Books the held seats.
+     *
+     * @return the new booking id, {@link #HOLD_EXPIRED}, or {@link SeatReservationService#NOT_ENOUGH_SEATS}
+     *         if another process sold the seats in the meantime
+     */
+    public int confirm(long holdId, int movieId, String customerName, String phoneNumber) throws SQLException {
+        HeldSeats held = holds.get(holdId);
+        if (held == null) {
+            return HOLD_EXPIRED;
+        }
+        Hold hold = held.hold();
+        BookingService.validateBooking(customerName, phoneNumber, hold.seats());
+        if (!holds.remove(holdId, held)) {
+            return HOLD_EXPIRED;
+        }
+        held.timeout().cancel();
+        Entry entry = maps.get(hold.showtimeId());
+        int bookingId;
+        entry.writeLock.lock();
+        try {
+            byte[] packed;
+            synchronized (entry.map) {
+                packed = entry.map.toBytesWith(hold.row(), hold.firstSeat(), hold.seats());
+            }
+            try {
+                bookingId = writeConfirmed(hold, movieId, customerName, phoneNumber, entry.map, packed);
+            } catch (SQLException | RuntimeException e) {
+                giveBack(entry, hold);
+                throw e;
+            }
+            if (bookingId == SeatReservationService.NOT_ENOUGH_SEATS) {
+                giveBack(entry, hold);
+                SeatInventory.getInstance().refresh(hold.showtimeId());
+                return bookingId;
+            }
+            synchronized (entry.map) {
+                entry.map.confirm(hold.row(), hold.firstSeat(), hold.seats());
+            }
+            SeatInventory.getInstance().unhold(hold.showtimeId(), hold.seats(), false);
+        } finally {
+            entry.writeLock.unlock();
+        }
+        BookingJournal.recordReserve(bookingId, movieId, hold.showtimeId(), customerName, phoneNumber, hold.seats(),
+                hold.row(), hold.firstSeat());
+        SalesAnalytics.recordReserve(bookingId, hold.showtimeId(), hold.seats());
+        BookingLookupIndex.recordReserve(bookingId, customerName, phoneNumber);
+        return bookingId;
+    }
+
+    private static int writeConfirmed(Hold hold, int movieId, String customerName, String phoneNumber,
+                                      SeatMap map, byte[] packed) throws SQLException {
+        ShardRouter shards = DatabaseConnection.getShards();
+        while (true) {
+            try (Connection connection = shards.borrowFor(hold.showtimeId())) {
+                connection.setAutoCommit(false);
+                try {
+                    if (!ShowtimeRepository.reserveSeats(connection, hold.showtimeId(), hold.seats())) {
+                        connection.rollback();
+                        if (shards.movedAway(connection, hold.showtimeId())) {
+                            continue;
+                        }
+                        return SeatReservationService.NOT_ENOUGH_SEATS;
+                    }
+                    int bookingId = BookingRepository.insertWithSeats(connection, movieId, hold.showtimeId(),
+                            customerName, phoneNumber, hold.seats(), hold.row(), hold.firstSeat());
+                    ShowtimeRepository.updateSeatMap(connection, hold.showtimeId(), map.rows(), map.seatsPerRow(), packed);
+                    connection.commit();
+                    return bookingId;
+                } catch (SQLException e) {
+                    connection.rollback();
+                    throw e;
+                }
+            }
+        }
+    }
+
+    private static void giveBack(Entry entry, Hold hold) throws SQLException {
+        synchronized (entry.map) {
+            entry.map.releaseHold(hold.row(), hold.firstSeat(), hold.seats());
+        }
+        SeatInventory.getInstance().unhold(hold.showtimeId(), hold.seats(), true);
+    }
+
+    /**
+     * Cancels a booking that was made on the seat map, freeing its seats in the map as well.
+     *
+     * @return true if cancelled, false if there is no such booking, null if the booking has no
+     *         seat position (the caller cancels it by count)
+     */
+    Boolean cancelSeated(int bookingId) throws SQLException {
+        ShardRouter shards = DatabaseConnection.getShards();
+        ShardRouter.Shard shard = shards.shardOfBooking(bookingId);
+        if (shard == null) {
+            return false;
+        }
+        int[] position;
+        try (Connection connection = shard.borrow()) {
+            position = BookingRepository.findSeatPosition(connection, bookingId);
+        }
+        if (position == null) {
+            return false;
+        }
+        if (position[2] < 0) {
+            return null;
+        }
+        int showtimeId = position[0];
+        int seats = position[1];
+        int row = position[2];
+        int firstSeat = position[3];
+        Entry entry = entry(showtimeId);
+        if (entry == null) {
+            return null;
+        }
+
+        BookingRepository.BookedSeats booked;
+        boolean moved = false;
+        entry.writeLock.lock();
+        try {
+            byte[] packed;
+            synchronized (entry.map) {
+                packed = entry.map.toBytesWithout(row, firstSeat, seats);
+            }
+            try (Connection connection = shard.borrow()) {
+                connection.setAutoCommit(false);
+                try {
+                    booked = SeatReservationService.cancel(connection, bookingId);
+                    if (booked == null) {
+                        connection.rollback();
+                        // Its showtime may have moved to another shard while we looked
+                        ShardRouter.Shard now = shards.shardOfBooking(bookingId);
+                        if (now == null || now == shard) {
+                            return false;
+                        }
+                        moved = true;
+                    } else {
+                        ShowtimeRepository.updateSeatMap(connection, showtimeId, entry.map.rows(), entry.map.seatsPerRow(), packed);
+                        connection.commit();
+                    }
+                } catch (SQLException e) {
+                    connection.rollback();
+                    throw e;
+                }
+            }
+            if (moved) {
+                return cancelSeated(bookingId);
+            }
+            synchronized (entry.map) {
+                entry.map.unsell(row, firstSeat, seats);
+            }
+        } finally {
+            entry.writeLock.unlock();
+        }
+        SeatInventory.getInstance().release(showtimeId, seats);
+        BookingLookupIndex.getInstance().remove(bookingId, booked.customerName, booked.phoneNumber);
+        BookingJournal.recordCancel(bookingId, showtimeId, seats, booked.customerName, booked.phoneNumber);
+        SalesAnalytics.recordCancel(bookingId, showtimeId, seats);
+        return true;
+    }
+
+    /** Free seats on the map of a showtime, or -1 if there is no such showtime. */
+    public int freeSeats(int showtimeId) throws SQLException {
+        Entry entry = entry(showtimeId);
+        if (entry == null) {
+            return -1;
+        }
+        synchronized (entry.map) {
+            return entry.map.freeCount();
+        }
+    }
+
+    private Entry entry(int showtimeId) throws SQLException {
+        Entry entry = maps.get(showtimeId);
+        if (entry != null) {
+            return entry;
+        }
+        if (!isEnabled()) {
+            throw new SQLException("The database has no seat map columns; run SchemaMigrator to add them.");
+        }
+        ShowtimeRepository.StoredSeatMap stored;
+        try (Connection connection = DatabaseConnection.borrowConnection(showtimeId)) {
+            stored = ShowtimeRepository.findSeatMap(connection, showtimeId);
+        }
+        if (stored == null) {
+            return null;
+        }
+        SeatMap map;
+        if (stored.rows > 0 && stored.seatsPerRow > 0) {
+            map = SeatMap.fromBytes(stored.rows, stored.seatsPerRow, stored.seatMap);
+        } else {
+            int rows = DEFAULT_ROWS;
+            if (stored.availableSeats != ShowtimeRepository.NO_SEAT_COUNT) {
+                // Older showtimes can have more seats left than the default map holds
+                rows = Math.max(rows, Math.ceilDiv(stored.availableSeats, DEFAULT_SEATS_PER_ROW));
+            }
+            map = new SeatMap(rows, DEFAULT_SEATS_PER_ROW);
+            if (stored.availableSeats != ShowtimeRepository.NO_SEAT_COUNT) {
+                map.sellFromBack(map.capacity() - Math.max(0, stored.availableSeats));
+            }
+        }
+        Entry loaded = maps.putIfAbsent(showtimeId, new Entry(map));
+        return loaded != null ? loaded : maps.get(showtimeId);
+    }
+}
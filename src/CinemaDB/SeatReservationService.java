@@ -0,0 +1,219 @@
+package CinemaDB;
+
+import java.sql.*;
+
+/**
+ * Reserves and releases seats for a showtime.
+ *
+ * A reservation is one short transaction: a conditional UPDATE that only decrements
+ * {@code Showtimes.available_seats} if enough seats are left, followed by the booking INSERT.
+ * The UPDATE takes the showtime row lock, so concurrent terminals booking the same show
+ * serialize on that row for the duration of the insert and can never oversell it. Both
+ * reserve and cancel lock the Showtimes row before touching Bookings, so the two paths
+ * cannot deadlock against each other; deadlocks and lock wait timeouts caused by other
+ * traffic are retried a few times.
+ *
+ * Every reservation first goes through the in-memory {@link SeatInventory}, so sold-out
+ * showtimes are turned away without touching the database. In group commit mode the
+ * inventory also takes over the database write; the caller still waits for its commit.
+ */
+public class SeatReservationService {
+    /** Returned by {@link #reserve} when the showtime does not have enough seats left. */
+    public static final int NOT_ENOUGH_SEATS = -1;
+    /**
+     * Returned by {@link #reserve} in group commit mode if the wait for the write was interrupted:
+     * the booking is accepted and still queued for writing. Not 0, which is what a booking id is
+     * when the driver does not report generated keys.
+     */
+    public static final int BOOKING_QUEUED = -5;
+
+    private static final int MAX_ATTEMPTS = 3;
+
+    /**
+     * Books {@code seats} seats for a showtime.
+     *
+     * @return the new booking id, {@link #NOT_ENOUGH_SEATS} if the showtime is sold out, or
+     *         {@link #BOOKING_QUEUED} if interrupted while waiting for a group commit
+     */
+    public static int reserve(int movieId, int showtimeId, String customerName, String phoneNumber, int seats)
+            throws SQLException {
+        if (seats <= 0) {
+            throw new IllegalArgumentException("Seats to book must be a positive number.");
+        }
+        SeatInventory inventory = SeatInventory.getInstance();
+        if (inventory.getMode() == SeatInventory.DurabilityMode.GROUP_COMMIT) {
+            SeatInventory.PendingBooking booking =
+                    new SeatInventory.PendingBooking(movieId, showtimeId, customerName, phoneNumber, seats);
+            SeatInventory.Result result = inventory.reserveAndEnqueue(booking);
+            if (result == SeatInventory.Result.UNKNOWN_SHOWTIME && inventory.refresh(showtimeId) >= 0) {
+                result = inventory.reserveAndEnqueue(booking);
+            }
+            if (result != SeatInventory.Result.RESERVED) {
+                return NOT_ENOUGH_SEATS;
+            }
+            return SeatInventory.awaitWritten(booking);
+        }
+
+        SeatInventory.Result result = inventory.tryReserve(showtimeId, seats);
+        if (result == SeatInventory.Result.UNKNOWN_SHOWTIME && inventory.refresh(showtimeId) >= 0) {
+            result = inventory.tryReserve(showtimeId, seats);
+        }
+        if (result != SeatInventory.Result.RESERVED) {
+            return NOT_ENOUGH_SEATS;
+        }
+
+        int bookingId;
+        try {
+            bookingId = reserveInDatabase(movieId, showtimeId, customerName, phoneNumber, seats);
+        } catch (SQLException | RuntimeException e) {
+            inventory.release(showtimeId, seats);
+            throw e;
+        }
+        if (bookingId == NOT_ENOUGH_SEATS) {
+            // Another process took the seats; memory was ahead of the database
+            inventory.refresh(showtimeId);
+        }
+        return bookingId;
+    }
+
+    static int reserveInDatabase(int movieId, int showtimeId, String customerName, String phoneNumber, int seats)
+            throws SQLException {
+        int bookingId = reserveWithRetries(movieId, showtimeId, customerName, phoneNumber, seats);
+        if (bookingId != NOT_ENOUGH_SEATS) {
+            BookingJournal.recordReserve(bookingId, movieId, showtimeId, customerName, phoneNumber, seats, -1, -1);
+            SalesAnalytics.recordReserve(bookingId, showtimeId, seats);
+            BookingLookupIndex.recordReserve(bookingId, customerName, phoneNumber);
+        }
+        return bookingId;
+    }
+
+    private static int reserveWithRetries(int movieId, int showtimeId, String customerName, String phoneNumber, int seats)
+            throws SQLException {
+        ShardRouter shards = DatabaseConnection.getShards();
+        for (int attempt = 1; ; attempt++) {
+            try (Connection connection = shards.borrowFor(showtimeId)) {
+                connection.setAutoCommit(false);
+                try {
+                    int bookingId = reserve(connection, movieId, showtimeId, customerName, phoneNumber, seats);
+                    if (bookingId == NOT_ENOUGH_SEATS) {
+                        connection.rollback();
+                        if (shards.movedAway(connection, showtimeId)) {
+                            // Moved to another shard since it was routed; a move does not count as an attempt
+                            attempt--;
+                            continue;
+                        }
+                    } else {
+                        connection.commit();
+                    }
+                    return bookingId;
+                } catch (SQLException e) {
+                    connection.rollback();
+                    throw e;
+                }
+            } catch (SQLException e) {
+                if (attempt >= MAX_ATTEMPTS || !isRetryable(e)) {
+                    throw e;
+                }
+                backOff(attempt);
+            }
+        }
+    }
+
+    /**
+     * Reservation steps on a caller-managed transaction. Returns {@link #NOT_ENOUGH_SEATS} without
+     * writing anything if the conditional update matched no row.
+     */
+    static int reserve(Connection connection, int movieId, int showtimeId, String customerName,
+                       String phoneNumber, int seats) throws SQLException {
+        if (!ShowtimeRepository.reserveSeats(connection, showtimeId, seats)) {
+            return NOT_ENOUGH_SEATS;
+        }
+        return BookingRepository.insert(connection, movieId, showtimeId, customerName, phoneNumber, seats);
+    }
+
+    /**
+     * Deletes a booking and gives its seats back to the showtime.
+     *
+     * @return false if no booking with that id exists (or it was cancelled concurrently)
+     */
+    public static boolean cancel(int bookingId) throws SQLException {
+        if (SeatMapService.isEnabled()) {
+            // Bookings with a seat position also free their seats on the seat map
+            Boolean seated = SeatMapService.getInstance().cancelSeated(bookingId);
+            if (seated != null) {
+                return seated;
+            }
+        }
+        ShardRouter shards = DatabaseConnection.getShards();
+        ShardRouter.Shard shard = shards.shardOfBooking(bookingId);
+        if (shard == null) {
+            return false;
+        }
+        BookingRepository.BookedSeats cancelled = null;
+        for (int attempt = 1; cancelled == null; attempt++) {
+            try (Connection connection = shard.borrow()) {
+                connection.setAutoCommit(false);
+                try {
+                    BookingRepository.BookedSeats c = cancel(connection, bookingId);
+                    if (c == null) {
+                        connection.rollback();
+                        // Its showtime may have moved to another shard while we looked
+                        ShardRouter.Shard now = shards.shardOfBooking(bookingId);
+                        if (now == null || now == shard) {
+                            return false;
+                        }
+                        shard = now;
+                        attempt--;
+                        continue;
+                    }
+                    connection.commit();
+                    cancelled = c;
+                } catch (SQLException e) {
+                    connection.rollback();
+                    throw e;
+                }
+            } catch (SQLException e) {
+                if (attempt >= MAX_ATTEMPTS || !isRetryable(e)) {
+                    throw e;
+                }
+                backOff(attempt);
+            }
+        }
+        SeatInventory.getInstance().release(cancelled.showtimeId, cancelled.seats);
+        BookingLookupIndex.getInstance().remove(bookingId, cancelled.customerName, cancelled.phoneNumber);
+        BookingJournal.recordCancel(bookingId, cancelled.showtimeId, cancelled.seats, cancelled.customerName,
+                cancelled.phoneNumber);
+        SalesAnalytics.recordCancel(bookingId, cancelled.showtimeId, cancelled.seats);
+        return true;
+    }
+
+    /** Cancellation steps on a caller-managed transaction; null if there is nothing to cancel. */
+    static BookingRepository.BookedSeats cancel(Connection connection, int bookingId) throws SQLException {
+        BookingRepository.BookedSeats booked = BookingRepository.findSeats(connection, bookingId);
+        if (booked == null) {
+            return null;
+        }
+        // Showtimes row first, same lock order as reserve()
+        ShowtimeRepository.releaseSeats(connection, booked.showtimeId, booked.seats);
+        // False means another terminal cancelled it first; the caller rolls back our seat release.
+        return BookingRepository.delete(connection, bookingId) ? booked : null;
+    }
+
+    /** Deadlock victims (MySQL 1213) and lock wait timeouts (MySQL 1205) are safe to run again. */
+    static boolean isRetryable(SQLException e) {
+        return e instanceof SQLTransactionRollbackException
+                || "40001".equals(e.getSQLState())
+                || e.getErrorCode() == 1213
+                || e.getErrorCode() == 1205;
+    }
+
+    static void backOff(int attempt) throws SQLException {
+        Metrics.SEAT_RETRIES.increment();
+        try {
+            Thread.sleep(attempt * 10L + (long) (Math.random() * 10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while retrying reservation", e);
+        }
+    }
+}
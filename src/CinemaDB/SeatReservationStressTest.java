@@ -0,0 +1,163 @@
+package CinemaDB;
+
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hammers one showtime with concurrent reservations and checks that it is never oversold.
+ *
+ * Usage: SeatReservationStressTest <showtime_id> [capacity] [requests] [threads]
+ *
+ * The showtime's available_seats is temporarily set to {@code capacity}; {@code requests}
+ * single-seat reservations are fired from {@code threads} threads at once. Afterwards the
+ * test bookings are cancelled by id through {@link SeatReservationService#cancel}, so the journal,
+ * lookup index and sales figures see them go, and the original seat count is restored. Every
+ * query runs on the database holding the showtime: its shard when bookings are sharded.
+ */
+public class SeatReservationStressTest {
+    private static final String TEST_CUSTOMER = "Stress Test";
+    private static final int FETCH_CHUNK = 200;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.out.println("Usage: SeatReservationStressTest <showtime_id> [capacity] [requests] [threads]");
+            return;
+        }
+        int showtimeId = Integer.parseInt(args[0]);
+        int capacity = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+        int requests = args.length > 2 ? Integer.parseInt(args[2]) : 500;
+        int threads = args.length > 3 ? Integer.parseInt(args[3]) : 64;
+
+        if (!DatabaseConnection.isAvailable()) {
+            System.out.println("Failed to connect to the database.");
+            return;
+        }
+        SchemaMigrator.migrateOnStartup();
+
+        int movieId;
+        Integer originalSeats;
+        try (Connection connection = DatabaseConnection.borrowConnection(showtimeId);
+             PreparedStatement stmt = connection.prepareStatement(
+                     "SELECT movie_id, available_seats FROM Showtimes WHERE showtime_id = ?")) {
+            stmt.setInt(1, showtimeId);
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (!rs.next()) {
+                    System.out.println("No showtime found with ID: " + showtimeId);
+                    return;
+                }
+                movieId = rs.getInt(1);
+                int seats = rs.getInt(2);
+                originalSeats = rs.wasNull() ? null : seats;
+            }
+        }
+        setAvailableSeats(showtimeId, capacity);
+        SeatInventory.getInstance().refresh(showtimeId);
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicInteger booked = new AtomicInteger();
+        AtomicInteger rejected = new AtomicInteger();
+        AtomicInteger failed = new AtomicInteger();
+        // Booked without an id to show for it: queued past the wait, or no generated key reported
+        AtomicInteger withoutId = new AtomicInteger();
+        Queue<Integer> bookingIds = new ConcurrentLinkedQueue<>();
+        List<Future<?>> futures = new ArrayList<>();
+
+        for (int i = 0; i < requests; i++) {
+            futures.add(executor.submit(() -> {
+                start.await();
+                try {
+                    int bookingId = SeatReservationService.reserve(movieId, showtimeId, TEST_CUSTOMER, "+000", 1);
+                    if (bookingId == SeatReservationService.NOT_ENOUGH_SEATS) {
+                        rejected.incrementAndGet();
+                    } else {
+                        booked.incrementAndGet();
+                        if (bookingId > 0) {
+                            bookingIds.add(bookingId);
+                        } else {
+                            withoutId.incrementAndGet();
+                        }
+                    }
+                } catch (SQLException e) {
+                    failed.incrementAndGet();
+                    System.out.println("Reservation failed: " + e.getMessage());
+                }
+                return null;
+            }));
+        }
+
+        long t0 = System.nanoTime();
+        start.countDown();
+        for (Future<?> f : futures) {
+            f.get();
+        }
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - t0);
+        executor.shutdown();
+        // Group commit mode: make sure queued bookings are written before counting them
+        SeatInventory.getInstance().flush();
+
+        int[] ids = bookingIds.stream().mapToInt(Integer::intValue).sorted().toArray();
+        int remaining;
+        int bookedInDb = 0;
+        try (Connection connection = DatabaseConnection.borrowConnection(showtimeId)) {
+            try (PreparedStatement stmt = connection.prepareStatement(
+                    "SELECT available_seats FROM Showtimes WHERE showtime_id = ?")) {
+                stmt.setInt(1, showtimeId);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    rs.next();
+                    remaining = rs.getInt(1);
+                }
+            }
+            for (int from = 0; from < ids.length; from += FETCH_CHUNK) {
+                for (CustomerBooking b : BookingRepository.findByIds(connection, ids, from, Math.min(ids.length, from + FETCH_CHUNK))) {
+                    bookedInDb += b.seatsBooked();
+                }
+            }
+        }
+        int notCancelled = 0;
+        for (int bookingId : ids) {
+            if (!SeatReservationService.cancel(bookingId)) {
+                notCancelled++;
+            }
+        }
+        if (notCancelled > 0 || withoutId.get() > 0) {
+            System.out.println("Left behind: " + notCancelled + " test bookings not found to cancel, "
+                    + withoutId.get() + " without a booking id (customer \"" + TEST_CUSTOMER + "\")");
+        }
+        setAvailableSeats(showtimeId, originalSeats);
+        SeatInventory.getInstance().refresh(showtimeId);
+
+        System.out.println(String.format("%d requests on %d threads in %d ms: booked=%d, rejected=%d, errors=%d",
+                requests, threads, elapsedMillis, booked.get(), rejected.get(), failed.get()));
+        System.out.println(String.format("Seats booked in DB: %d, seats left: %d, capacity: %d",
+                bookedInDb, remaining, capacity));
+        System.out.println(DatabaseConnection.getPool());
+
+        boolean ok = remaining >= 0
+                && withoutId.get() == 0
+                && bookedInDb == booked.get()
+                && bookedInDb + remaining == capacity
+                && booked.get() <= capacity
+                && failed.get() == 0;
+        System.out.println(ok ? "PASSED: no oversell." : "FAILED: seat counts do not add up!");
+        System.exit(ok ? 0 : 1);
+    }
+
+    private static void setAvailableSeats(int showtimeId, Integer seats) throws SQLException {
+        try (Connection connection = DatabaseConnection.borrowConnection(showtimeId);
+             PreparedStatement stmt = connection.prepareStatement(
+                     "UPDATE Showtimes SET available_seats = ? WHERE showtime_id = ?")) {
+            if (seats == null) {
+                stmt.setNull(1, Types.INTEGER);
+            } else {
+                stmt.setInt(1, seats);
+            }
+            stmt.setInt(2, showtimeId);
+            stmt.executeUpdate();
+        }
+    }
+}
@@ -0,0 +1,617 @@
+package CinemaDB;
+
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Adds and removes booking shards and moves showtimes, with their seats and bookings, to the
+ * shard the ring picks for them, while the application keeps taking bookings. See
+ * {@link ShardRouter} for how the data is laid out.
+ *
+ * Usage: ShardRebalancer status
+ *        ShardRebalancer add <name> <jdbc-url>
+ *        ShardRebalancer remove <name>
+ *        ShardRebalancer rebalance [--dry-run]
+ *
+ * {@code add} migrates the schema on the new database and lists it in the Shards table. The
+ * first {@code add} also starts the booking id counter {@value #ID_MARGIN} past the highest
+ * booking_id. Add the first shard at a quiet time: until every running application has reloaded
+ * the shard list, some still number their bookings with AUTO_INCREMENT. Nothing moves until
+ * {@code rebalance}, which moves every showtime that is not on the shard the ring picks for it,
+ * the primary's own showtimes included. {@code remove} moves a shard's showtimes to the others
+ * (or back to the primary if it was the last) and then takes it off the list. Run one of these at
+ * a time.
+ *
+ * One showtime moves in three steps. First its seat row is locked on the source, which makes
+ * bookings and cancellations of that showtime wait. The row and its bookings are then copied to
+ * the target and committed there, and the new place is recorded on the primary. Last, the source
+ * deletes its copy and commits, which releases the waiting writers. Those find the seat row gone,
+ * look the showtime up again and retry on the target. A move cut short leaves a copy on a shard
+ * that does not own the showtime; each {@code rebalance} starts by deleting such copies. Bookings
+ * a copy has and the owner lacks, taken by an application that had not heard of the move yet,
+ * are first moved to the owner with their seats. A copy whose extra bookings cannot be moved is
+ * kept, and its bookings are listed.
+ */
+public class ShardRebalancer {
+    // The first shard starts booking ids this far past the highest existing one
+    private static final int ID_MARGIN = 1_000_000;
+    private static final int PROGRESS_EVERY = 1_000;
+
+    /** Showtimes a rebalance moved, and those it tried to move but could not. */
+    private record Outcome(int moved, int failed) {
+    }
+
+    private static final String INSERT_SHARD_SQL = "INSERT INTO Shards (name, url) VALUES (?, ?)";
+    private static final String DELETE_SHARD_SQL = "DELETE FROM Shards WHERE name = ?";
+    private static final String FIND_ID_COUNTER_SQL = "SELECT next_id FROM booking_id_blocks WHERE block_id = 1";
+    private static final String START_ID_COUNTER_SQL =
+            "INSERT INTO booking_id_blocks (block_id, next_id) SELECT 1, COALESCE(MAX(booking_id), 0) + ? FROM Bookings";
+    private static final String FIND_PLACEMENTS_SQL = "SELECT showtime_id, shard FROM Showtimes ORDER BY showtime_id";
+    private static final String FIND_SHOWTIME_IDS_SQL = "SELECT showtime_id FROM Showtimes";
+    private static final String LOCK_SHOWTIME_SQL =
+            "SELECT movie_id, show_time, available_seats, seat_rows, seats_per_row, seat_map, screen_id "
+                    + "FROM Showtimes WHERE showtime_id = ? FOR UPDATE";
+    private static final String FIND_BOOKINGS_SQL =
+            "SELECT booking_id, movie_id, customer_name, phone_number, seats_booked, seat_row, first_seat "
+                    + "FROM Bookings WHERE showtime_id = ? ORDER BY booking_id";
+    private static final String FIND_MOVIE_SQL =
+            "SELECT movie_id, title, genre, duration_minutes, release_date FROM Movies WHERE movie_id = ?";
+    private static final String INSERT_MOVIE_SQL =
+            "INSERT INTO Movies (movie_id, title, genre, duration_minutes, release_date) VALUES (?, ?, ?, ?, ?)";
+    private static final String INSERT_SHOWTIME_SQL =
+            "INSERT INTO Showtimes (showtime_id, movie_id, show_time, available_seats, seat_rows, seats_per_row, seat_map, screen_id) "
+                    + "VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
+    // Back on the primary, which kept the catalog row
+    private static final String RESTORE_SEATS_SQL =
+            "UPDATE Showtimes SET available_seats = ?, seat_rows = ?, seats_per_row = ?, seat_map = ?, shard = NULL "
+                    + "WHERE showtime_id = ?";
+    // Off the primary: the catalog row stays, without a seat count so nothing books it there
+    private static final String HAND_OFF_SQL = "UPDATE Showtimes SET available_seats = NULL, shard = ? WHERE showtime_id = ?";
+    private static final String SET_SHARD_SQL = "UPDATE Showtimes SET shard = ? WHERE showtime_id = ?";
+    private static final String DELETE_BOOKINGS_SQL = "DELETE FROM Bookings WHERE showtime_id = ?";
+    private static final String DELETE_SHOWTIME_SQL = "DELETE FROM Showtimes WHERE showtime_id = ?";
+    private static final String INSERT_BOOKING_SQL =
+            "INSERT INTO Bookings (booking_id, movie_id, showtime_id, customer_name, phone_number, seats_booked, seat_row, first_seat) "
+                    + "VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
+
+    public static void main(String[] args) throws SQLException {
+        if (args.length < 1) {
+            System.out.println("Usage: ShardRebalancer status | add <name> <jdbc-url> | remove <name> | rebalance [--dry-run]");
+            return;
+        }
+        if (!DatabaseConnection.isAvailable()) {
+            System.out.println("Failed to connect to the database.");
+            return;
+        }
+        SchemaMigrator.migrateOnStartup();
+        ShardRouter shards = DatabaseConnection.getShards();
+        switch (args[0]) {
+            case "status" -> status(shards);
+            case "add" -> {
+                if (args.length < 3) {
+                    System.out.println("Usage: ShardRebalancer add <name> <jdbc-url>");
+                    return;
+                }
+                add(shards, args[1], args[2]);
+            }
+            case "remove" -> {
+                if (args.length < 2) {
+                    System.out.println("Usage: ShardRebalancer remove <name>");
+                    return;
+                }
+                remove(shards, args[1]);
+            }
+            case "rebalance" -> rebalance(shards, shards.ring(), args.length > 1 && "--dry-run".equals(args[1]));
+            default -> System.out.println("Unknown command: " + args[0]);
+        }
+    }
+
+    private static void status(ShardRouter shards) throws SQLException {
+        Map<String, Integer> placed = new HashMap<>();
+        int misplaced = 0;
+        for (int[] row : placements(shards)) {
+            ShardRouter.Shard current = shards.shards().get(row[1]);
+            placed.merge(current.name, 1, Integer::sum);
+            if (!current.name.equals(ownerName(shards.ring(), row[0]))) {
+                misplaced++;
+            }
+        }
+        List<Long> bookings = shards.gather(false, c -> Schema.count(c, "Bookings"));
+        for (int i = 0; i < shards.shards().size(); i++) {
+            ShardRouter.Shard shard = shards.shards().get(i);
+            System.out.printf("%-20s %8d showtimes %12d bookings  %s%n", shard.name, placed.getOrDefault(shard.name, 0),
+                    bookings.get(i), shard.isPrimary() ? "" : shard.url);
+        }
+        System.out.println(misplaced + " showtimes are not on the shard the ring picks for them.");
+    }
+
+    private static void add(ShardRouter shards, String name, String url) throws SQLException {
+        if (name.isBlank() || name.length() > 64 || name.equals(ShardRouter.PRIMARY)) {
+            System.out.println("A shard name must be 1 to 64 characters and not \"" + ShardRouter.PRIMARY + "\".");
+            return;
+        }
+        if (shards.shard(name) != null) {
+            System.out.println("There already is a shard called " + name + ".");
+            return;
+        }
+        try (Connection shard = shards.connect(url)) {
+            SchemaMigrator.migrate(shard);
+        }
+        try (Connection primary = DatabaseConnection.borrowConnection()) {
+            primary.setAutoCommit(false);
+            try {
+                boolean counting;
+                try (PreparedStatement stmt = primary.prepareStatement(FIND_ID_COUNTER_SQL);
+                     ResultSet rs = stmt.executeQuery()) {
+                    counting = rs.next();
+                }
+                if (!counting) {
+                    try (PreparedStatement stmt = primary.prepareStatement(START_ID_COUNTER_SQL)) {
+                        stmt.setInt(1, ID_MARGIN);
+                        stmt.executeUpdate();
+                    }
+                }
+                try (PreparedStatement stmt = primary.prepareStatement(INSERT_SHARD_SQL)) {
+                    stmt.setString(1, name);
+                    stmt.setString(2, url);
+                    stmt.executeUpdate();
+                }
+                primary.commit();
+            } catch (SQLException e) {
+                primary.rollback();
+                throw e;
+            }
+        }
+        shards.reload();
+        System.out.println("Added shard " + name + ". Run rebalance to move showtimes onto it.");
+    }
+
+    private static void remove(ShardRouter shards, String name) throws SQLException {
+        ShardRouter.Shard leaving = shards.shard(name);
+        if (leaving == null || leaving.isPrimary()) {
+            System.out.println("There is no shard called " + name + ".");
+            return;
+        }
+        List<String> rest = new ArrayList<>();
+        for (ShardRouter.Shard s : shards.shards()) {
+            if (!s.isPrimary() && s != leaving) {
+                rest.add(s.name);
+            }
+        }
+        ShardRouter.Ring target = new ShardRouter.Ring(rest, ShardRouter.VIRTUAL_NODES);
+        // Applications may still place new showtimes on it until they reload the shard list
+        Outcome outcome = rebalance(shards, target, false, leaving);
+        while (outcome.failed() == 0 && outcome.moved() > 0) {
+            System.out.println("Checking " + name + " for showtimes placed on it meanwhile...");
+            outcome = rebalance(shards, target, false, leaving);
+        }
+        if (outcome.failed() > 0) {
+            System.out.println(outcome.failed() + " showtimes could not be moved off " + name
+                    + ", so it stays on the shard list. Fix the errors above and run remove again.");
+            return;
+        }
+        try (Connection primary = DatabaseConnection.borrowConnection();
+             PreparedStatement stmt = primary.prepareStatement(DELETE_SHARD_SQL)) {
+            stmt.setString(1, name);
+            stmt.executeUpdate();
+        }
+        shards.reload();
+        System.out.println("Removed shard " + name + ".");
+    }
+
+    private static Outcome rebalance(ShardRouter shards, ShardRouter.Ring ring, boolean dryRun) throws SQLException {
+        if (!dryRun) {
+            deleteStrayCopies(shards);
+        }
+        return rebalance(shards, ring, dryRun, null);
+    }
+
+    // Moves the showtimes not where {@code ring} puts them (only those on {@code from}, if not null)
+    private static Outcome rebalance(ShardRouter shards, ShardRouter.Ring ring, boolean dryRun, ShardRouter.Shard from)
+            throws SQLException {
+        int moved = 0;
+        int failed = 0;
+        long t0 = System.nanoTime();
+        for (int[] row : placements(shards)) {
+            ShardRouter.Shard current = shards.shards().get(row[1]);
+            ShardRouter.Shard target = shards.shard(ownerName(ring, row[0]));
+            if (current == target || (from != null && current != from)) {
+                continue;
+            }
+            if (dryRun) {
+                moved++;
+                continue;
+            }
+            try {
+                if (move(shards, row[0], current, target)) {
+                    moved++;
+                }
+            } catch (SQLException e) {
+                failed++;
+                System.out.println("Error moving showtime " + row[0] + " from " + current + " to " + target + ": "
+                        + e.getMessage());
+            }
+            if (moved > 0 && moved % PROGRESS_EVERY == 0) {
+                System.out.println(moved + " showtimes moved...");
+            }
+        }
+        long elapsedMillis = (System.nanoTime() - t0) / 1_000_000;
+        System.out.println((dryRun ? "Would move " : "Moved ") + moved + " showtimes"
+                + (failed > 0 ? ", " + failed + " failed" : "") + (dryRun ? "." : " in " + elapsedMillis + " ms."));
+        return new Outcome(moved, failed);
+    }
+
+    /**
+     * Moves new showtimes, which have no bookings yet, from the primary to the shards the ring
+     * picks for them. Does nothing without shards. A showtime that cannot be moved stays on the
+     * primary, which is logged; a later rebalance moves it.
+     */
+    static void place(int[] showtimeIds) {
+        try {
+            ShardRouter shards = DatabaseConnection.getShards();
+            if (!shards.isSharded()) {
+                return;
+            }
+            for (int showtimeId : showtimeIds) {
+                ShardRouter.Shard target = shards.shard(ownerName(shards.ring(), showtimeId));
+                try {
+                    move(shards, showtimeId, shards.primary(), target);
+                } catch (SQLException e) {
+                    System.out.println("Showtime " + showtimeId + " stays on the primary for now: " + e.getMessage());
+                }
+            }
+        } catch (SQLException e) {
+            System.out.println("Error placing new showtimes on shards: " + e.getMessage());
+        }
+    }
+
+    /** Moves one showtime with its seats and bookings; false if {@code from} does not hold it. */
+    static boolean move(ShardRouter shards, int showtimeId, ShardRouter.Shard from, ShardRouter.Shard to)
+            throws SQLException {
+        if (from == to) {
+            return false;
+        }
+        try (Connection source = from.borrow()) {
+            source.setAutoCommit(false);
+            try {
+                Object[] showtime = lockShowtime(source, showtimeId);
+                if (showtime == null) {
+                    source.rollback();
+                    return false;
+                }
+                List<Object[]> bookings = findBookings(source, showtimeId);
+                copy(to, showtimeId, showtime, bookings);
+                if (!from.isPrimary() && !to.isPrimary()) {
+                    try (Connection primary = DatabaseConnection.borrowConnection()) {
+                        update(primary, SET_SHARD_SQL, to.name, showtimeId);
+                    }
+                }
+                update(source, DELETE_BOOKINGS_SQL, null, showtimeId);
+                if (from.isPrimary()) {
+                    // The place is recorded together with handing off the seats
+                    update(source, HAND_OFF_SQL, to.name, showtimeId);
+                } else {
+                    update(source, DELETE_SHOWTIME_SQL, null, showtimeId);
+                }
+                source.commit();
+            } catch (SQLException e) {
+                source.rollback();
+                throw e;
+            }
+        }
+        shards.forget(showtimeId);
+        return true;
+    }
+
+    // The source's seat row, locked; null if it has no such showtime or no seat count (moved away)
+    private static Object[] lockShowtime(Connection source, int showtimeId) throws SQLException {
+        try (PreparedStatement stmt = source.prepareStatement(LOCK_SHOWTIME_SQL)) {
+            stmt.setInt(1, showtimeId);
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (!rs.next()) {
+                    return null;
+                }
+                Object[] row = new Object[7];
+                for (int i = 0; i < row.length; i++) {
+                    row[i] = rs.getObject(i + 1);
+                }
+                return row[2] == null ? null : row;
+            }
+        }
+    }
+
+    private static List<Object[]> findBookings(Connection source, int showtimeId) throws SQLException {
+        List<Object[]> rows = new ArrayList<>();
+        try (PreparedStatement stmt = source.prepareStatement(FIND_BOOKINGS_SQL)) {
+            stmt.setInt(1, showtimeId);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    Object[] row = new Object[7];
+                    for (int i = 0; i < row.length; i++) {
+                        row[i] = rs.getObject(i + 1);
+                    }
+                    rows.add(row);
+                }
+            }
+        }
+        return rows;
+    }
+
+    // Writes the showtime's seat row and bookings on the target in one transaction
+    private static void copy(ShardRouter.Shard to, int showtimeId, Object[] showtime, List<Object[]> bookings)
+            throws SQLException {
+        try (Connection target = to.borrow()) {
+            target.setAutoCommit(false);
+            try {
+                if (to.isPrimary()) {
+                    try (PreparedStatement stmt = target.prepareStatement(RESTORE_SEATS_SQL)) {
+                        stmt.setObject(1, showtime[2]);
+                        stmt.setObject(2, showtime[3]);
+                        stmt.setObject(3, showtime[4]);
+                        stmt.setObject(4, showtime[5]);
+                        stmt.setInt(5, showtimeId);
+                        stmt.executeUpdate();
+                    }
+                } else {
+                    copyMovie(target, ((Number) showtime[0]).intValue());
+                    // Left behind by a move that was cut short; only dropped if it holds nothing the source lacks
+                    List<Object[]> extra = missingFrom(bookings, findBookings(target, showtimeId));
+                    if (!extra.isEmpty()) {
+                        throw new SQLException(to.name + " has an old copy of showtime " + showtimeId + " with bookings "
+                                + bookingIds(extra) + " that the source lacks; run rebalance, which moves them first.");
+                    }
+                    update(target, DELETE_BOOKINGS_SQL, null, showtimeId);
+                    update(target, DELETE_SHOWTIME_SQL, null, showtimeId);
+                    try (PreparedStatement stmt = target.prepareStatement(INSERT_SHOWTIME_SQL)) {
+                        stmt.setInt(1, showtimeId);
+                        for (int i = 0; i < showtime.length; i++) {
+                            stmt.setObject(i + 2, showtime[i]);
+                        }
+                        stmt.executeUpdate();
+                    }
+                }
+                insertBookings(target, showtimeId, bookings);
+                target.commit();
+            } catch (SQLException e) {
+                target.rollback();
+                throw e;
+            }
+        }
+    }
+
+    // Rows as read by findBookings
+    private static void insertBookings(Connection target, int showtimeId, List<Object[]> bookings) throws SQLException {
+        if (bookings.isEmpty()) {
+            return;
+        }
+        try (PreparedStatement stmt = target.prepareStatement(INSERT_BOOKING_SQL)) {
+            for (Object[] b : bookings) {
+                stmt.setObject(1, b[0]);
+                stmt.setObject(2, b[1]);
+                stmt.setInt(3, showtimeId);
+                for (int i = 2; i < b.length; i++) {
+                    stmt.setObject(i + 2, b[i]);
+                }
+                stmt.addBatch();
+            }
+            stmt.executeBatch();
+        }
+    }
+
+    // The bookings in {@code rows} whose booking_id is not in {@code have}
+    private static List<Object[]> missingFrom(List<Object[]> have, List<Object[]> rows) {
+        Set<Integer> ids = new HashSet<>();
+        for (Object[] b : have) {
+            ids.add(((Number) b[0]).intValue());
+        }
+        List<Object[]> missing = new ArrayList<>();
+        for (Object[] b : rows) {
+            if (!ids.contains(((Number) b[0]).intValue())) {
+                missing.add(b);
+            }
+        }
+        return missing;
+    }
+
+    private static List<Integer> bookingIds(List<Object[]> bookings) {
+        List<Integer> ids = new ArrayList<>(bookings.size());
+        for (Object[] b : bookings) {
+            ids.add(((Number) b[0]).intValue());
+        }
+        return ids;
+    }
+
+    // Shards keep a copy of the Movies rows their showtimes and bookings refer to
+    private static void copyMovie(Connection target, int movieId) throws SQLException {
+        try (PreparedStatement stmt = target.prepareStatement(FIND_MOVIE_SQL)) {
+            stmt.setInt(1, movieId);
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (rs.next()) {
+                    return;
+                }
+            }
+        }
+        Object[] movie = new Object[5];
+        try (Connection primary = DatabaseConnection.borrowConnection();
+             PreparedStatement stmt = primary.prepareStatement(FIND_MOVIE_SQL)) {
+            stmt.setInt(1, movieId);
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (!rs.next()) {
+                    throw new SQLException("Movie " + movieId + " does not exist on the primary.");
+                }
+                for (int i = 0; i < movie.length; i++) {
+                    movie[i] = rs.getObject(i + 1);
+                }
+            }
+        }
+        try (PreparedStatement stmt = target.prepareStatement(INSERT_MOVIE_SQL)) {
+            for (int i = 0; i < movie.length; i++) {
+                stmt.setObject(i + 1, movie[i]);
+            }
+            stmt.executeUpdate();
+        }
+    }
+
+    // Deletes showtimes, with their bookings, from shards that do not own them
+    private static void deleteStrayCopies(ShardRouter shards) throws SQLException {
+        Map<Integer, Integer> placedOn = new HashMap<>();
+        for (int[] row : placements(shards)) {
+            placedOn.put(row[0], row[1]);
+        }
+        List<ShardRouter.Shard> all = shards.shards();
+        for (int i = 1; i < all.size(); i++) {
+            ShardRouter.Shard shard = all.get(i);
+            List<Integer> stray = new ArrayList<>();
+            try (Connection connection = shard.borrow();
+                 Statement stmt = connection.createStatement();
+                 ResultSet rs = stmt.executeQuery(FIND_SHOWTIME_IDS_SQL)) {
+                while (rs.next()) {
+                    Integer owner = placedOn.get(rs.getInt(1));
+                    if (owner == null || owner != i) {
+                        stray.add(rs.getInt(1));
+                    }
+                }
+            }
+            if (stray.isEmpty()) {
+                continue;
+            }
+            int deleted = 0;
+            for (int showtimeId : stray) {
+                Integer owner = placedOn.get(showtimeId);
+                try {
+                    if (deleteStrayCopy(shard, showtimeId, owner == null ? null : all.get(owner))) {
+                        deleted++;
+                    }
+                } catch (SQLException e) {
+                    System.out.println("Error cleaning up the copy of showtime " + showtimeId + " on " + shard.name + ": "
+                            + e.getMessage());
+                }
+            }
+            System.out.println("Deleted " + deleted + " of " + stray.size() + " stray showtime copies from " + shard.name + ".");
+        }
+    }
+
+    // Moves the bookings the owner lacks there, then deletes the copy; false if it had to be kept
+    private static boolean deleteStrayCopy(ShardRouter.Shard shard, int showtimeId, ShardRouter.Shard owner)
+            throws SQLException {
+        try (Connection connection = shard.borrow()) {
+            connection.setAutoCommit(false);
+            try {
+                // Holds off bookings on the copy until it is gone
+                lockShowtime(connection, showtimeId);
+                List<Object[]> bookings = findBookings(connection, showtimeId);
+                String problem = null;
+                if (owner == null && !bookings.isEmpty()) {
+                    problem = "the showtime is no longer in the catalog";
+                } else if (owner != null) {
+                    problem = moveMissingBookings(owner, showtimeId, bookings);
+                }
+                if (problem != null) {
+                    connection.rollback();
+                    System.out.println("Kept the copy of showtime " + showtimeId + " on " + shard.name + ": " + problem
+                            + ". Its bookings: " + bookingIds(bookings) + ".");
+                    return false;
+                }
+                update(connection, DELETE_BOOKINGS_SQL, null, showtimeId);
+                update(connection, DELETE_SHOWTIME_SQL, null, showtimeId);
+                connection.commit();
+                return true;
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Copies the bookings of a stray copy that the owner does not have, and takes their seats
+     * there, in one transaction on the owner. Returns why they could not be moved, or null.
+     */
+    private static String moveMissingBookings(ShardRouter.Shard owner, int showtimeId, List<Object[]> bookings)
+            throws SQLException {
+        if (bookings.isEmpty()) {
+            return null;
+        }
+        try (Connection target = owner.borrow()) {
+            target.setAutoCommit(false);
+            try {
+                if (lockShowtime(target, showtimeId) == null) {
+                    target.rollback();
+                    return owner.name + ", which owns it, has no seat count for it";
+                }
+                List<Object[]> missing = missingFrom(findBookings(target, showtimeId), bookings);
+                if (missing.isEmpty()) {
+                    target.rollback();
+                    return null;
+                }
+                int seats = 0;
+                for (Object[] b : missing) {
+                    if (b[5] != null) {
+                        target.rollback();
+                        return "bookings " + bookingIds(missing) + " are not on " + owner.name
+                                + " and have seat positions its seat map does not show";
+                    }
+                    seats += ((Number) b[4]).intValue();
+                }
+                if (!ShowtimeRepository.reserveSeats(target, showtimeId, seats)) {
+                    target.rollback();
+                    return "bookings " + bookingIds(missing) + " are not on " + owner.name + ", which has fewer than "
+                            + seats + " seats left for them";
+                }
+                insertBookings(target, showtimeId, missing);
+                target.commit();
+                System.out.println("Moved bookings " + bookingIds(missing) + " of showtime " + showtimeId + " to "
+                        + owner.name + ".");
+                return null;
+            } catch (SQLException e) {
+                target.rollback();
+                throw e;
+            }
+        }
+    }
+
+    // Every showtime in the catalog as {showtime_id, index of its shard in shards()}
+    private static List<int[]> placements(ShardRouter shards) throws SQLException {
+        List<ShardRouter.Shard> all = shards.shards();
+        Map<String, Integer> index = new HashMap<>();
+        for (int i = 0; i < all.size(); i++) {
+            index.put(all.get(i).name, i);
+        }
+        List<int[]> rows = new ArrayList<>();
+        try (Connection connection = DatabaseConnection.borrowConnection();
+             Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery(FIND_PLACEMENTS_SQL)) {
+            while (rs.next()) {
+                String name = rs.getString(2);
+                Integer i = name == null ? Integer.valueOf(0) : index.get(name);
+                if (i == null) {
+                    throw new SQLException("Showtime " + rs.getInt(1) + " is placed on unknown shard " + name + ".");
+                }
+                rows.add(new int[] { rs.getInt(1), i });
+            }
+        }
+        return rows;
+    }
+
+    // The ring's pick, or the primary when the ring is empty
+    private static String ownerName(ShardRouter.Ring ring, int showtimeId) {
+        return ring.isEmpty() ? ShardRouter.PRIMARY : ring.owner(showtimeId);
+    }
+
+    // Runs an UPDATE or DELETE whose parameters are an optional shard name and the showtime_id
+    private static void update(Connection connection, String sql, String shard, int showtimeId) throws SQLException {
+        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+            int i = 1;
+            if (shard != null) {
+                stmt.setString(i++, shard);
+            }
+            stmt.setInt(i, showtimeId);
+            stmt.executeUpdate();
+        }
+    }
+}
@@ -0,0 +1,481 @@
+package CinemaDB;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToIntFunction;
+
+/**
+ * Spreads showtimes, with their seat counts and bookings, over several databases ("shards"), and
+ * runs listings on all of them at once.
+ *
+ * The shards are the rows of the Shards table on the primary database, added and removed with
+ * {@link ShardRebalancer}. With none, everything stays on the primary and nothing is routed.
+ * The primary keeps the catalog: Movies, Screens and every Showtimes row. The shard column of a
+ * Showtimes row names the shard its seats and bookings live on. NULL means the primary itself,
+ * which is where everything booked before the first shard was added stays until it is moved.
+ * New showtimes go to the shard a consistent-hash ring picks for their showtime_id, with
+ * {@value #VIRTUAL_NODES} points per shard, so adding a shard moves about 1/n of them.
+ *
+ * On its shard a showtime has a copy of its Showtimes row, which carries the live seat count and
+ * seat map, and its bookings sit next to it. Booking one showtime is therefore a transaction on
+ * one database, as before. Finding a booking by id asks every shard. Listings run on every shard
+ * in parallel ({@link #gather}) and are merged by booking_id ({@link #mergeById}).
+ *
+ * With shards, booking ids come from a counter on the primary, in blocks of
+ * {@code -Dcinemadb.shard.idBlock} (default 100) per process, rather than from each table's
+ * AUTO_INCREMENT. That keeps them unique however bookings are moved between shards.
+ *
+ * The shard list is reloaded every {@code -Dcinemadb.shard.refreshMillis} (default 10000), so a
+ * shard added while the application runs is picked up. Where each showtime lives is cached. A
+ * showtime moved in the meantime shows up as a missing seat row on its old shard; callers check
+ * with {@link #movedAway} and retry on the new one.
+ */
+final class ShardRouter {
+    /** Name of the primary database when it is listed with the shards. */
+    static final String PRIMARY = "primary";
+    static final int VIRTUAL_NODES = 128;
+
+    private static final String FIND_SHARDS_SQL = "SELECT name, url FROM Shards ORDER BY name";
+    private static final String FIND_PLACEMENT_SQL = "SELECT shard FROM Showtimes WHERE showtime_id = ?";
+    private static final ExecutorService GATHER = Executors.newVirtualThreadPerTaskExecutor();
+
+    /** Work run on one shard. */
+    @FunctionalInterface
+    interface ShardCall<T> {
+        T call(Connection connection) throws SQLException;
+    }
+
+    /** One database holding showtimes and their bookings. */
+    static final class Shard {
+        final String name;
+        final String url;
+        private final ShardRouter router;
+        private volatile ConnectionPool pool;
+
+        private Shard(ShardRouter router, String name, String url) {
+            this.router = router;
+            this.name = name;
+            this.url = url;
+        }
+
+        boolean isPrimary() {
+            return url == null;
+        }
+
+        /** A connection for reading and writing this shard's showtimes and bookings. */
+        Connection borrow() throws SQLException {
+            return isPrimary() ? DatabaseConnection.borrowConnection() : pool().borrow();
+        }
+
+        /** As {@link #borrow}, for reads that may go to a replica of the primary. */
+        Connection borrowRead() throws SQLException {
+            return isPrimary() ? DatabaseConnection.borrowReadConnection() : pool().borrow();
+        }
+
+        private ConnectionPool pool() throws SQLException {
+            ConnectionPool p = pool;
+            if (p == null) {
+                synchronized (this) {
+                    p = pool;
+                    if (p == null) {
+                        p = new ConnectionPool(url, router.user, router.password, 1, router.maxPoolSize,
+                                router.borrowTimeoutMillis, router.idleTimeoutMillis, router.leakThresholdMillis);
+                        try {
+                            p.warmUp();
+                        } catch (SQLException e) {
+                            p.close();
+                            throw e;
+                        }
+                        pool = p;
+                    }
+                }
+            }
+            return p;
+        }
+
+        private void close() {
+            ConnectionPool p = pool;
+            if (p != null) {
+                p.close();
+            }
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    /**
+     * Consistent-hash ring over shard names. Each name gets {@link #VIRTUAL_NODES} points; a
+     * showtime belongs to the first point at or after its hash, wrapping around.
+     */
+    static final class Ring {
+        private final long[] points;
+        private final String[] owners;
+
+        Ring(Collection<String> names, int virtualNodes) {
+            long[][] entries = new long[names.size() * virtualNodes][];
+            List<String> ordered = new ArrayList<>(names);
+            int n = 0;
+            for (int s = 0; s < ordered.size(); s++) {
+                int nameHash = ordered.get(s).hashCode();
+                for (int v = 0; v < virtualNodes; v++) {
+                    entries[n++] = new long[] { mix(((long) nameHash << 32) | v), s };
+                }
+            }
+            Arrays.sort(entries, (a, b) -> Long.compare(a[0], b[0]));
+            points = new long[n];
+            owners = new String[n];
+            for (int i = 0; i < n; i++) {
+                points[i] = entries[i][0];
+                owners[i] = ordered.get((int) entries[i][1]);
+            }
+        }
+
+        boolean isEmpty() {
+            return points.length == 0;
+        }
+
+        /** The shard name that owns {@code showtimeId}, or null on an empty ring. */
+        String owner(int showtimeId) {
+            if (points.length == 0) {
+                return null;
+            }
+            int i = Arrays.binarySearch(points, mix(showtimeId));
+            if (i < 0) {
+                i = -i - 1;
+            }
+            return owners[i == points.length ? 0 : i];
+        }
+
+        // SplitMix64 finalizer: spreads consecutive ids and names evenly over the ring
+        private static long mix(long x) {
+            x = (x ^ (x >>> 30)) * 0xBF58476D1CE4E5B9L;
+            x = (x ^ (x >>> 27)) * 0x94D049BB133111EBL;
+            return x ^ (x >>> 31);
+        }
+    }
+
+    private final String user;
+    private final String password;
+    private final int maxPoolSize;
+    private final long borrowTimeoutMillis;
+    private final long idleTimeoutMillis;
+    private final long leakThresholdMillis;
+    private final int idBlock = Integer.getInteger("cinemadb.shard.idBlock", 100);
+    private final Shard primary = new Shard(this, PRIMARY, null);
+    private final ScheduledExecutorService refresher;
+
+    // The primary first, then the shards by name; just the primary when there are none
+    private volatile List<Shard> shards = List.of(primary);
+    private volatile Map<String, Shard> byName = Map.of(PRIMARY, primary);
+    private volatile Ring ring = new Ring(List.of(), VIRTUAL_NODES);
+    // Guarded by itself; showtime_id -> shard, filled in as showtimes are routed
+    private final IntObjectMap<Shard> placements = new IntObjectMap<>();
+    // Guarded by this; the unused part of this process's block of booking ids
+    private int nextId;
+    private int idsLeft;
+
+    ShardRouter(String user, String password, int maxPoolSize, long borrowTimeoutMillis, long idleTimeoutMillis,
+                long leakThresholdMillis) {
+        this.user = user;
+        this.password = password;
+        this.maxPoolSize = maxPoolSize;
+        this.borrowTimeoutMillis = borrowTimeoutMillis;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.leakThresholdMillis = leakThresholdMillis;
+        reload();
+        long refreshMillis = Long.getLong("cinemadb.shard.refreshMillis", 10_000);
+        refresher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "cinemadb-shard-refresh");
+            t.setDaemon(true);
+            return t;
+        });
+        refresher.scheduleWithFixedDelay(this::reload, refreshMillis, refreshMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /** True once the Shards table lists at least one shard. */
+    boolean isSharded() {
+        return shards.size() > 1;
+    }
+
+    /** The primary and every shard, primary first. */
+    List<Shard> shards() {
+        return shards;
+    }
+
+    Shard primary() {
+        return primary;
+    }
+
+    /** The shard with this name, or null. */
+    Shard shard(String name) {
+        return byName.get(name);
+    }
+
+    /** The ring over the current shards, which places new showtimes. */
+    Ring ring() {
+        return ring;
+    }
+
+    /** Where a showtime's seats and bookings live: its shard, or the primary. */
+    Shard shardFor(int showtimeId) throws SQLException {
+        if (!isSharded()) {
+            return primary;
+        }
+        synchronized (placements) {
+            Shard cached = placements.get(showtimeId);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        String name;
+        try (Connection connection = DatabaseConnection.borrowConnection();
+             PreparedStatement stmt = connection.prepareStatement(FIND_PLACEMENT_SQL)) {
+            stmt.setInt(1, showtimeId);
+            try (ResultSet rs = stmt.executeQuery()) {
+                name = rs.next() ? rs.getString(1) : null;
+            }
+        }
+        Shard shard = name == null ? primary : byName.get(name);
+        if (shard == null) {
+            // Added since the last reload
+            reload();
+            shard = byName.get(name);
+            if (shard == null) {
+                throw new SQLException("Showtime " + showtimeId + " is placed on unknown shard " + name + ".");
+            }
+        }
+        synchronized (placements) {
+            placements.put(showtimeId, shard);
+        }
+        return shard;
+    }
+
+    /** Borrows a connection to the database that holds a showtime's seats and bookings. */
+    Connection borrowFor(int showtimeId) throws SQLException {
+        return shardFor(showtimeId).borrow();
+    }
+
+    /**
+     * Called when a seat update for {@code showtimeId} on {@code connection} matched no row. True
+     * if the showtime has been moved to another shard since it was routed, so the caller should
+     * retry there; false if it is simply short of seats.
+     */
+    boolean movedAway(Connection connection, int showtimeId) throws SQLException {
+        if (!isSharded() || ShowtimeRepository.findAvailableSeats(connection, showtimeId) != ShowtimeRepository.NO_SEAT_COUNT) {
+            return false;
+        }
+        Shard before;
+        synchronized (placements) {
+            before = placements.get(showtimeId);
+            placements.remove(showtimeId);
+        }
+        return shardFor(showtimeId) != before;
+    }
+
+    /** Forgets where a showtime lives, after {@link ShardRebalancer} moved it. */
+    void forget(int showtimeId) {
+        synchronized (placements) {
+            placements.remove(showtimeId);
+        }
+    }
+
+    /**
+     * The shard holding a booking, or null if none has it. Asks every shard; without shards this
+     * is the primary, unchecked.
+     */
+    Shard shardOfBooking(int bookingId) throws SQLException {
+        if (!isSharded()) {
+            return primary;
+        }
+        List<Boolean> found = gather(false, c -> BookingRepository.findSeats(c, bookingId) != null);
+        for (int i = 0; i < found.size(); i++) {
+            if (found.get(i)) {
+                return shards.get(i);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Runs {@code call} on every shard, in parallel when there is more than one, and returns the
+     * results in {@link #shards()} order. With {@code read}, the primary's part may run on a
+     * replica.
+     */
+    <T> List<T> gather(boolean read, ShardCall<T> call) throws SQLException {
+        List<Shard> all = shards;
+        List<T> results = new ArrayList<>(all.size());
+        if (all.size() == 1) {
+            try (Connection connection = read ? primary.borrowRead() : primary.borrow()) {
+                results.add(call.call(connection));
+            }
+            return results;
+        }
+        List<Future<T>> futures = new ArrayList<>(all.size());
+        for (Shard shard : all) {
+            futures.add(GATHER.submit(() -> {
+                try (Connection connection = read ? shard.borrowRead() : shard.borrow()) {
+                    return call.call(connection);
+                }
+            }));
+        }
+        try {
+            for (Future<T> f : futures) {
+                results.add(f.get());
+            }
+            return results;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while querying the shards", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof SQLException sql) {
+                throw sql;
+            }
+            if (cause instanceof RuntimeException re) {
+                throw re;
+            }
+            throw new SQLException(cause);
+        } finally {
+            for (Future<T> f : futures) {
+                f.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * Merges lists that are each in ascending id order into one, up to {@code limit} items. An id
+     * found on two shards, which happens while a showtime is being moved, is kept once.
+     */
+    static <T> List<T> mergeById(List<List<T>> lists, ToIntFunction<T> id, int limit) {
+        int[] next = new int[lists.size()];
+        List<T> merged = new ArrayList<>(Math.min(limit, 1024));
+        long lastId = Long.MIN_VALUE;
+        while (merged.size() < limit) {
+            int best = -1;
+            int bestId = 0;
+            for (int i = 0; i < next.length; i++) {
+                if (next[i] < lists.get(i).size()) {
+                    int candidate = id.applyAsInt(lists.get(i).get(next[i]));
+                    if (best < 0 || candidate < bestId) {
+                        best = i;
+                        bestId = candidate;
+                    }
+                }
+            }
+            if (best < 0) {
+                break;
+            }
+            T item = lists.get(best).get(next[best]++);
+            if (bestId != lastId) {
+                merged.add(item);
+                lastId = bestId;
+            }
+        }
+        return merged;
+    }
+
+    /** A booking id no other booking on any shard has or will get. Only used with shards. */
+    synchronized int nextBookingId() throws SQLException {
+        if (idsLeft == 0) {
+            try (Connection connection = DatabaseConnection.borrowConnection()) {
+                boolean autoCommit = connection.getAutoCommit();
+                connection.setAutoCommit(false);
+                try {
+                    nextId = BookingRepository.reserveIdBlock(connection, idBlock);
+                    connection.commit();
+                } catch (SQLException e) {
+                    connection.rollback();
+                    throw e;
+                } finally {
+                    connection.setAutoCommit(autoCommit);
+                }
+            }
+            idsLeft = idBlock;
+        }
+        idsLeft--;
+        return nextId++;
+    }
+
+    /** Opens an unpooled connection to a database that is not listed yet, with the shard credentials. */
+    Connection connect(String url) throws SQLException {
+        return DriverManager.getConnection(url, user, password);
+    }
+
+    /** Reloads the shard list; keeps the old one if the primary cannot be read. */
+    void reload() {
+        Map<String, String> urls = new LinkedHashMap<>();
+        try (Connection connection = DatabaseConnection.borrowConnection();
+             Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery(FIND_SHARDS_SQL)) {
+            while (rs.next()) {
+                urls.put(rs.getString(1), rs.getString(2));
+            }
+        } catch (SQLException e) {
+            // No Shards table yet (schema not migrated) counts as no shards
+            if (isSharded()) {
+                System.out.println("Error reloading the shard list: " + e.getMessage());
+                return;
+            }
+        }
+        synchronized (this) {
+            Map<String, Shard> old = byName;
+            Map<String, Shard> current = new HashMap<>();
+            List<Shard> list = new ArrayList<>();
+            current.put(PRIMARY, primary);
+            list.add(primary);
+            boolean changed = old.size() != urls.size() + 1;
+            for (Map.Entry<String, String> e : urls.entrySet()) {
+                Shard shard = old.get(e.getKey());
+                if (shard == null || !e.getValue().equals(shard.url)) {
+                    shard = new Shard(this, e.getKey(), e.getValue());
+                    changed = true;
+                }
+                current.put(shard.name, shard);
+                list.add(shard);
+            }
+            if (!changed) {
+                return;
+            }
+            shards = List.copyOf(list);
+            byName = Map.copyOf(current);
+            ring = new Ring(urls.keySet(), VIRTUAL_NODES);
+            synchronized (placements) {
+                placements.clear();
+            }
+            for (Shard shard : old.values()) {
+                if (current.get(shard.name) != shard) {
+                    shard.close();
+                }
+            }
+            System.out.println(urls.isEmpty() ? "Bookings are not sharded." : "Bookings are sharded over " + urls.keySet()
+                    + " and the primary.");
+        }
+    }
+
+    void close() {
+        refresher.shutdownNow();
+        for (Shard shard : shards) {
+            shard.close();
+        }
+    }
+}
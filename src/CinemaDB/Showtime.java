@@ -0,0 +1,14 @@
+package CinemaDB;
+
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+
+/** One row of the Showtimes table, without the seat count (that lives in {@link SeatInventory}). */
+public record Showtime(int showtimeId, int movieId, LocalDateTime showTime) {
+    static final DateTimeFormatter DISPLAY_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
+
+    /** The show time as shown in the booking dialogs, or "null" if it is not set. */
+    public String formattedShowTime() {
+        return showTime == null ? "null" : DISPLAY_FORMAT.format(showTime);
+    }
+}
@@ -0,0 +1,261 @@
+package CinemaDB;
+
+import java.sql.*;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+/** Queries and seat-count updates on the Showtimes table. */
+public class ShowtimeRepository {
+    private static final String COLUMNS = "showtime_id, movie_id, show_time";
+
+    private static final String FIND_ALL_SQL = "SELECT " + COLUMNS + " FROM Showtimes ORDER BY movie_id, show_time";
+    static final String FIND_BY_MOVIE_SQL = "SELECT " + COLUMNS + " FROM Showtimes WHERE movie_id = ? ORDER BY show_time";
+    // One screen's showtimes from a given time on, with the running time of each movie
+    static final String FIND_BY_SCREEN_SQL =
+            "SELECT s.showtime_id, s.movie_id, s.show_time, m.duration_minutes FROM Showtimes s "
+                    + "JOIN Movies m ON s.movie_id = m.movie_id "
+                    + "WHERE s.screen_id = ? AND s.show_time >= ? ORDER BY s.show_time";
+    private static final String FIND_SCREENS_SQL =
+            "SELECT screen_id, name, seat_rows, seats_per_row FROM Screens ORDER BY screen_id";
+    private static final String INSERT_SCHEDULED_SQL =
+            "INSERT INTO Showtimes (movie_id, show_time, available_seats, seat_rows, seats_per_row, screen_id) "
+                    + "VALUES (?, ?, ?, ?, ?, ?)";
+    private static final int INSERT_BATCH_SIZE = 1_000;
+    private static final String FIND_SEATS_SQL = "SELECT available_seats FROM Showtimes WHERE showtime_id = ?";
+    private static final String FIND_ALL_SEATS_SQL =
+            "SELECT showtime_id, available_seats FROM Showtimes WHERE available_seats IS NOT NULL";
+    private static final String RESERVE_SEATS_SQL =
+            "UPDATE Showtimes SET available_seats = available_seats - ? WHERE showtime_id = ? AND available_seats >= ?";
+    private static final String RELEASE_SEATS_SQL =
+            "UPDATE Showtimes SET available_seats = available_seats + ? WHERE showtime_id = ?";
+    private static final String FIND_SEAT_MAP_SQL =
+            "SELECT seat_rows, seats_per_row, seat_map, available_seats FROM Showtimes WHERE showtime_id = ?";
+    private static final String UPDATE_SEAT_MAP_SQL =
+            "UPDATE Showtimes SET seat_rows = ?, seats_per_row = ?, seat_map = ? WHERE showtime_id = ?";
+
+    /** The stored seat map of a showtime; {@code rows} is 0 and {@code seatMap} null if it has none yet. */
+    static final class StoredSeatMap {
+        final int rows;
+        final int seatsPerRow;
+        final byte[] seatMap;
+        final int availableSeats;
+
+        StoredSeatMap(int rows, int seatsPerRow, byte[] seatMap, int availableSeats) {
+            this.rows = rows;
+            this.seatsPerRow = seatsPerRow;
+            this.seatMap = seatMap;
+            this.availableSeats = availableSeats;
+        }
+    }
+
+    /** Receives the rows of {@link #scanSchedule}. */
+    interface ScheduleVisitor {
+        void visit(int showtimeId, int movieId, LocalDateTime showTime, int durationMinutes);
+    }
+
+    /** Returned by {@link #findAvailableSeats} for a missing showtime or a NULL seat count. */
+    public static final int NO_SEAT_COUNT = -1;
+
+    /** Maps the {@link #COLUMNS} select list. */
+    public static final RowMapper<Showtime> MAPPER = rs -> {
+        Timestamp time = rs.getTimestamp(3);
+        LocalDateTime showTime = time == null ? null : time.toLocalDateTime();
+        return new Showtime(rs.getInt(1), rs.getInt(2), showTime);
+    };
+
+    public static List<Showtime> findAll(Connection connection) throws SQLException {
+        try (PreparedStatement stmt = connection.prepareStatement(FIND_ALL_SQL);
+             ResultSet rs = stmt.executeQuery()) {
+            List<Showtime> showtimes = new ArrayList<>();
+            while (rs.next()) {
+                showtimes.add(MAPPER.map(rs));
+            }
+            Metrics.rowsRead(FIND_ALL_SQL, showtimes.size());
+            return showtimes;
+        }
+    }
+
+    public static List<Showtime> findByMovie(Connection connection, int movieId) throws SQLException {
+        try (PreparedStatement stmt = connection.prepareStatement(FIND_BY_MOVIE_SQL)) {
+            stmt.setInt(1, movieId);
+            try (ResultSet rs = stmt.executeQuery()) {
+                List<Showtime> showtimes = new ArrayList<>();
+                while (rs.next()) {
+                    showtimes.add(MAPPER.map(rs));
+                }
+                Metrics.rowsRead(FIND_BY_MOVIE_SQL, showtimes.size());
+                return showtimes;
+            }
+        }
+    }
+
+    /** Seats left for a showtime, or {@link #NO_SEAT_COUNT}. */
+    public static int findAvailableSeats(Connection connection, int showtimeId) throws SQLException {
+        try (PreparedStatement stmt = connection.prepareStatement(FIND_SEATS_SQL)) {
+            stmt.setInt(1, showtimeId);
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (!rs.next()) {
+                    return NO_SEAT_COUNT;
+                }
+                Metrics.rowsRead(FIND_SEATS_SQL, 1);
+                int seats = rs.getInt(1);
+                return rs.wasNull() ? NO_SEAT_COUNT : seats;
+            }
+        }
+    }
+
+    /** Seat counts of every showtime that has one, as (showtime_id, available_seats) pairs. */
+    public static List<int[]> findAllAvailableSeats(Connection connection) throws SQLException {
+        try (PreparedStatement stmt = connection.prepareStatement(FIND_ALL_SEATS_SQL);
+             ResultSet rs = stmt.executeQuery()) {
+            List<int[]> rows = new ArrayList<>();
+            while (rs.next()) {
+                rows.add(new int[] { rs.getInt(1), rs.getInt(2) });
+            }
+            Metrics.rowsRead(FIND_ALL_SEATS_SQL, rows.size());
+            return rows;
+        }
+    }
+
+    /**
+     * Takes seats if that many are left; the conditional update also takes the row lock.
+     *
+     * @return false if the showtime does not have enough seats
+     */
+    public static boolean reserveSeats(Connection connection, int showtimeId, int seats) throws SQLException {
+        try (PreparedStatement stmt = connection.prepareStatement(RESERVE_SEATS_SQL)) {
+            stmt.setInt(1, seats);
+            stmt.setInt(2, showtimeId);
+            stmt.setInt(3, seats);
+            return stmt.executeUpdate() > 0;
+        }
+    }
+
+    /**
+     * Batched {@link #reserveSeats} for several showtimes, given as (showtime_id, seats) pairs.
+     * Pass them in ascending showtime_id order so concurrent callers lock rows in the same order.
+     *
+     * @return one flag per pair, false where the showtime did not have enough seats
+     */
+    public static boolean[] reserveSeatsBatch(Connection connection, List<int[]> seatsByShowtime) throws SQLException {
+        try (PreparedStatement stmt = connection.prepareStatement(RESERVE_SEATS_SQL)) {
+            for (int[] pair : seatsByShowtime) {
+                stmt.setInt(1, pair[1]);
+                stmt.setInt(2, pair[0]);
+                stmt.setInt(3, pair[1]);
+                stmt.addBatch();
+            }
+            int[] counts = stmt.executeBatch();
+            boolean[] reserved = new boolean[counts.length];
+            for (int i = 0; i < counts.length; i++) {
+                // Connector/J reports a real count per UPDATE, also when it sends the batch as one multi-statement
+                reserved[i] = counts[i] > 0;
+            }
+            return reserved;
+        }
+    }
+
+    /** The seat map columns of a showtime, or null if there is no such showtime. */
+    static StoredSeatMap findSeatMap(Connection connection, int showtimeId) throws SQLException {
+        try (PreparedStatement stmt = connection.prepareStatement(FIND_SEAT_MAP_SQL)) {
+            stmt.setInt(1, showtimeId);
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (!rs.next()) {
+                    return null;
+                }
+                Metrics.rowsRead(FIND_SEAT_MAP_SQL, 1);
+                int available = rs.getInt(4);
+                if (rs.wasNull()) {
+                    available = NO_SEAT_COUNT;
+                }
+                return new StoredSeatMap(rs.getInt(1), rs.getInt(2), rs.getBytes(3), available);
+            }
+        }
+    }
+
+    static void updateSeatMap(Connection connection, int showtimeId, int rows, int seatsPerRow, byte[] seatMap)
+            throws SQLException {
+        try (PreparedStatement stmt = connection.prepareStatement(UPDATE_SEAT_MAP_SQL)) {
+            stmt.setInt(1, rows);
+            stmt.setInt(2, seatsPerRow);
+            stmt.setBytes(3, seatMap);
+            stmt.setInt(4, showtimeId);
+            stmt.executeUpdate();
+        }
+    }
+
+    public static void releaseSeats(Connection connection, int showtimeId, int seats) throws SQLException {
+        try (PreparedStatement stmt = connection.prepareStatement(RELEASE_SEATS_SQL)) {
+            stmt.setInt(1, seats);
+            stmt.setInt(2, showtimeId);
+            stmt.executeUpdate();
+        }
+    }
+
+    public static List<Screen> findScreens(Connection connection) throws SQLException {
+        try (PreparedStatement stmt = connection.prepareStatement(FIND_SCREENS_SQL);
+             ResultSet rs = stmt.executeQuery()) {
+            List<Screen> screens = new ArrayList<>();
+            while (rs.next()) {
+                screens.add(new Screen(rs.getInt(1), rs.getString(2), rs.getInt(3), rs.getInt(4)));
+            }
+            Metrics.rowsRead(FIND_SCREENS_SQL, screens.size());
+            return screens;
+        }
+    }
+
+    /**
+     * Passes the showtimes of one screen starting at or after {@code from} to the visitor in show
+     * time order; a movie without a running time comes through as 0 minutes.
+     */
+    static void scanSchedule(Connection connection, int screenId, LocalDateTime from, ScheduleVisitor visitor)
+            throws SQLException {
+        try (PreparedStatement stmt = connection.prepareStatement(FIND_BY_SCREEN_SQL)) {
+            stmt.setInt(1, screenId);
+            stmt.setTimestamp(2, Timestamp.valueOf(from));
+            try (ResultSet rs = stmt.executeQuery()) {
+                int n = 0;
+                while (rs.next()) {
+                    n++;
+                    Timestamp time = rs.getTimestamp(3);
+                    if (time != null) {
+                        visitor.visit(rs.getInt(1), rs.getInt(2), time.toLocalDateTime(), rs.getInt(4));
+                    }
+                }
+                Metrics.rowsRead(FIND_BY_SCREEN_SQL, n);
+            }
+        }
+    }
+
+    /**
+     * Inserts showtimes on their screens with every seat free, {@value #INSERT_BATCH_SIZE} rows
+     * per batch, and returns their showtime_ids in the same order (0 where the driver did not
+     * report one). Runs on the caller's transaction.
+     */
+    static int[] insertScheduled(Connection connection, List<ShowtimeScheduler.Planned> showtimes) throws SQLException {
+        int[] ids = new int[showtimes.size()];
+        try (PreparedStatement stmt = connection.prepareStatement(INSERT_SCHEDULED_SQL, Statement.RETURN_GENERATED_KEYS)) {
+            for (int from = 0; from < showtimes.size(); from += INSERT_BATCH_SIZE) {
+                int to = Math.min(showtimes.size(), from + INSERT_BATCH_SIZE);
+                for (int i = from; i < to; i++) {
+                    ShowtimeScheduler.Planned p = showtimes.get(i);
+                    stmt.setInt(1, p.movieId());
+                    stmt.setTimestamp(2, Timestamp.valueOf(p.showTime()));
+                    stmt.setInt(3, p.screen().capacity());
+                    stmt.setInt(4, p.screen().seatRows());
+                    stmt.setInt(5, p.screen().seatsPerRow());
+                    stmt.setInt(6, p.screen().screenId());
+                    stmt.addBatch();
+                }
+                stmt.executeBatch();
+                try (ResultSet keys = stmt.getGeneratedKeys()) {
+                    for (int i = from; i < to && keys.next(); i++) {
+                        ids[i] = keys.getInt(1);
+                    }
+                }
+            }
+        }
+        return ids;
+    }
+}
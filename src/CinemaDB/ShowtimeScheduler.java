@@ -0,0 +1,343 @@
+package CinemaDB;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Puts showtimes on screens without overlaps and fills a week of schedule for a multiplex.
+ *
+ * Each screen's schedule is an {@link IntervalTree} of the minutes it is occupied: from the show
+ * time to the end of the movie ({@code Movies.duration_minutes}, or
+ * {@value #DEFAULT_DURATION_MINUTES} minutes if it has none) plus a cleaning buffer
+ * ({@code -Dcinemadb.schedule.cleaningMinutes}, default 15). Conflict and free-slot queries are
+ * answered from the tree in O(log n) per showtime in the way. The tree of a screen is loaded
+ * from its showtimes of the last day onwards on first use; {@link #invalidate()} drops them all
+ * so the next use reloads, e.g. after showtimes were changed by hand or by another process.
+ * Showtimes without a screen_id are not on any schedule.
+ *
+ * {@link #generateWeek} plans seven days for any number of screens in parallel, one fork/join
+ * task per screen, then writes every planned showtime in one transaction with batched inserts.
+ * All changes to the schedules go through one lock, so two plans in this process never book the
+ * same minutes twice.
+ *
+ * Usage: ShowtimeScheduler <first day yyyy-mm-dd> <movie id,...> [screen id,...]
+ * schedules a week on the given screens (default all of them).
+ */
+public class ShowtimeScheduler {
+    private static final ShowtimeScheduler INSTANCE = new ShowtimeScheduler(
+            Integer.getInteger("cinemadb.schedule.cleaningMinutes", 15),
+            LocalTime.parse(System.getProperty("cinemadb.schedule.opening", "10:00")),
+            LocalTime.parse(System.getProperty("cinemadb.schedule.lastStart", "23:00")));
+
+    static final int DEFAULT_DURATION_MINUTES = 120;
+    // Show times are rounded up to this many minutes
+    private static final int SLOT_MINUTES = 5;
+    private static final int DAYS_PER_WEEK = 7;
+
+    /** An existing showtime that a new one would clash with; {@code end} includes cleaning. */
+    public record Conflict(int showtimeId, LocalDateTime start, LocalDateTime end) {
+    }
+
+    /** A showtime planned by {@link #generateWeek} but not yet written. */
+    public record Planned(Screen screen, int movieId, LocalDateTime showTime) {
+    }
+
+    private final int cleaningMinutes;
+    private final LocalTime opening;
+    private final LocalTime lastStart;
+    private final ReentrantLock lock = new ReentrantLock();
+    // Guarded by lock; one tree per screen_id, loaded on first use
+    private final IntObjectMap<IntervalTree> schedules = new IntObjectMap<>();
+
+    ShowtimeScheduler(int cleaningMinutes, LocalTime opening, LocalTime lastStart) {
+        this.cleaningMinutes = cleaningMinutes;
+        this.opening = opening;
+        this.lastStart = lastStart;
+    }
+
+    public static ShowtimeScheduler getInstance() {
+        return INSTANCE;
+    }
+
+    /** Existing showtimes on {@code screenId} that a showing of {@code movieId} at {@code showTime} would overlap. */
+    public List<Conflict> conflicts(int screenId, int movieId, LocalDateTime showTime) throws SQLException {
+        long start = minutes(showTime);
+        long end = start + occupiedMinutesOf(movieId);
+        List<Conflict> conflicts = new ArrayList<>();
+        lock.lock();
+        try {
+            for (IntervalTree.Interval i : scheduleOf(screenId).overlapping(start, end)) {
+                conflicts.add(new Conflict(i.id(), time(i.start()), time(i.end())));
+            }
+        } finally {
+            lock.unlock();
+        }
+        return conflicts;
+    }
+
+    /**
+     * The earliest show time at or after {@code from}, on a {@value #SLOT_MINUTES}-minute mark,
+     * at which {@code movieId} fits on {@code screenId} and that is no later than
+     * {@code latestStart}; null if there is none.
+     */
+    public LocalDateTime nextFreeSlot(int screenId, int movieId, LocalDateTime from, LocalDateTime latestStart)
+            throws SQLException {
+        long length = occupiedMinutesOf(movieId);
+        lock.lock();
+        try {
+            long slot = firstFree(scheduleOf(screenId), null, roundUp(minutes(from)), length, minutes(latestStart));
+            return slot < 0 ? null : time(slot);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Adds a showtime for {@code movieId} on {@code screenId} with every seat free and returns its
+     * showtime_id.
+     *
+     * @throws IllegalArgumentException if it would overlap a showtime already on that screen
+     */
+    public int schedule(Screen screen, int movieId, LocalDateTime showTime) throws SQLException {
+        long start = minutes(showTime);
+        long end = start + occupiedMinutesOf(movieId);
+        int showtimeId;
+        lock.lock();
+        try {
+            IntervalTree tree = scheduleOf(screen.screenId());
+            IntervalTree.Interval clash = tree.firstOverlap(start, end);
+            if (clash != null) {
+                throw new IllegalArgumentException("Screen " + screen.name() + " is taken from "
+                        + Showtime.DISPLAY_FORMAT.format(time(clash.start())) + " to "
+                        + Showtime.DISPLAY_FORMAT.format(time(clash.end())) + " by showtime " + clash.id() + ".");
+            }
+            try (Connection connection = DatabaseConnection.borrowConnection()) {
+                showtimeId = ShowtimeRepository.insertScheduled(connection,
+                        List.of(new Planned(screen, movieId, showTime)))[0];
+            }
+            tree.add(start, end, showtimeId);
+        } finally {
+            lock.unlock();
+        }
+        ShardRebalancer.place(new int[] { showtimeId });
+        CatalogCache.getInstance().invalidate();
+        SeatInventory.getInstance().refresh(showtimeId);
+        return showtimeId;
+    }
+
+    /**
+     * Fills the seven days from {@code firstDay} on each of {@code screens} with showings of
+     * {@code movieIds}, taken in turn, and writes them. Every screen starts at a different point
+     * in the list so the same movie does not open on all of them at once. Each showing starts at
+     * the first free slot from the opening time ({@code -Dcinemadb.schedule.opening}, default
+     * 10:00) on, and no showing starts after {@code -Dcinemadb.schedule.lastStart} (default
+     * 23:00). Showtimes already on a screen are kept and planned around.
+     *
+     * @return the planned showtimes in screen and time order, as written
+     */
+    public List<Planned> generateWeek(LocalDate firstDay, List<Screen> screens, List<Integer> movieIds)
+            throws SQLException {
+        if (movieIds.isEmpty()) {
+            throw new IllegalArgumentException("No movies to schedule.");
+        }
+        long[] lengths = new long[movieIds.size()];
+        for (int i = 0; i < lengths.length; i++) {
+            lengths[i] = occupiedMinutesOf(movieIds.get(i));
+        }
+        lock.lock();
+        try {
+            List<IntervalTree> trees = new ArrayList<>(screens.size());
+            for (Screen screen : screens) {
+                trees.add(scheduleOf(screen.screenId()));
+            }
+            // Planning only reads the trees, and they only change under the lock this thread holds
+            List<RecursiveTask<List<Planned>>> tasks = new ArrayList<>(screens.size());
+            for (int s = 0; s < screens.size(); s++) {
+                Screen screen = screens.get(s);
+                IntervalTree tree = trees.get(s);
+                int firstMovie = s % movieIds.size();
+                tasks.add(new RecursiveTask<>() {
+                    @Override
+                    protected List<Planned> compute() {
+                        return planWeek(screen, tree, firstDay, movieIds, lengths, firstMovie);
+                    }
+                });
+            }
+            ForkJoinTask.invokeAll(tasks);
+            List<Planned> planned = new ArrayList<>();
+            for (RecursiveTask<List<Planned>> task : tasks) {
+                planned.addAll(task.join());
+            }
+            if (planned.isEmpty()) {
+                return planned;
+            }
+
+            int[] ids;
+            try (Connection connection = DatabaseConnection.borrowConnection()) {
+                connection.setAutoCommit(false);
+                try {
+                    ids = ShowtimeRepository.insertScheduled(connection, planned);
+                    connection.commit();
+                } catch (SQLException e) {
+                    connection.rollback();
+                    throw e;
+                }
+            }
+            for (int i = 0; i < planned.size(); i++) {
+                Planned p = planned.get(i);
+                long start = minutes(p.showTime());
+                schedules.get(p.screen().screenId()).add(start, start + lengths[movieIds.indexOf(p.movieId())], ids[i]);
+            }
+            ShardRebalancer.place(ids);
+            CatalogCache.getInstance().invalidate();
+            SeatInventory.getInstance().reconcile();
+            return planned;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Drops every loaded schedule; each is read from the database again on next use. */
+    public void invalidate() {
+        lock.lock();
+        try {
+            schedules.clear();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private List<Planned> planWeek(Screen screen, IntervalTree existing, LocalDate firstDay, List<Integer> movieIds,
+                                   long[] lengths, int firstMovie) {
+        // What this plan adds, kept apart so the shared tree is not changed before the write
+        IntervalTree added = new IntervalTree();
+        List<Planned> planned = new ArrayList<>();
+        int next = firstMovie;
+        for (int d = 0; d < DAYS_PER_WEEK; d++) {
+            LocalDate day = firstDay.plusDays(d);
+            long from = minutes(day.atTime(opening));
+            long latest = minutes(day.atTime(lastStart));
+            // Stop for the day once the next movie in turn no longer fits
+            while (true) {
+                long slot = firstFree(existing, added, from, lengths[next], latest);
+                if (slot < 0) {
+                    break;
+                }
+                added.add(slot, slot + lengths[next], planned.size());
+                planned.add(new Planned(screen, movieIds.get(next), time(slot)));
+                from = roundUp(slot + lengths[next]);
+                next = (next + 1) % movieIds.size();
+            }
+        }
+        return planned;
+    }
+
+    // First slot on a SLOT_MINUTES mark at which [t, t + length) is free in both trees (added
+    // may be null); each probe skips past the showtime it hit
+    private static long firstFree(IntervalTree existing, IntervalTree added, long from, long length, long latestStart) {
+        long t = roundUp(from);
+        while (t <= latestStart) {
+            IntervalTree.Interval hit = existing.firstOverlap(t, t + length);
+            if (hit == null && added != null) {
+                hit = added.firstOverlap(t, t + length);
+            }
+            if (hit == null) {
+                return t;
+            }
+            t = roundUp(hit.end());
+        }
+        return -1;
+    }
+
+    // Guarded by lock
+    private IntervalTree scheduleOf(int screenId) throws SQLException {
+        IntervalTree tree = schedules.get(screenId);
+        if (tree == null) {
+            IntervalTree loaded = new IntervalTree();
+            // A late show from yesterday can still be running today
+            LocalDateTime from = LocalDate.now().minusDays(1).atStartOfDay();
+            try (Connection connection = DatabaseConnection.borrowConnection()) {
+                ShowtimeRepository.scanSchedule(connection, screenId, from, (showtimeId, movieId, showTime, duration) -> {
+                    long start = minutes(showTime);
+                    loaded.add(start, start + occupiedMinutes(duration), showtimeId);
+                });
+            }
+            schedules.put(screenId, loaded);
+            tree = loaded;
+        }
+        return tree;
+    }
+
+    private long occupiedMinutes(int durationMinutes) {
+        return (durationMinutes > 0 ? durationMinutes : DEFAULT_DURATION_MINUTES) + cleaningMinutes;
+    }
+
+    private long occupiedMinutesOf(int movieId) throws SQLException {
+        Movie movie = CatalogCache.getInstance().snapshot().movie(movieId);
+        if (movie == null) {
+            throw new IllegalArgumentException("Movie " + movieId + " does not exist.");
+        }
+        return occupiedMinutes(movie.durationMinutes());
+    }
+
+    private static long roundUp(long minutes) {
+        return Math.ceilDiv(minutes, SLOT_MINUTES) * SLOT_MINUTES;
+    }
+
+    // Show times are wall-clock times, so minutes are counted as if they were UTC
+    private static long minutes(LocalDateTime time) {
+        return time.toEpochSecond(ZoneOffset.UTC) / 60;
+    }
+
+    private static LocalDateTime time(long minutes) {
+        return LocalDateTime.ofEpochSecond(minutes * 60, 0, ZoneOffset.UTC);
+    }
+
+    public static void main(String[] args) throws SQLException {
+        if (args.length < 2) {
+            System.out.println("Usage: ShowtimeScheduler <first day yyyy-mm-dd> <movie id,...> [screen id,...]");
+            return;
+        }
+        LocalDate firstDay = LocalDate.parse(args[0]);
+        List<Integer> movieIds = ids(args[1]);
+        if (!DatabaseConnection.isAvailable()) {
+            System.out.println("Failed to connect to the database.");
+            return;
+        }
+        SchemaMigrator.migrateOnStartup();
+        List<Screen> screens;
+        try (Connection connection = DatabaseConnection.borrowConnection()) {
+            screens = ShowtimeRepository.findScreens(connection);
+        }
+        if (args.length > 2) {
+            List<Integer> wanted = ids(args[2]);
+            screens.removeIf(s -> !wanted.contains(s.screenId()));
+        }
+        if (screens.isEmpty()) {
+            System.out.println("No screens to schedule; add them to the Screens table first.");
+            return;
+        }
+        long t0 = System.nanoTime();
+        List<Planned> planned = getInstance().generateWeek(firstDay, screens, movieIds);
+        long elapsedMillis = (System.nanoTime() - t0) / 1_000_000;
+        System.out.println(String.format("Scheduled %d showtimes on %d screens from %s in %d ms.",
+                planned.size(), screens.size(), firstDay, elapsedMillis));
+    }
+
+    private static List<Integer> ids(String list) {
+        List<Integer> ids = new ArrayList<>();
+        for (String id : list.split(",")) {
+            ids.add(Integer.parseInt(id.trim()));
+        }
+        return ids;
+    }
+}
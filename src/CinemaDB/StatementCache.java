@@ -0,0 +1,224 @@
+package CinemaDB;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Prepared statement cache for one physical connection.
+ *
+ * {@link ConnectionPool} routes {@code prepareStatement(sql)} and
+ * {@code prepareStatement(sql, autoGeneratedKeys)} through here. The statement handed out is a
+ * proxy whose {@code close()} clears its parameters and keeps the real statement for the next
+ * caller with the same SQL, so repository code can use try-with-resources as usual and the
+ * driver only parses each statement once per connection. If the same SQL is prepared again
+ * while the cached statement is still open, the second caller gets an uncached one, wrapped the
+ * same way for metrics and read-your-writes but closed for real when it is closed.
+ */
+class StatementCache {
+    private final Connection physical;
+    private final Connection owner;
+    private final int capacity;
+    private final Map<String, Entry> entries;
+    // Uncached statements handed out and not closed yet, closed when the connection goes back
+    private final List<Entry> uncached = new ArrayList<>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    private static final class Entry {
+        final PreparedStatement statement;
+        final Metrics.Query metrics;
+        final boolean cached;
+        boolean inUse;
+        boolean evicted;
+        // Bumped on every checkout, so a proxy from an earlier checkout can no longer touch the statement
+        int generation;
+
+        Entry(PreparedStatement statement, String sql, boolean cached) {
+            this.statement = statement;
+            this.metrics = Metrics.query(sql);
+            this.cached = cached;
+        }
+    }
+
+    /**
+     * @param physical the real connection statements are prepared on
+     * @param owner    what {@code getConnection()} on a cached statement returns
+     */
+    StatementCache(Connection physical, Connection owner, int capacity) {
+        this.physical = physical;
+        this.owner = owner;
+        this.capacity = capacity;
+        this.entries = new LinkedHashMap<>(capacity * 2, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                if (size() <= StatementCache.this.capacity) {
+                    return false;
+                }
+                Entry e = eldest.getValue();
+                e.evicted = true;
+                if (!e.inUse) {
+                    closeQuietly(e.statement);
+                }
+                return true;
+            }
+        };
+    }
+
+    synchronized PreparedStatement prepare(String sql, int autoGeneratedKeys) throws SQLException {
+        String key = autoGeneratedKeys == Statement.RETURN_GENERATED_KEYS ? "K:" + sql : sql;
+        Entry e = entries.get(key);
+        if (e != null && e.inUse) {
+            // Nested use of the same SQL; do not share the statement
+            misses.incrementAndGet();
+            Metrics.STATEMENT_CACHE_MISSES.increment();
+            Entry own = new Entry(physical.prepareStatement(sql, autoGeneratedKeys), sql, false);
+            own.inUse = true;
+            uncached.add(own);
+            return wrap(own, ++own.generation);
+        }
+        if (e == null) {
+            misses.incrementAndGet();
+            Metrics.STATEMENT_CACHE_MISSES.increment();
+            e = new Entry(physical.prepareStatement(sql, autoGeneratedKeys), sql, true);
+            entries.put(key, e);
+        } else {
+            hits.incrementAndGet();
+            Metrics.STATEMENT_CACHE_HITS.increment();
+        }
+        e.inUse = true;
+        return wrap(e, ++e.generation);
+    }
+
+    private PreparedStatement wrap(Entry e, int generation) {
+        return (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(),
+                new Class<?>[] { PreparedStatement.class }, new InvocationHandler() {
+                    private boolean closed;
+
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        switch (method.getName()) {
+                            case "close":
+                                if (!closed) {
+                                    closed = true;
+                                    giveBack(e, generation);
+                                }
+                                return null;
+                            case "isClosed":
+                                return closed || !isCurrent(e, generation);
+                            case "equals":
+                                return proxy == args[0];
+                            case "hashCode":
+                                return System.identityHashCode(proxy);
+                            default:
+                                break;
+                        }
+                        if (closed || !isCurrent(e, generation)) {
+                            throw new SQLException("Statement is closed");
+                        }
+                        if (method.getName().equals("getConnection")) {
+                            return owner;
+                        }
+                        if (!method.getName().startsWith("execute")) {
+                            try {
+                                return method.invoke(e.statement, args);
+                            } catch (InvocationTargetException ex) {
+                                throw ex.getCause();
+                            }
+                        }
+                        long start = System.nanoTime();
+                        Object result;
+                        try {
+                            result = method.invoke(e.statement, args);
+                            if (!(result instanceof ResultSet) && result != Boolean.TRUE) {
+                                // executeUpdate, executeBatch, or an execute that returned no result set:
+                                // this session's next reads wait for the replicas to catch up
+                                ReplicaRouter.noteWrite();
+                            }
+                        } catch (InvocationTargetException ex) {
+                            e.metrics.errors.increment();
+                            throw ex.getCause();
+                        } finally {
+                            e.metrics.executed(start);
+                        }
+                        return result;
+                    }
+                });
+    }
+
+    private synchronized boolean isCurrent(Entry e, int generation) {
+        return e.inUse && e.generation == generation;
+    }
+
+    private synchronized void giveBack(Entry e, int generation) {
+        if (!isCurrent(e, generation)) {
+            return;
+        }
+        e.inUse = false;
+        if (!e.cached) {
+            uncached.remove(e);
+            closeQuietly(e.statement);
+            return;
+        }
+        if (e.evicted) {
+            closeQuietly(e.statement);
+            return;
+        }
+        try {
+            ResultSet rs = e.statement.getResultSet();
+            if (rs != null) {
+                rs.close();
+            }
+            e.statement.clearParameters();
+            e.statement.clearBatch();
+        } catch (SQLException ex) {
+            // Cannot reset it; drop it from the cache
+            entries.values().remove(e);
+            closeQuietly(e.statement);
+        }
+    }
+
+    /** Called when the connection goes back to the pool: statements left open are reset. */
+    synchronized void releaseAll() {
+        List<Entry> open = new ArrayList<>();
+        for (Entry e : entries.values()) {
+            if (e.inUse) {
+                open.add(e);
+            }
+        }
+        open.addAll(uncached);
+        for (Entry e : open) {
+            giveBack(e, e.generation);
+        }
+    }
+
+    synchronized void closeAll() {
+        for (Entry e : entries.values()) {
+            closeQuietly(e.statement);
+        }
+        entries.clear();
+        for (Entry e : uncached) {
+            closeQuietly(e.statement);
+        }
+        uncached.clear();
+    }
+
+    long getHits() { return hits.get(); }
+    long getMisses() { return misses.get(); }
+
+    private static void closeQuietly(Statement s) {
+        try {
+            s.close();
+        } catch (SQLException e) {
+            // Nothing useful to do with a failure while closing
+        }
+    }
+}
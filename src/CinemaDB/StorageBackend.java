@@ -0,0 +1,75 @@
+package CinemaDB;
+
+import java.util.Locale;
+
+/**
+ * Where the application keeps its data, chosen with -Dcinemadb.backend (default mysql):
+ *
+ * <ul>
+ * <li>{@code mysql}: the CinemaDB database on a local MySQL server.</li>
+ * <li>{@code embedded}: an H2 database in a file next to the application
+ * (-Dcinemadb.embedded.path, default ./cinemadb), running inside the JVM. This suits a
+ * single-screen venue, or any machine without MySQL. Other processes on the same machine, such
+ * as {@link BookingHttpServer} next to the desktop app, connect to the same file through H2's
+ * automatic server mode.</li>
+ * <li>{@code memory}: an H2 database that lives only as long as the JVM, for load tests,
+ * benchmarks and trying things out.</li>
+ * </ul>
+ *
+ * The H2 modes run in H2's MySQL compatibility mode and need the H2 jar on the class path. Their
+ * schema is the one {@link SchemaMigrator} creates on startup, the same as on MySQL, so the
+ * repositories and services run on them unchanged. An embedded database starts out empty;
+ * -Dcinemadb.seedMovies=N fills an empty one with N sample movies and their showtimes.
+ *
+ * -Dcinemadb.url, user, password and driver still take precedence over the backend's defaults.
+ */
+public enum StorageBackend {
+    MYSQL("jdbc:mysql://localhost:3306/CinemaDB?rewriteBatchedStatements=true", "com.mysql.cj.jdbc.Driver", "root", ""),
+    EMBEDDED("jdbc:h2:" + System.getProperty("cinemadb.embedded.path", "./cinemadb") + ";MODE=MySQL;AUTO_SERVER=TRUE",
+            "org.h2.Driver", "sa", ""),
+    MEMORY("jdbc:h2:mem:cinemadb;MODE=MySQL;DB_CLOSE_DELAY=-1", "org.h2.Driver", "sa", "");
+
+    private final String url;
+    private final String driver;
+    private final String user;
+    private final String password;
+
+    StorageBackend(String url, String driver, String user, String password) {
+        this.url = url;
+        this.driver = driver;
+        this.user = user;
+        this.password = password;
+    }
+
+    /** The backend named by -Dcinemadb.backend; an unknown name is reported and MySQL used. */
+    public static StorageBackend configured() {
+        String name = System.getProperty("cinemadb.backend", "mysql");
+        try {
+            return valueOf(name.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            System.out.println("Unknown storage backend '" + name + "' (expected mysql, embedded or memory); using mysql.");
+            return MYSQL;
+        }
+    }
+
+    /** True if the database runs inside this JVM. */
+    public boolean isInProcess() {
+        return this != MYSQL;
+    }
+
+    public String url() {
+        return url;
+    }
+
+    public String driver() {
+        return driver;
+    }
+
+    public String user() {
+        return user;
+    }
+
+    public String password() {
+        return password;
+    }
+}
@@ -5,27 +5,21 @@ import java.sql.*;
 
 public class TestConnection {
     public static void main(String[] args) {
-        String url = "jdbc:mysql://localhost:3306/CinemaDB";  // Update if needed
-        String user = "root";  // Default MySQL root user
-        String password = "";  // Default password for root (empty string if none set)
-
-        try {
-            // Load the MySQL JDBC driver (not always necessary with newer versions)
-            Class.forName("com.mysql.cj.jdbc.Driver");
+        // Same settings as the application: -Dcinemadb.backend, or -Dcinemadb.url/user/password/driver
+        StorageBackend backend = DatabaseConnection.getBackend();
+        System.out.println("Storage backend: " + backend.name().toLowerCase());
 
             // Try to establish the connection
-            Connection conn = DriverManager.getConnection(url, user, password);
+        try (Connection conn = DatabaseConnection.borrowConnection()) {
             if (conn != null) {
-                System.out.println("Connection established!");
+                System.out.println("Connection established! (" + conn.getMetaData().getDatabaseProductName() + " "
+                        + conn.getMetaData().getDatabaseProductVersion() + ")");
             } else {
                 System.out.println("Failed to connect!");
             }
         } catch (SQLException e) {
             System.out.println("SQL Error: " + e.getMessage());
             e.printStackTrace();
-        } catch (ClassNotFoundException e) {
-            System.out.println("JDBC Driver not found. Please add it to your classpath.");
-            e.printStackTrace();
         }
     }
-}
\ No newline at end of file
+}
@@ -6,5 +6,6 @@
  */
 module CinemaDB {
 	requires java.sql;
-	requires java.desktop;
+	requires java.desktop;
+	requires jdk.httpserver;
 }
\ No newline at end of file